@@ -0,0 +1,88 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks.aggregation;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.common.model.LazyHistogram;
+import org.glowroot.common.model.LazyHistogram.ScratchBuffer;
+import org.glowroot.microbenchmarks.aggregation.support.SampleData;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class LazyHistogramBenchmark {
+
+    // number of transactions in the aggregate interval, LazyHistogram switches from raw values to
+    // an HdrHistogram above 1024 values
+    @Param({"10", "1000", "10000"})
+    private int transactionCount;
+
+    // number of intervals that are merged together, e.g. when rolling up or when the UI reads
+    // multiple intervals
+    @Param({"10"})
+    private int intervalCount;
+
+    private long[] durationNanos;
+    private List<Aggregate.Histogram> intervalHistograms;
+    private ScratchBuffer scratchBuffer;
+
+    @Setup
+    public void setup() {
+        durationNanos = SampleData.createDurationNanos(transactionCount);
+        scratchBuffer = new ScratchBuffer();
+        intervalHistograms = Lists.newArrayList();
+        for (int i = 0; i < intervalCount; i++) {
+            LazyHistogram histogram = new LazyHistogram();
+            for (long value : durationNanos) {
+                histogram.add(value + i);
+            }
+            intervalHistograms.add(histogram.toProto(scratchBuffer));
+        }
+    }
+
+    // models the per interval work done by AggregateCollector, one add() per transaction followed
+    // by toProto() at the end of the interval
+    @Benchmark
+    public Aggregate.Histogram addAndToProto() {
+        LazyHistogram histogram = new LazyHistogram();
+        for (long value : durationNanos) {
+            histogram.add(value);
+        }
+        return histogram.toProto(scratchBuffer);
+    }
+
+    @Benchmark
+    public long mergeAndGetPercentile() {
+        LazyHistogram histogram = new LazyHistogram();
+        for (Aggregate.Histogram intervalHistogram : intervalHistograms) {
+            histogram.merge(intervalHistogram);
+        }
+        return histogram.getValueAtPercentile(99);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks.aggregation;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.common.model.MutableProfile;
+import org.glowroot.microbenchmarks.aggregation.support.SampleData;
+import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class MutableProfileBenchmark {
+
+    @Param({"10", "1000"})
+    private int stackTraceCount;
+
+    @Param({"20", "80"})
+    private int stackTraceDepth;
+
+    private List<List<StackTraceElement>> stackTraces;
+    private MutableProfile transactionProfile;
+    private MutableProfile intervalProfile;
+
+    @Setup
+    public void setup() {
+        stackTraces = SampleData.createStackTraces(stackTraceCount, stackTraceDepth);
+        transactionProfile = createProfile();
+        intervalProfile = createProfile();
+    }
+
+    // models ThreadProfile.mergeInto() for a transaction's unmerged stack trace samples
+    @Benchmark
+    public MutableProfile mergeStackTraces() {
+        return createProfile();
+    }
+
+    // models the per transaction work done by AggregateCollector.mergeDataFrom() once the
+    // transaction's profile has already been built
+    @Benchmark
+    public MutableProfile mergeProfile() {
+        intervalProfile.merge(transactionProfile);
+        return intervalProfile;
+    }
+
+    // models the per interval work done by AggregateCollector.build()
+    @Benchmark
+    public Profile toProto() {
+        return transactionProfile.toProto();
+    }
+
+    private MutableProfile createProfile() {
+        MutableProfile profile = new MutableProfile();
+        for (List<StackTraceElement> stackTrace : stackTraces) {
+            profile.merge(stackTrace, Thread.State.RUNNABLE);
+        }
+        return profile;
+    }
+}
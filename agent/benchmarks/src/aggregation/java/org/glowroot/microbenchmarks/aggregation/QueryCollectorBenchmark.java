@@ -0,0 +1,95 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks.aggregation;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.agent.model.QueryCollector;
+import org.glowroot.common.ConfigDefaults;
+import org.glowroot.common.config.AdvancedConfig;
+import org.glowroot.microbenchmarks.aggregation.support.SampleData;
+import org.glowroot.microbenchmarks.aggregation.support.SharedQueryTextCollectionImpl;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class QueryCollectorBenchmark {
+
+    @Param({"1", "100", "1000"})
+    private int distinctQueryCount;
+
+    @Param({"10"})
+    private int queriesPerTransaction;
+
+    private String[] queryTexts;
+    private QueryCollector intervalQueries;
+    private int nextQueryTextIndex;
+
+    @Setup
+    public void setup() {
+        queryTexts = SampleData.createQueryTexts(distinctQueryCount);
+        intervalQueries = new QueryCollector(ConfigDefaults.ADVANCED_MAX_QUERY_AGGREGATES,
+                AdvancedConfig.TRANSACTION_AGGREGATE_QUERIES_HARD_LIMIT_MULTIPLIER);
+        // steady state, all distinct queries have already been seen in the current interval
+        for (String queryText : queryTexts) {
+            intervalQueries.mergeQuery("SQL", queryText, 1000000, 1, true, 1, false);
+        }
+    }
+
+    // models the per transaction work done by AggregateCollector.mergeDataFrom()
+    @Benchmark
+    public QueryCollector mergeQueries() {
+        for (int i = 0; i < queriesPerTransaction; i++) {
+            intervalQueries.mergeQuery("SQL", nextQueryText(), 1000000, 1, true, 1, false);
+        }
+        return intervalQueries;
+    }
+
+    // models the per interval work done by AggregateCollector.build()
+    @Benchmark
+    public List<Aggregate.Query> toAggregateProto() {
+        return intervalQueries.toAggregateProto(new SharedQueryTextCollectionImpl(), false);
+    }
+
+    // models the work done when the (embedded) UI reads queries from the current interval
+    @Benchmark
+    public org.glowroot.common.model.QueryCollector mergeQueriesIntoCommonCollector() {
+        org.glowroot.common.model.QueryCollector collector =
+                new org.glowroot.common.model.QueryCollector(
+                        ConfigDefaults.ADVANCED_MAX_QUERY_AGGREGATES);
+        intervalQueries.mergeQueriesInto(collector);
+        return collector;
+    }
+
+    private String nextQueryText() {
+        String queryText = queryTexts[nextQueryTextIndex++];
+        if (nextQueryTextIndex == queryTexts.length) {
+            nextQueryTextIndex = 0;
+        }
+        return queryText;
+    }
+}
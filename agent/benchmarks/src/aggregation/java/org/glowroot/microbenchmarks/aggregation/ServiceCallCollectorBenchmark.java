@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks.aggregation;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.agent.model.ServiceCallCollector;
+import org.glowroot.common.ConfigDefaults;
+import org.glowroot.common.config.AdvancedConfig;
+import org.glowroot.microbenchmarks.aggregation.support.SampleData;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class ServiceCallCollectorBenchmark {
+
+    @Param({"1", "100", "1000"})
+    private int distinctServiceCallCount;
+
+    @Param({"5"})
+    private int serviceCallsPerTransaction;
+
+    private String[] serviceCallTexts;
+    private ServiceCallCollector intervalServiceCalls;
+    private int nextServiceCallTextIndex;
+
+    @Setup
+    public void setup() {
+        serviceCallTexts = SampleData.createServiceCallTexts(distinctServiceCallCount);
+        intervalServiceCalls =
+                new ServiceCallCollector(ConfigDefaults.ADVANCED_MAX_SERVICE_CALL_AGGREGATES,
+                        AdvancedConfig.TRANSACTION_AGGREGATE_SERVICE_CALLS_HARD_LIMIT_MULTIPLIER);
+        // steady state, all distinct service calls have already been seen in the current interval
+        for (String serviceCallText : serviceCallTexts) {
+            intervalServiceCalls.mergeServiceCall("HTTP", serviceCallText, 1000000, 1);
+        }
+    }
+
+    // models the per transaction work done by AggregateCollector.mergeDataFrom()
+    @Benchmark
+    public ServiceCallCollector mergeServiceCalls() {
+        for (int i = 0; i < serviceCallsPerTransaction; i++) {
+            intervalServiceCalls.mergeServiceCall("HTTP", nextServiceCallText(), 1000000, 1);
+        }
+        return intervalServiceCalls;
+    }
+
+    // models the per interval work done by AggregateCollector.build()
+    @Benchmark
+    public List<Aggregate.ServiceCall> toAggregateProto() {
+        return intervalServiceCalls.toAggregateProto();
+    }
+
+    private String nextServiceCallText() {
+        String serviceCallText = serviceCallTexts[nextServiceCallTextIndex++];
+        if (nextServiceCallTextIndex == serviceCallTexts.length) {
+            nextServiceCallTextIndex = 0;
+        }
+        return serviceCallText;
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks.aggregation;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.collect.Lists;
+import com.google.protobuf.MessageLite;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import org.glowroot.common.model.MutableProfile;
+import org.glowroot.microbenchmarks.aggregation.support.SampleData;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage.AggregateStreamHeader;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage.OverallAggregate;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage.TransactionAggregate;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.TraceStreamMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.TraceStreamMessage.TraceStreamHeader;
+import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+// compares cpu (benchmark time) against bytes (printed at setup) for the compression options of
+// org.glowroot.agent.central.GrpcCompression
+//
+// grpc compresses each message of a stream individually, so that is what is measured here
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class WireCompressionBenchmark {
+
+    @Param({"aggregates", "trace"})
+    private String payload;
+
+    @Param({"none", "gzip", "gzip-fast"})
+    private String compression;
+
+    @Param({"0", "1024"})
+    private int minSizeBytes;
+
+    private List<MessageLite> messages;
+
+    private ByteArrayOutputStream out;
+
+    @Setup
+    public void setup() throws IOException {
+        if (payload.equals("aggregates")) {
+            messages = createAggregateStream();
+        } else {
+            messages = createTraceStream();
+        }
+        out = new ByteArrayOutputStream();
+        long uncompressedBytes = 0;
+        for (MessageLite message : messages) {
+            uncompressedBytes += message.getSerializedSize();
+        }
+        System.out.println();
+        System.out.println("payload=" + payload + ", compression=" + compression
+                + ", minSizeBytes=" + minSizeBytes + ", messages=" + messages.size()
+                + ", uncompressed bytes=" + uncompressedBytes + ", bytes on the wire="
+                + compress());
+    }
+
+    @Benchmark
+    public long compress() throws IOException {
+        long totalBytes = 0;
+        for (MessageLite message : messages) {
+            out.reset();
+            if (compression.equals("none") || message.getSerializedSize() < minSizeBytes) {
+                message.writeTo(out);
+            } else {
+                OutputStream compressed = createCompressedOutputStream(out);
+                message.writeTo(compressed);
+                compressed.close();
+            }
+            totalBytes += out.size();
+        }
+        return totalBytes;
+    }
+
+    private OutputStream createCompressedOutputStream(OutputStream os) throws IOException {
+        if (compression.equals("gzip-fast")) {
+            return new GZIPOutputStream(os) {
+                {
+                    def.setLevel(Deflater.BEST_SPEED);
+                }
+            };
+        } else {
+            // same as grpc's Codec.Gzip
+            return new GZIPOutputStream(os);
+        }
+    }
+
+    // models the stream for a single aggregation interval of a web application
+    private static List<MessageLite> createAggregateStream() {
+        String[] queryTexts = SampleData.createQueryTexts(100);
+        String[] transactionNames = SampleData.createTransactionNames(50);
+        long[] durationNanos = SampleData.createDurationNanos(100);
+        Profile profile = createProfile(100, 40);
+
+        List<MessageLite> messages = Lists.newArrayList();
+        messages.add(AggregateStreamMessage.newBuilder()
+                .setStreamHeader(AggregateStreamHeader.newBuilder()
+                        .setAgentId("example-agent")
+                        .setCaptureTime(1500000000000L)
+                        .setPostV09(true))
+                .build());
+        for (String queryText : queryTexts) {
+            messages.add(AggregateStreamMessage.newBuilder()
+                    .setSharedQueryText(Aggregate.SharedQueryText.newBuilder()
+                            .setFullText(queryText))
+                    .build());
+        }
+        messages.add(AggregateStreamMessage.newBuilder()
+                .setOverallAggregate(OverallAggregate.newBuilder()
+                        .setTransactionType("Web")
+                        .setAggregate(createAggregate(queryTexts.length, durationNanos, profile)))
+                .build());
+        for (int i = 0; i < transactionNames.length; i++) {
+            // each transaction only executes a subset of the queries
+            messages.add(AggregateStreamMessage.newBuilder()
+                    .setTransactionAggregate(TransactionAggregate.newBuilder()
+                            .setTransactionType("Web")
+                            .setTransactionName(transactionNames[i])
+                            .setAggregate(createAggregate(1 + i % 10, durationNanos, profile)))
+                    .build());
+        }
+        return messages;
+    }
+
+    private static Aggregate createAggregate(int queryCount, long[] durationNanos,
+            Profile profile) {
+        Aggregate.Histogram.Builder histogram = Aggregate.Histogram.newBuilder();
+        double totalDurationNanos = 0;
+        for (long nanos : durationNanos) {
+            histogram.addOrderedRawValue(nanos);
+            totalDurationNanos += nanos;
+        }
+        Aggregate.Builder aggregate = Aggregate.newBuilder()
+                .setTotalDurationNanos(totalDurationNanos)
+                .setTransactionCount(durationNanos.length)
+                .addMainThreadRootTimer(Aggregate.Timer.newBuilder()
+                        .setName("http request")
+                        .setTotalNanos(totalDurationNanos)
+                        .setCount(durationNanos.length)
+                        .addChildTimer(Aggregate.Timer.newBuilder()
+                                .setName("jdbc query")
+                                .setTotalNanos(totalDurationNanos / 2)
+                                .setCount(durationNanos.length * 5)))
+                .setDurationNanosHistogram(histogram)
+                .setMainThreadProfile(profile);
+        for (int i = 0; i < queryCount; i++) {
+            aggregate.addQuery(Aggregate.Query.newBuilder()
+                    .setType("SQL")
+                    .setSharedQueryTextIndex(i)
+                    .setTotalDurationNanos(1000000.0 * (i + 1))
+                    .setExecutionCount(i + 1));
+        }
+        return aggregate.build();
+    }
+
+    // models a slow trace with many jdbc query entries
+    private static List<MessageLite> createTraceStream() {
+        String[] queryTexts = SampleData.createQueryTexts(20);
+
+        List<MessageLite> messages = Lists.newArrayList();
+        messages.add(TraceStreamMessage.newBuilder()
+                .setStreamHeader(TraceStreamHeader.newBuilder()
+                        .setAgentId("example-agent")
+                        .setTraceId("0123456789abcdef0123456789abcdef")
+                        .setPostV09(true))
+                .build());
+        for (String queryText : queryTexts) {
+            messages.add(TraceStreamMessage.newBuilder()
+                    .setSharedQueryText(Trace.SharedQueryText.newBuilder()
+                            .setFullText(queryText))
+                    .build());
+        }
+        for (int i = 0; i < 2000; i++) {
+            messages.add(TraceStreamMessage.newBuilder()
+                    .setEntry(Trace.Entry.newBuilder()
+                            .setDepth(1)
+                            .setStartOffsetNanos(1000000L * i)
+                            .setDurationNanos(500000L + i)
+                            .setMessage("")
+                            .setQueryEntryMessage(Trace.QueryEntryMessage.newBuilder()
+                                    .setSharedQueryTextIndex(i % queryTexts.length)
+                                    .setPrefix("jdbc query: ")
+                                    .setSuffix(" => 1 row")))
+                    .build());
+        }
+        messages.add(TraceStreamMessage.newBuilder()
+                .setMainThreadProfile(createProfile(200, 60))
+                .build());
+        messages.add(TraceStreamMessage.newBuilder()
+                .setHeader(Trace.Header.newBuilder()
+                        .setSlow(true)
+                        .setStartTime(1500000000000L)
+                        .setCaptureTime(1500000002000L)
+                        .setDurationNanos(2000000000L)
+                        .setTransactionType("Web")
+                        .setTransactionName("/api/orders")
+                        .setHeadline("/api/orders"))
+                .build());
+        return messages;
+    }
+
+    private static Profile createProfile(int stackTraceCount, int stackTraceDepth) {
+        MutableProfile profile = new MutableProfile();
+        for (List<StackTraceElement> stackTrace : SampleData.createStackTraces(stackTraceCount,
+                stackTraceDepth)) {
+            profile.merge(stackTrace, Thread.State.RUNNABLE);
+        }
+        return profile.toProto();
+    }
+}
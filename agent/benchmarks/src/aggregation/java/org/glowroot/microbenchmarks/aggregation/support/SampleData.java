@@ -0,0 +1,113 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks.aggregation.support;
+
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+
+public class SampleData {
+
+    private static final String[] TABLE_NAMES =
+            {"employee", "department", "orders", "order_item", "product", "customer"};
+
+    private static final String[] PACKAGE_NAMES = {"org.example.web", "org.example.service",
+            "org.example.dao", "org.springframework.web.servlet", "org.hibernate.internal"};
+
+    private SampleData() {}
+
+    // mix of short query texts and long query texts (longer than the aggregate query text
+    // truncation limit) so that both the truncated and full text code paths are exercised
+    public static String[] createQueryTexts(int count) {
+        String[] queryTexts = new String[count];
+        for (int i = 0; i < count; i++) {
+            String table = TABLE_NAMES[i % TABLE_NAMES.length];
+            if (i % 4 == 0) {
+                StringBuilder sb = new StringBuilder("select ");
+                for (int j = 0; j < 30; j++) {
+                    if (j > 0) {
+                        sb.append(", ");
+                    }
+                    sb.append(table).append(".column_").append(j);
+                }
+                sb.append(" from ").append(table).append(" where ").append(table)
+                        .append(".id = ? and ").append(table).append(".variant = ").append(i);
+                queryTexts[i] = sb.toString();
+            } else {
+                queryTexts[i] = "select * from " + table + " where id = ? and variant = " + i;
+            }
+        }
+        return queryTexts;
+    }
+
+    public static String[] createServiceCallTexts(int count) {
+        String[] serviceCallTexts = new String[count];
+        for (int i = 0; i < count; i++) {
+            serviceCallTexts[i] = "GET http://service-" + (i % 10) + ".example.org/api/resource/"
+                    + i + "?format=json";
+        }
+        return serviceCallTexts;
+    }
+
+    public static String[] createTransactionNames(int count) {
+        String[] transactionNames = new String[count];
+        for (int i = 0; i < count; i++) {
+            transactionNames[i] = "/api/" + TABLE_NAMES[i % TABLE_NAMES.length] + "/" + i;
+        }
+        return transactionNames;
+    }
+
+    // durations in nanoseconds, mostly fast with a long tail
+    public static long[] createDurationNanos(int count) {
+        Random random = new Random(0);
+        long[] durationNanos = new long[count];
+        for (int i = 0; i < count; i++) {
+            double millis = Math.exp(random.nextGaussian() + 3);
+            durationNanos[i] = (long) (millis * 1000000);
+        }
+        return durationNanos;
+    }
+
+    // stack traces share a common base (e.g. servlet container frames) and then branch out, which
+    // is representative of profiles collected from a web application
+    public static List<List<StackTraceElement>> createStackTraces(int count, int depth) {
+        Random random = new Random(0);
+        List<StackTraceElement> base = Lists.newArrayList();
+        for (int i = 0; i < depth / 2; i++) {
+            base.add(createStackTraceElement(0, i));
+        }
+        List<List<StackTraceElement>> stackTraces = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            List<StackTraceElement> stackTrace = Lists.newArrayList();
+            for (int j = depth - depth / 2; j > 0; j--) {
+                stackTrace.add(createStackTraceElement(random.nextInt(Math.max(count / 4, 1)) + 1,
+                        j));
+            }
+            // profile stack traces are ordered from leaf to root
+            stackTrace.addAll(Lists.reverse(base));
+            stackTraces.add(stackTrace);
+        }
+        return stackTraces;
+    }
+
+    private static StackTraceElement createStackTraceElement(int branch, int depth) {
+        String packageName = PACKAGE_NAMES[(branch + depth) % PACKAGE_NAMES.length];
+        String className = "Class" + branch + "x" + depth;
+        return new StackTraceElement(packageName + "." + className, "method" + depth,
+                className + ".java", 100 + depth);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks.aggregation.support;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.glowroot.agent.model.SharedQueryTextCollection;
+
+public class SharedQueryTextCollectionImpl implements SharedQueryTextCollection {
+
+    private final Map<String, Integer> sharedQueryTextIndexes = Maps.newHashMap();
+    private final List<String> sharedQueryTexts = Lists.newArrayList();
+
+    @Override
+    public int getSharedQueryTextIndex(String queryText) {
+        Integer sharedQueryTextIndex = sharedQueryTextIndexes.get(queryText);
+        if (sharedQueryTextIndex == null) {
+            sharedQueryTextIndex = sharedQueryTextIndexes.size();
+            sharedQueryTextIndexes.put(queryText, sharedQueryTextIndex);
+            sharedQueryTexts.add(queryText);
+        }
+        return sharedQueryTextIndex;
+    }
+}
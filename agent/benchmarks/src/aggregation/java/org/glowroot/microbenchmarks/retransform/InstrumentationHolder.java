@@ -0,0 +1,39 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks.retransform;
+
+import java.lang.instrument.Instrumentation;
+
+// the aggregation benchmarks jar is its own java agent (see Premain-Class in pom.xml), only so that
+// ReweaveBenchmark can get access to an Instrumentation instance
+public class InstrumentationHolder {
+
+    private static Instrumentation instrumentation;
+
+    private InstrumentationHolder() {}
+
+    public static void premain(String agentArgs, Instrumentation instrumentation) {
+        InstrumentationHolder.instrumentation = instrumentation;
+    }
+
+    static Instrumentation getInstrumentation() {
+        if (instrumentation == null) {
+            throw new IllegalStateException("This benchmark must be run with"
+                    + " -javaagent:aggregation-benchmarks.jar");
+        }
+        return instrumentation;
+    }
+}
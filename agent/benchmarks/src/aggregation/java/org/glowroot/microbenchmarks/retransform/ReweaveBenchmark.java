@@ -0,0 +1,150 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks.retransform;
+
+import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.StandardSystemProperty;
+import com.google.common.collect.Lists;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import org.glowroot.agent.live.ClassRetransformer;
+
+// measures the latency of (simulated) application work while a reweave is continuously
+// retransforming classes in the background, the pauses caused by retransformation show up in the
+// high percentiles of the sample time distribution
+//
+// this needs an Instrumentation instance, so the benchmarks jar is also passed as the java agent
+// (forked benchmark JVMs inherit the flag):
+//
+// java -javaagent:aggregation-benchmarks.jar -jar aggregation-benchmarks.jar ReweaveBenchmark
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class ReweaveBenchmark {
+
+    // 0 means all classes are retransformed in a single call (no batching)
+    @Param({"0", "100"})
+    private int batchSize;
+
+    @Param({"0", "10"})
+    private long batchPauseMillis;
+
+    private long[] values;
+
+    private volatile boolean stopped;
+
+    private Thread reweaveThread;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random();
+        values = new long[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = random.nextLong();
+        }
+        Instrumentation instrumentation = InstrumentationHolder.getInstrumentation();
+        final List<Class<?>> classes = loadModifiableClasses(instrumentation);
+        System.out.println();
+        System.out.println("retransforming " + classes.size() + " classes");
+        // retransforming without any class file transformer still goes through the full class
+        // redefinition (which is the part that stops the world)
+        final ClassRetransformer retransformer = new ClassRetransformer(instrumentation,
+                batchSize == 0 ? classes.size() : batchSize, batchPauseMillis);
+        reweaveThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!stopped) {
+                    retransformer.retransform(classes);
+                }
+            }
+        });
+        reweaveThread.setDaemon(true);
+        reweaveThread.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        stopped = true;
+        reweaveThread.join();
+    }
+
+    @Benchmark
+    public long applicationWork() {
+        long total = 0;
+        for (long value : values) {
+            total += value;
+        }
+        return total;
+    }
+
+    private static List<Class<?>> loadModifiableClasses(Instrumentation instrumentation)
+            throws IOException {
+        List<Class<?>> classes = Lists.newArrayList();
+        for (String path : getClassPath()) {
+            if (!path.endsWith(".jar")) {
+                continue;
+            }
+            JarFile jarFile = new JarFile(path);
+            try {
+                Enumeration<JarEntry> e = jarFile.entries();
+                while (e.hasMoreElements()) {
+                    String name = e.nextElement().getName();
+                    if (!name.startsWith("org/springframework/") || !name.endsWith(".class")) {
+                        continue;
+                    }
+                    name = name.replace('/', '.');
+                    name = name.substring(0, name.length() - ".class".length());
+                    try {
+                        Class<?> clazz = Class.forName(name, false,
+                                ReweaveBenchmark.class.getClassLoader());
+                        if (instrumentation.isModifiableClass(clazz)) {
+                            classes.add(clazz);
+                        }
+                    } catch (ClassNotFoundException ex) {
+                        // optional dependencies are not transitively included
+                    } catch (LinkageError ex) {
+                        // optional dependencies are not transitively included
+                    }
+                }
+            } finally {
+                jarFile.close();
+            }
+        }
+        return classes;
+    }
+
+    private static List<String> getClassPath() {
+        String classPath = StandardSystemProperty.JAVA_CLASS_PATH.value();
+        return Splitter.on(StandardSystemProperty.PATH_SEPARATOR.value()).splitToList(classPath);
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2015 the original author or authors.
+ * Copyright 2014-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,12 +15,14 @@
  */
 package org.glowroot.agent.plugin.servlet;
 
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import com.google.common.collect.ImmutableMap;
 import org.openjdk.jmh.annotations.Benchmark;
 import org.openjdk.jmh.annotations.BenchmarkMode;
 import org.openjdk.jmh.annotations.Mode;
@@ -40,12 +42,14 @@ public class ServletBenchmark {
 
     private HttpServlet servlet;
     private HttpServletRequest request;
+    private HttpServletRequest requestWithHeadersAndParameters;
     private HttpServletResponse response;
 
     @Setup
     public void setup() {
         servlet = new MockHttpServlet();
         request = new MockHttpRequest();
+        requestWithHeadersAndParameters = new MockHttpRequest(createHeaders(), createParameters());
         response = new MockHttpResponse();
     }
 
@@ -53,4 +57,39 @@ public class ServletBenchmark {
     public void service() throws Exception {
         servlet.service(request, response);
     }
+
+    // exercises request header and request parameter capture and masking, so the servlet plugin
+    // captureRequestHeaders, captureRequestParameters and maskRequestParameters properties should
+    // be configured (e.g. with a few dozen patterns) in the agent's config.json
+    @Benchmark
+    public void serviceWithHeadersAndParameters() throws Exception {
+        servlet.service(requestWithHeadersAndParameters, response);
+    }
+
+    private static Map<String, String> createHeaders() {
+        return ImmutableMap.<String, String>builder()
+                .put("Host", "localhost:8080")
+                .put("User-Agent", "Mozilla/5.0 (X11; Linux x86_64; rv:60.0) Gecko/20100101")
+                .put("Accept", "text/html,application/xhtml+xml,application/xml;q=0.9")
+                .put("Accept-Language", "en-US,en;q=0.5")
+                .put("Accept-Encoding", "gzip, deflate")
+                .put("Referer", "http://localhost:8080/index.html")
+                .put("Cookie", "JSESSIONID=0123456789ABCDEF")
+                .put("Connection", "keep-alive")
+                .put("Cache-Control", "max-age=0")
+                .put("X-Forwarded-For", "10.0.0.1")
+                .put("X-Request-ID", "4bf92f3577b34da6a3ce929d0e0e4736")
+                .build();
+    }
+
+    private static Map<String, String[]> createParameters() {
+        return ImmutableMap.<String, String[]>builder()
+                .put("username", new String[] {"abc"})
+                .put("password", new String[] {"secret"})
+                .put("page", new String[] {"1"})
+                .put("pageSize", new String[] {"50"})
+                .put("sort", new String[] {"name", "date"})
+                .put("filter", new String[] {"active"})
+                .build();
+    }
 }
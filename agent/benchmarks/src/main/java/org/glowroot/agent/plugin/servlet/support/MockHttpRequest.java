@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2015 the original author or authors.
+ * Copyright 2014-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.Principal;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.Locale;
 import java.util.Map;
@@ -41,6 +42,18 @@ import javax.servlet.http.Part;
 
 public class MockHttpRequest implements HttpServletRequest {
 
+    private final Map<String, String> headers;
+    private final Map<String, String[]> parameters;
+
+    public MockHttpRequest() {
+        this(Collections.<String, String>emptyMap(), Collections.<String, String[]>emptyMap());
+    }
+
+    public MockHttpRequest(Map<String, String> headers, Map<String, String[]> parameters) {
+        this.headers = headers;
+        this.parameters = parameters;
+    }
+
     @Override
     public Object getAttribute(String name) {
         return null;
@@ -81,22 +94,23 @@ public class MockHttpRequest implements HttpServletRequest {
 
     @Override
     public String getParameter(String name) {
-        return null;
+        String[] values = parameters.get(name);
+        return values == null ? null : values[0];
     }
 
     @Override
     public Enumeration<String> getParameterNames() {
-        return null;
+        return Collections.enumeration(parameters.keySet());
     }
 
     @Override
     public String[] getParameterValues(String name) {
-        return null;
+        return parameters.get(name);
     }
 
     @Override
     public Map<String, String[]> getParameterMap() {
-        return null;
+        return parameters;
     }
 
     @Override
@@ -238,17 +252,21 @@ public class MockHttpRequest implements HttpServletRequest {
 
     @Override
     public String getHeader(String name) {
-        return null;
+        return headers.get(name);
     }
 
     @Override
     public Enumeration<String> getHeaders(String name) {
-        return null;
+        String value = headers.get(name);
+        if (value == null) {
+            return Collections.enumeration(Collections.<String>emptyList());
+        }
+        return Collections.enumeration(Collections.singletonList(value));
     }
 
     @Override
     public Enumeration<String> getHeaderNames() {
-        return null;
+        return Collections.enumeration(headers.keySet());
     }
 
     @Override
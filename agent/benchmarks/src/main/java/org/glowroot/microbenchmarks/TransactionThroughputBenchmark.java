@@ -0,0 +1,82 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.microbenchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import org.glowroot.microbenchmarks.support.TransactionWorthy;
+
+// multi-threaded producer harness, all threads complete transactions as fast as possible which
+// are then funneled into the single aggregate processing thread
+//
+// when the processing thread cannot keep up, the agent logs "not capturing a transaction because
+// of an excessive backlog" to glowroot.log, which marks the ingest rate limit
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Threads(4)
+public class TransactionThroughputBenchmark {
+
+    @Param({"1", "100", "10000"})
+    private int transactionNameCount;
+
+    private String[] transactionNames;
+
+    @Setup
+    public void setup() {
+        transactionNames = new String[transactionNameCount];
+        for (int i = 0; i < transactionNameCount; i++) {
+            transactionNames[i] = "transaction worthy " + i;
+        }
+    }
+
+    @Benchmark
+    public void execute(ThreadState threadState) throws Exception {
+        threadState.transactionWorthy.doSomethingTransactionWorthy(
+                transactionNames[threadState.nextTransactionNameIndex()]);
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private final TransactionWorthy transactionWorthy = new TransactionWorthy();
+        private int index;
+        private int transactionNameCount;
+
+        @Setup
+        public void setup(TransactionThroughputBenchmark benchmark) {
+            transactionNameCount = benchmark.transactionNameCount;
+        }
+
+        private int nextTransactionNameIndex() {
+            int current = index++;
+            if (index == transactionNameCount) {
+                index = 0;
+            }
+            return current;
+        }
+    }
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2016 the original author or authors.
+ * Copyright 2014-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -29,7 +29,7 @@ import org.glowroot.agent.plugin.api.weaving.Pointcut;
 
 public class TraceEntryWorthyAspect {
 
-    @Pointcut(className = "org.glowroot.microbenchmarks.core.support.TraceEntryWorthy",
+    @Pointcut(className = "org.glowroot.microbenchmarks.support.TraceEntryWorthy",
             methodName = "doSomethingTraceEntryWorthy", methodParameterTypes = {},
             timerName = "trace entry worthy")
     public static class TraceEntryWorthyAdvice {
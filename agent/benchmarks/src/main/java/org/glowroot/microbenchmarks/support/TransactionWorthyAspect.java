@@ -1,5 +1,5 @@
 /*
- * Copyright 2014-2016 the original author or authors.
+ * Copyright 2014-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -20,6 +20,7 @@ import org.glowroot.agent.plugin.api.MessageSupplier;
 import org.glowroot.agent.plugin.api.OptionalThreadContext;
 import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
+import org.glowroot.agent.plugin.api.weaving.BindParameter;
 import org.glowroot.agent.plugin.api.weaving.BindThrowable;
 import org.glowroot.agent.plugin.api.weaving.BindTraveler;
 import org.glowroot.agent.plugin.api.weaving.OnBefore;
@@ -29,7 +30,7 @@ import org.glowroot.agent.plugin.api.weaving.Pointcut;
 
 public class TransactionWorthyAspect {
 
-    @Pointcut(className = "org.glowroot.microbenchmarks.core.support.TransactionWorthy",
+    @Pointcut(className = "org.glowroot.microbenchmarks.support.TransactionWorthy",
             methodName = "doSomethingTransactionWorthy", methodParameterTypes = {},
             timerName = "transaction worthy")
     public static class TransactionWorthyAdvice {
@@ -54,4 +55,31 @@ public class TransactionWorthyAspect {
             traceEntry.endWithError(t);
         }
     }
+
+    @Pointcut(className = "org.glowroot.microbenchmarks.support.TransactionWorthy",
+            methodName = "doSomethingTransactionWorthy",
+            methodParameterTypes = {"java.lang.String"}, timerName = "transaction worthy")
+    public static class TransactionWorthyWithNameAdvice {
+
+        private static final TimerName timerName =
+                Agent.getTimerName(TransactionWorthyWithNameAdvice.class);
+
+        @OnBefore
+        public static TraceEntry onBefore(OptionalThreadContext context,
+                @BindParameter String transactionName) {
+            return context.startTransaction("Microbenchmark", transactionName,
+                    MessageSupplier.create("transaction worthy"), timerName);
+        }
+
+        @OnReturn
+        public static void onReturn(@BindTraveler TraceEntry traceEntry) {
+            traceEntry.end();
+        }
+
+        @OnThrow
+        public static void onThrow(@BindThrowable Throwable t,
+                @BindTraveler TraceEntry traceEntry) {
+            traceEntry.endWithError(t);
+        }
+    }
 }
@@ -41,6 +41,7 @@ import org.glowroot.agent.config.ConfigService;
 import org.glowroot.agent.live.LiveJvmServiceImpl;
 import org.glowroot.agent.live.LiveTraceRepositoryImpl;
 import org.glowroot.agent.live.LiveWeavingServiceImpl;
+import org.glowroot.agent.model.SharedStringCollection;
 import org.glowroot.common.util.OnlyUsedByTests;
 import org.glowroot.common.util.PropertiesFiles;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
@@ -94,6 +95,10 @@ public class CentralCollector implements Collector {
 
     private volatile @MonotonicNonNull Environment environment;
     private volatile int nextAggregateDelayMillis;
+    // initialized from the init response, and then updated from the acknowledgement of each
+    // aggregate stream, since the init call and the aggregate streams can be handled by different
+    // central collector nodes (e.g. during a rolling upgrade)
+    private volatile boolean sharedStringsSupported;
 
     public CentralCollector(Map<String, String> properties, String collectorAddress,
             @Nullable String collectorAuthority, List<File> confDirs, boolean configReadOnly,
@@ -123,9 +128,9 @@ public class CentralCollector implements Collector {
 
         AtomicBoolean inConnectionFailure = new AtomicBoolean();
         centralConnection = new CentralConnection(collectorAddress, collectorAuthority, confDirs,
-                inConnectionFailure);
-        collectorServiceStub = CollectorServiceGrpc.newStub(centralConnection.getChannel())
-                .withCompression("gzip");
+                GrpcCompression.create(properties), inConnectionFailure);
+        // compression is applied by GrpcCompression
+        collectorServiceStub = CollectorServiceGrpc.newStub(centralConnection.getChannel());
         downstreamServiceObserver = new DownstreamServiceObserver(centralConnection,
                 agentConfigUpdater, configReadOnly, liveJvmService, liveWeavingService,
                 liveTraceRepository, agentId, inConnectionFailure, sharedQueryTextLimiter);
@@ -156,6 +161,7 @@ public class CentralCollector implements Collector {
             @Override
             void doWithResponse(InitResponse response) {
                 CentralCollector.this.environment = environment;
+                sharedStringsSupported = response.getSharedStringsSupported();
                 // don't need to suppress sending this log message to the central collector because
                 // startup logger info messages are never sent to the central collector
                 startupLogger.info("connected to the central collector {}, version {}",
@@ -371,6 +377,10 @@ public class CentralCollector implements Collector {
 
         private final AggregateReader aggregateReader;
         private final List<String> fullTextSha1s = Lists.newArrayList();
+        private final SharedStringEncoder sharedStringEncoder = new SharedStringEncoder();
+
+        // decided per stream (attempt)
+        private volatile boolean sharedStrings;
 
         private CollectAggregatesGrpcCall(AggregateReader aggregateReader) {
             this.aggregateReader = aggregateReader;
@@ -380,16 +390,21 @@ public class CentralCollector implements Collector {
         public void call(StreamObserver<AggregateResponseMessage> responseObserver) {
             final StreamObserver<AggregateStreamMessage> requestObserver =
                     collectorServiceStub.collectAggregateStream(responseObserver);
+            // read once so that the stream header and the stream messages are consistent
+            boolean sharedStrings = sharedStringsSupported;
+            this.sharedStrings = sharedStrings;
             requestObserver.onNext(AggregateStreamMessage.newBuilder()
                     .setStreamHeader(AggregateStreamHeader.newBuilder()
                             .setAgentId(agentId)
                             .setCaptureTime(aggregateReader.captureTime())
-                            .setPostV09(true))
+                            .setPostV09(true)
+                            .setSharedStrings(sharedStrings))
                     .build());
             // need to clear in case this is a retry
             fullTextSha1s.clear();
+            sharedStringEncoder.clear();
             try {
-                aggregateReader.accept(new AggregateVisitorImpl(requestObserver));
+                aggregateReader.accept(new AggregateVisitorImpl(requestObserver, sharedStrings));
             } catch (Throwable t) {
                 logger.error(t.getMessage(), t);
                 requestObserver.onError(t);
@@ -402,6 +417,17 @@ public class CentralCollector implements Collector {
         public void doWithResponse(AggregateResponseMessage response) {
             // Math.min is just for safety
             nextAggregateDelayMillis = Math.min(response.getNextDelayMillis(), 30000);
+            boolean sharedStringsAcknowledged = response.getSharedStringsAcknowledged();
+            sharedStringsSupported = sharedStringsAcknowledged;
+            if (sharedStrings && !sharedStringsAcknowledged) {
+                // the stream was handled by a central collector that does not understand shared
+                // string indexes, so re-send the aggregates using plain strings
+                logger.debug("shared strings not acknowledged, re-sending aggregates using plain"
+                        + " strings");
+                centralConnection.callWithAFewRetries(
+                        new CollectAggregatesGrpcCall(aggregateReader));
+                return;
+            }
             for (String fullTextSha1 : fullTextSha1s) {
                 sharedQueryTextLimiter.onSuccessfullySentToCentralCollector(fullTextSha1);
             }
@@ -410,9 +436,17 @@ public class CentralCollector implements Collector {
         private class AggregateVisitorImpl implements AggregateVisitor {
 
             private final StreamObserver<AggregateStreamMessage> requestObserver;
+            private final boolean sharedStrings;
 
-            private AggregateVisitorImpl(StreamObserver<AggregateStreamMessage> requestObserver) {
+            private AggregateVisitorImpl(StreamObserver<AggregateStreamMessage> requestObserver,
+                    boolean sharedStrings) {
                 this.requestObserver = requestObserver;
+                this.sharedStrings = sharedStrings;
+            }
+
+            @Override
+            public @Nullable SharedStringCollection getSharedStringCollection() {
+                return sharedStrings ? sharedStringEncoder : null;
             }
 
             @Override
@@ -425,10 +459,18 @@ public class CentralCollector implements Collector {
                             .setSharedQueryText(aggregateSharedQueryText)
                             .build());
                 }
+                OverallAggregate.Builder builder = OverallAggregate.newBuilder()
+                        .setAggregate(overallAggregate);
+                if (sharedStrings) {
+                    builder.setTransactionTypeIndex(
+                            sharedStringEncoder.getSharedStringIndex(transactionType));
+                    // the aggregate was already built using shared string indexes
+                    sendNewSharedStrings();
+                } else {
+                    builder.setTransactionType(transactionType);
+                }
                 requestObserver.onNext(AggregateStreamMessage.newBuilder()
-                        .setOverallAggregate(OverallAggregate.newBuilder()
-                                .setTransactionType(transactionType)
-                                .setAggregate(overallAggregate))
+                        .setOverallAggregate(builder)
                         .build());
             }
 
@@ -442,13 +484,29 @@ public class CentralCollector implements Collector {
                                     .buildAggregateSharedQueryText(sharedQueryText, fullTextSha1s))
                             .build());
                 }
+                TransactionAggregate.Builder builder = TransactionAggregate.newBuilder()
+                        .setTransactionName(transactionName)
+                        .setAggregate(transactionAggregate);
+                if (sharedStrings) {
+                    builder.setTransactionTypeIndex(
+                            sharedStringEncoder.getSharedStringIndex(transactionType));
+                    // the aggregate was already built using shared string indexes
+                    sendNewSharedStrings();
+                } else {
+                    builder.setTransactionType(transactionType);
+                }
                 requestObserver.onNext(AggregateStreamMessage.newBuilder()
-                        .setTransactionAggregate(TransactionAggregate.newBuilder()
-                                .setTransactionType(transactionType)
-                                .setTransactionName(transactionName)
-                                .setAggregate(transactionAggregate))
+                        .setTransactionAggregate(builder)
                         .build());
             }
+
+            private void sendNewSharedStrings() {
+                for (String sharedString : sharedStringEncoder.drainNewSharedStrings()) {
+                    requestObserver.onNext(AggregateStreamMessage.newBuilder()
+                            .setSharedString(sharedString)
+                            .build());
+                }
+            }
         }
     }
 
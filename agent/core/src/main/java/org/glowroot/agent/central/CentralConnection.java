@@ -93,7 +93,8 @@ class CentralConnection {
     private volatile boolean closed;
 
     CentralConnection(String collectorAddress, @Nullable String collectorAuthority,
-            List<File> confDirs, AtomicBoolean inConnectionFailure) throws SSLException {
+            List<File> confDirs, GrpcCompression compression, AtomicBoolean inConnectionFailure)
+            throws SSLException {
         ParsedCollectorAddress parsedCollectorAddress = parseCollectorAddress(collectorAddress);
         eventLoopGroup = EventLoopGroups.create("Glowroot-GRPC-Worker-ELG");
         channelExecutor =
@@ -130,6 +131,7 @@ class CentralConnection {
                 // 5 seconds and keep alive will only kick in after 30 seconds of not hearing back
                 // from the server
                 .keepAliveTime(30, SECONDS);
+        compression.configure(builder);
         if (parsedCollectorAddress.https()) {
             SslContextBuilder sslContext = GrpcSslContexts.forClient();
             File trustCertCollectionFile = getTrustCertCollectionFile(confDirs);
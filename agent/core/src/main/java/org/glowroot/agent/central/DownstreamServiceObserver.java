@@ -17,11 +17,15 @@ package org.glowroot.agent.central;
 
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.common.base.Stopwatch;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientResponseObserver;
 import io.grpc.stub.StreamObserver;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
@@ -39,6 +43,7 @@ import org.glowroot.common.live.LiveJvmService.UnavailableDueToRunningInJreExcep
 import org.glowroot.common.live.LiveTraceRepository.Entries;
 import org.glowroot.common.live.LiveTraceRepository.Queries;
 import org.glowroot.common.util.OnlyUsedByTests;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.DownstreamServiceGrpc;
 import org.glowroot.wire.api.model.DownstreamServiceGrpc.DownstreamServiceStub;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.AgentConfigUpdateResponse;
@@ -49,6 +54,7 @@ import org.glowroot.wire.api.model.DownstreamServiceOuterClass.Capabilities;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.CapabilitiesResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.CentralRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.CentralRequest.MessageCase;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.EntriesRequest;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.EntriesResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ExceptionResponse;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.ExplicitGcDisabledResponse;
@@ -93,7 +99,8 @@ import static com.google.common.base.Preconditions.checkState;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
-class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
+class DownstreamServiceObserver
+        implements ClientResponseObserver<AgentResponse, CentralRequest> {
 
     private static final Logger logger = LoggerFactory.getLogger(DownstreamServiceObserver.class);
 
@@ -108,6 +115,13 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
 
     private volatile @Nullable StreamObserver<AgentResponse> currResponseObserver;
 
+    // this is per connection since the agent may reconnect to a different central collector node
+    private volatile boolean chunkedResponseSupported;
+
+    // chunked responses that are waiting for the stream to be ready, in the order they were added
+    private final Queue<ResponseChunker> pendingChunkedResponses =
+            new ConcurrentLinkedQueue<ResponseChunker>();
+
     // only used by tests
     private volatile boolean closedByCentralCollector;
 
@@ -127,8 +141,8 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
             LiveTraceRepositoryImpl liveTraceRepository, String agentId,
             AtomicBoolean inConnectionFailure, SharedQueryTextLimiter sharedQueryTextLimiter) {
         this.centralConnection = centralConnection;
-        downstreamServiceStub = DownstreamServiceGrpc.newStub(centralConnection.getChannel())
-                .withCompression("gzip");
+        // compression is applied by GrpcCompression
+        downstreamServiceStub = DownstreamServiceGrpc.newStub(centralConnection.getChannel());
         this.agentConfigUpdater = agentConfigUpdater;
         this.configReadOnly = configReadOnly;
         this.liveJvmService = liveJvmService;
@@ -141,6 +155,16 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
                 ThreadFactories.create("Glowroot-Downstream-Retry"));
     }
 
+    @Override
+    public void beforeStart(ClientCallStreamObserver<AgentResponse> requestStream) {
+        requestStream.setOnReadyHandler(new Runnable() {
+            @Override
+            public void run() {
+                sendPendingChunkedResponses();
+            }
+        });
+    }
+
     @Override
     public void onNext(CentralRequest request) {
         inMaybeConnectionFailure.set(false);
@@ -154,6 +178,7 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
             });
         }
         if (request.getMessageCase() == MessageCase.HELLO_ACK) {
+            chunkedResponseSupported = request.getHelloAck().getChunkedResponseSupported();
             return;
         }
         try {
@@ -189,12 +214,16 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
             });
         }
         currResponseObserver = null;
+        pendingChunkedResponses.clear();
         // TODO revisit retry/backoff after next grpc version
         scheduledRetryExecutor.schedule(new RetryAfterError(), 1, SECONDS);
     }
 
     void connectAsync() {
         // these are async so never fail, onError() will be called on failure
+        chunkedResponseSupported = false;
+        // any pending chunked responses were for the previous stream
+        pendingChunkedResponses.clear();
         StreamObserver<AgentResponse> responseObserver = downstreamServiceStub.connect(this);
         currResponseObserver = responseObserver;
         responseObserver.onNext(AgentResponse.newBuilder()
@@ -423,7 +452,8 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
             StreamObserver<AgentResponse> responseObserver) {
         HeapHistogram heapHistogram;
         try {
-            heapHistogram = liveJvmService.heapHistogram("");
+            heapHistogram = liveJvmService.heapHistogram("",
+                    request.getHeapHistogramRequest().getLimit());
         } catch (UnavailableDueToRunningInJreException e) {
             logger.debug(e.getMessage(), e);
             responseObserver.onNext(AgentResponse.newBuilder()
@@ -445,11 +475,22 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
             sendExceptionResponse(request, responseObserver);
             return;
         }
-        responseObserver.onNext(AgentResponse.newBuilder()
-                .setRequestId(request.getRequestId())
+        ResponseChunker chunker = newResponseChunker(request, responseObserver);
+        chunker.add(AgentResponse.newBuilder()
                 .setHeapHistogramResponse(HeapHistogramResponse.newBuilder()
-                        .setHeapHistogram(heapHistogram))
-                .build());
+                        .setHeapHistogram(heapHistogram.toBuilder()
+                                .clearClassInfo())));
+        chunker.addAll(heapHistogram.getClassInfoList(),
+                new ResponseChunker.ChunkBuilder<HeapHistogram.ClassInfo>() {
+                    @Override
+                    public AgentResponse.Builder build(List<HeapHistogram.ClassInfo> items) {
+                        return AgentResponse.newBuilder()
+                                .setHeapHistogramResponse(HeapHistogramResponse.newBuilder()
+                                        .setHeapHistogram(HeapHistogram.newBuilder()
+                                                .addAllClassInfo(items)));
+                    }
+                });
+        sendChunkedResponse(chunker);
     }
 
     private void explicitGcDisabledAndRespond(CentralRequest request,
@@ -706,24 +747,41 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
 
     private void getEntriesAndRespond(CentralRequest request,
             StreamObserver<AgentResponse> responseObserver) {
+        EntriesRequest entriesRequest = request.getEntriesRequest();
+        boolean paged = entriesRequest.getLimit() > 0;
         Entries entries;
         try {
-            entries = liveTraceRepository.getEntries("", request.getEntriesRequest().getTraceId());
+            if (paged) {
+                entries = liveTraceRepository.getEntries("", entriesRequest.getTraceId(),
+                        entriesRequest.getFromIndex(), entriesRequest.getLimit());
+            } else {
+                entries = liveTraceRepository.getEntries("", entriesRequest.getTraceId());
+            }
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
             sendExceptionResponse(request, responseObserver);
             return;
         }
-        EntriesResponse.Builder response = EntriesResponse.newBuilder();
+        ResponseChunker chunker = newResponseChunker(request, responseObserver);
+        EntriesResponse.Builder response = EntriesResponse.newBuilder()
+                .setPaged(paged);
         if (entries != null) {
-            response.addAllEntry(entries.entries());
             response.addAllSharedQueryText(sharedQueryTextLimiter
                     .reduceTracePayloadWherePossible(entries.sharedQueryTexts()));
         }
-        responseObserver.onNext(AgentResponse.newBuilder()
-                .setRequestId(request.getRequestId())
-                .setEntriesResponse(response)
-                .build());
+        chunker.add(AgentResponse.newBuilder()
+                .setEntriesResponse(response));
+        if (entries != null) {
+            chunker.addAll(entries.entries(), new ResponseChunker.ChunkBuilder<Trace.Entry>() {
+                @Override
+                public AgentResponse.Builder build(List<Trace.Entry> items) {
+                    return AgentResponse.newBuilder()
+                            .setEntriesResponse(EntriesResponse.newBuilder()
+                                    .addAllEntry(items));
+                }
+            });
+        }
+        sendChunkedResponse(chunker);
     }
 
     private void getQueriesAndRespond(CentralRequest request,
@@ -736,16 +794,26 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
             sendExceptionResponse(request, responseObserver);
             return;
         }
+        ResponseChunker chunker = newResponseChunker(request, responseObserver);
         QueriesResponse.Builder response = QueriesResponse.newBuilder();
         if (queries != null) {
-            response.addAllQuery(queries.queries());
             response.addAllSharedQueryText(sharedQueryTextLimiter
                     .reduceTracePayloadWherePossible(queries.sharedQueryTexts()));
         }
-        responseObserver.onNext(AgentResponse.newBuilder()
-                .setRequestId(request.getRequestId())
-                .setQueriesResponse(response)
-                .build());
+        chunker.add(AgentResponse.newBuilder()
+                .setQueriesResponse(response));
+        if (queries != null) {
+            chunker.addAll(queries.queries(),
+                    new ResponseChunker.ChunkBuilder<Aggregate.Query>() {
+                        @Override
+                        public AgentResponse.Builder build(List<Aggregate.Query> items) {
+                            return AgentResponse.newBuilder()
+                                    .setQueriesResponse(QueriesResponse.newBuilder()
+                                            .addAllQuery(items));
+                        }
+                    });
+        }
+        sendChunkedResponse(chunker);
     }
 
     private void getMainThreadProfileAndRespond(CentralRequest request,
@@ -759,18 +827,29 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
             sendExceptionResponse(request, responseObserver);
             return;
         }
-        MainThreadProfileResponse response;
+        ResponseChunker chunker = newResponseChunker(request, responseObserver);
         if (profile == null) {
-            response = MainThreadProfileResponse.getDefaultInstance();
+            chunker.add(AgentResponse.newBuilder()
+                    .setMainThreadProfileResponse(MainThreadProfileResponse.getDefaultInstance()));
         } else {
-            response = MainThreadProfileResponse.newBuilder()
-                    .setProfile(profile)
-                    .build();
+            // package/class/method/file names are sent in the first chunk
+            chunker.add(AgentResponse.newBuilder()
+                    .setMainThreadProfileResponse(MainThreadProfileResponse.newBuilder()
+                            .setProfile(profile.toBuilder()
+                                    .clearNode())));
+            chunker.addAll(profile.getNodeList(),
+                    new ResponseChunker.ChunkBuilder<Profile.ProfileNode>() {
+                        @Override
+                        public AgentResponse.Builder build(List<Profile.ProfileNode> items) {
+                            return AgentResponse.newBuilder()
+                                    .setMainThreadProfileResponse(MainThreadProfileResponse
+                                            .newBuilder()
+                                            .setProfile(Profile.newBuilder()
+                                                    .addAllNode(items)));
+                        }
+                    });
         }
-        responseObserver.onNext(AgentResponse.newBuilder()
-                .setRequestId(request.getRequestId())
-                .setMainThreadProfileResponse(response)
-                .build());
+        sendChunkedResponse(chunker);
     }
 
     private void getAuxThreadProfileAndRespond(CentralRequest request,
@@ -784,18 +863,29 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
             sendExceptionResponse(request, responseObserver);
             return;
         }
-        AuxThreadProfileResponse response;
+        ResponseChunker chunker = newResponseChunker(request, responseObserver);
         if (profile == null) {
-            response = AuxThreadProfileResponse.getDefaultInstance();
+            chunker.add(AgentResponse.newBuilder()
+                    .setAuxThreadProfileResponse(AuxThreadProfileResponse.getDefaultInstance()));
         } else {
-            response = AuxThreadProfileResponse.newBuilder()
-                    .setProfile(profile)
-                    .build();
+            // package/class/method/file names are sent in the first chunk
+            chunker.add(AgentResponse.newBuilder()
+                    .setAuxThreadProfileResponse(AuxThreadProfileResponse.newBuilder()
+                            .setProfile(profile.toBuilder()
+                                    .clearNode())));
+            chunker.addAll(profile.getNodeList(),
+                    new ResponseChunker.ChunkBuilder<Profile.ProfileNode>() {
+                        @Override
+                        public AgentResponse.Builder build(List<Profile.ProfileNode> items) {
+                            return AgentResponse.newBuilder()
+                                    .setAuxThreadProfileResponse(AuxThreadProfileResponse
+                                            .newBuilder()
+                                            .setProfile(Profile.newBuilder()
+                                                    .addAllNode(items)));
+                        }
+                    });
         }
-        responseObserver.onNext(AgentResponse.newBuilder()
-                .setRequestId(request.getRequestId())
-                .setAuxThreadProfileResponse(response)
-                .build());
+        sendChunkedResponse(chunker);
     }
 
     private void getFullTraceAndRespond(CentralRequest request,
@@ -809,18 +899,85 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
             sendExceptionResponse(request, responseObserver);
             return;
         }
-        FullTraceResponse response;
+        ResponseChunker chunker = newResponseChunker(request, responseObserver);
         if (trace == null) {
-            response = FullTraceResponse.getDefaultInstance();
-        } else {
-            response = FullTraceResponse.newBuilder()
-                    .setTrace(trace)
-                    .build();
+            chunker.add(AgentResponse.newBuilder()
+                    .setFullTraceResponse(FullTraceResponse.getDefaultInstance()));
+            sendChunkedResponse(chunker);
+            return;
+        }
+        // everything other than entries, queries and profile nodes is sent in the first chunk
+        Trace.Builder firstChunk = trace.toBuilder()
+                .clearEntry()
+                .clearQuery();
+        if (trace.hasMainThreadProfile()) {
+            firstChunk.setMainThreadProfile(trace.getMainThreadProfile().toBuilder()
+                    .clearNode());
+        }
+        if (trace.hasAuxThreadProfile()) {
+            firstChunk.setAuxThreadProfile(trace.getAuxThreadProfile().toBuilder()
+                    .clearNode());
+        }
+        chunker.add(AgentResponse.newBuilder()
+                .setFullTraceResponse(FullTraceResponse.newBuilder()
+                        .setTrace(firstChunk)));
+        chunker.addAll(trace.getEntryList(), new ResponseChunker.ChunkBuilder<Trace.Entry>() {
+            @Override
+            public AgentResponse.Builder build(List<Trace.Entry> items) {
+                return fullTraceChunk(Trace.newBuilder()
+                        .addAllEntry(items));
+            }
+        });
+        chunker.addAll(trace.getQueryList(), new ResponseChunker.ChunkBuilder<Aggregate.Query>() {
+            @Override
+            public AgentResponse.Builder build(List<Aggregate.Query> items) {
+                return fullTraceChunk(Trace.newBuilder()
+                        .addAllQuery(items));
+            }
+        });
+        chunker.addAll(trace.getMainThreadProfile().getNodeList(),
+                new ResponseChunker.ChunkBuilder<Profile.ProfileNode>() {
+                    @Override
+                    public AgentResponse.Builder build(List<Profile.ProfileNode> items) {
+                        return fullTraceChunk(Trace.newBuilder()
+                                .setMainThreadProfile(Profile.newBuilder()
+                                        .addAllNode(items)));
+                    }
+                });
+        chunker.addAll(trace.getAuxThreadProfile().getNodeList(),
+                new ResponseChunker.ChunkBuilder<Profile.ProfileNode>() {
+                    @Override
+                    public AgentResponse.Builder build(List<Profile.ProfileNode> items) {
+                        return fullTraceChunk(Trace.newBuilder()
+                                .setAuxThreadProfile(Profile.newBuilder()
+                                        .addAllNode(items)));
+                    }
+                });
+        sendChunkedResponse(chunker);
+    }
+
+    private ResponseChunker newResponseChunker(CentralRequest request,
+            StreamObserver<AgentResponse> responseObserver) {
+        return new ResponseChunker(responseObserver, request.getRequestId(),
+                chunkedResponseSupported, getCentralTimeoutSeconds(request.getMessageCase()));
+    }
+
+    private void sendChunkedResponse(ResponseChunker chunker) {
+        pendingChunkedResponses.add(chunker);
+        sendPendingChunkedResponses();
+    }
+
+    // called from the grpc callback thread, both after a chunked response is added and whenever
+    // the stream becomes ready again
+    private synchronized void sendPendingChunkedResponses() {
+        ResponseChunker chunker;
+        while ((chunker = pendingChunkedResponses.peek()) != null) {
+            if (!chunker.sendWhileReady()) {
+                // on ready handler will continue once the stream is ready again
+                return;
+            }
+            pendingChunkedResponses.remove();
         }
-        responseObserver.onNext(AgentResponse.newBuilder()
-                .setRequestId(request.getRequestId())
-                .setFullTraceResponse(response)
-                .build());
     }
 
     @OnlyUsedByTests
@@ -838,6 +995,29 @@ class DownstreamServiceObserver implements StreamObserver<CentralRequest> {
         checkState(closedByCentralCollector);
     }
 
+    // this needs to be kept in sync with the response timeouts in the central collector's
+    // DownstreamServiceImpl (the central collector timeout restarts each time a chunk is received)
+    private static int getCentralTimeoutSeconds(MessageCase messageCase) {
+        switch (messageCase) {
+            case HEADER_REQUEST:
+            case ENTRIES_REQUEST:
+            case MAIN_THREAD_PROFILE_REQUEST:
+            case AUX_THREAD_PROFILE_REQUEST:
+            case FULL_TRACE_REQUEST:
+                return 5;
+            case HEAP_DUMP_REQUEST:
+                return 180;
+            default:
+                return 60;
+        }
+    }
+
+    private static AgentResponse.Builder fullTraceChunk(Trace.Builder trace) {
+        return AgentResponse.newBuilder()
+                .setFullTraceResponse(FullTraceResponse.newBuilder()
+                        .setTrace(trace));
+    }
+
     private static void sendExceptionResponse(CentralRequest request,
             StreamObserver<AgentResponse> responseObserver) {
         responseObserver.onNext(AgentResponse.newBuilder()
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import com.google.common.hash.Hashing;
+
+import static com.google.common.base.Charsets.UTF_8;
+
+// the same long query texts are hashed over and over (every aggregate flush and every trace sent
+// to the central collector), so the sha1 is computed once per distinct query text
+//
+// bounded by total number of characters, since it retains the (long) query texts
+class FullQueryTextSha1s {
+
+    private final Cache<String, String> sha1s;
+
+    FullQueryTextSha1s(int maxCharacters) {
+        sha1s = CacheBuilder.newBuilder()
+                .maximumWeight(maxCharacters)
+                .weigher(new Weigher<String, String>() {
+                    @Override
+                    public int weigh(String fullQueryText, String sha1) {
+                        return fullQueryText.length() + sha1.length();
+                    }
+                })
+                .build();
+    }
+
+    String getSha1(String fullQueryText) {
+        String sha1 = sha1s.getIfPresent(fullQueryText);
+        if (sha1 == null) {
+            sha1 = Hashing.sha1().hashString(fullQueryText, UTF_8).toString();
+            sha1s.put(fullQueryText, sha1);
+        }
+        return sha1;
+    }
+
+    @VisibleForTesting
+    long size() {
+        return sha1s.size();
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.protobuf.MessageLite;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.Compressor;
+import io.grpc.CompressorRegistry;
+import io.grpc.ForwardingClientCall.SimpleForwardingClientCall;
+import io.grpc.MethodDescriptor;
+import io.grpc.netty.NettyChannelBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// compression of messages sent from the agent to the central collector
+//
+// the central collector (and any grpc server) advertises gzip support, and since "gzip-fast" still
+// produces the standard gzip format (just at the fastest deflate level), no coordination with the
+// central collector is needed for it
+class GrpcCompression implements ClientInterceptor {
+
+    private static final Logger logger = LoggerFactory.getLogger(GrpcCompression.class);
+
+    private static final String GZIP = "gzip";
+
+    private static final int DEFAULT_MIN_SIZE_BYTES = 1024;
+
+    private final Mode mode;
+    private final int minSizeBytes;
+    // method names (e.g. collectGaugeValues) whose messages are never compressed
+    private final ImmutableSet<String> excludedMethodNames;
+
+    @VisibleForTesting
+    GrpcCompression(Mode mode, int minSizeBytes, Set<String> excludedMethodNames) {
+        this.mode = mode;
+        this.minSizeBytes = minSizeBytes;
+        this.excludedMethodNames = ImmutableSet.copyOf(excludedMethodNames);
+    }
+
+    static GrpcCompression create(Map<String, String> properties) {
+        Mode mode = Mode.GZIP;
+        String compression = properties.get("glowroot.collector.compression");
+        if (compression != null) {
+            if (compression.equals("gzip")) {
+                mode = Mode.GZIP;
+            } else if (compression.equals("gzip-fast")) {
+                mode = Mode.GZIP_FAST;
+            } else if (compression.equals("none")) {
+                mode = Mode.NONE;
+            } else {
+                logger.warn("invalid glowroot.collector.compression value: {} (expecting gzip,"
+                        + " gzip-fast or none)", compression);
+            }
+        }
+        int minSizeBytes = DEFAULT_MIN_SIZE_BYTES;
+        String minSizeBytesText = properties.get("glowroot.collector.compression.min.size.bytes");
+        if (minSizeBytesText != null) {
+            try {
+                minSizeBytes = Integer.parseInt(minSizeBytesText);
+            } catch (NumberFormatException e) {
+                logger.warn("invalid glowroot.collector.compression.min.size.bytes value: {}",
+                        minSizeBytesText);
+            }
+        }
+        Set<String> excludedMethodNames = ImmutableSet.of();
+        String excludedMethodNamesText =
+                properties.get("glowroot.collector.compression.exclude.methods");
+        if (excludedMethodNamesText != null) {
+            excludedMethodNames = ImmutableSet.copyOf(Splitter.on(',').trimResults()
+                    .omitEmptyStrings().split(excludedMethodNamesText));
+        }
+        return new GrpcCompression(mode, minSizeBytes, excludedMethodNames);
+    }
+
+    void configure(NettyChannelBuilder builder) {
+        if (mode == Mode.NONE) {
+            return;
+        }
+        if (mode == Mode.GZIP_FAST) {
+            CompressorRegistry compressorRegistry = CompressorRegistry.newEmptyInstance();
+            compressorRegistry.register(new FastGzip());
+            builder.compressorRegistry(compressorRegistry);
+        }
+        builder.intercept(this);
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(
+            MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+        if (mode == Mode.NONE || excludedMethodNames.contains(getMethodName(method))) {
+            return next.newCall(method, callOptions);
+        }
+        return new SimpleForwardingClientCall<ReqT, RespT>(
+                next.newCall(method, callOptions.withCompression(GZIP))) {
+            @Override
+            public void sendMessage(ReqT message) {
+                delegate().setMessageCompression(shouldCompress(message));
+                super.sendMessage(message);
+            }
+        };
+    }
+
+    @VisibleForTesting
+    boolean shouldCompress(Object message) {
+        // compressing small messages (e.g. gauge values) costs more cpu than it's worth, and can
+        // even increase the message size due to the gzip header
+        return !(message instanceof MessageLite)
+                || ((MessageLite) message).getSerializedSize() >= minSizeBytes;
+    }
+
+    private static String getMethodName(MethodDescriptor<?, ?> method) {
+        String fullMethodName = method.getFullMethodName();
+        return fullMethodName.substring(fullMethodName.lastIndexOf('/') + 1);
+    }
+
+    enum Mode {
+        GZIP, GZIP_FAST, NONE
+    }
+
+    // same message encoding as Codec.Gzip, so it is decompressed by the standard gzip decompressor
+    @VisibleForTesting
+    static class FastGzip implements Compressor {
+
+        @Override
+        public String getMessageEncoding() {
+            return GZIP;
+        }
+
+        @Override
+        public OutputStream compress(OutputStream os) throws IOException {
+            return new GZIPOutputStream(os) {
+                {
+                    def.setLevel(Deflater.BEST_SPEED);
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.protobuf.MessageLite;
+import io.grpc.stub.CallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.AgentResponse;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// sends a response as multiple chunks which are merged back together by the central collector
+// (using protobuf merge semantics), so that a large response (e.g. a trace with hundreds of
+// thousands of entries) is never serialized into a single huge message, and so that it doesn't
+// run into the central collector's max inbound message size
+//
+// chunks are only built when they are about to be sent, and are only sent while the grpc stream is
+// ready (sendWhileReady() is called again by the stream's on ready handler), so that grpc never
+// buffers more than about a chunk of the response in memory, and so that the grpc callback thread
+// is never blocked waiting for the stream to become ready
+//
+// if the central collector does not support chunked responses, the chunks are merged here instead
+// and sent as a single message
+class ResponseChunker {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResponseChunker.class);
+
+    static final int MAX_CHUNK_SIZE_BYTES = 1024 * 1024;
+
+    private final StreamObserver<AgentResponse> responseObserver;
+    private final long requestId;
+    private final boolean chunkedResponseSupported;
+    private final int centralTimeoutSeconds;
+    private final int maxChunkSizeBytes;
+    private final Ticker ticker;
+
+    private final Queue<Chunk> chunks = new ArrayDeque<Chunk>();
+
+    // the central collector times out if it has not received a chunk in centralTimeoutSeconds
+    private long lastSentTick;
+
+    ResponseChunker(StreamObserver<AgentResponse> responseObserver, long requestId,
+            boolean chunkedResponseSupported, int centralTimeoutSeconds) {
+        this(responseObserver, requestId, chunkedResponseSupported, centralTimeoutSeconds,
+                MAX_CHUNK_SIZE_BYTES, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    ResponseChunker(StreamObserver<AgentResponse> responseObserver, long requestId,
+            boolean chunkedResponseSupported, int centralTimeoutSeconds, int maxChunkSizeBytes,
+            Ticker ticker) {
+        this.responseObserver = responseObserver;
+        this.requestId = requestId;
+        this.chunkedResponseSupported = chunkedResponseSupported;
+        this.centralTimeoutSeconds = centralTimeoutSeconds;
+        this.maxChunkSizeBytes = maxChunkSizeBytes;
+        this.ticker = ticker;
+        lastSentTick = ticker.read();
+    }
+
+    void add(final AgentResponse.Builder chunk) {
+        chunks.add(new Chunk() {
+            @Override
+            public AgentResponse.Builder build() {
+                return chunk;
+            }
+        });
+    }
+
+    // splits the items into chunks of up to approximately maxChunkSizeBytes each
+    <T extends MessageLite> void addAll(List<T> items, ChunkBuilder<T> chunkBuilder) {
+        int fromIndex = 0;
+        int chunkSizeBytes = 0;
+        for (int i = 0; i < items.size(); i++) {
+            // protobuf memoizes the serialized size, so this is not wasted effort
+            int itemSizeBytes = items.get(i).getSerializedSize();
+            if (i > fromIndex && chunkSizeBytes + itemSizeBytes > maxChunkSizeBytes) {
+                chunks.add(new SubListChunk<T>(items, fromIndex, i, chunkBuilder));
+                fromIndex = i;
+                chunkSizeBytes = 0;
+            }
+            chunkSizeBytes += itemSizeBytes;
+        }
+        if (fromIndex < items.size()) {
+            chunks.add(new SubListChunk<T>(items, fromIndex, items.size(), chunkBuilder));
+        }
+    }
+
+    // must only be called after all chunks have been added
+    //
+    // returns false if the stream is not ready, in which case this needs to be called again once
+    // the stream is ready
+    boolean sendWhileReady() {
+        if (!chunkedResponseSupported) {
+            sendMerged();
+            return true;
+        }
+        while (!chunks.isEmpty()) {
+            if (ticker.read() - lastSentTick > SECONDS.toNanos(centralTimeoutSeconds)) {
+                // stop sending, since the central collector has already timed out waiting for the
+                // response and would not be able to match up the remaining chunks
+                logger.warn("aborted sending response to the central collector since the"
+                        + " connection was not ready to send for more than {} seconds",
+                        centralTimeoutSeconds);
+                chunks.clear();
+                return true;
+            }
+            if (!isReady()) {
+                return false;
+            }
+            AgentResponse.Builder chunk = chunks.remove().build();
+            responseObserver.onNext(chunk
+                    .setRequestId(requestId)
+                    .setMoreChunks(!chunks.isEmpty())
+                    .build());
+            lastSentTick = ticker.read();
+        }
+        return true;
+    }
+
+    private void sendMerged() {
+        AgentResponse. /*@Nullable*/ Builder response = null;
+        while (!chunks.isEmpty()) {
+            AgentResponse.Builder chunk = chunks.remove().build();
+            if (response == null) {
+                response = chunk;
+            } else {
+                response.mergeFrom(chunk.build());
+            }
+        }
+        if (response != null) {
+            responseObserver.onNext(response
+                    .setRequestId(requestId)
+                    .build());
+        }
+    }
+
+    private boolean isReady() {
+        return !(responseObserver instanceof CallStreamObserver)
+                || ((CallStreamObserver<?>) responseObserver).isReady();
+    }
+
+    interface ChunkBuilder<T> {
+        AgentResponse.Builder build(List<T> items);
+    }
+
+    private interface Chunk {
+        AgentResponse.Builder build();
+    }
+
+    private static class SubListChunk<T> implements Chunk {
+
+        private final List<T> items;
+        private final int fromIndex;
+        private final int toIndex;
+        private final ChunkBuilder<T> chunkBuilder;
+
+        private SubListChunk(List<T> items, int fromIndex, int toIndex,
+                ChunkBuilder<T> chunkBuilder) {
+            this.items = items;
+            this.fromIndex = fromIndex;
+            this.toIndex = toIndex;
+            this.chunkBuilder = chunkBuilder;
+        }
+
+        @Override
+        public AgentResponse.Builder build() {
+            return chunkBuilder.build(items.subList(fromIndex, toIndex));
+        }
+    }
+}
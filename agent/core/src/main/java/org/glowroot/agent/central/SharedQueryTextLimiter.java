@@ -20,18 +20,18 @@ import java.util.List;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
-import com.google.common.hash.Hashing;
 
 import org.glowroot.common.Constants;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
-import static com.google.common.base.Charsets.UTF_8;
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.concurrent.TimeUnit.DAYS;
 
 class SharedQueryTextLimiter {
 
+    private static final int FULL_QUERY_TEXT_SHA1S_MAX_CHARACTERS = 2 * 1024 * 1024;
+
     // if full text sha1 has not been sent in the past day, there's a possibility the full text may
     // have expired in the central collector and so full text must be sent
     private final Cache<String, Boolean> sentInThePastDay = CacheBuilder.newBuilder()
@@ -39,10 +39,14 @@ class SharedQueryTextLimiter {
             .maximumSize(10000)
             .build();
 
+    // owned here (instead of agent-wide) so that it only lives as long as the central collector
+    private final FullQueryTextSha1s fullQueryTextSha1s =
+            new FullQueryTextSha1s(FULL_QUERY_TEXT_SHA1S_MAX_CHARACTERS);
+
     Aggregate.SharedQueryText buildAggregateSharedQueryText(String fullText,
             List<String> fullTextSha1s) {
         if (fullText.length() > Constants.AGGREGATE_QUERY_TEXT_TRUNCATE) {
-            String fullTextSha1 = Hashing.sha1().hashString(fullText, UTF_8).toString();
+            String fullTextSha1 = fullQueryTextSha1s.getSha1(fullText);
             if (sentInThePastDay.getIfPresent(fullTextSha1) == null) {
                 // need to send full text
                 fullTextSha1s.add(fullTextSha1);
@@ -66,7 +70,7 @@ class SharedQueryTextLimiter {
 
     Trace.SharedQueryText buildTraceSharedQueryText(String fullText, List<String> fullTextSha1s) {
         if (fullText.length() > 2 * Constants.TRACE_QUERY_TEXT_TRUNCATE) {
-            String fullTextSha1 = Hashing.sha1().hashString(fullText, UTF_8).toString();
+            String fullTextSha1 = fullQueryTextSha1s.getSha1(fullText);
             if (sentInThePastDay.getIfPresent(fullTextSha1) == null) {
                 fullTextSha1s.add(fullTextSha1);
                 // need to send full text
@@ -101,8 +105,7 @@ class SharedQueryTextLimiter {
             checkState(sharedQueryText.getFullTextSha1().isEmpty());
             String fullText = sharedQueryText.getFullText();
             if (fullText.length() > 2 * Constants.TRACE_QUERY_TEXT_TRUNCATE) {
-                String fullTextSha1 =
-                        Hashing.sha1().hashString(fullText, UTF_8).toString();
+                String fullTextSha1 = fullQueryTextSha1s.getSha1(fullText);
                 if (sentInThePastDay.getIfPresent(fullTextSha1) == null) {
                     // need to send full text
                     updatedSharedQueryTexts.add(sharedQueryText);
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import org.glowroot.agent.model.SharedStringCollection;
+
+// string table for the highly repetitive strings in aggregates (transaction types, timer names,
+// query types and service call types) that is built up over a single aggregate stream, the
+// aggregates are built directly with the indexes (see AggregateVisitor.getSharedStringCollection())
+//
+// not thread safe, one instance per aggregate stream
+class SharedStringEncoder implements SharedStringCollection {
+
+    private final Map<String, Integer> sharedStringIndexes = Maps.newHashMap();
+    private final List<String> newSharedStrings = Lists.newArrayList();
+
+    @Override
+    public int getSharedStringIndex(String str) {
+        Integer index = sharedStringIndexes.get(str);
+        if (index == null) {
+            index = sharedStringIndexes.size();
+            sharedStringIndexes.put(str, index);
+            newSharedStrings.add(str);
+        }
+        return index;
+    }
+
+    // returns the shared strings that have been added since the last call, these must be sent
+    // prior to any message that references them
+    List<String> drainNewSharedStrings() {
+        if (newSharedStrings.isEmpty()) {
+            return newSharedStrings;
+        }
+        List<String> drained = Lists.newArrayList(newSharedStrings);
+        newSharedStrings.clear();
+        return drained;
+    }
+
+    void clear() {
+        sharedStringIndexes.clear();
+        newSharedStrings.clear();
+    }
+}
@@ -20,6 +20,9 @@ import java.io.IOException;
 import java.sql.SQLException;
 import java.util.List;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import org.glowroot.agent.model.SharedStringCollection;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.GaugeValue;
@@ -61,6 +64,10 @@ public interface Collector {
     }
 
     public interface AggregateVisitor {
+        // when non-null, timer names, query types and service call types in the aggregates passed
+        // to this visitor are replaced by indexes from this shared string collection
+        @Nullable
+        SharedStringCollection getSharedStringCollection();
         void visitOverallAggregate(String transactionType, List<String> sharedQueryTexts,
                 Aggregate overallAggregate) throws Exception;
         void visitTransactionAggregate(String transactionType, String transactionName,
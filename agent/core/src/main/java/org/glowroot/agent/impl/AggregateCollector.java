@@ -27,6 +27,7 @@ import org.glowroot.agent.model.MutableAggregateTimer;
 import org.glowroot.agent.model.QueryCollector;
 import org.glowroot.agent.model.ServiceCallCollector;
 import org.glowroot.agent.model.SharedQueryTextCollection;
+import org.glowroot.agent.model.SharedStringCollection;
 import org.glowroot.agent.model.ThreadProfile;
 import org.glowroot.agent.model.ThreadStats;
 import org.glowroot.agent.model.TransactionTimer;
@@ -60,6 +61,7 @@ class AggregateCollector {
     private double totalDurationNanos;
     private long transactionCount;
     private long errorCount;
+    private long unsampledTransactionCount;
     private boolean asyncTransactions;
     private final RootTimerCollectorImpl mainThreadRootTimers = new RootTimerCollectorImpl();
     private final ThreadStatsCollectorImpl mainThreadStats = new ThreadStatsCollectorImpl();
@@ -98,6 +100,9 @@ class AggregateCollector {
         if (transaction.getErrorMessage() != null) {
             errorCount++;
         }
+        if (!transaction.isSampled()) {
+            unsampledTransactionCount++;
+        }
         if (transaction.isAsync()) {
             asyncTransactions = true;
         }
@@ -138,29 +143,33 @@ class AggregateCollector {
         }
     }
 
+    // when sharedStringCollection is non-null, timer names, query types and service call types are
+    // sent as shared string indexes
     Aggregate build(SharedQueryTextCollection sharedQueryTextCollection,
-            ScratchBuffer scratchBuffer) {
+            @Nullable SharedStringCollection sharedStringCollection, ScratchBuffer scratchBuffer) {
         Aggregate.Builder builder = Aggregate.newBuilder()
                 .setTotalDurationNanos(totalDurationNanos)
                 .setTransactionCount(transactionCount)
                 .setErrorCount(errorCount)
+                .setUnsampledTransactionCount(unsampledTransactionCount)
                 .setAsyncTransactions(asyncTransactions)
-                .addAllMainThreadRootTimer(mainThreadRootTimers.toProto())
+                .addAllMainThreadRootTimer(mainThreadRootTimers.toProto(sharedStringCollection))
                 .setMainThreadStats(mainThreadStats.toProto())
                 .setDurationNanosHistogram(durationNanosHistogram.toProto(scratchBuffer));
         if (auxThreadRootTimer != null) {
-            builder.setAuxThreadRootTimer(auxThreadRootTimer.toProto());
+            builder.setAuxThreadRootTimer(auxThreadRootTimer.toProto(sharedStringCollection));
             // aux thread stats is non-null when aux thread root timer is non-null
             builder.setAuxThreadStats(checkNotNull(auxThreadStats).toProto());
         }
         if (asyncTimers != null) {
-            builder.addAllAsyncTimer(asyncTimers.toProto());
+            builder.addAllAsyncTimer(asyncTimers.toProto(sharedStringCollection));
         }
         if (queries != null) {
-            builder.addAllQuery(queries.toAggregateProto(sharedQueryTextCollection, false));
+            builder.addAllQuery(queries.toAggregateProto(sharedQueryTextCollection,
+                    sharedStringCollection, false));
         }
         if (serviceCalls != null) {
-            builder.addAllServiceCall(serviceCalls.toAggregateProto());
+            builder.addAllServiceCall(serviceCalls.toAggregateProto(sharedStringCollection));
         }
         if (mainThreadProfile != null) {
             builder.setMainThreadProfile(mainThreadProfile.toProto());
@@ -196,6 +205,7 @@ class AggregateCollector {
                 .captureTime(captureTime)
                 .totalDurationNanos(totalDurationNanos)
                 .transactionCount(transactionCount)
+                .unsampledTransactionCount(unsampledTransactionCount)
                 .asyncTransactions(asyncTransactions)
                 .mainThreadRootTimers(mainThreadRootTimers.toProto())
                 .mainThreadStats(mainThreadStats.toProto());
@@ -279,9 +289,14 @@ class AggregateCollector {
         }
 
         private List<Aggregate.Timer> toProto() {
+            return toProto(null);
+        }
+
+        private List<Aggregate.Timer> toProto(
+                @Nullable SharedStringCollection sharedStringCollection) {
             List<Aggregate.Timer> rootTimers = Lists.newArrayList();
             for (MutableAggregateTimer rootMutableTimer : rootMutableTimers) {
-                rootTimers.add(rootMutableTimer.toProto());
+                rootTimers.add(rootMutableTimer.toProto(sharedStringCollection));
             }
             return rootTimers;
         }
@@ -294,9 +309,16 @@ class AggregateCollector {
         private long totalBlockedMillis;
         private long totalWaitedMillis;
         private double totalAllocatedBytes;
+        private boolean empty = true;
 
+        // thread contexts without thread stats (e.g. virtual threads) are excluded, instead of
+        // making the aggregate thread stats not available
         @Override
         public void mergeThreadStats(ThreadStats threadStats) {
+            if (threadStats == ThreadStats.NA) {
+                return;
+            }
+            empty = false;
             totalCpuNanos = NotAvailableAware.add(totalCpuNanos, threadStats.getCpuNanos());
             totalBlockedMillis =
                     NotAvailableAware.add(totalBlockedMillis, threadStats.getBlockedMillis());
@@ -307,6 +329,14 @@ class AggregateCollector {
         }
 
         public Aggregate.ThreadStats toProto() {
+            if (empty) {
+                return Aggregate.ThreadStats.newBuilder()
+                        .setTotalCpuNanos(NotAvailableAware.NA)
+                        .setTotalBlockedNanos(NotAvailableAware.NA)
+                        .setTotalWaitedNanos(NotAvailableAware.NA)
+                        .setTotalAllocatedBytes(NotAvailableAware.NA)
+                        .build();
+            }
             return Aggregate.ThreadStats.newBuilder()
                     .setTotalCpuNanos(totalCpuNanos)
                     .setTotalBlockedNanos(NotAvailableAware.millisToNanos(totalBlockedMillis))
@@ -29,6 +29,7 @@ import org.glowroot.agent.collector.Collector;
 import org.glowroot.agent.collector.Collector.AggregateReader;
 import org.glowroot.agent.collector.Collector.AggregateVisitor;
 import org.glowroot.agent.model.SharedQueryTextCollection;
+import org.glowroot.agent.model.SharedStringCollection;
 import org.glowroot.common.live.LiveAggregateRepository.OverviewAggregate;
 import org.glowroot.common.live.LiveAggregateRepository.PercentileAggregate;
 import org.glowroot.common.live.LiveAggregateRepository.ThroughputAggregate;
@@ -350,19 +351,22 @@ public class AggregateIntervalCollector {
             synchronized (lock) {
                 SharedQueryTextCollectionImpl sharedQueryTextCollector =
                         new SharedQueryTextCollectionImpl();
+                SharedStringCollection sharedStringCollection =
+                        aggregateVisitor.getSharedStringCollection();
                 ScratchBuffer scratchBuffer = new ScratchBuffer();
                 for (Map.Entry<String, IntervalTypeCollector> e : typeCollectors.entrySet()) {
                     String transactionType = e.getKey();
                     IntervalTypeCollector intervalTypeCollector = e.getValue();
                     Aggregate overallAggregate = intervalTypeCollector.overallAggregateCollector
-                            .build(sharedQueryTextCollector, scratchBuffer);
+                            .build(sharedQueryTextCollector, sharedStringCollection,
+                                    scratchBuffer);
                     aggregateVisitor.visitOverallAggregate(transactionType,
                             sharedQueryTextCollector.getAndClearLastestSharedQueryTexts(),
                             overallAggregate);
                     for (Map.Entry<String, AggregateCollector> f : intervalTypeCollector.transactionAggregateCollectors
                             .entrySet()) {
-                        Aggregate transactionAggregate =
-                                f.getValue().build(sharedQueryTextCollector, scratchBuffer);
+                        Aggregate transactionAggregate = f.getValue().build(
+                                sharedQueryTextCollector, sharedStringCollection, scratchBuffer);
                         aggregateVisitor.visitTransactionAggregate(transactionType, f.getKey(),
                                 sharedQueryTextCollector.getAndClearLastestSharedQueryTexts(),
                                 transactionAggregate);
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+// trace entries are not captured (only timers and query aggregates) until the transaction has
+// reached delayPercent of its slow threshold
+//
+// ok if race conditions here since worst case is computing the start tick twice
+class EntryCaptureDelay {
+
+    private static final long START_TICK_NOT_SET = Long.MIN_VALUE;
+
+    private final long transactionStartTick;
+    private final int delayPercent;
+
+    private volatile boolean started;
+    private volatile long startTick = START_TICK_NOT_SET;
+
+    EntryCaptureDelay(long transactionStartTick, int delayPercent) {
+        this.transactionStartTick = transactionStartTick;
+        this.delayPercent = delayPercent;
+        started = delayPercent <= 0;
+    }
+
+    boolean isStarted(long currTick, Transaction transaction,
+            TransactionService transactionService) {
+        if (started) {
+            return true;
+        }
+        long startTick = this.startTick;
+        if (startTick == START_TICK_NOT_SET) {
+            // computed lazily (on first entry) since transaction name and slow threshold override
+            // are often set after the transaction has started
+            startTick = transactionStartTick
+                    + transactionService.getSlowThresholdNanos(transaction) / 100 * delayPercent;
+            this.startTick = startTick;
+        }
+        if (currTick - startTick < 0) {
+            return false;
+        }
+        started = true;
+        return true;
+    }
+
+    // called when the slow threshold may have changed (e.g. slow threshold override or transaction
+    // name changed), once started, entry capture is not stopped since entries have already been
+    // captured
+    void invalidateStartTick() {
+        startTick = START_TICK_NOT_SET;
+    }
+}
@@ -79,27 +79,54 @@ public class StackTraceCollector {
     }
 
     static void captureStackTraces(List<ThreadContextImpl> threadContexts) {
-        if (threadContexts.isEmpty()) {
+        List<ThreadContextImpl> platformThreadContexts =
+                Lists.newArrayListWithCapacity(threadContexts.size());
+        for (ThreadContextImpl threadContext : threadContexts) {
+            Thread virtualThread = threadContext.getVirtualThread();
+            if (virtualThread == null) {
+                platformThreadContexts.add(threadContext);
+            } else {
+                // virtual threads are not visible to ThreadMXBean, but (unlike platform threads)
+                // their stack trace can be captured whether they are currently mounted on a carrier
+                // thread or not
+                captureStackTrace(threadContext, virtualThread);
+            }
+        }
+        if (platformThreadContexts.isEmpty()) {
             // critical not to call ThreadMXBean.getThreadInfo() with empty id list
             // see https://bugs.openjdk.java.net/browse/JDK-8074368
             return;
         }
-        long[] threadIds = new long[threadContexts.size()];
-        for (int i = 0; i < threadContexts.size(); i++) {
-            threadIds[i] = threadContexts.get(i).getThreadId();
+        long[] threadIds = new long[platformThreadContexts.size()];
+        for (int i = 0; i < platformThreadContexts.size(); i++) {
+            threadIds[i] = platformThreadContexts.get(i).getThreadId();
         }
         @Nullable
         ThreadInfo[] threadInfos =
                 ManagementFactory.getThreadMXBean().getThreadInfo(threadIds, Integer.MAX_VALUE);
-        for (int i = 0; i < threadContexts.size(); i++) {
-            ThreadContextImpl threadContext = threadContexts.get(i);
+        for (int i = 0; i < platformThreadContexts.size(); i++) {
+            ThreadContextImpl threadContext = platformThreadContexts.get(i);
             ThreadInfo threadInfo = threadInfos[i];
             if (threadInfo != null) {
-                threadContext.captureStackTrace(threadInfo);
+                threadContext.captureStackTrace(threadInfo.getStackTrace(),
+                        threadInfo.getThreadState());
             }
         }
     }
 
+    private static void captureStackTrace(ThreadContextImpl threadContext, Thread virtualThread) {
+        Thread.State threadState = virtualThread.getState();
+        if (threadState == Thread.State.TERMINATED) {
+            return;
+        }
+        StackTraceElement[] stackTrace = virtualThread.getStackTrace();
+        if (stackTrace.length == 0) {
+            // thread must have just recently terminated (or not yet started)
+            return;
+        }
+        threadContext.captureStackTrace(stackTrace, threadState);
+    }
+
     private class InternalRunnable implements Runnable {
 
         private volatile int currIntervalMillis;
@@ -153,6 +180,9 @@ public class StackTraceCollector {
                     Lists.newArrayListWithCapacity(2 * transactions.size());
             for (int i = 0; i < transactions.size(); i++) {
                 Transaction transaction = transactions.get(i);
+                if (!transaction.isSampled()) {
+                    continue;
+                }
                 ThreadContextImpl mainThreadContext = transaction.getMainThreadContext();
                 if (mainThreadContext.isActive()) {
                     activeThreadContexts.add(mainThreadContext);
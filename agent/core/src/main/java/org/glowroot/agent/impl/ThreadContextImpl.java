@@ -15,7 +15,6 @@
  */
 package org.glowroot.agent.impl;
 
-import java.lang.management.ThreadInfo;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -60,6 +59,7 @@ import org.glowroot.agent.plugin.api.TimerName;
 import org.glowroot.agent.plugin.api.TraceEntry;
 import org.glowroot.agent.util.ThreadAllocatedBytes;
 import org.glowroot.agent.util.Tickers;
+import org.glowroot.agent.util.VirtualThreads;
 import org.glowroot.common.config.AdvancedConfig;
 import org.glowroot.common.util.NotAvailableAware;
 
@@ -116,6 +116,9 @@ public class ThreadContextImpl implements ThreadContextPlus {
     private final int maxServiceCallAggregates;
 
     private final long threadId;
+    // only non-null when running on a virtual thread, since virtual threads are not visible to
+    // ThreadMXBean, so their stack traces need to be captured via the thread object instead
+    private final @Nullable Thread virtualThread;
 
     private final boolean limitExceededAuxThreadContext;
 
@@ -154,9 +157,18 @@ public class ThreadContextImpl implements ThreadContextPlus {
         traceEntryComponent = new TraceEntryComponent(castInitialized(this), messageSupplier,
                 rootTimer, startTick);
         this.parentThreadContextPriorEntry = parentThreadContextPriorEntry;
-        threadId = Thread.currentThread().getId();
-        threadStatsComponent =
-                captureThreadStats ? new ThreadStatsComponent(threadAllocatedBytes) : null;
+        Thread currentThread = Thread.currentThread();
+        threadId = currentThread.getId();
+        if (VirtualThreads.isVirtual(currentThread)) {
+            virtualThread = currentThread;
+            // thread stats are not available for virtual threads (these thread contexts are then
+            // excluded when merging thread stats, see ThreadStatsCollectorImpl)
+            threadStatsComponent = null;
+        } else {
+            virtualThread = null;
+            threadStatsComponent =
+                    captureThreadStats ? new ThreadStatsComponent(threadAllocatedBytes) : null;
+        }
         this.maxQueryAggregates = maxQueryAggregates;
         this.maxServiceCallAggregates = maxServiceCallAggregates;
         this.limitExceededAuxThreadContext = limitExceededAuxThreadContext;
@@ -207,6 +219,11 @@ public class ThreadContextImpl implements ThreadContextPlus {
         return threadId;
     }
 
+    @Nullable
+    Thread getVirtualThread() {
+        return virtualThread;
+    }
+
     boolean isCompleted() {
         return traceEntryComponent.isCompleted();
     }
@@ -424,8 +441,8 @@ public class ThreadContextImpl implements ThreadContextPlus {
         return entry;
     }
 
-    void captureStackTrace(ThreadInfo threadInfo) {
-        transaction.captureStackTrace(isAuxiliary(), threadInfo);
+    void captureStackTrace(StackTraceElement[] stackTrace, Thread.State threadState) {
+        transaction.captureStackTrace(isAuxiliary(), stackTrace, threadState);
         // memory barrier read ensures timely visibility of detach()
         transaction.memoryBarrierRead();
     }
@@ -581,7 +598,7 @@ public class ThreadContextImpl implements ThreadContextPlus {
         }
         long startTick = ticker.read();
         TimerImpl timer = startTimer(timerName, startTick);
-        if (transaction.allowAnotherEntry()) {
+        if (transaction.allowAnotherEntry(startTick)) {
             return traceEntryComponent.pushEntry(startTick, messageSupplier, timer, null, null, 0);
         } else {
             return new DummyTraceEntryOrQuery(timer, null, startTick, messageSupplier, null, 0);
@@ -600,7 +617,7 @@ public class ThreadContextImpl implements ThreadContextPlus {
         }
         long startTick = ticker.read();
         TimerImpl timer = startTimer(timerName, startTick);
-        if (transaction.allowAnotherEntry()) {
+        if (transaction.allowAnotherEntry(startTick)) {
             return traceEntryComponent.pushEntry(startTick, messageSupplier, timer, null, null, 0);
         } else {
             return new DummyTraceEntryOrQuery(timer, null, startTick, messageSupplier, null, 0);
@@ -621,7 +638,7 @@ public class ThreadContextImpl implements ThreadContextPlus {
         long startTick = ticker.read();
         TimerImpl syncTimer = startTimer(timerName, startTick);
         AsyncTimer asyncTimer = transaction.startAsyncTimer(timerName, startTick);
-        if (transaction.allowAnotherEntry()) {
+        if (transaction.allowAnotherEntry(startTick)) {
             return startAsyncTraceEntry(startTick, messageSupplier, syncTimer, asyncTimer);
         } else {
             return new DummyTraceEntryOrQuery(syncTimer, asyncTimer, startTick, messageSupplier,
@@ -650,7 +667,7 @@ public class ThreadContextImpl implements ThreadContextPlus {
         }
         long startTick = ticker.read();
         TimerImpl timer = startTimer(timerName, startTick);
-        if (transaction.allowAnotherEntry()) {
+        if (transaction.allowAnotherEntry(startTick)) {
             SyncQueryData queryData = getOrCreateQueryData(queryType, queryText, true);
             return traceEntryComponent.pushEntry(startTick, queryMessageSupplier, timer, null,
                     queryData, 1);
@@ -686,7 +703,7 @@ public class ThreadContextImpl implements ThreadContextPlus {
         }
         long startTick = ticker.read();
         TimerImpl timer = startTimer(timerName, startTick);
-        if (transaction.allowAnotherEntry()) {
+        if (transaction.allowAnotherEntry(startTick)) {
             SyncQueryData queryData = getOrCreateQueryData(queryType, queryText, true);
             return traceEntryComponent.pushEntry(startTick, queryMessageSupplier, timer, null,
                     queryData, queryExecutionCount);
@@ -720,7 +737,7 @@ public class ThreadContextImpl implements ThreadContextPlus {
         long startTick = ticker.read();
         TimerImpl syncTimer = startTimer(timerName, startTick);
         AsyncTimer asyncTimer = transaction.startAsyncTimer(timerName, startTick);
-        if (transaction.allowAnotherEntry()) {
+        if (transaction.allowAnotherEntry(startTick)) {
             AsyncQueryData queryData =
                     transaction.getOrCreateAsyncQueryData(queryType, queryText, true);
             return startAsyncQueryEntry(startTick, queryMessageSupplier, syncTimer, asyncTimer,
@@ -754,7 +771,7 @@ public class ThreadContextImpl implements ThreadContextPlus {
         }
         long startTick = ticker.read();
         TimerImpl timer = startTimer(timerName, startTick);
-        if (transaction.allowAnotherEntry()) {
+        if (transaction.allowAnotherEntry(startTick)) {
             SyncQueryData queryData =
                     getOrCreateServiceCallData(serviceCallType, serviceCallText, true);
             return traceEntryComponent.pushEntry(startTick, messageSupplier, timer, null, queryData,
@@ -792,7 +809,7 @@ public class ThreadContextImpl implements ThreadContextPlus {
         long startTick = ticker.read();
         TimerImpl syncTimer = startTimer(timerName, startTick);
         AsyncTimer asyncTimer = transaction.startAsyncTimer(timerName, startTick);
-        if (transaction.allowAnotherEntry()) {
+        if (transaction.allowAnotherEntry(startTick)) {
             AsyncQueryData queryData = transaction.getOrCreateAsyncServiceCallData(serviceCallType,
                     serviceCallText, true);
             return startAsyncServiceCallEntry(startTick, messageSupplier, syncTimer, asyncTimer,
@@ -26,9 +26,16 @@ class ThreadStatsCollectorImpl implements ThreadStatsCollector {
     private long blockedMillis;
     private long waitedMillis;
     private long allocatedBytes;
+    private boolean empty = true;
 
+    // thread contexts without thread stats (e.g. virtual threads) are excluded, instead of making
+    // the merged thread stats not available
     @Override
     public void mergeThreadStats(ThreadStats threadStats) {
+        if (threadStats == ThreadStats.NA) {
+            return;
+        }
+        empty = false;
         cpuNanos = NotAvailableAware.add(cpuNanos, threadStats.getCpuNanos());
         blockedMillis = NotAvailableAware.add(blockedMillis, threadStats.getBlockedMillis());
         waitedMillis = NotAvailableAware.add(waitedMillis, threadStats.getWaitedMillis());
@@ -37,14 +44,25 @@ class ThreadStatsCollectorImpl implements ThreadStatsCollector {
     }
 
     ThreadStats getMergedThreadStats() {
+        if (empty) {
+            return ThreadStats.NA;
+        }
         return new ThreadStats(cpuNanos, blockedMillis, waitedMillis, allocatedBytes);
     }
 
     long getCpuNanos() {
-        return cpuNanos;
+        return empty ? NotAvailableAware.NA : cpuNanos;
     }
 
     public Trace.ThreadStats toProto() {
+        if (empty) {
+            return Trace.ThreadStats.newBuilder()
+                    .setCpuNanos(NotAvailableAware.NA)
+                    .setBlockedNanos(NotAvailableAware.NA)
+                    .setWaitedNanos(NotAvailableAware.NA)
+                    .setAllocatedBytes(NotAvailableAware.NA)
+                    .build();
+        }
         return Trace.ThreadStats.newBuilder()
                 .setCpuNanos(cpuNanos)
                 .setBlockedNanos(NotAvailableAware.millisToNanos(blockedMillis))
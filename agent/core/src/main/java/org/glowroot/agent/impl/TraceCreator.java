@@ -92,6 +92,7 @@ public class TraceCreator {
         builder.setPartial(partial);
         builder.setSlow(slow);
         builder.setAsync(transaction.isAsync());
+        builder.setUnsampled(!transaction.isSampled());
         ErrorMessage errorMessage = transaction.getErrorMessage();
         builder.setStartTime(transaction.getStartTime());
         builder.setCaptureTime(captureTime);
@@ -103,6 +103,12 @@ public class Transaction {
     private static final int TRANSACTION_AUX_THREAD_CONTEXT_LIMIT =
             Integer.getInteger("glowroot.transaction.aux.thread.context.limit", 1000);
 
+    // when set, trace entries are not captured (only timers and query aggregates) until the
+    // transaction has reached this percentage of its slow threshold, which avoids the cost of
+    // building trace entries for the vast majority of transactions that are never stored
+    private static final int ENTRY_CAPTURE_DELAY_PERCENT =
+            Integer.getInteger("glowroot.transaction.entry.capture.delay.percent", 0);
+
     private static final Random random = new Random();
 
     private volatile @Nullable String traceId;
@@ -134,6 +140,11 @@ public class Transaction {
     private final int maxQueryAggregates;
     private final int maxServiceCallAggregates;
     private final int maxProfileSamples;
+    // unsampled transactions (see sampling overrides in transaction config) still record timers,
+    // thread stats, queries and service calls for the aggregates, but do not capture trace entries
+    // (other than errors) or profile samples, and do not build trace entry hierarchies for
+    // auxiliary threads
+    private final boolean sampled;
 
     private final TransactionRegistry transactionRegistry;
     private final TransactionService transactionService;
@@ -173,6 +184,9 @@ public class Transaction {
     private volatile int entryLimitCounter;
     private volatile int extraErrorEntryLimitCounter;
 
+    // null when entry capture is not delayed (the default)
+    private final @Nullable EntryCaptureDelay entryCaptureDelay;
+
     private volatile @Nullable AtomicInteger throwableFrameLimitCounter;
 
     private final ThreadContextImpl mainThreadContext;
@@ -214,7 +228,8 @@ public class Transaction {
     Transaction(long startTime, long startTick, String transactionType, String transactionName,
             MessageSupplier messageSupplier, TimerName timerName, boolean captureThreadStats,
             int maxTraceEntries, int maxQueryAggregates, int maxServiceCallAggregates,
-            int maxProfileSamples, @Nullable ThreadAllocatedBytes threadAllocatedBytes,
+            int maxProfileSamples, boolean sampled,
+            @Nullable ThreadAllocatedBytes threadAllocatedBytes,
             CompletionCallback completionCallback, Ticker ticker,
             TransactionRegistry transactionRegistry, TransactionService transactionService,
             ConfigService configService, UserProfileScheduler userProfileScheduler,
@@ -228,12 +243,18 @@ public class Transaction {
         this.maxQueryAggregates = maxQueryAggregates;
         this.maxServiceCallAggregates = maxServiceCallAggregates;
         this.maxProfileSamples = maxProfileSamples;
+        this.sampled = sampled;
         this.completionCallback = completionCallback;
         this.ticker = ticker;
         this.userProfileScheduler = userProfileScheduler;
         this.transactionRegistry = transactionRegistry;
         this.transactionService = transactionService;
         this.configService = configService;
+        if (ENTRY_CAPTURE_DELAY_PERCENT > 0) {
+            entryCaptureDelay = new EntryCaptureDelay(startTick, ENTRY_CAPTURE_DELAY_PERCENT);
+        } else {
+            entryCaptureDelay = null;
+        }
         mainThreadContext = new ThreadContextImpl(castInitialized(this), null, null,
                 messageSupplier, timerName, startTick, captureThreadStats, maxQueryAggregates,
                 maxServiceCallAggregates, threadAllocatedBytes, false, ticker, threadContextHolder,
@@ -382,6 +403,8 @@ public class Transaction {
         return mainThreadContext.getThreadStats();
     }
 
+    // thread contexts without thread stats (e.g. virtual threads) are excluded, instead of making
+    // the total not available
     public long getCpuNanos() {
         long cpuNanos = mainThreadContext.getCpuNanos();
         synchronized (mainThreadContext) {
@@ -389,12 +412,11 @@ public class Transaction {
                 return cpuNanos;
             }
             if (alreadyMergedAuxThreadStats != null) {
-                cpuNanos =
-                        NotAvailableAware.add(cpuNanos, alreadyMergedAuxThreadStats.getCpuNanos());
+                cpuNanos = addAvailableCpuNanos(cpuNanos,
+                        alreadyMergedAuxThreadStats.getCpuNanos());
             }
             for (ThreadContextImpl auxThreadContext : getUnmergedAuxThreadContext()) {
-                cpuNanos =
-                        NotAvailableAware.add(cpuNanos, auxThreadContext.getCpuNanos());
+                cpuNanos = addAvailableCpuNanos(cpuNanos, auxThreadContext.getCpuNanos());
             }
         }
         return cpuNanos;
@@ -481,7 +503,15 @@ public class Transaction {
     }
 
     // this method has side effect of incrementing counter
-    boolean allowAnotherEntry() {
+    boolean allowAnotherEntry(long currTick) {
+        if (!sampled) {
+            return false;
+        }
+        if (entryCaptureDelay != null
+                && !entryCaptureDelay.isStarted(currTick, this, transactionService)) {
+            // not counted against the entry limit since the entry is not captured
+            return false;
+        }
         return entryLimitCounter++ < maxTraceEntries;
     }
 
@@ -493,22 +523,31 @@ public class Transaction {
     }
 
     public void visitEntries(long captureTick, TraceEntryVisitor entryVisitor) {
+        visitEntries(captureTick, 0, Integer.MAX_VALUE, entryVisitor);
+    }
+
+    // only visits (at most) limit entries starting at entry index fromIndex, the entries outside
+    // of that range are skipped without building their protobuf
+    public void visitEntries(long captureTick, int fromIndex, int limit,
+            TraceEntryVisitor entryVisitor) {
         synchronized (sharedQueryTextCollectionLock) {
             if (sharedQueryTextCollection == null) {
                 sharedQueryTextCollection = new SharedQueryTextCollectionImpl();
             }
-            visitEntriesInternal(captureTick, entryVisitor, sharedQueryTextCollection);
+            visitEntriesInternal(captureTick, entryVisitor, sharedQueryTextCollection,
+                    new EntryIndexRange(fromIndex, limit));
         }
     }
 
     int getEntryCount(long captureTick) {
         CountingEntryVisitor entryVisitor = new CountingEntryVisitor();
-        visitEntriesInternal(captureTick, entryVisitor, new NopSharedQueryTextCollection());
+        visitEntriesInternal(captureTick, entryVisitor, new NopSharedQueryTextCollection(),
+                new EntryIndexRange(0, Integer.MAX_VALUE));
         return entryVisitor.count;
     }
 
     private void visitEntriesInternal(long captureTick, TraceEntryVisitor entryVisitor,
-            SharedQueryTextCollection sharedQueryTextCollection) {
+            SharedQueryTextCollection sharedQueryTextCollection, EntryIndexRange range) {
         memoryBarrierRead();
         ListMultimap<TraceEntryImpl, ThreadContextImpl> priorEntryChildThreadContextMap =
                 buildPriorEntryChildThreadContextMap();
@@ -526,7 +565,7 @@ public class Transaction {
         new ParentChildMapTrimmer(mainThreadContext.getRootEntry(), parentChildMap, captureTick)
                 .traverse();
         addProtobufChildEntries(mainThreadContext.getRootEntry(), parentChildMap, startTick,
-                captureTick, 0, entryVisitor, sharedQueryTextCollection, async);
+                captureTick, 0, entryVisitor, sharedQueryTextCollection, async, range);
     }
 
     long getMainThreadProfileSampleCount() {
@@ -591,6 +630,10 @@ public class Transaction {
         return partiallyStored;
     }
 
+    boolean isSampled() {
+        return sampled;
+    }
+
     public ThreadContextImpl getMainThreadContext() {
         return mainThreadContext;
     }
@@ -622,6 +665,8 @@ public class Transaction {
         if (priority > transactionTypePriority && !transactionType.isEmpty()) {
             this.transactionType = transactionType;
             transactionTypePriority = priority;
+            // slow threshold may be transaction type specific
+            invalidateEntryCaptureStartTick();
         }
     }
 
@@ -629,6 +674,8 @@ public class Transaction {
         if (priority > transactionNamePriority && !transactionName.isEmpty()) {
             this.transactionName = transactionName;
             transactionNamePriority = priority;
+            // slow threshold may be transaction name specific
+            invalidateEntryCaptureStartTick();
         }
     }
 
@@ -670,6 +717,13 @@ public class Transaction {
             // use the minimum threshold from the same override source
             this.slowThresholdMillis = Math.min(this.slowThresholdMillis, slowThresholdMillis);
         }
+        invalidateEntryCaptureStartTick();
+    }
+
+    private void invalidateEntryCaptureStartTick() {
+        if (entryCaptureDelay != null) {
+            entryCaptureDelay.invalidateStartTick();
+        }
     }
 
     void setUserProfileRunnable(Cancellable userProfileRunnable) {
@@ -719,8 +773,8 @@ public class Transaction {
             // conditions below for parentTraceEntry and parentThreadContextPriorEntry are redundant
             // since they will not be null until after allowAnotherAuxThreadContextWithHierarchy()
             // starts returning false
-            if (allowAnotherAuxThreadContextWithTraceEntries() && parentTraceEntry != null
-                    && parentThreadContextPriorEntry != null) {
+            if (sampled && allowAnotherAuxThreadContextWithTraceEntries()
+                    && parentTraceEntry != null && parentThreadContextPriorEntry != null) {
                 auxThreadContext = new ThreadContextImpl(this, parentTraceEntry,
                         parentThreadContextPriorEntry, AuxThreadRootMessageSupplier.INSTANCE,
                         auxTimerName, startTick, mainThreadContext.getCaptureThreadStats(),
@@ -792,7 +846,8 @@ public class Transaction {
         return queryCount > maxQueryAggregates;
     }
 
-    void captureStackTrace(boolean auxiliary, ThreadInfo threadInfo) {
+    void captureStackTrace(boolean auxiliary, StackTraceElement[] stackTrace,
+            Thread.State threadState) {
         if (completed) {
             return;
         }
@@ -811,7 +866,7 @@ public class Transaction {
             // transaction profile field, so that it is not possible to read a profile that doesn't
             // have at least one stack trace
             profile = new ThreadProfile(maxProfileSamples);
-            profile.addStackTrace(threadInfo);
+            profile.addStackTrace(stackTrace, threadState);
             if (auxiliary) {
                 auxThreadProfile = profile;
             } else {
@@ -819,7 +874,7 @@ public class Transaction {
             }
             return;
         }
-        profile.addStackTrace(threadInfo);
+        profile.addStackTrace(stackTrace, threadState);
     }
 
     void end(long endTick, boolean completeAsyncTransaction) {
@@ -981,24 +1036,31 @@ public class Transaction {
     private static void addProtobufChildEntries(TraceEntryImpl entry,
             ListMultimap<TraceEntryImpl, TraceEntryImpl> parentChildMap, long transactionStartTick,
             long captureTick, int depth, TraceEntryVisitor entryVisitor,
-            SharedQueryTextCollection sharedQueryTextCollection, boolean removeSingleAuxEntry) {
+            SharedQueryTextCollection sharedQueryTextCollection, boolean removeSingleAuxEntry,
+            EntryIndexRange range) {
         if (!parentChildMap.containsKey(entry)) {
             // check containsKey to avoid creating garbage empty list via ListMultimap
             return;
         }
         Collection<TraceEntryImpl> childEntries = parentChildMap.get(entry);
         for (TraceEntryImpl childEntry : childEntries) {
+            if (range.isPastEnd()) {
+                return;
+            }
             boolean singleAuxEntry = childEntries.size() == 1 && childEntry.isAuxThreadRoot()
                     && !childEntry.hasLocationStackTrace();
             if (singleAuxEntry && removeSingleAuxEntry) {
                 addProtobufChildEntries(childEntry, parentChildMap, transactionStartTick,
                         captureTick, depth, entryVisitor, sharedQueryTextCollection,
-                        removeSingleAuxEntry);
+                        removeSingleAuxEntry, range);
             } else {
-                childEntry.accept(depth, transactionStartTick, captureTick, entryVisitor,
-                        sharedQueryTextCollection);
+                if (range.next()) {
+                    childEntry.accept(depth, transactionStartTick, captureTick, entryVisitor,
+                            sharedQueryTextCollection);
+                }
                 addProtobufChildEntries(childEntry, parentChildMap, transactionStartTick,
-                        captureTick, depth + 1, entryVisitor, sharedQueryTextCollection, false);
+                        captureTick, depth + 1, entryVisitor, sharedQueryTextCollection, false,
+                        range);
             }
         }
     }
@@ -1075,6 +1137,16 @@ public class Transaction {
         return lowerSixBytesHex(startTime) + BaseEncoding.base16().lowerCase().encode(bytes);
     }
 
+    private static long addAvailableCpuNanos(long cpuNanos, long toBeAddedCpuNanos) {
+        if (NotAvailableAware.isNA(toBeAddedCpuNanos)) {
+            return cpuNanos;
+        }
+        if (NotAvailableAware.isNA(cpuNanos)) {
+            return toBeAddedCpuNanos;
+        }
+        return NotAvailableAware.add(cpuNanos, toBeAddedCpuNanos);
+    }
+
     @VisibleForTesting
     static String lowerSixBytesHex(long startTime) {
         long mask = 1L << 48;
@@ -1176,6 +1248,31 @@ public class Transaction {
         }
     }
 
+    // entry indexes are assigned in the (depth-first) order that the entries are visited, which is
+    // the same order that they are stored in
+    private static class EntryIndexRange {
+
+        private final int fromIndex;
+        private final long toIndex; // exclusive
+
+        private int nextIndex;
+
+        private EntryIndexRange(int fromIndex, int limit) {
+            this.fromIndex = fromIndex;
+            toIndex = (long) fromIndex + limit;
+        }
+
+        // returns true if the next entry is in the range
+        private boolean next() {
+            int index = nextIndex++;
+            return index >= fromIndex && index < toIndex;
+        }
+
+        private boolean isPastEnd() {
+            return nextIndex >= toIndex;
+        }
+    }
+
     private static class CountingEntryVisitor implements TraceEntryVisitor {
 
         private int count;
@@ -79,11 +79,14 @@ public class TransactionCollector {
         if (transaction.isPartiallyStored()) {
             return true;
         }
-        long durationNanos = transaction.getDurationNanos();
+        return transaction.getDurationNanos() >= getSlowThresholdNanos(transaction);
+    }
+
+    long getSlowThresholdNanos(Transaction transaction) {
         // check if trace-specific store threshold was set
         long slowThresholdMillis = transaction.getSlowThresholdMillisOverride();
         if (slowThresholdMillis != Transaction.USE_GENERAL_STORE_THRESHOLD) {
-            return durationNanos >= MILLISECONDS.toNanos(slowThresholdMillis);
+            return MILLISECONDS.toNanos(slowThresholdMillis);
         }
         // check if there is a matching transaction type / transaction name specific slow threshold
         if (!slowThresholdOverrides.isEmpty()) {
@@ -94,16 +97,16 @@ public class TransactionCollector {
                         slowThresholdOverrideForType.thresholdNanos()
                                 .get(transaction.getTransactionName());
                 if (slowThresholdNanos != null) {
-                    return durationNanos >= slowThresholdNanos;
+                    return slowThresholdNanos;
                 }
                 slowThresholdNanos = slowThresholdOverrideForType.defaultThresholdNanos();
                 if (slowThresholdNanos != null) {
-                    return durationNanos >= slowThresholdNanos;
+                    return slowThresholdNanos;
                 }
             }
         }
         // fall back to default slow trace threshold
-        return durationNanos >= defaultSlowThresholdNanos;
+        return defaultSlowThresholdNanos;
     }
 
     public boolean shouldStoreError(Transaction transaction) {
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import org.glowroot.common.config.TransactionConfig.SamplingOverride;
+
+// immutable snapshot of the sampling overrides from the transaction config
+class TransactionSampler {
+
+    static final TransactionSampler ALWAYS =
+            new TransactionSampler(ImmutableMap.<String, PercentagesForType>of());
+
+    // using a random per thread (ThreadLocalRandom is not available in jdk 6) to avoid contention
+    // between application threads that start transactions concurrently
+    private static final ThreadLocal<Random> random = new ThreadLocal<Random>() {
+        @Override
+        protected Random initialValue() {
+            return new Random();
+        }
+    };
+
+    private final ImmutableMap<String, PercentagesForType> percentagesByType;
+
+    private TransactionSampler(ImmutableMap<String, PercentagesForType> percentagesByType) {
+        this.percentagesByType = percentagesByType;
+    }
+
+    static TransactionSampler create(List<? extends SamplingOverride> samplingOverrides) {
+        if (samplingOverrides.isEmpty()) {
+            return ALWAYS;
+        }
+        Map<String, PercentagesForType> percentagesByType = Maps.newHashMap();
+        for (SamplingOverride samplingOverride : samplingOverrides) {
+            String transactionType = samplingOverride.transactionType();
+            PercentagesForType percentagesForType = percentagesByType.get(transactionType);
+            if (percentagesForType == null) {
+                percentagesForType = new PercentagesForType();
+                percentagesByType.put(transactionType, percentagesForType);
+            }
+            String transactionName = samplingOverride.transactionName();
+            if (transactionName.isEmpty()) {
+                percentagesForType.defaultPercentage = samplingOverride.percentage();
+            } else {
+                percentagesForType.percentages.put(transactionName,
+                        samplingOverride.percentage());
+            }
+        }
+        return new TransactionSampler(ImmutableMap.copyOf(percentagesByType));
+    }
+
+    // the sampling decision is made using the initial transaction name since it needs to be made
+    // before any trace entries are captured
+    boolean isSampled(String transactionType, String transactionName) {
+        if (percentagesByType.isEmpty()) {
+            return true;
+        }
+        Double percentage = getPercentage(transactionType, transactionName);
+        if (percentage == null || percentage >= 100) {
+            return true;
+        }
+        if (percentage <= 0) {
+            return false;
+        }
+        return random.get().nextDouble() * 100 < percentage;
+    }
+
+    // returns null if no sampling override matches
+    @VisibleForTesting
+    @Nullable
+    Double getPercentage(String transactionType, String transactionName) {
+        PercentagesForType percentagesForType = percentagesByType.get(transactionType);
+        if (percentagesForType == null) {
+            return null;
+        }
+        Double percentage = percentagesForType.percentages.get(transactionName);
+        if (percentage == null) {
+            return percentagesForType.defaultPercentage;
+        }
+        return percentage;
+    }
+
+    // only mutated while building the map in create(), after which it is effectively immutable
+    private static class PercentagesForType {
+
+        private @Nullable Double defaultPercentage;
+        private final Map<String, Double> percentages = Maps.newHashMap();
+    }
+}
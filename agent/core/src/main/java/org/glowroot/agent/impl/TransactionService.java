@@ -50,10 +50,13 @@ public class TransactionService implements ConfigListener {
     private int maxQueryAggregates;
     private int maxServiceCallAggregates;
     private int maxProfileSamples;
+    private TransactionSampler transactionSampler = TransactionSampler.ALWAYS;
 
     // intentionally not volatile for small optimization
     private @MonotonicNonNull TransactionProcessor transactionProcessor;
     // intentionally not volatile for small optimization
+    private @MonotonicNonNull TransactionCollector transactionCollector;
+    // intentionally not volatile for small optimization
     private @Nullable ThreadAllocatedBytes threadAllocatedBytes;
 
     public static TransactionService create(TransactionRegistry transactionRegistry,
@@ -80,6 +83,10 @@ public class TransactionService implements ConfigListener {
         this.transactionProcessor = transactionProcessor;
     }
 
+    public void setTransactionCollector(TransactionCollector transactionCollector) {
+        this.transactionCollector = transactionCollector;
+    }
+
     public void setThreadAllocatedBytes(@Nullable ThreadAllocatedBytes threadAllocatedBytes) {
         this.threadAllocatedBytes = threadAllocatedBytes;
     }
@@ -91,11 +98,13 @@ public class TransactionService implements ConfigListener {
         // ensure visibility of recent configuration updates
         configService.readMemoryBarrier();
         long startTick = ticker.read();
+        boolean sampled = transactionSampler.isSampled(transactionType, transactionName);
         Transaction transaction = new Transaction(clock.currentTimeMillis(), startTick,
-                transactionType, transactionName, messageSupplier, timerName, captureThreadStats,
-                maxTraceEntries, maxQueryAggregates, maxServiceCallAggregates, maxProfileSamples,
-                threadAllocatedBytes, transactionCompletionCallback, ticker, transactionRegistry,
-                this, configService, userProfileScheduler, threadContextHolder, rootNestingGroupId,
+                transactionType, transactionName, messageSupplier, timerName,
+                captureThreadStats, maxTraceEntries, maxQueryAggregates,
+                maxServiceCallAggregates, maxProfileSamples, sampled, threadAllocatedBytes,
+                transactionCompletionCallback, ticker, transactionRegistry, this, configService,
+                userProfileScheduler, threadContextHolder, rootNestingGroupId,
                 rootSuppressionKeyId);
         SelfRemovableEntry transactionEntry = transactionRegistry.addTransaction(transaction);
         transaction.setTransactionEntry(transactionEntry);
@@ -116,6 +125,14 @@ public class TransactionService implements ConfigListener {
                 threadAllocatedBytes);
     }
 
+    long getSlowThresholdNanos(Transaction transaction) {
+        if (transactionCollector == null) {
+            // agent is still starting up
+            return 0;
+        }
+        return transactionCollector.getSlowThresholdNanos(transaction);
+    }
+
     @Override
     public void onChange() {
         AdvancedConfig advancedConfig = configService.getAdvancedConfig();
@@ -124,6 +141,8 @@ public class TransactionService implements ConfigListener {
         maxServiceCallAggregates = advancedConfig.maxServiceCallAggregates();
         maxTraceEntries = advancedConfig.maxTraceEntriesPerTransaction();
         maxProfileSamples = advancedConfig.maxProfileSamplesPerTransaction();
+        transactionSampler =
+                TransactionSampler.create(configService.getTransactionConfig().samplingOverrides());
     }
 
     private class TransactionCompletionCallback implements CompletionCallback {
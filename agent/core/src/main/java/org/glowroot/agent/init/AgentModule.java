@@ -22,13 +22,17 @@ import java.lang.management.ManagementFactory;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.jar.JarFile;
 
 import com.google.common.base.Joiner;
+import com.google.common.base.Stopwatch;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
 import org.checkerframework.checker.nullness.qual.Nullable;
@@ -66,6 +70,7 @@ import org.glowroot.agent.util.JavaVersion;
 import org.glowroot.agent.util.LazyPlatformMBeanServer;
 import org.glowroot.agent.util.OptionalService;
 import org.glowroot.agent.util.ThreadAllocatedBytes;
+import org.glowroot.agent.util.ThreadFactories;
 import org.glowroot.agent.util.Tickers;
 import org.glowroot.agent.weaving.AdviceCache;
 import org.glowroot.agent.weaving.AnalyzedWorld;
@@ -95,6 +100,14 @@ public class AgentModule {
     private static final long ROLLUP_0_INTERVAL_MILLIS =
             Long.getLong("glowroot.internal.rollup.0.intervalMillis", MINUTES.toMillis(1));
 
+    // fast startup is opt-in since it performs the initial reweave (of classes that were already
+    // loaded prior to glowroot initialization) in the background, which means that those classes
+    // can briefly run without instrumentation while the application is starting up
+    private static final boolean FAST_STARTUP = Boolean.getBoolean("glowroot.fast.startup");
+
+    private static final int INITIAL_REWEAVE_BATCH_SIZE =
+            Integer.getInteger("glowroot.initial.reweave.batch.size", 100);
+
     private final Clock clock;
     private final Ticker ticker;
 
@@ -138,6 +151,9 @@ public class AgentModule {
         this.configService = configService;
         transactionRegistry = new TransactionRegistry();
 
+        Map<String, Long> startupTimings = Maps.newLinkedHashMap();
+        Stopwatch stopwatch = Stopwatch.createStarted();
+
         ClassFileTransformer pointcutClassFileTransformer = null;
         if (instrumentation != null) {
             for (File pluginJar : pluginCache.pluginJars()) {
@@ -146,11 +162,25 @@ public class AgentModule {
             pointcutClassFileTransformer = new PointcutClassFileTransformer();
             instrumentation.addTransformer(pointcutClassFileTransformer);
         }
-        adviceCache = new AdviceCache(pluginCache.pluginDescriptors(),
-                configService.getInstrumentationConfigs(), instrumentation, tmpDir);
+        ExecutorService startupExecutor = null;
+        if (FAST_STARTUP) {
+            int nThreads = Math.min(Runtime.getRuntime().availableProcessors(), 4);
+            startupExecutor = Executors.newFixedThreadPool(nThreads,
+                    ThreadFactories.create("Glowroot-Startup-%d"));
+        }
+        try {
+            adviceCache = new AdviceCache(pluginCache.pluginDescriptors(),
+                    configService.getInstrumentationConfigs(), instrumentation, tmpDir,
+                    startupExecutor);
+        } finally {
+            if (startupExecutor != null) {
+                startupExecutor.shutdown();
+            }
+        }
         if (pointcutClassFileTransformer != null) {
             checkNotNull(instrumentation).removeTransformer(pointcutClassFileTransformer);
         }
+        startupTimings.put("advice cache", stopwatch.elapsed(MILLISECONDS));
         analyzedWorld = new AnalyzedWorld(adviceCache.getAdvisorsSupplier(),
                 adviceCache.getShimTypes(), adviceCache.getMixinTypes());
         TimerNameCache timerNameCache = new TimerNameCache();
@@ -187,6 +217,7 @@ public class AgentModule {
             isolatedWeavingClassLoader.setWeaver(weaver);
             jvmRetransformClassesSupported = false;
         } else {
+            stopwatch.reset().start();
             PreInitializeWeavingClasses.preInitializeClasses();
             WeavingClassFileTransformer transformer =
                     new WeavingClassFileTransformer(weaver, instrumentation);
@@ -205,8 +236,16 @@ public class AgentModule {
                 }
                 instrumentation.removeTransformer(preCheckClassFileTransformer);
             }
+            startupTimings.put("weaving init", stopwatch.elapsed(MILLISECONDS));
+            stopwatch.reset().start();
             Class<?>[] initialLoadedClasses = instrumentation.getAllLoadedClasses();
-            adviceCache.initialReweave(initialLoadedClasses);
+            if (FAST_STARTUP) {
+                startInitialReweaveInBackground(adviceCache, initialLoadedClasses);
+            } else {
+                adviceCache.initialReweave(initialLoadedClasses, INITIAL_REWEAVE_BATCH_SIZE,
+                        false);
+                startupTimings.put("initial reweave", stopwatch.elapsed(MILLISECONDS));
+            }
             logAnyImportantClassLoadedPriorToWeavingInit(initialLoadedClasses, glowrootJarFile,
                     false);
         }
@@ -231,7 +270,17 @@ public class AgentModule {
             logger.error("Glowroot Agent API was called too early", getterCalledTooEarlyLocation);
         }
 
+        stopwatch.reset().start();
         initPlugins(pluginCache.pluginDescriptors());
+        startupTimings.put("plugin init", stopwatch.elapsed(MILLISECONDS));
+        String startupTimingsText =
+                Joiner.on(", ").withKeyValueSeparator(": ").join(startupTimings);
+        if (FAST_STARTUP) {
+            // logged at info level when fast startup is enabled so its effect can be verified
+            startupLogger.info("startup timings (in milliseconds): {}", startupTimingsText);
+        } else {
+            logger.debug("startup timings (in milliseconds): {}", startupTimingsText);
+        }
 
         List<PluginDescriptor> pluginDescriptors =
                 new PluginDescriptorNameOrdering().sortedCopy(pluginCache.pluginDescriptors());
@@ -266,6 +315,7 @@ public class AgentModule {
         transactionProcessor = new TransactionProcessor(collector, traceCollector, configService,
                 ROLLUP_0_INTERVAL_MILLIS, clock);
         transactionService.setTransactionProcessor(transactionProcessor);
+        transactionService.setTransactionCollector(traceCollector);
 
         lazyPlatformMBeanServer = LazyPlatformMBeanServer.create(mainClass);
         bytecodeService.setOnExitingGetPlatformMBeanServer(new Runnable() {
@@ -430,6 +480,27 @@ public class AgentModule {
                 && (jvmArg.equals("-Xhealthcenter") || jvmArg.startsWith("-Xhealthcenter:"));
     }
 
+    private static void startInitialReweaveInBackground(final AdviceCache adviceCache,
+            final Class<?>[] initialLoadedClasses) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Stopwatch stopwatch = Stopwatch.createStarted();
+                    int count = adviceCache.initialReweave(initialLoadedClasses,
+                            INITIAL_REWEAVE_BATCH_SIZE, true);
+                    startupLogger.info("initial reweave of {} classes completed in the background"
+                            + " in {} milliseconds", count, stopwatch.elapsed(MILLISECONDS));
+                } catch (Throwable t) {
+                    logger.error(t.getMessage(), t);
+                }
+            }
+        });
+        thread.setDaemon(true);
+        thread.setName("Glowroot-Initial-Reweave");
+        thread.start();
+    }
+
     // now init plugins to give them a chance to do something in their static initializer
     // e.g. append their package to jboss.modules.system.pkgs
     private static void initPlugins(List<PluginDescriptor> pluginDescriptors) {
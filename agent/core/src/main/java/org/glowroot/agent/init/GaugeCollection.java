@@ -0,0 +1,74 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.init;
+
+import java.util.Map;
+
+import com.google.common.collect.ImmutableMap;
+
+// exposes the cost of gauge collection as a single mbean (instead of one per gauge, so that
+// glowroot does not clutter the application's platform mbean server), so that it can itself be
+// charted as a gauge
+class GaugeCollection implements GaugeCollectionMXBean {
+
+    static final String OBJECT_NAME = "org.glowroot:type=GaugeCollection";
+
+    private volatile long collectionTimeNanos;
+    private volatile int gaugeCount;
+    private volatile String slowestGauge = "";
+    private volatile long slowestGaugeCollectionTimeNanos;
+    private volatile Map<String, Long> gaugeCollectionTimeNanos = ImmutableMap.of();
+
+    // time spent collecting all gauges during the most recent gauge collection
+    @Override
+    public long getCollectionTimeNanos() {
+        return collectionTimeNanos;
+    }
+
+    @Override
+    public int getGaugeCount() {
+        return gaugeCount;
+    }
+
+    // mbean object name of the gauge that took the longest to collect during the most recent gauge
+    // collection (empty if there are no gauges)
+    @Override
+    public String getSlowestGauge() {
+        return slowestGauge;
+    }
+
+    @Override
+    public long getSlowestGaugeCollectionTimeNanos() {
+        return slowestGaugeCollectionTimeNanos;
+    }
+
+    // time spent collecting each gauge during the most recent gauge collection, keyed by gauge mbean
+    // object name (exposed by the platform mbean server as tabular data)
+    @Override
+    public Map<String, Long> getGaugeCollectionTimeNanos() {
+        return gaugeCollectionTimeNanos;
+    }
+
+    // only called by the dedicated gauge collection thread
+    void update(long collectionTimeNanos, int gaugeCount, String slowestGauge,
+            long slowestGaugeCollectionTimeNanos, Map<String, Long> gaugeCollectionTimeNanos) {
+        this.collectionTimeNanos = collectionTimeNanos;
+        this.gaugeCount = gaugeCount;
+        this.slowestGauge = slowestGauge;
+        this.slowestGaugeCollectionTimeNanos = slowestGaugeCollectionTimeNanos;
+        this.gaugeCollectionTimeNanos = ImmutableMap.copyOf(gaugeCollectionTimeNanos);
+    }
+}
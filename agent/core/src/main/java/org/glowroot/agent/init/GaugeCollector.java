@@ -17,18 +17,27 @@ package org.glowroot.agent.init;
 
 import java.lang.instrument.Instrumentation;
 import java.lang.reflect.Method;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanServer;
+import javax.management.MBeanServerDelegate;
+import javax.management.MBeanServerNotification;
 import javax.management.MalformedObjectNameException;
+import javax.management.Notification;
+import javax.management.NotificationListener;
 import javax.management.ObjectName;
 import javax.management.openmbean.CompositeData;
 
@@ -36,6 +45,7 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
@@ -76,6 +86,23 @@ class GaugeCollector extends ScheduledRunnable {
     private final Set<String> pendingLoggedMBeanGauges = Sets.newConcurrentHashSet();
     private final Set<String> loggedMBeanGauges = Sets.newConcurrentHashSet();
 
+    // parsed object names and attribute names, so they are not re-parsed on every collection
+    private final Map<GaugeConfig, ResolvedGauge> resolvedGauges = Maps.newConcurrentMap();
+
+    // object names matching each object name pattern, so that queryNames() is not called on every
+    // collection, these are invalidated by mbean registration/unregistration notifications
+    private final ConcurrentMap<ObjectName, Set<ObjectName>> matchingObjectNamesCache =
+            Maps.newConcurrentMap();
+    private final AtomicLong mbeanRegistrationChangeCount = new AtomicLong();
+    private final NotificationListener mbeanRegistrationListener =
+            new MBeanRegistrationListener();
+    // weak keys since mbean servers can be released, see MBeanServerFactory.releaseMBeanServer()
+    private final Set<MBeanServer> listeningMBeanServers =
+            Collections.newSetFromMap(new MapMaker().weakKeys().<MBeanServer, Boolean>makeMap());
+    private volatile boolean matchingObjectNamesCacheDisabled;
+
+    private final GaugeCollection gaugeCollection = new GaugeCollection();
+
     // gauges have their own dedicated executor to make sure their collection is not hampered by
     // other glowroot background work
     private final ScheduledExecutorService collectionExecutor;
@@ -98,6 +125,7 @@ class GaugeCollector extends ScheduledRunnable {
                 ThreadFactories.create("Glowroot-Gauge-Collection"));
         flushingExecutor = Executors
                 .newSingleThreadExecutor(ThreadFactories.create("Glowroot-Gauge-Flushing"));
+        lazyPlatformMBeanServer.lazyRegisterMBean(gaugeCollection, GaugeCollection.OBJECT_NAME);
         lazyPlatformMBeanServer.addInitListener(new InitListener() {
             @Override
             public void postInit(MBeanServer mbeanServer) {
@@ -127,9 +155,23 @@ class GaugeCollector extends ScheduledRunnable {
             priorRawCounterValues = Maps.newHashMap();
         }
         List<MBeanServer> mbeanServers = lazyPlatformMBeanServer.findAllMBeanServers();
-        for (GaugeConfig gaugeConfig : configService.getGaugeConfigs()) {
+        listenForMBeanRegistrationChanges(mbeanServers);
+        List<GaugeConfig> gaugeConfigs = configService.getGaugeConfigs();
+        Map<String, Long> collectionTimes = Maps.newLinkedHashMap();
+        for (GaugeConfig gaugeConfig : gaugeConfigs) {
+            long startTick = ticker.read();
             gaugeValues.addAll(collectGaugeValues(gaugeConfig, mbeanServers));
+            long collectionTimeNanos = ticker.read() - startTick;
+            String mbeanObjectName = gaugeConfig.mbeanObjectName();
+            Long priorCollectionTimeNanos = collectionTimes.get(mbeanObjectName);
+            if (priorCollectionTimeNanos != null) {
+                // same mbean object name configured in multiple gauges
+                collectionTimeNanos += priorCollectionTimeNanos;
+            }
+            collectionTimes.put(mbeanObjectName, collectionTimeNanos);
         }
+        resolvedGauges.keySet().retainAll(gaugeConfigs);
+        updateGaugeCollection(collectionTimes);
         flushingExecutor.execute(new Runnable() {
             @Override
             public void run() {
@@ -152,6 +194,15 @@ class GaugeCollector extends ScheduledRunnable {
         if (!collectionExecutor.awaitTermination(10, SECONDS)) {
             throw new IllegalStateException("Could not terminate executor");
         }
+        for (MBeanServer mbeanServer : listeningMBeanServers) {
+            try {
+                mbeanServer.removeNotificationListener(MBeanServerDelegate.DELEGATE_NAME,
+                        mbeanRegistrationListener);
+            } catch (Exception e) {
+                logger.debug(e.getMessage(), e);
+            }
+        }
+        lazyPlatformMBeanServer.unregisterMBean(GaugeCollection.OBJECT_NAME);
         flushingExecutor.shutdown();
         if (!flushingExecutor.awaitTermination(10, SECONDS)) {
             throw new IllegalStateException("Could not terminate executor");
@@ -163,20 +214,24 @@ class GaugeCollector extends ScheduledRunnable {
     List<GaugeValue> collectGaugeValues(GaugeConfig gaugeConfig, List<MBeanServer> mbeanServers)
             throws Exception {
         String mbeanObjectName = gaugeConfig.mbeanObjectName();
-        ObjectName objectName;
-        try {
-            objectName = ObjectName.getInstance(mbeanObjectName);
-        } catch (MalformedObjectNameException e) {
-            logger.debug(e.getMessage(), e);
-            logFirstTimeMBeanException(mbeanObjectName, e);
-            return ImmutableList.of();
+        ResolvedGauge resolvedGauge = resolvedGauges.get(gaugeConfig);
+        if (resolvedGauge == null) {
+            ObjectName objectName;
+            try {
+                objectName = ObjectName.getInstance(mbeanObjectName);
+            } catch (MalformedObjectNameException e) {
+                logger.debug(e.getMessage(), e);
+                logFirstTimeMBeanException(mbeanObjectName, e);
+                return ImmutableList.of();
+            }
+            resolvedGauge = new ResolvedGauge(objectName, gaugeConfig.mbeanAttributes());
+            resolvedGauges.put(gaugeConfig, resolvedGauge);
         }
+        ObjectName objectName = resolvedGauge.objectName;
         if (!objectName.isPattern()) {
-            return collectGaugeValues(objectName, gaugeConfig.mbeanAttributes(), mbeanObjectName,
-                    mbeanServers);
+            return collectGaugeValues(objectName, resolvedGauge, mbeanObjectName, mbeanServers);
         }
-        Set<ObjectName> matchingObjectNames =
-                lazyPlatformMBeanServer.queryNames(objectName, null, mbeanServers);
+        Set<ObjectName> matchingObjectNames = getMatchingObjectNames(objectName, mbeanServers);
         if (matchingObjectNames.isEmpty()) {
             logFirstTimeMBeanNotMatchedOrFound(mbeanObjectName);
             return ImmutableList.of();
@@ -186,7 +241,7 @@ class GaugeCollector extends ScheduledRunnable {
         pendingLoggedMBeanGauges.remove(mbeanObjectName);
         List<GaugeValue> gaugeValues = Lists.newArrayList();
         for (ObjectName matchingObjectName : matchingObjectNames) {
-            gaugeValues.addAll(collectGaugeValues(matchingObjectName, gaugeConfig.mbeanAttributes(),
+            gaugeValues.addAll(collectGaugeValues(matchingObjectName, resolvedGauge,
                     matchingObjectName.getDomain() + ":"
                             + matchingObjectName.getKeyPropertyListString(),
                     mbeanServers));
@@ -194,20 +249,56 @@ class GaugeCollector extends ScheduledRunnable {
         return gaugeValues;
     }
 
+    private Set<ObjectName> getMatchingObjectNames(ObjectName objectNamePattern,
+            List<MBeanServer> mbeanServers) throws Exception {
+        if (matchingObjectNamesCacheDisabled) {
+            return lazyPlatformMBeanServer.queryNames(objectNamePattern, null, mbeanServers);
+        }
+        Set<ObjectName> matchingObjectNames = matchingObjectNamesCache.get(objectNamePattern);
+        if (matchingObjectNames != null) {
+            return matchingObjectNames;
+        }
+        long changeCount = mbeanRegistrationChangeCount.get();
+        matchingObjectNames =
+                lazyPlatformMBeanServer.queryNames(objectNamePattern, null, mbeanServers);
+        if (mbeanRegistrationChangeCount.get() == changeCount) {
+            // no mbean registration changes occurred during the query, so the result is not stale
+            matchingObjectNamesCache.put(objectNamePattern, matchingObjectNames);
+        }
+        return matchingObjectNames;
+    }
+
     @RequiresNonNull("priorRawCounterValues")
     private List<GaugeValue> collectGaugeValues(ObjectName objectName,
-            List<ImmutableMBeanAttribute> mbeanAttributes, String mbeanObjectName,
-            List<MBeanServer> mbeanServers) throws Exception {
+            ResolvedGauge resolvedGauge, String mbeanObjectName, List<MBeanServer> mbeanServers)
+            throws Exception {
+        if (resolvedGauge.attributes.isEmpty()) {
+            return ImmutableList.of();
+        }
+        // read all of the attributes in a single call
+        Map<String, /*@Nullable*/ Object> attributeValues = Maps.newHashMap();
+        try {
+            AttributeList attributeList = lazyPlatformMBeanServer.getAttributes(objectName,
+                    resolvedGauge.attributeNames, mbeanServers);
+            for (Attribute attribute : attributeList.asList()) {
+                attributeValues.put(attribute.getName(), attribute.getValue());
+            }
+        } catch (InstanceNotFoundException e) {
+            logger.debug(e.getMessage(), e);
+            logFirstTimeMBeanNotMatchedOrFound(mbeanObjectName);
+            return ImmutableList.of();
+        }
         List<GaugeValue> gaugeValues = Lists.newArrayList();
         long captureTime = clock.currentTimeMillis();
-        for (MBeanAttribute mbeanAttribute : mbeanAttributes) {
+        for (ResolvedAttribute resolvedAttribute : resolvedGauge.attributes) {
+            MBeanAttribute mbeanAttribute = resolvedAttribute.mbeanAttribute;
             String mbeanAttributeName = mbeanAttribute.name();
             Object attributeValue;
             try {
-                if (mbeanAttributeName.contains(".")) {
-                    String[] path = mbeanAttributeName.split("\\.");
-                    attributeValue =
-                            lazyPlatformMBeanServer.getAttribute(objectName, path[0], mbeanServers);
+                attributeValue = getAttributeValue(objectName, resolvedAttribute.attributeName,
+                        attributeValues, mbeanServers);
+                String compositeKey = resolvedAttribute.compositeKey;
+                if (compositeKey != null) {
                     CompositeData compositeData = (CompositeData) attributeValue;
                     if (compositeData == null) {
                         // this is valid, e.g. attribute LastGcInfo on mbean
@@ -215,10 +306,7 @@ class GaugeCollector extends ScheduledRunnable {
                         // prior to first GC, this attribute value is null
                         continue;
                     }
-                    attributeValue = compositeData.get(path[1]);
-                } else {
-                    attributeValue = lazyPlatformMBeanServer.getAttribute(objectName,
-                            mbeanAttributeName, mbeanServers);
+                    attributeValue = compositeData.get(compositeKey);
                 }
             } catch (InstanceNotFoundException e) {
                 logger.debug(e.getMessage(), e);
@@ -291,6 +379,74 @@ class GaugeCollector extends ScheduledRunnable {
         return gaugeValues;
     }
 
+    private @Nullable Object getAttributeValue(ObjectName objectName, String attributeName,
+            Map<String, /*@Nullable*/ Object> attributeValues, List<MBeanServer> mbeanServers)
+            throws Exception {
+        if (attributeValues.containsKey(attributeName)) {
+            return attributeValues.get(attributeName);
+        }
+        // getAttributes() omits attributes that could not be read, so read it individually in
+        // order to get the specific exception
+        Object attributeValue =
+                lazyPlatformMBeanServer.getAttribute(objectName, attributeName, mbeanServers);
+        attributeValues.put(attributeName, attributeValue);
+        return attributeValue;
+    }
+
+    // only called by the dedicated gauge collection thread
+    private void listenForMBeanRegistrationChanges(List<MBeanServer> mbeanServers) {
+        if (matchingObjectNamesCacheDisabled) {
+            return;
+        }
+        for (MBeanServer mbeanServer : mbeanServers) {
+            if (listeningMBeanServers.contains(mbeanServer)) {
+                continue;
+            }
+            try {
+                mbeanServer.addNotificationListener(MBeanServerDelegate.DELEGATE_NAME,
+                        mbeanRegistrationListener, null, null);
+            } catch (Exception e) {
+                logger.debug(e.getMessage(), e);
+                // fall back to querying on every collection
+                matchingObjectNamesCacheDisabled = true;
+                return;
+            }
+            listeningMBeanServers.add(mbeanServer);
+            // mbeans may have been registered in this mbean server prior to listening
+            invalidateMatchingObjectNames(null);
+        }
+    }
+
+    private void invalidateMatchingObjectNames(@Nullable ObjectName objectName) {
+        // increment first, see getMatchingObjectNames()
+        mbeanRegistrationChangeCount.getAndIncrement();
+        if (objectName == null) {
+            matchingObjectNamesCache.clear();
+            return;
+        }
+        for (ObjectName objectNamePattern : matchingObjectNamesCache.keySet()) {
+            if (objectNamePattern.apply(objectName)) {
+                matchingObjectNamesCache.remove(objectNamePattern);
+            }
+        }
+    }
+
+    private void updateGaugeCollection(Map<String, Long> collectionTimes) {
+        long totalCollectionTimeNanos = 0;
+        String slowestGauge = "";
+        long slowestGaugeCollectionTimeNanos = 0;
+        for (Map.Entry<String, Long> entry : collectionTimes.entrySet()) {
+            long collectionTimeNanos = entry.getValue();
+            totalCollectionTimeNanos += collectionTimeNanos;
+            if (slowestGauge.isEmpty() || collectionTimeNanos > slowestGaugeCollectionTimeNanos) {
+                slowestGauge = entry.getKey();
+                slowestGaugeCollectionTimeNanos = collectionTimeNanos;
+            }
+        }
+        gaugeCollection.update(totalCollectionTimeNanos, collectionTimes.size(), slowestGauge,
+                slowestGaugeCollectionTimeNanos, collectionTimes);
+    }
+
     // relatively common, so nice message
     private void logFirstTimeMBeanNotMatchedOrFound(String mbeanObjectName) {
         int delaySeconds = configService.getAdvancedConfig().mbeanGaugeNotFoundDelaySeconds();
@@ -340,6 +496,58 @@ class GaugeCollector extends ScheduledRunnable {
         }
     }
 
+    private class MBeanRegistrationListener implements NotificationListener {
+        @Override
+        public void handleNotification(Notification notification, @Nullable Object handback) {
+            if (notification instanceof MBeanServerNotification) {
+                invalidateMatchingObjectNames(
+                        ((MBeanServerNotification) notification).getMBeanName());
+            }
+        }
+    }
+
+    private static class ResolvedGauge {
+
+        private final ObjectName objectName;
+        private final List<ResolvedAttribute> attributes;
+        // distinct top level attribute names, used to read all attributes in a single call
+        private final String[] attributeNames;
+
+        private ResolvedGauge(ObjectName objectName,
+                List<ImmutableMBeanAttribute> mbeanAttributes) {
+            this.objectName = objectName;
+            List<ResolvedAttribute> attributes = Lists.newArrayList();
+            Set<String> attributeNames = Sets.newLinkedHashSet();
+            for (MBeanAttribute mbeanAttribute : mbeanAttributes) {
+                ResolvedAttribute attribute = new ResolvedAttribute(mbeanAttribute);
+                attributes.add(attribute);
+                attributeNames.add(attribute.attributeName);
+            }
+            this.attributes = ImmutableList.copyOf(attributes);
+            this.attributeNames = attributeNames.toArray(new String[attributeNames.size()]);
+        }
+    }
+
+    private static class ResolvedAttribute {
+
+        private final MBeanAttribute mbeanAttribute;
+        private final String attributeName;
+        private final @Nullable String compositeKey;
+
+        private ResolvedAttribute(MBeanAttribute mbeanAttribute) {
+            this.mbeanAttribute = mbeanAttribute;
+            String mbeanAttributeName = mbeanAttribute.name();
+            if (mbeanAttributeName.contains(".")) {
+                String[] path = mbeanAttributeName.split("\\.");
+                attributeName = path[0];
+                compositeKey = path[1];
+            } else {
+                attributeName = mbeanAttributeName;
+                compositeKey = null;
+            }
+        }
+    }
+
     @Value.Immutable
     @Styles.AllParameters
     interface RawCounterValue {
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.util.List;
+
+import com.google.common.base.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// each call to Instrumentation.retransformClasses() is a single stop-the-world operation, so
+// retransforming thousands of classes at once (e.g. after adding a broad pointcut) can stall the
+// monitored application, this splits the classes into bounded batches with an optional pause
+// between batches
+//
+// see ReweaveBenchmark (in the agent benchmarks) for measuring the latency impact on the monitored
+// application of different batch sizes and pauses
+public class ClassRetransformer {
+
+    private static final Logger logger = LoggerFactory.getLogger(ClassRetransformer.class);
+
+    private static final int PROGRESS_LOG_INTERVAL_SECONDS = 5;
+
+    private final Instrumentation instrumentation;
+    private final int batchSize;
+    private final long batchPauseMillis;
+
+    public ClassRetransformer(Instrumentation instrumentation, int batchSize,
+            long batchPauseMillis) {
+        this.instrumentation = instrumentation;
+        this.batchSize = Math.max(batchSize, 1);
+        this.batchPauseMillis = batchPauseMillis;
+    }
+
+    // returns the number of classes retransformed
+    public int retransform(List<Class<?>> classes) {
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        long lastProgressLogSeconds = 0;
+        boolean interrupted = false;
+        int count = 0;
+        for (int i = 0; i < classes.size(); i += batchSize) {
+            if (i > 0 && batchPauseMillis > 0 && !interrupted) {
+                try {
+                    MILLISECONDS.sleep(batchPauseMillis);
+                } catch (InterruptedException e) {
+                    // finish retransforming the remaining classes (without pausing), since
+                    // stopping part way would leave the classes inconsistent with the current
+                    // instrumentation config
+                    logger.debug(e.getMessage(), e);
+                    interrupted = true;
+                }
+            }
+            count += retransformBatch(classes.subList(i, Math.min(i + batchSize, classes.size())));
+            long elapsedSeconds = stopwatch.elapsed(SECONDS);
+            if (elapsedSeconds - lastProgressLogSeconds >= PROGRESS_LOG_INTERVAL_SECONDS) {
+                logger.info("retransformed {} of {} classes",
+                        Math.min(i + batchSize, classes.size()), classes.size());
+                lastProgressLogSeconds = elapsedSeconds;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        logger.debug("retransformed {} classes in {} milliseconds", count,
+                stopwatch.elapsed(MILLISECONDS));
+        return count;
+    }
+
+    private int retransformBatch(List<Class<?>> batch) {
+        try {
+            instrumentation.retransformClasses(batch.toArray(new Class<?>[batch.size()]));
+            return batch.size();
+        } catch (UnmodifiableClassException e) {
+            if (batch.size() == 1) {
+                // IBM JDK 6 throws UnmodifiableClassException even though call to
+                // isModifiableClass() returns true
+                logger.debug(e.getMessage(), e);
+                return 0;
+            }
+            // retransformClasses() is all or nothing, so bisect the batch to isolate the
+            // unmodifiable class(es), which takes a logarithmic number of additional
+            // retransformations instead of retransforming the rest of the batch one at a time
+            int middle = batch.size() / 2;
+            return retransformBatch(batch.subList(0, middle))
+                    + retransformBatch(batch.subList(middle, batch.size()));
+        }
+    }
+}
@@ -20,10 +20,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.util.Iterator;
 import java.util.Map;
+import java.util.PriorityQueue;
 
-import com.google.common.base.Splitter;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.primitives.Longs;
@@ -34,21 +34,42 @@ import org.glowroot.agent.live.JvmTool.InputStreamProcessor;
 import org.glowroot.agent.util.JavaVersion;
 import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogram;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 class HeapHistogramTool {
 
     private HeapHistogramTool() {}
 
-    static HeapHistogram run(long pid, boolean allowAttachSelf, @Nullable File glowrootJarFile)
-            throws Exception {
-        return JvmTool.run(pid, "heapHisto", new HeapHistogramProcessor(), allowAttachSelf,
+    // limit is the max number of classes (by bytes) to return, 0 means no limit
+    static HeapHistogram run(long pid, int limit, boolean allowAttachSelf,
+            @Nullable File glowrootJarFile) throws Exception {
+        return JvmTool.run(pid, "heapHisto",
+                new HeapHistogramProcessor(JavaVersion.isJRockitJvm(), limit), allowAttachSelf,
                 glowrootJarFile);
     }
 
-    private static class HeapHistogramProcessor implements InputStreamProcessor<HeapHistogram> {
+    @VisibleForTesting
+    static class HeapHistogramProcessor implements InputStreamProcessor<HeapHistogram> {
+
+        private final boolean jrockit;
+        private final int limit;
 
+        @VisibleForTesting
+        HeapHistogramProcessor(boolean jrockit, int limit) {
+            this.jrockit = jrockit;
+            this.limit = limit;
+        }
+
+        // the output is parsed one line at a time as it is read (without splitting the line into
+        // tokens), since this runs in the monitored JVM, often while it is already under memory
+        // pressure, and the output can be hundreds of thousands of lines (e.g. with heavy use of
+        // generated classes)
+        //
+        // for the same reason, when there is a limit, only the top classes seen so far are retained
+        // while parsing (in a heap ordered smallest first), so that memory is bounded by the limit
+        // instead of by the number of classes
         @Override
         public HeapHistogram process(InputStream in) throws IOException {
-            boolean jrockit = JavaVersion.isJRockitJvm();
             BufferedReader reader = new BufferedReader(new InputStreamReader(in));
             // skip over header lines
             String line = reader.readLine();
@@ -59,40 +80,79 @@ class HeapHistogramTool {
                 throw new IOException("Unexpected heapHisto output");
             }
             Map<String, ClassInfo> classInfos = Maps.newHashMap();
-            Splitter splitter = Splitter.on(' ').omitEmptyStrings();
+            PriorityQueue<ClassInfo> smallestFirst = null;
+            if (limit > 0) {
+                smallestFirst =
+                        new PriorityQueue<ClassInfo>(limit, ClassInfo.orderingByBytes.reverse());
+            }
+            long totalBytes = 0;
+            long totalCount = 0;
+            LineParser parser = new LineParser();
             while ((line = reader.readLine()) != null) {
                 if (line.startsWith("Total ") || line.endsWith(" total ---")) {
                     break;
                 }
-                Iterator<String> parts = splitter.split(line).iterator();
-                parts.next();
+                parser.reset(line);
+                if (!parser.skipToken()) {
+                    continue;
+                }
                 long count;
                 long bytes;
                 if (jrockit) {
-                    String bytesStr = parts.next();
-                    bytes = 1024 * Long.parseLong(bytesStr.substring(0, bytesStr.length() - 1));
-                    count = Long.parseLong(parts.next());
-                    parts.next();
+                    // bytes are in kilobytes, e.g. "1234k"
+                    long kilobytes = parser.nextLong();
+                    bytes = kilobytes == -1 ? -1 : 1024 * kilobytes;
+                    count = parser.nextLong();
+                    parser.skipToken();
                 } else {
-                    count = Long.parseLong(parts.next());
-                    bytes = Long.parseLong(parts.next());
+                    count = parser.nextLong();
+                    bytes = parser.nextLong();
+                }
+                // (java 9+ appends the module to the class name, which is not part of the token)
+                String className = parser.nextToken();
+                if (count == -1 || bytes == -1 || className == null) {
+                    // skipping unexpected lines instead of failing the whole histogram
+                    continue;
                 }
-                String className = parts.next();
                 // skipping PermGen objects
-                if (className.charAt(0) != '<') {
-                    if (className.charAt(0) == '[') {
-                        className = Type.getType(className).getClassName();
-                    }
-                    ClassInfo classInfo = classInfos.get(className);
-                    if (classInfo == null) {
-                        classInfo = new ClassInfo(className);
-                        classInfos.put(className, classInfo);
+                if (className.charAt(0) == '<') {
+                    continue;
+                }
+                totalBytes += bytes;
+                totalCount += count;
+                if (className.charAt(0) == '[') {
+                    className = Type.getType(className).getClassName();
+                }
+                // the same class name can appear multiple times (loaded by different class
+                // loaders)
+                ClassInfo classInfo = classInfos.get(className);
+                if (classInfo == null) {
+                    if (smallestFirst != null && classInfos.size() == limit) {
+                        // a class whose individual entries never make it into the top classes is
+                        // left out even if its entries would add up to more, which is an
+                        // acceptable approximation for bounding the memory
+                        ClassInfo smallest = checkNotNull(smallestFirst.peek());
+                        if (bytes <= smallest.bytes) {
+                            continue;
+                        }
+                        smallestFirst.remove();
+                        classInfos.remove(smallest.className);
                     }
-                    classInfo.bytes += bytes;
-                    classInfo.count += count;
+                    classInfo = new ClassInfo(className);
+                    classInfos.put(className, classInfo);
+                } else if (smallestFirst != null) {
+                    // re-added below in order to re-position it in the heap
+                    smallestFirst.remove(classInfo);
+                }
+                classInfo.bytes += bytes;
+                classInfo.count += count;
+                if (smallestFirst != null) {
+                    smallestFirst.add(classInfo);
                 }
             }
-            HeapHistogram.Builder builder = HeapHistogram.newBuilder();
+            HeapHistogram.Builder builder = HeapHistogram.newBuilder()
+                    .setTotalBytes(totalBytes)
+                    .setTotalCount(totalCount);
             for (ClassInfo classInfo : ClassInfo.orderingByBytes.sortedCopy(classInfos.values())) {
                 builder.addClassInfo(HeapHistogram.ClassInfo.newBuilder()
                         .setClassName(classInfo.className)
@@ -103,6 +163,72 @@ class HeapHistogramTool {
         }
     }
 
+    // the next* methods return -1 or null (and skipToken returns false) when the line has no
+    // more tokens
+    private static class LineParser {
+
+        private String line = "";
+        private int index;
+
+        private void reset(String line) {
+            this.line = line;
+            index = 0;
+        }
+
+        private boolean skipToken() {
+            if (!skipSpaces()) {
+                return false;
+            }
+            while (index < line.length() && line.charAt(index) != ' ') {
+                index++;
+            }
+            return true;
+        }
+
+        // ignores any non-digit suffix, e.g. "1234k"
+        private long nextLong() {
+            if (!skipSpaces()) {
+                return -1;
+            }
+            char first = line.charAt(index);
+            if (first < '0' || first > '9') {
+                return -1;
+            }
+            long value = 0;
+            while (index < line.length()) {
+                char c = line.charAt(index);
+                if (c < '0' || c > '9') {
+                    break;
+                }
+                value = value * 10 + c - '0';
+                index++;
+            }
+            while (index < line.length() && line.charAt(index) != ' ') {
+                index++;
+            }
+            return value;
+        }
+
+        private @Nullable String nextToken() {
+            if (!skipSpaces()) {
+                return null;
+            }
+            int start = index;
+            while (index < line.length() && line.charAt(index) != ' ') {
+                index++;
+            }
+            return line.substring(start, index);
+        }
+
+        // returns false if there are no more tokens
+        private boolean skipSpaces() {
+            while (index < line.length() && line.charAt(index) == ' ') {
+                index++;
+            }
+            return index < line.length();
+        }
+    }
+
     private static class ClassInfo {
 
         private static final Ordering<ClassInfo> orderingByBytes = new Ordering<ClassInfo>() {
@@ -148,12 +148,12 @@ public class LiveJvmServiceImpl implements LiveJvmService {
     }
 
     @Override
-    public HeapHistogram heapHistogram(String agentId) throws Exception {
+    public HeapHistogram heapHistogram(String agentId, int limit) throws Exception {
         if (JavaVersion.isIbmJvm()) {
             throw new UnavailableDueToRunningInIbmJvmException();
         }
         long pid = checkNotNull(LiveJvmServiceImpl.getProcessId());
-        return HeapHistogramTool.run(pid, allowAttachSelf(), glowrootJarFile);
+        return HeapHistogramTool.run(pid, limit, allowAttachSelf(), glowrootJarFile);
     }
 
     @Override
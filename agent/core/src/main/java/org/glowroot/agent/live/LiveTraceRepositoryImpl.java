@@ -93,6 +93,27 @@ public class LiveTraceRepositoryImpl implements LiveTraceRepository {
         return null;
     }
 
+    @Override
+    public @Nullable Entries getEntries(String agentId, String traceId, int fromIndex,
+            int limit) {
+        for (Transaction transaction : Iterables.concat(transactionRegistry.getTransactions(),
+                transactionCollector.getPendingTransactions())) {
+            if (transaction.getTraceId().equals(traceId)) {
+                CollectingEntryVisitor visitor = new CollectingEntryVisitor();
+                transaction.visitEntries(ticker.read(), fromIndex, limit, visitor);
+                if (visitor.entries.isEmpty()) {
+                    return null;
+                }
+                return ImmutableEntries.builder()
+                        .addAllEntries(visitor.entries)
+                        .addAllSharedQueryTexts(
+                                TraceCreator.toProto(transaction.getSharedQueryTexts()))
+                        .build();
+            }
+        }
+        return null;
+    }
+
     @Override
     public @Nullable Queries getQueries(String agentId, String traceId) {
         for (Transaction transaction : Iterables.concat(transactionRegistry.getTransactions(),
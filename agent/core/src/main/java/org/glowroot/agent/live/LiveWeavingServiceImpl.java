@@ -16,7 +16,6 @@
 package org.glowroot.agent.live;
 
 import java.lang.instrument.Instrumentation;
-import java.lang.instrument.UnmodifiableClassException;
 import java.lang.reflect.Modifier;
 import java.util.List;
 import java.util.Locale;
@@ -64,6 +63,12 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
     private static final String THE_SINGLE_KEY = "THE_SINGLE_KEY";
     private static final Splitter splitter = Splitter.on(' ').omitEmptyStrings();
 
+    private static final int REWEAVE_BATCH_SIZE =
+            Integer.getInteger("glowroot.reweave.batch.size", 100);
+
+    private static final long REWEAVE_BATCH_PAUSE_MILLIS =
+            Long.getLong("glowroot.reweave.batch.pause.millis", 10);
+
     private final AnalyzedWorld analyzedWorld;
     private final @Nullable Instrumentation instrumentation;
     private final ConfigService configService;
@@ -232,7 +237,9 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
         if (classes.isEmpty()) {
             return 0;
         }
-        instrumentation.retransformClasses(Iterables.toArray(classes, Class.class));
+        // pausing between batches so that a broad pointcut doesn't stall the monitored application
+        new ClassRetransformer(instrumentation, REWEAVE_BATCH_SIZE, REWEAVE_BATCH_PAUSE_MILLIS)
+                .retransform(Lists.newArrayList(classes));
         List<Class<?>> updatedReweavableClasses =
                 analyzedWorld.getClassesWithReweavableAdvice(false);
         // all existing reweavable classes were woven
@@ -247,25 +254,27 @@ public class LiveWeavingServiceImpl implements LiveWeavingService {
         return count;
     }
 
-    public static void initialReweave(Set<PointcutClassName> pointcutClassNames,
-            Class<?>[] initialLoadedClasses, Instrumentation instrumentation) {
+    // returns the number of classes retransformed
+    public static int initialReweave(Set<PointcutClassName> pointcutClassNames,
+            Class<?>[] initialLoadedClasses, Instrumentation instrumentation, int batchSize,
+            boolean inBackground) {
         if (!instrumentation.isRetransformClassesSupported()) {
-            return;
+            return 0;
         }
         Set<Class<?>> classes = getExistingModifiableSubClasses(pointcutClassNames,
                 initialLoadedClasses, instrumentation);
+        List<Class<?>> nonInterfaceClasses = Lists.newArrayList();
         for (Class<?> clazz : classes) {
-            if (clazz.isInterface()) {
-                continue;
-            }
-            try {
-                instrumentation.retransformClasses(clazz);
-            } catch (UnmodifiableClassException e) {
-                // IBM JDK 6 throws UnmodifiableClassException even though call to
-                // isModifiableClass() in getExistingModifiableSubClasses() returns true
-                logger.debug(e.getMessage(), e);
+            if (!clazz.isInterface()) {
+                nonInterfaceClasses.add(clazz);
             }
         }
+        // no pause between batches when the initial reweave is performed during startup, but when
+        // it is performed in the background (glowroot.fast.startup) the application is already
+        // running, so it pauses between batches the same as live reweave
+        long batchPauseMillis = inBackground ? REWEAVE_BATCH_PAUSE_MILLIS : 0;
+        return new ClassRetransformer(instrumentation, batchSize, batchPauseMillis)
+                .retransform(nonInterfaceClasses);
     }
 
     private static Set<Class<?>> getExistingModifiableSubClasses(
@@ -18,6 +18,7 @@ package org.glowroot.agent.model;
 import java.util.List;
 
 import com.google.common.collect.Lists;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import org.glowroot.agent.impl.TimerNameCache;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
@@ -71,13 +72,22 @@ public class MutableAggregateTimer implements AggregatedTimer {
     }
 
     public Aggregate.Timer toProto() {
+        return toProto(null);
+    }
+
+    // when sharedStringCollection is non-null, the timer names are sent as shared string indexes
+    public Aggregate.Timer toProto(@Nullable SharedStringCollection sharedStringCollection) {
         Aggregate.Timer.Builder builder = Aggregate.Timer.newBuilder()
-                .setName(name)
                 .setExtended(extended)
                 .setTotalNanos(totalDurationNanos)
                 .setCount(count);
+        if (sharedStringCollection == null) {
+            builder.setName(name);
+        } else {
+            builder.setNameIndex(sharedStringCollection.getSharedStringIndex(name));
+        }
         for (MutableAggregateTimer childTimer : childTimers) {
-            builder.addChildTimer(childTimer.toProto());
+            builder.addChildTimer(childTimer.toProto(sharedStringCollection));
         }
         return builder.build();
     }
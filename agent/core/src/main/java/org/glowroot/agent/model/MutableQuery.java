@@ -15,9 +15,14 @@
  */
 package org.glowroot.agent.model;
 
+import com.google.common.hash.Hashing;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.Proto.OptionalInt64;
 
+import static com.google.common.base.Charsets.UTF_8;
+
 class MutableQuery {
 
     private double totalDurationNanos;
@@ -28,6 +33,9 @@ class MutableQuery {
 
     private boolean active;
 
+    // lazily computed, and only for query texts that are longer than the truncation limit
+    private @Nullable String fullQueryTextSha1;
+
     double getTotalDurationNanos() {
         return totalDurationNanos;
     }
@@ -67,6 +75,15 @@ class MutableQuery {
         this.active = active;
     }
 
+    String getFullQueryTextSha1(String fullQueryText) {
+        String fullQueryTextSha1 = this.fullQueryTextSha1;
+        if (fullQueryTextSha1 == null) {
+            fullQueryTextSha1 = Hashing.sha1().hashString(fullQueryText, UTF_8).toString();
+            this.fullQueryTextSha1 = fullQueryTextSha1;
+        }
+        return fullQueryTextSha1;
+    }
+
     void add(MutableQuery query) {
         addToTotalDurationNanos(query.totalDurationNanos);
         addToExecutionCount(query.executionCount);
@@ -86,11 +103,16 @@ class MutableQuery {
     }
 
     Aggregate.Query toAggregateProto(String queryType, String queryText,
-            SharedQueryTextCollection sharedQueryTextCollection, boolean includeActive) {
+            SharedQueryTextCollection sharedQueryTextCollection,
+            @Nullable SharedStringCollection sharedStringCollection, boolean includeActive) {
         int sharedQueryTextIndex = sharedQueryTextCollection.getSharedQueryTextIndex(queryText);
-        Aggregate.Query.Builder builder = Aggregate.Query.newBuilder()
-                .setType(queryType)
-                .setSharedQueryTextIndex(sharedQueryTextIndex)
+        Aggregate.Query.Builder builder = Aggregate.Query.newBuilder();
+        if (sharedStringCollection == null) {
+            builder.setType(queryType);
+        } else {
+            builder.setTypeIndex(sharedStringCollection.getSharedStringIndex(queryType));
+        }
+        builder.setSharedQueryTextIndex(sharedQueryTextIndex)
                 .setTotalDurationNanos(totalDurationNanos)
                 .setExecutionCount(executionCount);
         if (hasTotalRows) {
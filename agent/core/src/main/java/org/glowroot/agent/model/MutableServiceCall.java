@@ -15,6 +15,8 @@
  */
 package org.glowroot.agent.model;
 
+import org.checkerframework.checker.nullness.qual.Nullable;
+
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 
 class MutableServiceCall {
@@ -48,10 +50,15 @@ class MutableServiceCall {
         addToExecutionCount(serviceCall.getExecutionCount());
     }
 
-    Aggregate.ServiceCall toAggregateProto(String serviceCallType, String serviceCallText) {
-        Aggregate.ServiceCall.Builder builder = Aggregate.ServiceCall.newBuilder()
-                .setType(serviceCallType)
-                .setText(serviceCallText)
+    Aggregate.ServiceCall toAggregateProto(String serviceCallType, String serviceCallText,
+            @Nullable SharedStringCollection sharedStringCollection) {
+        Aggregate.ServiceCall.Builder builder = Aggregate.ServiceCall.newBuilder();
+        if (sharedStringCollection == null) {
+            builder.setType(serviceCallType);
+        } else {
+            builder.setTypeIndex(sharedStringCollection.getSharedStringIndex(serviceCallType));
+        }
+        builder.setText(serviceCallText)
                 .setTotalDurationNanos(totalDurationNanos)
                 .setExecutionCount(executionCount);
         return builder.build();
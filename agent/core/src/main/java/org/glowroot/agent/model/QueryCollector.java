@@ -22,14 +22,13 @@ import java.util.Map;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.hash.Hashing;
 import com.google.common.primitives.Doubles;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 import org.glowroot.common.Constants;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 
-import static com.google.common.base.Charsets.UTF_8;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 public class QueryCollector {
 
@@ -50,20 +49,29 @@ public class QueryCollector {
 
     public List<Aggregate.Query> toAggregateProto(
             SharedQueryTextCollection sharedQueryTextCollection, boolean includeActive) {
+        return toAggregateProto(sharedQueryTextCollection, null, includeActive);
+    }
+
+    // when sharedStringCollection is non-null, the query types are sent as shared string indexes
+    public List<Aggregate.Query> toAggregateProto(
+            SharedQueryTextCollection sharedQueryTextCollection,
+            @Nullable SharedStringCollection sharedStringCollection, boolean includeActive) {
         // " + queries.size()" is to cover the maximum number of limit exceeded buckets
         List<Aggregate.Query> allQueries =
                 Lists.newArrayListWithCapacity(Math.min(queryCount, limit) + queries.size());
         for (Map.Entry<String, Map<String, MutableQuery>> outerEntry : queries.entrySet()) {
             for (Map.Entry<String, MutableQuery> innerEntry : outerEntry.getValue().entrySet()) {
                 allQueries.add(innerEntry.getValue().toAggregateProto(outerEntry.getKey(),
-                        innerEntry.getKey(), sharedQueryTextCollection, includeActive));
+                        innerEntry.getKey(), sharedQueryTextCollection, sharedStringCollection,
+                        includeActive));
             }
         }
         if (allQueries.size() <= limit) {
             // there could be limit exceeded buckets if hardLimitMultiplierWhileBuilding is 1
             for (Map.Entry<String, MutableQuery> entry : limitExceededBuckets.entrySet()) {
                 allQueries.add(entry.getValue().toAggregateProto(entry.getKey(),
-                        LIMIT_EXCEEDED_BUCKET, sharedQueryTextCollection, includeActive));
+                        LIMIT_EXCEEDED_BUCKET, sharedQueryTextCollection, sharedStringCollection,
+                        includeActive));
             }
             sort(allQueries);
             return allQueries;
@@ -73,8 +81,10 @@ public class QueryCollector {
         allQueries = Lists.newArrayList(allQueries.subList(0, limit));
         // do not modify original limit exceeded buckets since adding exceeded queries below
         Map<String, MutableQuery> limitExceededBuckets = copyLimitExceededBuckets();
+        Map<Integer, String> queryTypes = getQueryTypesByIndex(sharedStringCollection);
         for (Aggregate.Query exceededQuery : exceededQueries) {
-            String queryType = exceededQuery.getType();
+            String queryType = queryTypes == null ? exceededQuery.getType()
+                    : checkNotNull(queryTypes.get(exceededQuery.getTypeIndex()));
             MutableQuery limitExceededBucket = limitExceededBuckets.get(queryType);
             if (limitExceededBucket == null) {
                 limitExceededBucket = new MutableQuery();
@@ -84,13 +94,26 @@ public class QueryCollector {
         }
         for (Map.Entry<String, MutableQuery> entry : limitExceededBuckets.entrySet()) {
             allQueries.add(entry.getValue().toAggregateProto(entry.getKey(), LIMIT_EXCEEDED_BUCKET,
-                    sharedQueryTextCollection, includeActive));
+                    sharedQueryTextCollection, sharedStringCollection, includeActive));
         }
         // need to re-sort now including limit exceeded bucket
         sort(allQueries);
         return allQueries;
     }
 
+    // returns null when not using shared strings (query type is sent as string)
+    private @Nullable Map<Integer, String> getQueryTypesByIndex(
+            @Nullable SharedStringCollection sharedStringCollection) {
+        if (sharedStringCollection == null) {
+            return null;
+        }
+        Map<Integer, String> queryTypes = Maps.newHashMap();
+        for (String queryType : queries.keySet()) {
+            queryTypes.put(sharedStringCollection.getSharedStringIndex(queryType), queryType);
+        }
+        return queryTypes;
+    }
+
     public void mergeQuery(String queryType, String queryText, double totalDurationNanos,
             long executionCount, boolean hasTotalRows, long totalRows, boolean active) {
         Map<String, MutableQuery> queriesForType = queries.get(queryType);
@@ -134,17 +157,17 @@ public class QueryCollector {
         for (Map.Entry<String, Map<String, MutableQuery>> outerEntry : queries.entrySet()) {
             for (Map.Entry<String, MutableQuery> entry : outerEntry.getValue().entrySet()) {
                 String fullQueryText = entry.getKey();
+                MutableQuery query = entry.getValue();
                 String truncatedQueryText;
                 String fullQueryTextSha1;
                 if (fullQueryText.length() > Constants.AGGREGATE_QUERY_TEXT_TRUNCATE) {
                     truncatedQueryText =
                             fullQueryText.substring(0, Constants.AGGREGATE_QUERY_TEXT_TRUNCATE);
-                    fullQueryTextSha1 = Hashing.sha1().hashString(fullQueryText, UTF_8).toString();
+                    fullQueryTextSha1 = query.getFullQueryTextSha1(fullQueryText);
                 } else {
                     truncatedQueryText = fullQueryText;
                     fullQueryTextSha1 = null;
                 }
-                MutableQuery query = entry.getValue();
                 collector.mergeQuery(outerEntry.getKey(), truncatedQueryText, fullQueryTextSha1,
                         query.getTotalDurationNanos(), query.getExecutionCount(),
                         query.hasTotalRows(), query.getTotalRows());
@@ -159,15 +182,16 @@ public class QueryCollector {
         }
     }
 
+    // the sha1 is cached on each query, so each long query text is only hashed once
     public @Nullable String getFullQueryText(String fullQueryTextSha1) {
-        for (Map.Entry<String, Map<String, MutableQuery>> entry : queries.entrySet()) {
-            for (String fullQueryText : entry.getValue().keySet()) {
-                if (fullQueryText.length() <= Constants.AGGREGATE_QUERY_TEXT_TRUNCATE) {
+        for (Map<String, MutableQuery> queriesForType : queries.values()) {
+            for (Map.Entry<String, MutableQuery> entry : queriesForType.entrySet()) {
+                String queryText = entry.getKey();
+                if (queryText.length() <= Constants.AGGREGATE_QUERY_TEXT_TRUNCATE) {
                     continue;
                 }
-                String sha1 = Hashing.sha1().hashString(fullQueryText, UTF_8).toString();
-                if (fullQueryTextSha1.equals(sha1)) {
-                    return fullQueryText;
+                if (fullQueryTextSha1.equals(entry.getValue().getFullQueryTextSha1(queryText))) {
+                    return queryText;
                 }
             }
         }
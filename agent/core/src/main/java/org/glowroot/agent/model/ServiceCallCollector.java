@@ -23,9 +23,12 @@ import java.util.Map;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.primitives.Doubles;
+import org.checkerframework.checker.nullness.qual.Nullable;
 
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 
+import static com.google.common.base.Preconditions.checkNotNull;
+
 public class ServiceCallCollector {
 
     private static final String LIMIT_EXCEEDED_BUCKET = "LIMIT EXCEEDED BUCKET";
@@ -44,6 +47,13 @@ public class ServiceCallCollector {
     }
 
     public List<Aggregate.ServiceCall> toAggregateProto() {
+        return toAggregateProto(null);
+    }
+
+    // when sharedStringCollection is non-null, the service call types are sent as shared string
+    // indexes
+    public List<Aggregate.ServiceCall> toAggregateProto(
+            @Nullable SharedStringCollection sharedStringCollection) {
         // " + serviceCalls.size()" is to cover the maximum number of limit exceeded buckets
         List<Aggregate.ServiceCall> allServiceCalls = Lists
                 .newArrayListWithCapacity(Math.min(serviceCallCount, limit) + serviceCalls.size());
@@ -52,14 +62,14 @@ public class ServiceCallCollector {
             for (Map.Entry<String, MutableServiceCall> innerEntry : outerEntry.getValue()
                     .entrySet()) {
                 allServiceCalls.add(innerEntry.getValue().toAggregateProto(outerEntry.getKey(),
-                        innerEntry.getKey()));
+                        innerEntry.getKey(), sharedStringCollection));
             }
         }
         if (allServiceCalls.size() <= limit) {
             // there could be limit exceeded buckets if hardLimitMultiplierWhileBuilding is 1
             for (Map.Entry<String, MutableServiceCall> entry : limitExceededBuckets.entrySet()) {
-                allServiceCalls.add(
-                        entry.getValue().toAggregateProto(entry.getKey(), LIMIT_EXCEEDED_BUCKET));
+                allServiceCalls.add(entry.getValue().toAggregateProto(entry.getKey(),
+                        LIMIT_EXCEEDED_BUCKET, sharedStringCollection));
             }
             sort(allServiceCalls);
             return allServiceCalls;
@@ -70,8 +80,11 @@ public class ServiceCallCollector {
         allServiceCalls = Lists.newArrayList(allServiceCalls.subList(0, limit));
         // do not modify original limit exceeded buckets since adding exceeded queries below
         Map<String, MutableServiceCall> limitExceededBuckets = copyLimitExceededBuckets();
+        Map<Integer, String> serviceCallTypes =
+                getServiceCallTypesByIndex(sharedStringCollection);
         for (Aggregate.ServiceCall exceededServiceCall : exceededServiceCalls) {
-            String queryType = exceededServiceCall.getType();
+            String queryType = serviceCallTypes == null ? exceededServiceCall.getType()
+                    : checkNotNull(serviceCallTypes.get(exceededServiceCall.getTypeIndex()));
             MutableServiceCall limitExceededBucket = limitExceededBuckets.get(queryType);
             if (limitExceededBucket == null) {
                 limitExceededBucket = new MutableServiceCall();
@@ -80,14 +93,28 @@ public class ServiceCallCollector {
             limitExceededBucket.add(exceededServiceCall);
         }
         for (Map.Entry<String, MutableServiceCall> entry : limitExceededBuckets.entrySet()) {
-            allServiceCalls
-                    .add(entry.getValue().toAggregateProto(entry.getKey(), LIMIT_EXCEEDED_BUCKET));
+            allServiceCalls.add(entry.getValue().toAggregateProto(entry.getKey(),
+                    LIMIT_EXCEEDED_BUCKET, sharedStringCollection));
         }
         // need to re-sort now including limit exceeded bucket
         sort(allServiceCalls);
         return allServiceCalls;
     }
 
+    // returns null when not using shared strings (service call type is sent as string)
+    private @Nullable Map<Integer, String> getServiceCallTypesByIndex(
+            @Nullable SharedStringCollection sharedStringCollection) {
+        if (sharedStringCollection == null) {
+            return null;
+        }
+        Map<Integer, String> serviceCallTypes = Maps.newHashMap();
+        for (String serviceCallType : serviceCalls.keySet()) {
+            serviceCallTypes.put(sharedStringCollection.getSharedStringIndex(serviceCallType),
+                    serviceCallType);
+        }
+        return serviceCallTypes;
+    }
+
     public void mergeServiceCall(String serviceCallType, String serviceCallText,
             double totalDurationNanos, long executionCount) {
         Map<String, MutableServiceCall> serviceCallsForType = serviceCalls.get(serviceCallType);
@@ -21,6 +21,7 @@ import java.util.ListIterator;
 import java.util.Set;
 
 import javax.annotation.concurrent.GuardedBy;
+import javax.management.AttributeList;
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanInfo;
@@ -142,6 +143,34 @@ public class LazyPlatformMBeanServer {
         }
     }
 
+    public void unregisterMBean(String name) {
+        ObjectName objectName;
+        try {
+            objectName = ObjectName.getInstance(name);
+        } catch (MalformedObjectNameException e) {
+            logger.warn(e.getMessage(), e);
+            return;
+        }
+        synchronized (initListeners) {
+            if (platformMBeanServer == null) {
+                List<ObjectNamePair> pairs = Lists.newArrayList();
+                for (ObjectNamePair pair : toBeRegistered) {
+                    if (pair.name().equals(objectName)) {
+                        pairs.add(pair);
+                    }
+                }
+                toBeRegistered.removeAll(pairs);
+            } else {
+                try {
+                    platformMBeanServer.unregisterMBean(objectName);
+                } catch (Throwable t) {
+                    logger.warn(t.getMessage(), t);
+                }
+            }
+            toBeUnregistered.remove(objectName);
+        }
+    }
+
     public void invoke(ObjectName name, String operationName, Object[] params, String[] signature)
             throws Exception {
         ensureInit();
@@ -170,6 +199,14 @@ public class LazyPlatformMBeanServer {
         return getAttributeAcrossAll(name, attribute, mbeanServers);
     }
 
+    // attributes that cannot be read are omitted from the returned list (see
+    // MBeanServer.getAttributes())
+    public AttributeList getAttributes(ObjectName name, String[] attributes,
+            List<MBeanServer> mbeanServers) throws Exception {
+        ensureInit();
+        return getAttributesAcrossAll(name, attributes, mbeanServers);
+    }
+
     public void addInitListener(InitListener initListener) {
         synchronized (initListeners) {
             if (platformMBeanServer == null) {
@@ -289,6 +326,22 @@ public class LazyPlatformMBeanServer {
         throw checkNotNull(firstException);
     }
 
+    private AttributeList getAttributesAcrossAll(ObjectName name, String[] attributes,
+            List<MBeanServer> mbeanServers) throws Exception {
+        InstanceNotFoundException firstException = null;
+        for (MBeanServer mbeanServer : mbeanServers) {
+            try {
+                return mbeanServer.getAttributes(name, attributes);
+            } catch (InstanceNotFoundException e) {
+                logger.debug(e.getMessage(), e);
+                if (firstException == null) {
+                    firstException = e;
+                }
+            }
+        }
+        throw checkNotNull(firstException);
+    }
+
     @OnlyUsedByTests
     public void close() throws Exception {
         ensureInit();
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import java.lang.reflect.Method;
+
+import com.google.common.annotations.VisibleForTesting;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// virtual threads (Java 21+) are not visible to ThreadMXBean, e.g. ThreadMXBean.getThreadInfo()
+// returns null and ThreadMXBean.getThreadCpuTime() returns -1 for virtual threads, so these lookups
+// are skipped (and stack traces are captured via Thread.getStackTrace() instead)
+//
+// isVirtual() is called on every thread context creation, so the detection strategy is resolved
+// once up front, and on Java 21+ is a simple instanceof check against the (non-public) base class
+// of all virtual threads instead of a reflective call to Thread.isVirtual()
+public class VirtualThreads {
+
+    private static final Logger logger = LoggerFactory.getLogger(VirtualThreads.class);
+
+    private static final Detector detector = createDetector();
+
+    private VirtualThreads() {}
+
+    public static boolean isVirtual(Thread thread) {
+        return detector.isVirtual(thread);
+    }
+
+    @VisibleForTesting
+    static boolean isSupported() {
+        return detector != Detector.NOT_SUPPORTED;
+    }
+
+    private static Detector createDetector() {
+        Method isVirtualMethod;
+        try {
+            isVirtualMethod = Thread.class.getMethod("isVirtual");
+        } catch (NoSuchMethodException e) {
+            // prior to Java 21 (or Java 19 with preview features)
+            logger.debug(e.getMessage(), e);
+            return Detector.NOT_SUPPORTED;
+        }
+        try {
+            return new InstanceOfDetector(Class.forName("java.lang.BaseVirtualThread"));
+        } catch (ClassNotFoundException e) {
+            logger.debug(e.getMessage(), e);
+            return new ReflectionDetector(isVirtualMethod);
+        }
+    }
+
+    private abstract static class Detector {
+
+        private static final Detector NOT_SUPPORTED = new Detector() {
+            @Override
+            boolean isVirtual(Thread thread) {
+                return false;
+            }
+        };
+
+        abstract boolean isVirtual(Thread thread);
+    }
+
+    private static class InstanceOfDetector extends Detector {
+
+        private final Class<?> baseVirtualThreadClass;
+
+        private InstanceOfDetector(Class<?> baseVirtualThreadClass) {
+            this.baseVirtualThreadClass = baseVirtualThreadClass;
+        }
+
+        @Override
+        boolean isVirtual(Thread thread) {
+            return baseVirtualThreadClass.isInstance(thread);
+        }
+    }
+
+    // fallback in case the base class of virtual threads is ever renamed
+    private static class ReflectionDetector extends Detector {
+
+        private final Method isVirtualMethod;
+
+        private volatile boolean disabledDueToError;
+
+        private ReflectionDetector(Method isVirtualMethod) {
+            this.isVirtualMethod = isVirtualMethod;
+        }
+
+        @Override
+        boolean isVirtual(Thread thread) {
+            if (disabledDueToError) {
+                return false;
+            }
+            try {
+                Boolean virtual = (Boolean) isVirtualMethod.invoke(thread);
+                return virtual != null && virtual;
+            } catch (Exception e) {
+                // prevent excessive error logging in case there is a problem
+                logger.error(e.getMessage(), e);
+                disabledDueToError = true;
+                return false;
+            }
+        }
+    }
+}
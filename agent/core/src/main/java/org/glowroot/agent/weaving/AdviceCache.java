@@ -21,11 +21,16 @@ import java.lang.instrument.Instrumentation;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -68,17 +73,20 @@ public class AdviceCache {
 
     private volatile ImmutableList<Advice> allAdvisors;
 
+    // startupExecutor (if non-null) is used to read and parse the plugin classes in parallel
     public AdviceCache(List<PluginDescriptor> pluginDescriptors,
             List<InstrumentationConfig> reweavableConfigs,
-            @Nullable Instrumentation instrumentation, File tmpDir) throws Exception {
+            @Nullable Instrumentation instrumentation, File tmpDir,
+            @Nullable ExecutorService startupExecutor) throws Exception {
 
+        List<PluginDetail> pluginDetails = buildPluginDetails(pluginDescriptors, startupExecutor);
         List<Advice> pluginAdvisors = Lists.newArrayList();
         List<ShimType> shimTypes = Lists.newArrayList();
         List<MixinType> mixinTypes = Lists.newArrayList();
         Map<Advice, LazyDefinedClass> lazyAdvisors = Maps.newHashMap();
-        for (PluginDescriptor pluginDescriptor : pluginDescriptors) {
-            PluginDetailBuilder builder = new PluginDetailBuilder(pluginDescriptor);
-            PluginDetail pluginDetail = builder.build();
+        for (int i = 0; i < pluginDescriptors.size(); i++) {
+            PluginDescriptor pluginDescriptor = pluginDescriptors.get(i);
+            PluginDetail pluginDetail = pluginDetails.get(i);
 
             pluginAdvisors.addAll(getAdvisors(pluginDetail.pointcutClasses()));
             mixinTypes.addAll(getMixinTypes(pluginDetail.mixinClasses()));
@@ -102,10 +110,15 @@ public class AdviceCache {
             ClassLoaders.defineClasses(lazyAdvisors.values(),
                     isolatedWeavingClassLoader);
         } else {
-            ClassLoaders.createDirectoryOrCleanPreviousContentsWithPrefix(tmpDir,
-                    "plugin-pointcuts.jar");
-            if (!lazyAdvisors.isEmpty()) {
-                File jarFile = new File(tmpDir, "plugin-pointcuts.jar");
+            if (lazyAdvisors.isEmpty()) {
+                ClassLoaders.createDirectoryOrCleanPreviousContentsWithPrefix(tmpDir,
+                        "plugin-pointcuts");
+            } else {
+                File jarFile = new File(tmpDir, "plugin-pointcuts-"
+                        + ClassLoaders.getFingerprint(lazyAdvisors.values()) + ".jar");
+                // jar file from previous jvm is retained so that it can be re-used if unchanged
+                ClassLoaders.createDirectoryOrCleanPreviousContentsWithPrefix(tmpDir,
+                        "plugin-pointcuts", jarFile.getName());
                 ClassLoaders.defineClassesInBootstrapClassLoader(lazyAdvisors.values(),
                         instrumentation, jarFile);
             }
@@ -140,7 +153,9 @@ public class AdviceCache {
         return mixinTypes;
     }
 
-    public void initialReweave(Class<?>[] initialLoadedClasses) {
+    // returns the number of classes retransformed
+    public int initialReweave(Class<?>[] initialLoadedClasses, int batchSize,
+            boolean inBackground) {
         Set<PointcutClassName> pointcutClassNames = Sets.newHashSet();
         for (Advice advice : allAdvisors) {
             PointcutClassName pointcutClassName = getPointcutClassName(advice);
@@ -156,8 +171,8 @@ public class AdviceCache {
                 pointcutClassNames.add(pointcutClassName);
             }
         }
-        LiveWeavingServiceImpl.initialReweave(pointcutClassNames, initialLoadedClasses,
-                checkNotNull(instrumentation));
+        return LiveWeavingServiceImpl.initialReweave(pointcutClassNames, initialLoadedClasses,
+                checkNotNull(instrumentation), batchSize, inBackground);
     }
 
     public void updateAdvisors(List<InstrumentationConfig> reweavableConfigs) throws Exception {
@@ -175,6 +190,38 @@ public class AdviceCache {
         return !versions.equals(this.reweavableConfigVersions);
     }
 
+    private static List<PluginDetail> buildPluginDetails(List<PluginDescriptor> pluginDescriptors,
+            @Nullable ExecutorService startupExecutor) throws Exception {
+        List<PluginDetail> pluginDetails = Lists.newArrayList();
+        if (startupExecutor == null) {
+            for (PluginDescriptor pluginDescriptor : pluginDescriptors) {
+                pluginDetails.add(new PluginDetailBuilder(pluginDescriptor).build());
+            }
+            return pluginDetails;
+        }
+        // building plugin details only reads and parses the plugin class files (it does not load
+        // any of the plugin classes), so it is safe to perform in parallel
+        List<Future<PluginDetail>> futures = Lists.newArrayList();
+        for (final PluginDescriptor pluginDescriptor : pluginDescriptors) {
+            futures.add(startupExecutor.submit(new Callable<PluginDetail>() {
+                @Override
+                public PluginDetail call() throws Exception {
+                    return new PluginDetailBuilder(pluginDescriptor).build();
+                }
+            }));
+        }
+        for (Future<PluginDetail> future : futures) {
+            try {
+                pluginDetails.add(future.get());
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                Throwables.propagateIfPossible(cause, Exception.class);
+                throw e;
+            }
+        }
+        return pluginDetails;
+    }
+
     private static List<Advice> getAdvisors(List<PointcutClass> adviceClasses) {
         List<Advice> advisors = Lists.newArrayList();
         for (PointcutClass adviceClass : adviceClasses) {
@@ -222,17 +269,24 @@ public class AdviceCache {
             checkNotNull(isolatedWeavingClassLoader);
             ClassLoaders.defineClasses(advisors.values(), isolatedWeavingClassLoader);
         } else {
-            if (cleanTmpDir) {
-                ClassLoaders.createDirectoryOrCleanPreviousContentsWithPrefix(tmpDir,
-                        "config-pointcuts");
-            }
-            if (!advisors.isEmpty()) {
+            if (advisors.isEmpty()) {
+                if (cleanTmpDir) {
+                    ClassLoaders.createDirectoryOrCleanPreviousContentsWithPrefix(tmpDir,
+                            "config-pointcuts");
+                }
+            } else {
                 String suffix = "";
                 int count = jarFileCounter.incrementAndGet();
                 if (count > 1) {
                     suffix = "-" + count;
                 }
-                File jarFile = new File(tmpDir, "config-pointcuts" + suffix + ".jar");
+                File jarFile = new File(tmpDir, "config-pointcuts" + suffix + "-"
+                        + ClassLoaders.getFingerprint(advisors.values()) + ".jar");
+                if (cleanTmpDir) {
+                    // jar file from previous jvm is retained so that it can be re-used if unchanged
+                    ClassLoaders.createDirectoryOrCleanPreviousContentsWithPrefix(tmpDir,
+                            "config-pointcuts", jarFile.getName());
+                }
                 ClassLoaders.defineClassesInBootstrapClassLoader(advisors.values(), instrumentation,
                         jarFile);
             }
@@ -15,41 +15,52 @@
  */
 package org.glowroot.agent.weaving;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.instrument.Instrumentation;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.util.Collection;
+import java.util.Map;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
 
 import com.google.common.collect.ImmutableList;
-import com.google.common.io.Closer;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.immutables.value.Value;
 import org.objectweb.asm.Type;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.glowroot.common.util.Version;
+
+import static com.google.common.base.Charsets.UTF_8;
+
 class ClassLoaders {
 
     private static final Logger logger = LoggerFactory.getLogger(ClassLoaders.class);
 
     private ClassLoaders() {}
 
+    // the generated jar file name should include getFingerprint() of the classes, in which case an
+    // existing jar file with the same name (e.g. from a previous jvm) is re-used without generating
+    // (or reading) the jar file bytes
     static void defineClassesInBootstrapClassLoader(Collection<LazyDefinedClass> lazyDefinedClasses,
             Instrumentation instrumentation, File generatedJarFile) throws IOException {
-        Closer closer = Closer.create();
-        try {
-            FileOutputStream out = closer.register(new FileOutputStream(generatedJarFile));
-            JarOutputStream jarOut = closer.register(new JarOutputStream(out));
-            generate(lazyDefinedClasses, jarOut);
-        } catch (Throwable t) {
-            throw closer.rethrow(t);
-        } finally {
-            closer.close();
+        if (!generatedJarFile.isFile()) {
+            // write to temporary file first so that a partially written jar file (e.g. if the jvm
+            // is killed) is never re-used
+            File tmpFile = new File(generatedJarFile.getPath() + ".tmp");
+            Files.write(generateJar(lazyDefinedClasses), tmpFile);
+            if (!tmpFile.renameTo(generatedJarFile)) {
+                throw new IOException("Could not rename file: " + tmpFile.getAbsolutePath());
+            }
         }
         instrumentation.appendToBootstrapClassLoaderSearch(new JarFile(generatedJarFile));
         // appendToBootstrapClassLoaderSearch() line above does not add to the bootstrap resource
@@ -67,6 +78,22 @@ class ClassLoaders {
         appendToBootstrapResourcePath(generatedJarFile);
     }
 
+    // the class names alone are not enough to identify the generated jar since generated advice
+    // class names are only unique within a jvm (e.g. GeneratedAdvice1), so the class bytes (which
+    // are already in memory) are hashed along with the class names and the agent version
+    static String getFingerprint(Collection<LazyDefinedClass> lazyDefinedClasses) {
+        Map<String, byte[]> entries = Maps.newTreeMap();
+        collectEntries(lazyDefinedClasses, entries);
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putString(AgentVersionHolder.VERSION, UTF_8);
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            hasher.putString(entry.getKey(), UTF_8);
+            hasher.putInt(entry.getValue().length);
+            hasher.putBytes(entry.getValue());
+        }
+        return hasher.hash().toString();
+    }
+
     static void defineClasses(Collection<LazyDefinedClass> lazyDefinedClasses, ClassLoader loader)
             throws Exception {
         for (LazyDefinedClass lazyDefinedClass : lazyDefinedClasses) {
@@ -88,9 +115,16 @@ class ClassLoaders {
 
     static void createDirectoryOrCleanPreviousContentsWithPrefix(File dir, String prefix)
             throws IOException {
+        createDirectoryOrCleanPreviousContentsWithPrefix(dir, prefix, null);
+    }
+
+    // the file named retainFileName (if any) is not deleted, so that it can be re-used by
+    // defineClassesInBootstrapClassLoader()
+    static void createDirectoryOrCleanPreviousContentsWithPrefix(File dir, String prefix,
+            @Nullable String retainFileName) throws IOException {
         deleteIfRegularFile(dir);
         if (dir.exists()) {
-            deleteFilesWithPrefix(dir, prefix);
+            deleteFilesWithPrefix(dir, prefix, retainFileName);
         } else {
             createDirectory(dir);
         }
@@ -113,14 +147,31 @@ class ClassLoaders {
         return findLoadedClassMethod.invoke(loader, name) != null;
     }
 
-    private static void generate(Collection<LazyDefinedClass> lazyDefinedClasses,
-            JarOutputStream jarOut) throws IOException {
-        for (LazyDefinedClass lazyDefinedClass : lazyDefinedClasses) {
-            JarEntry jarEntry = new JarEntry(lazyDefinedClass.type().getInternalName() + ".class");
+    private static byte[] generateJar(Collection<LazyDefinedClass> lazyDefinedClasses)
+            throws IOException {
+        // entries are written in sorted order and with a fixed timestamp so that the same classes
+        // always generate the same jar file bytes
+        Map<String, byte[]> entries = Maps.newTreeMap();
+        collectEntries(lazyDefinedClasses, entries);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        JarOutputStream jarOut = new JarOutputStream(baos);
+        for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+            JarEntry jarEntry = new JarEntry(entry.getKey());
+            jarEntry.setTime(0);
             jarOut.putNextEntry(jarEntry);
-            jarOut.write(lazyDefinedClass.bytes());
+            jarOut.write(entry.getValue());
             jarOut.closeEntry();
-            generate(lazyDefinedClass.dependencies(), jarOut);
+        }
+        jarOut.close();
+        return baos.toByteArray();
+    }
+
+    private static void collectEntries(Collection<LazyDefinedClass> lazyDefinedClasses,
+            Map<String, byte[]> entries) {
+        for (LazyDefinedClass lazyDefinedClass : lazyDefinedClasses) {
+            entries.put(lazyDefinedClass.type().getInternalName() + ".class",
+                    lazyDefinedClass.bytes());
+            collectEntries(lazyDefinedClass.dependencies(), entries);
         }
     }
 
@@ -130,14 +181,16 @@ class ClassLoaders {
         }
     }
 
-    private static void deleteFilesWithPrefix(File dir, String prefix) throws IOException {
+    private static void deleteFilesWithPrefix(File dir, String prefix,
+            @Nullable String retainFileName) throws IOException {
         File[] files = dir.listFiles();
         if (files == null) {
             // strangely, listFiles() returns null if an I/O error occurs
             throw new IOException("Could not get listing for directory: " + dir.getAbsolutePath());
         }
         for (File file : files) {
-            if (file.getName().startsWith(prefix) && !file.delete()) {
+            String name = file.getName();
+            if (name.startsWith(prefix) && !name.equals(retainFileName) && !file.delete()) {
                 throw new IOException("Could not delete file: " + file.getAbsolutePath());
             }
         }
@@ -163,6 +216,11 @@ class ClassLoaders {
         }
     }
 
+    // lazy loaded since reading the manifest is only needed when generating jar files
+    private static class AgentVersionHolder {
+        private static final String VERSION = Version.getVersion(ClassLoaders.class);
+    }
+
     @Value.Immutable
     public interface LazyDefinedClass {
         Type type();
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import org.junit.Test;
+
+import static com.google.common.base.Charsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class FullQueryTextSha1sTest {
+
+    @Test
+    public void shouldComputeSha1() {
+        // given
+        FullQueryTextSha1s fullQueryTextSha1s = new FullQueryTextSha1s(10000);
+        String fullQueryText = "select " + Strings.repeat("x", 200) + " from dual";
+        // when
+        String sha1 = fullQueryTextSha1s.getSha1(fullQueryText);
+        String cachedSha1 = fullQueryTextSha1s.getSha1(fullQueryText);
+        // then
+        assertThat(sha1).isEqualTo(Hashing.sha1().hashString(fullQueryText, UTF_8).toString());
+        assertThat(cachedSha1).isSameAs(sha1);
+        assertThat(fullQueryTextSha1s.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldBeBoundedByCharacters() {
+        // given
+        FullQueryTextSha1s fullQueryTextSha1s = new FullQueryTextSha1s(2000);
+        // when
+        for (int i = 0; i < 100; i++) {
+            fullQueryTextSha1s.getSha1(Strings.padStart(Integer.toString(i), 100, 'x'));
+        }
+        // then
+        // each entry weighs 100 (query text) + 40 (sha1)
+        assertThat(fullQueryTextSha1s.size()).isLessThanOrEqualTo(2000 / 140);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import org.junit.Test;
+
+import org.glowroot.agent.central.GrpcCompression.FastGzip;
+import org.glowroot.agent.central.GrpcCompression.Mode;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.LogMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.LogMessage.LogEvent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GrpcCompressionTest {
+
+    @Test
+    public void shouldOnlyCompressLargeMessages() {
+        // given
+        GrpcCompression compression = new GrpcCompression(Mode.GZIP, 1024,
+                ImmutableSet.<String>of());
+        // then
+        assertThat(compression.shouldCompress(createLogMessage(100))).isFalse();
+        assertThat(compression.shouldCompress(createLogMessage(2000))).isTrue();
+    }
+
+    @Test
+    public void shouldProduceStandardGzip() throws Exception {
+        // given
+        byte[] bytes = createLogMessage(10000).toByteArray();
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        // when
+        OutputStream out = new FastGzip().compress(baos);
+        out.write(bytes);
+        out.close();
+        // then
+        assertThat(baos.size()).isLessThan(bytes.length / 10);
+        byte[] decompressed = ByteStreams
+                .toByteArray(new GZIPInputStream(new ByteArrayInputStream(baos.toByteArray())));
+        assertThat(decompressed).isEqualTo(bytes);
+    }
+
+    private static LogMessage createLogMessage(int length) {
+        return LogMessage.newBuilder()
+                .setAgentId("xyz")
+                .setLogEvent(LogEvent.newBuilder()
+                        .setMessage(Strings.repeat("a", length)))
+                .build();
+    }
+}
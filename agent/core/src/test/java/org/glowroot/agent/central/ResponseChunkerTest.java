@@ -0,0 +1,215 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import java.util.List;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.Lists;
+import io.grpc.stub.CallStreamObserver;
+import io.grpc.stub.StreamObserver;
+import org.junit.Test;
+
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.AgentResponse;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.EntriesResponse;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ResponseChunkerTest {
+
+    @Test
+    public void shouldSendChunks() throws Exception {
+        // given
+        CollectingStreamObserver responseObserver = new CollectingStreamObserver();
+        ResponseChunker chunker = new ResponseChunker(responseObserver, 123, true, 5, 1000,
+                Ticker.systemTicker());
+        List<Trace.Entry> entries = createEntries(100);
+        // when
+        addEntries(chunker, entries);
+        boolean done = chunker.sendWhileReady();
+        // then
+        assertThat(done).isTrue();
+        List<AgentResponse> chunks = responseObserver.values;
+        assertThat(chunks.size()).isGreaterThan(2);
+        AgentResponse.Builder merged = AgentResponse.newBuilder();
+        for (int i = 0; i < chunks.size(); i++) {
+            AgentResponse chunk = chunks.get(i);
+            assertThat(chunk.getRequestId()).isEqualTo(123);
+            assertThat(chunk.getMoreChunks()).isEqualTo(i < chunks.size() - 1);
+            if (i > 0) {
+                // max chunk size is approximate since it does not include the per item (tag and
+                // length) and per chunk (request id and more chunks) overhead
+                assertThat(chunk.getSerializedSize()).isLessThan(1200);
+            }
+            merged.mergeFrom(chunk);
+        }
+        assertThat(merged.getEntriesResponse().getSharedQueryTextCount()).isEqualTo(1);
+        assertThat(merged.getEntriesResponse().getEntryList()).isEqualTo(entries);
+    }
+
+    @Test
+    public void shouldSendSingleMessageWhenChunkingNotSupported() throws Exception {
+        // given
+        CollectingStreamObserver responseObserver = new CollectingStreamObserver();
+        ResponseChunker chunker = new ResponseChunker(responseObserver, 123, false, 5, 1000,
+                Ticker.systemTicker());
+        List<Trace.Entry> entries = createEntries(100);
+        // when
+        addEntries(chunker, entries);
+        boolean done = chunker.sendWhileReady();
+        // then
+        assertThat(done).isTrue();
+        assertThat(responseObserver.values).hasSize(1);
+        AgentResponse response = responseObserver.values.get(0);
+        assertThat(response.getRequestId()).isEqualTo(123);
+        assertThat(response.getMoreChunks()).isFalse();
+        assertThat(response.getEntriesResponse().getSharedQueryTextCount()).isEqualTo(1);
+        assertThat(response.getEntriesResponse().getEntryList()).isEqualTo(entries);
+    }
+
+    @Test
+    public void shouldOnlySendWhileReady() throws Exception {
+        // given
+        ReadyStreamObserver responseObserver = new ReadyStreamObserver();
+        ResponseChunker chunker = new ResponseChunker(responseObserver, 123, true, 5, 1000,
+                Ticker.systemTicker());
+        List<Trace.Entry> entries = createEntries(100);
+        addEntries(chunker, entries);
+        // when
+        boolean doneWhileNotReady = chunker.sendWhileReady();
+        int countWhileNotReady = responseObserver.values.size();
+        responseObserver.ready = true;
+        boolean doneWhenReady = chunker.sendWhileReady();
+        // then
+        assertThat(doneWhileNotReady).isFalse();
+        assertThat(countWhileNotReady).isZero();
+        assertThat(doneWhenReady).isTrue();
+        List<AgentResponse> chunks = responseObserver.values;
+        assertThat(chunks.size()).isGreaterThan(2);
+        assertThat(chunks.get(chunks.size() - 1).getMoreChunks()).isFalse();
+    }
+
+    @Test
+    public void shouldStopSendingAfterCentralTimeout() throws Exception {
+        // given
+        ReadyStreamObserver responseObserver = new ReadyStreamObserver();
+        responseObserver.ready = true;
+        FakeTicker ticker = new FakeTicker();
+        ResponseChunker chunker =
+                new ResponseChunker(responseObserver, 123, true, 5, 1000, ticker);
+        addEntries(chunker, createEntries(100));
+        // when
+        responseObserver.ready = false;
+        boolean doneWhileNotReady = chunker.sendWhileReady();
+        ticker.nanos += SECONDS.toNanos(6);
+        responseObserver.ready = true;
+        boolean doneAfterTimeout = chunker.sendWhileReady();
+        // then
+        assertThat(doneWhileNotReady).isFalse();
+        assertThat(doneAfterTimeout).isTrue();
+        assertThat(responseObserver.values).isEmpty();
+    }
+
+    private static void addEntries(ResponseChunker chunker, List<Trace.Entry> entries) {
+        chunker.add(AgentResponse.newBuilder()
+                .setEntriesResponse(EntriesResponse.newBuilder()
+                        .addSharedQueryText(Trace.SharedQueryText.newBuilder()
+                                .setFullText("select 1"))));
+        chunker.addAll(entries, new ResponseChunker.ChunkBuilder<Trace.Entry>() {
+            @Override
+            public AgentResponse.Builder build(List<Trace.Entry> items) {
+                return AgentResponse.newBuilder()
+                        .setEntriesResponse(EntriesResponse.newBuilder()
+                                .addAllEntry(items));
+            }
+        });
+    }
+
+    private static List<Trace.Entry> createEntries(int count) {
+        List<Trace.Entry> entries = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            entries.add(Trace.Entry.newBuilder()
+                    .setStartOffsetNanos(i)
+                    .setDurationNanos(1000)
+                    .setMessage("entry number " + i)
+                    .build());
+        }
+        return entries;
+    }
+
+    private static class CollectingStreamObserver implements StreamObserver<AgentResponse> {
+
+        private final List<AgentResponse> values = Lists.newArrayList();
+
+        @Override
+        public void onNext(AgentResponse value) {
+            values.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {}
+
+        @Override
+        public void onCompleted() {}
+    }
+
+    private static class ReadyStreamObserver extends CallStreamObserver<AgentResponse> {
+
+        private final List<AgentResponse> values = Lists.newArrayList();
+
+        private volatile boolean ready;
+
+        @Override
+        public boolean isReady() {
+            return ready;
+        }
+
+        @Override
+        public void setOnReadyHandler(Runnable onReadyHandler) {}
+
+        @Override
+        public void disableAutoInboundFlowControl() {}
+
+        @Override
+        public void request(int count) {}
+
+        @Override
+        public void setMessageCompression(boolean enable) {}
+
+        @Override
+        public void onNext(AgentResponse value) {
+            values.add(value);
+        }
+
+        @Override
+        public void onError(Throwable t) {}
+
+        @Override
+        public void onCompleted() {}
+    }
+
+    private static class FakeTicker extends Ticker {
+
+        private long nanos;
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.central;
+
+import org.junit.Test;
+
+import org.glowroot.agent.model.MutableAggregateTimer;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SharedStringEncoderTest {
+
+    @Test
+    public void shouldBuildTimersWithSharedStringIndexes() {
+        // given
+        SharedStringEncoder encoder = new SharedStringEncoder();
+        MutableAggregateTimer rootTimer = new MutableAggregateTimer("http request", false);
+        rootTimer.newChildTimer("jdbc query", false);
+        rootTimer.newChildTimer("jdbc query", false);
+
+        // when
+        Aggregate.Timer timer = rootTimer.toProto(encoder);
+
+        // then
+        assertThat(encoder.drainNewSharedStrings()).containsExactly("http request",
+                "jdbc query");
+        assertThat(encoder.drainNewSharedStrings()).isEmpty();
+        assertThat(timer.getName()).isEmpty();
+        assertThat(timer.getNameIndex()).isEqualTo(0);
+        assertThat(timer.getChildTimer(0).getName()).isEmpty();
+        assertThat(timer.getChildTimer(0).getNameIndex()).isEqualTo(1);
+        assertThat(timer.getChildTimer(1).getNameIndex()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldOnlyDrainNewSharedStrings() {
+        // given
+        SharedStringEncoder encoder = new SharedStringEncoder();
+        encoder.getSharedStringIndex("Web");
+        encoder.drainNewSharedStrings();
+
+        // when
+        int webIndex = encoder.getSharedStringIndex("Web");
+        int backgroundIndex = encoder.getSharedStringIndex("Background");
+
+        // then
+        assertThat(webIndex).isEqualTo(0);
+        assertThat(backgroundIndex).isEqualTo(1);
+        assertThat(encoder.drainNewSharedStrings()).containsExactly("Background");
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EntryCaptureDelayTest {
+
+    private Transaction transaction;
+    private TransactionService transactionService;
+
+    @Before
+    public void beforeEachTest() {
+        transaction = mock(Transaction.class);
+        transactionService = mock(TransactionService.class);
+        when(transactionService.getSlowThresholdNanos(transaction))
+                .thenReturn(MILLISECONDS.toNanos(1000));
+    }
+
+    @Test
+    public void shouldStartImmediatelyWhenNoDelay() {
+        // given
+        EntryCaptureDelay entryCaptureDelay = new EntryCaptureDelay(0, 0);
+        // when
+        boolean started = entryCaptureDelay.isStarted(0, transaction, transactionService);
+        // then
+        assertThat(started).isTrue();
+    }
+
+    @Test
+    public void shouldStartAtPercentOfSlowThreshold() {
+        // given
+        EntryCaptureDelay entryCaptureDelay = new EntryCaptureDelay(0, 50);
+        // when
+        boolean startedBefore = entryCaptureDelay.isStarted(MILLISECONDS.toNanos(499),
+                transaction, transactionService);
+        boolean startedAfter = entryCaptureDelay.isStarted(MILLISECONDS.toNanos(500),
+                transaction, transactionService);
+        // then
+        assertThat(startedBefore).isFalse();
+        assertThat(startedAfter).isTrue();
+    }
+
+    @Test
+    public void shouldRecomputeWhenSlowThresholdOverrideAppliedAfterFirstEntry() {
+        // given
+        EntryCaptureDelay entryCaptureDelay = new EntryCaptureDelay(0, 50);
+        boolean startedBeforeOverride = entryCaptureDelay.isStarted(MILLISECONDS.toNanos(100),
+                transaction, transactionService);
+        // when
+        when(transactionService.getSlowThresholdNanos(transaction))
+                .thenReturn(MILLISECONDS.toNanos(100));
+        entryCaptureDelay.invalidateStartTick();
+        boolean startedAfterOverride = entryCaptureDelay.isStarted(MILLISECONDS.toNanos(100),
+                transaction, transactionService);
+        // then
+        assertThat(startedBeforeOverride).isFalse();
+        assertThat(startedAfterOverride).isTrue();
+    }
+
+    @Test
+    public void shouldNotStopOnceStarted() {
+        // given
+        EntryCaptureDelay entryCaptureDelay = new EntryCaptureDelay(0, 50);
+        entryCaptureDelay.isStarted(MILLISECONDS.toNanos(500), transaction, transactionService);
+        // when
+        when(transactionService.getSlowThresholdNanos(transaction))
+                .thenReturn(MILLISECONDS.toNanos(10000));
+        entryCaptureDelay.invalidateStartTick();
+        boolean started = entryCaptureDelay.isStarted(MILLISECONDS.toNanos(600), transaction,
+                transactionService);
+        // then
+        assertThat(started).isTrue();
+    }
+}
@@ -18,14 +18,18 @@ package org.glowroot.agent.impl;
 import java.util.List;
 import java.util.Map;
 
+import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
 import org.junit.Test;
 
 import org.glowroot.agent.model.QueryCollector;
 import org.glowroot.agent.model.SharedQueryTextCollection;
+import org.glowroot.agent.model.SharedStringCollection;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 
+import static com.google.common.base.Charsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class QueryCollectorTest {
@@ -48,6 +52,74 @@ public class QueryCollectorTest {
         test(queries);
     }
 
+    @Test
+    public void testLimitExceededWithSharedStrings() throws Exception {
+        // given
+        QueryCollector collector = new QueryCollector(100, 4);
+        for (int i = 1; i <= 300; i++) {
+            collector.mergeQuery(i % 2 == 0 ? "SQL" : "CQL", Integer.toString(i), i, 1, true, 1,
+                    false);
+        }
+        SharedQueryTextCollectionImpl sharedQueryTextCollection =
+                new SharedQueryTextCollectionImpl();
+        SharedStringCollectionImpl sharedStringCollection = new SharedStringCollectionImpl();
+        // when
+        List<Aggregate.Query> queries = collector.toAggregateProto(sharedQueryTextCollection,
+                sharedStringCollection, false);
+        // then
+        assertThat(queries).hasSize(102);
+        long sqlLimitExceededBucketTotalNanos = 0;
+        long cqlLimitExceededBucketTotalNanos = 0;
+        for (int i = 1; i <= 200; i++) {
+            if (i % 2 == 0) {
+                sqlLimitExceededBucketTotalNanos += i;
+            } else {
+                cqlLimitExceededBucketTotalNanos += i;
+            }
+        }
+        for (Aggregate.Query query : queries) {
+            assertThat(query.getType()).isEmpty();
+            String queryType = sharedStringCollection.sharedStrings.get(query.getTypeIndex());
+            String queryText =
+                    sharedQueryTextCollection.sharedQueryTexts.get(query.getSharedQueryTextIndex());
+            if (queryText.equals("LIMIT EXCEEDED BUCKET")) {
+                if (queryType.equals("SQL")) {
+                    assertThat(query.getTotalDurationNanos())
+                            .isEqualTo(sqlLimitExceededBucketTotalNanos);
+                } else {
+                    assertThat(queryType).isEqualTo("CQL");
+                    assertThat(query.getTotalDurationNanos())
+                            .isEqualTo(cqlLimitExceededBucketTotalNanos);
+                }
+            } else {
+                assertThat(queryType).isEqualTo(
+                        Integer.parseInt(queryText) % 2 == 0 ? "SQL" : "CQL");
+            }
+        }
+    }
+
+    @Test
+    public void testGetFullQueryText() {
+        // given
+        String fullQueryText = "select " + Strings.repeat("x", 200) + " from dual";
+        String otherFullQueryText = "select " + Strings.repeat("y", 200) + " from dual";
+        String sha1 = Hashing.sha1().hashString(fullQueryText, UTF_8).toString();
+        String otherSha1 = Hashing.sha1().hashString(otherFullQueryText, UTF_8).toString();
+        QueryCollector queries = new QueryCollector(100, 4);
+        queries.mergeQuery("SQL", fullQueryText, 1, 1, false, 0, false);
+        QueryCollector otherQueries = new QueryCollector(100, 4);
+        otherQueries.mergeQuery("SQL", otherFullQueryText, 1, 1, false, 0, false);
+        // when
+        org.glowroot.common.model.QueryCollector collector =
+                new org.glowroot.common.model.QueryCollector(100);
+        queries.mergeQueriesInto(collector);
+        otherQueries.mergeQueriesInto(collector);
+        // then
+        assertThat(queries.getFullQueryText(sha1)).isEqualTo(fullQueryText);
+        assertThat(queries.getFullQueryText(otherSha1)).isNull();
+        assertThat(otherQueries.getFullQueryText(otherSha1)).isEqualTo(otherFullQueryText);
+    }
+
     private void test(QueryCollector collector) throws Exception {
         // when
         SharedQueryTextCollectionImpl sharedQueryTextCollection =
@@ -85,4 +157,21 @@ public class QueryCollectorTest {
             return sharedQueryTextIndex;
         }
     }
+
+    private static class SharedStringCollectionImpl implements SharedStringCollection {
+
+        private final Map<String, Integer> sharedStringIndexes = Maps.newHashMap();
+        private List<String> sharedStrings = Lists.newArrayList();
+
+        @Override
+        public int getSharedStringIndex(String str) {
+            Integer sharedStringIndex = sharedStringIndexes.get(str);
+            if (sharedStringIndex == null) {
+                sharedStringIndex = sharedStringIndexes.size();
+                sharedStringIndexes.put(str, sharedStringIndex);
+                sharedStrings.add(str);
+            }
+            return sharedStringIndex;
+        }
+    }
 }
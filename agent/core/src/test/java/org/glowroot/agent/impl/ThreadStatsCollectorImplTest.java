@@ -0,0 +1,57 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import org.junit.Test;
+
+import org.glowroot.agent.model.ThreadStats;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ThreadStatsCollectorImplTest {
+
+    @Test
+    public void shouldExcludeNotAvailableThreadStats() {
+        // given
+        ThreadStatsCollectorImpl collector = new ThreadStatsCollectorImpl();
+        // when
+        collector.mergeThreadStats(new ThreadStats(1000000, 1, 2, 100));
+        collector.mergeThreadStats(ThreadStats.NA);
+        collector.mergeThreadStats(new ThreadStats(2000000, 3, 4, 200));
+        // then
+        Trace.ThreadStats threadStats = collector.toProto();
+        assertThat(threadStats.getCpuNanos()).isEqualTo(3000000);
+        assertThat(threadStats.getBlockedNanos()).isEqualTo(4000000);
+        assertThat(threadStats.getWaitedNanos()).isEqualTo(6000000);
+        assertThat(threadStats.getAllocatedBytes()).isEqualTo(300);
+        assertThat(collector.getCpuNanos()).isEqualTo(3000000);
+    }
+
+    @Test
+    public void shouldBeNotAvailableWhenOnlyNotAvailableThreadStats() {
+        // given
+        ThreadStatsCollectorImpl collector = new ThreadStatsCollectorImpl();
+        // when
+        collector.mergeThreadStats(ThreadStats.NA);
+        collector.mergeThreadStats(ThreadStats.NA);
+        // then
+        assertThat(collector.getMergedThreadStats()).isSameAs(ThreadStats.NA);
+        assertThat(collector.getCpuNanos()).isEqualTo(-1);
+        assertThat(collector.toProto().getCpuNanos()).isEqualTo(-1);
+        assertThat(collector.toProto().getAllocatedBytes()).isEqualTo(-1);
+    }
+}
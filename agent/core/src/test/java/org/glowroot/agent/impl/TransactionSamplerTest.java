@@ -0,0 +1,93 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.impl;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.glowroot.common.config.ImmutableSamplingOverride;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TransactionSamplerTest {
+
+    private static final TransactionSampler SAMPLER = TransactionSampler.create(ImmutableList.of(
+            ImmutableSamplingOverride.builder()
+                    .transactionType("Web")
+                    .percentage(10)
+                    .build(),
+            ImmutableSamplingOverride.builder()
+                    .transactionType("Web")
+                    .transactionName("/health")
+                    .percentage(0)
+                    .build(),
+            ImmutableSamplingOverride.builder()
+                    .transactionType("Web")
+                    .transactionName("/checkout")
+                    .percentage(100)
+                    .build(),
+            ImmutableSamplingOverride.builder()
+                    .transactionType("Background")
+                    .transactionName("poll")
+                    .percentage(50)
+                    .build()));
+
+    @Test
+    public void shouldMatchTransactionNameBeforeTransactionType() {
+        assertThat(SAMPLER.getPercentage("Web", "/health")).isEqualTo(0);
+        assertThat(SAMPLER.getPercentage("Web", "/checkout")).isEqualTo(100);
+        assertThat(SAMPLER.getPercentage("Web", "/other")).isEqualTo(10);
+    }
+
+    @Test
+    public void shouldNotMatchOtherTransactionTypeOrName() {
+        assertThat(SAMPLER.getPercentage("Other", "/health")).isNull();
+        assertThat(SAMPLER.getPercentage("Background", "other")).isNull();
+    }
+
+    @Test
+    public void shouldAlwaysSampleWhenNoOverrides() {
+        TransactionSampler sampler = TransactionSampler.create(ImmutableList.of(
+                ImmutableSamplingOverride.builder()
+                        .transactionType("Web")
+                        .percentage(0)
+                        .build()));
+        for (int i = 0; i < 1000; i++) {
+            assertThat(TransactionSampler.ALWAYS.isSampled("Web", "/any")).isTrue();
+            assertThat(sampler.isSampled("Background", "/any")).isTrue();
+        }
+    }
+
+    @Test
+    public void shouldSampleAtZeroAndOneHundredPercent() {
+        for (int i = 0; i < 1000; i++) {
+            assertThat(SAMPLER.isSampled("Web", "/health")).isFalse();
+            assertThat(SAMPLER.isSampled("Web", "/checkout")).isTrue();
+        }
+    }
+
+    @Test
+    public void shouldSampleAtPercentage() {
+        int sampledCount = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (SAMPLER.isSampled("Background", "poll")) {
+                sampledCount++;
+            }
+        }
+        // expected 5000, with standard deviation 50
+        assertThat(sampledCount).isBetween(4500, 5500);
+    }
+}
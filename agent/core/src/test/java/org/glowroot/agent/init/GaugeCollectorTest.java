@@ -19,17 +19,22 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.List;
 
+import javax.management.Attribute;
+import javax.management.AttributeList;
 import javax.management.AttributeNotFoundException;
 import javax.management.InstanceNotFoundException;
 import javax.management.MBeanServer;
 import javax.management.MalformedObjectNameException;
 import javax.management.ObjectName;
+import javax.management.QueryExp;
 
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.slf4j.Logger;
 
 import org.glowroot.agent.collector.Collector;
@@ -45,12 +50,14 @@ import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.entry;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyListOf;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
@@ -59,6 +66,7 @@ import static org.mockito.Mockito.when;
 public class GaugeCollectorTest {
 
     private GaugeCollector gaugeCollector;
+    private ConfigService configService;
     private LazyPlatformMBeanServer lazyPlatformMBeanServer;
     private Clock clock;
     private Ticker ticker;
@@ -66,7 +74,7 @@ public class GaugeCollectorTest {
 
     @Before
     public void beforeEachTest() throws Exception {
-        ConfigService configService = mock(ConfigService.class);
+        configService = mock(ConfigService.class);
         AdvancedConfig advancedConfig =
                 ImmutableAdvancedConfig.builder().mbeanGaugeNotFoundDelaySeconds(60).build();
         when(configService.getAdvancedConfig()).thenReturn(advancedConfig);
@@ -93,8 +101,8 @@ public class GaugeCollectorTest {
                 .mbeanObjectName("test:aaa=bbb")
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
                 .build();
-        when(lazyPlatformMBeanServer.getAttribute(any(ObjectName.class), anyString(),
-                anyMBeanServerList())).thenReturn(555);
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class),
+                anyMBeanServerList())).thenReturn(attributeList("ccc", 555));
 
         // when
         List<GaugeValue> gaugeValues =
@@ -113,8 +121,8 @@ public class GaugeCollectorTest {
                 .mbeanObjectName("test:aaa=bbb")
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", true))
                 .build();
-        when(lazyPlatformMBeanServer.getAttribute(any(ObjectName.class), anyString(),
-                anyMBeanServerList())).thenReturn(555);
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class),
+                anyMBeanServerList())).thenReturn(attributeList("ccc", 555));
 
         // need to execute run() once in order to initialize internal priorRawCounterValues map
         gaugeCollector.run();
@@ -134,8 +142,9 @@ public class GaugeCollectorTest {
                 .mbeanObjectName("test:aaa=bbb")
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", true))
                 .build();
-        when(lazyPlatformMBeanServer.getAttribute(any(ObjectName.class), anyString(),
-                anyMBeanServerList())).thenReturn(555, 565);
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class),
+                anyMBeanServerList())).thenReturn(attributeList("ccc", 555),
+                        attributeList("ccc", 565));
         when(ticker.read()).thenReturn(SECONDS.toNanos(1), SECONDS.toNanos(3));
 
         // need to execute run() once in order to initialize internal priorRawCounterValues map
@@ -179,7 +188,7 @@ public class GaugeCollectorTest {
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ddd", false))
                 .build();
         when(clock.currentTimeMillis()).thenReturn(59999L);
-        when(lazyPlatformMBeanServer.getAttribute(any(ObjectName.class), anyString(),
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class),
                 anyMBeanServerList())).thenThrow(InstanceNotFoundException.class);
 
         // when
@@ -200,7 +209,7 @@ public class GaugeCollectorTest {
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ddd", false))
                 .build();
         when(clock.currentTimeMillis()).thenReturn(60000L);
-        when(lazyPlatformMBeanServer.getAttribute(any(ObjectName.class), anyString(),
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class),
                 anyMBeanServerList())).thenThrow(InstanceNotFoundException.class);
 
         // when
@@ -222,7 +231,7 @@ public class GaugeCollectorTest {
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ddd", false))
                 .build();
         when(clock.currentTimeMillis()).thenReturn(0L).thenReturn(30000L).thenReturn(60000L);
-        when(lazyPlatformMBeanServer.getAttribute(any(ObjectName.class), anyString(),
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class),
                 anyMBeanServerList())).thenThrow(InstanceNotFoundException.class);
 
         // when
@@ -248,6 +257,9 @@ public class GaugeCollectorTest {
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ddd", false))
                 .build();
+        // attributes that cannot be read are omitted by getAttributes()
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class),
+                anyMBeanServerList())).thenReturn(new AttributeList());
         when(lazyPlatformMBeanServer.getAttribute(any(ObjectName.class), anyString(),
                 anyMBeanServerList())).thenThrow(AttributeNotFoundException.class);
 
@@ -272,6 +284,9 @@ public class GaugeCollectorTest {
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ddd", false))
                 .build();
+        // attributes that cannot be read are omitted by getAttributes()
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class),
+                anyMBeanServerList())).thenReturn(new AttributeList());
         when(lazyPlatformMBeanServer.getAttribute(any(ObjectName.class), anyString(),
                 anyMBeanServerList())).thenThrow(new RuntimeException("A msg"));
 
@@ -298,6 +313,9 @@ public class GaugeCollectorTest {
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ddd", false))
                 .build();
+        // attributes that cannot be read are omitted by getAttributes()
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class),
+                anyMBeanServerList())).thenReturn(new AttributeList());
         when(lazyPlatformMBeanServer.getAttribute(any(ObjectName.class), anyString(),
                 anyMBeanServerList())).thenReturn("not a number");
 
@@ -323,6 +341,9 @@ public class GaugeCollectorTest {
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
                 .addMbeanAttributes(ImmutableMBeanAttribute.of("ddd", false))
                 .build();
+        // attributes that cannot be read are omitted by getAttributes()
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class),
+                anyMBeanServerList())).thenReturn(new AttributeList());
         when(lazyPlatformMBeanServer.getAttribute(any(ObjectName.class), anyString(),
                 anyMBeanServerList())).thenReturn(new Object());
 
@@ -340,10 +361,103 @@ public class GaugeCollectorTest {
                 "MBean attribute value is not a number or string");
     }
 
+    @Test
+    public void shouldReadAttributesInBulk() throws Exception {
+        // given
+        GaugeConfig gaugeConfig = ImmutableGaugeConfig.builder()
+                .mbeanObjectName("test:aaa=bbb")
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ddd", false))
+                .build();
+        AttributeList attributeList = attributeList("ccc", 555);
+        attributeList.add(new Attribute("ddd", 666));
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class),
+                anyMBeanServerList())).thenReturn(attributeList);
+
+        // when
+        List<GaugeValue> gaugeValues =
+                collectGaugeValues(gaugeConfig);
+
+        // then
+        assertThat(gaugeValues).hasSize(2);
+        assertThat(gaugeValues.get(0).getGaugeName()).isEqualTo("test:aaa=bbb:ccc");
+        assertThat(gaugeValues.get(0).getValue()).isEqualTo(555);
+        assertThat(gaugeValues.get(1).getGaugeName()).isEqualTo("test:aaa=bbb:ddd");
+        assertThat(gaugeValues.get(1).getValue()).isEqualTo(666);
+        verify(lazyPlatformMBeanServer).getAttributes(ObjectName.getInstance("test:aaa=bbb"),
+                new String[] {"ccc", "ddd"}, ImmutableList.<MBeanServer>of());
+        verify(lazyPlatformMBeanServer, never()).getAttribute(any(ObjectName.class),
+                anyString(), anyMBeanServerList());
+    }
+
+    @Test
+    public void shouldReuseMatchingObjectNames() throws Exception {
+        // given
+        GaugeConfig gaugeConfig = ImmutableGaugeConfig.builder()
+                .mbeanObjectName("test:aaa=*")
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
+                .build();
+        when(lazyPlatformMBeanServer.queryNames(any(ObjectName.class), nullable(QueryExp.class),
+                anyMBeanServerList()))
+                        .thenReturn(ImmutableSet.of(ObjectName.getInstance("test:aaa=bbb")));
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class),
+                anyMBeanServerList())).thenReturn(attributeList("ccc", 555));
+
+        // when
+        collectGaugeValues(gaugeConfig);
+        List<GaugeValue> gaugeValues =
+                collectGaugeValues(gaugeConfig);
+
+        // then
+        assertThat(gaugeValues).hasSize(1);
+        assertThat(gaugeValues.get(0).getGaugeName()).isEqualTo("test:aaa=bbb:ccc");
+        verify(lazyPlatformMBeanServer).queryNames(any(ObjectName.class),
+                nullable(QueryExp.class), anyMBeanServerList());
+    }
+
+    @Test
+    public void shouldExposeGaugeCollectionTimeInSingleMBean() throws Exception {
+        // given
+        GaugeConfig gaugeConfig1 = ImmutableGaugeConfig.builder()
+                .mbeanObjectName("test:aaa=bbb")
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
+                .build();
+        GaugeConfig gaugeConfig2 = ImmutableGaugeConfig.builder()
+                .mbeanObjectName("test:aaa=ddd")
+                .addMbeanAttributes(ImmutableMBeanAttribute.of("ccc", false))
+                .build();
+        when(configService.getGaugeConfigs())
+                .thenReturn(ImmutableList.of(gaugeConfig1, gaugeConfig2));
+        when(lazyPlatformMBeanServer.getAttributes(any(ObjectName.class), any(String[].class),
+                anyMBeanServerList())).thenReturn(attributeList("ccc", 555));
+        when(ticker.read()).thenReturn(0L, 10L, 10L, 40L);
+        ArgumentCaptor<GaugeCollection> captor = ArgumentCaptor.forClass(GaugeCollection.class);
+        verify(lazyPlatformMBeanServer).lazyRegisterMBean(captor.capture(),
+                eq("org.glowroot:type=GaugeCollection"));
+
+        // when
+        gaugeCollector.run();
+
+        // then
+        GaugeCollection gaugeCollection = captor.getValue();
+        assertThat(gaugeCollection.getCollectionTimeNanos()).isEqualTo(40);
+        assertThat(gaugeCollection.getGaugeCount()).isEqualTo(2);
+        assertThat(gaugeCollection.getSlowestGauge()).isEqualTo("test:aaa=ddd");
+        assertThat(gaugeCollection.getSlowestGaugeCollectionTimeNanos()).isEqualTo(30);
+        assertThat(gaugeCollection.getGaugeCollectionTimeNanos()).containsExactly(
+                entry("test:aaa=bbb", 10L), entry("test:aaa=ddd", 30L));
+    }
+
     private List<GaugeValue> collectGaugeValues(GaugeConfig gaugeConfig) throws Exception {
         return gaugeCollector.collectGaugeValues(gaugeConfig, ImmutableList.<MBeanServer>of());
     }
 
+    private static AttributeList attributeList(String name, Object value) {
+        AttributeList attributeList = new AttributeList();
+        attributeList.add(new Attribute(name, value));
+        return attributeList;
+    }
+
     @SuppressWarnings("deprecation")
     private static List<MBeanServer> anyMBeanServerList() {
         return anyListOf(MBeanServer.class);
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.util.Arrays;
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+public class ClassRetransformerTest {
+
+    private static final List<Class<?>> CLASSES = ImmutableList.<Class<?>>of(String.class,
+            Integer.class, Long.class, Short.class, Byte.class, Double.class, Float.class,
+            Character.class, Boolean.class, Void.class);
+
+    private Instrumentation instrumentation;
+    private List<List<Object>> calls;
+
+    @Before
+    public void beforeEachTest() throws Exception {
+        instrumentation = mock(Instrumentation.class);
+        calls = Lists.newArrayList();
+        doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Exception {
+                List<Object> classes = Arrays.asList(invocation.getArguments());
+                calls.add(classes);
+                if (classes.contains(Double.class)) {
+                    throw new UnmodifiableClassException();
+                }
+                return null;
+            }
+        }).when(instrumentation).retransformClasses(any());
+    }
+
+    @Test
+    public void shouldRetransformInBatches() {
+        // given
+        ClassRetransformer retransformer = new ClassRetransformer(instrumentation, 4, 0);
+        // when
+        int count = retransformer.retransform(CLASSES.subList(0, 5));
+        // then
+        assertThat(count).isEqualTo(5);
+        assertThat(calls).hasSize(2);
+        assertThat(calls.get(0)).hasSize(4);
+        assertThat(calls.get(1)).hasSize(1);
+    }
+
+    @Test
+    public void shouldIsolateUnmodifiableClassByBisection() {
+        // given
+        ClassRetransformer retransformer = new ClassRetransformer(instrumentation, 8, 0);
+        // when
+        int count = retransformer.retransform(CLASSES.subList(0, 8));
+        // then
+        assertThat(count).isEqualTo(7);
+        // [0-7] fails, [0-3] ok, [4-7] fails, [4-5] fails, [4] ok, [5] fails, [6-7] ok
+        assertThat(calls).hasSize(7);
+        assertThat(calls.get(calls.size() - 2)).containsExactly(Double.class);
+    }
+}
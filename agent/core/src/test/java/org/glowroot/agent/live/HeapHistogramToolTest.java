@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.live;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import org.junit.Test;
+
+import org.glowroot.agent.live.HeapHistogramTool.HeapHistogramProcessor;
+import org.glowroot.wire.api.model.DownstreamServiceOuterClass.HeapHistogram;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HeapHistogramToolTest {
+
+    private static final String OUTPUT = Joiner.on('\n').join(
+            "",
+            " num     #instances         #bytes  class name (module)",
+            "-------------------------------------------------------",
+            "   1:         12345         987600  [B (java.base@11.0.1)",
+            "   2:          4000         320000  org.example.Generated",
+            "   3:          1000          24000  java.lang.String (java.base@11.0.1)",
+            "   4:          3000         240000  org.example.Generated",
+            "   5:            10            800  [Ljava.lang.Object; (java.base@11.0.1)",
+            "   6:             5            400  <methodKlass>",
+            "Total         20360        1572800",
+            "");
+
+    @Test
+    public void shouldParseHistogram() throws Exception {
+        // when
+        HeapHistogram heapHistogram = new HeapHistogramProcessor(false, 0).process(toStream());
+        // then
+        assertThat(heapHistogram.getClassInfoCount()).isEqualTo(4);
+        assertClassInfo(heapHistogram.getClassInfo(0), "byte[]", 987600, 12345);
+        // same class name (from different class loaders) is aggregated
+        assertClassInfo(heapHistogram.getClassInfo(1), "org.example.Generated", 560000, 7000);
+        assertClassInfo(heapHistogram.getClassInfo(2), "java.lang.String", 24000, 1000);
+        assertClassInfo(heapHistogram.getClassInfo(3), "java.lang.Object[]", 800, 10);
+        assertThat(heapHistogram.getTotalBytes()).isEqualTo(1572400);
+        assertThat(heapHistogram.getTotalCount()).isEqualTo(20355);
+    }
+
+    @Test
+    public void shouldApplyLimit() throws Exception {
+        // when
+        HeapHistogram heapHistogram = new HeapHistogramProcessor(false, 2).process(toStream());
+        // then
+        assertThat(heapHistogram.getClassInfoCount()).isEqualTo(2);
+        assertClassInfo(heapHistogram.getClassInfo(0), "byte[]", 987600, 12345);
+        // later entries for a retained class are still aggregated
+        assertClassInfo(heapHistogram.getClassInfo(1), "org.example.Generated", 560000, 7000);
+        // totals still include the classes that were cut off
+        assertThat(heapHistogram.getTotalBytes()).isEqualTo(1572400);
+        assertThat(heapHistogram.getTotalCount()).isEqualTo(20355);
+    }
+
+    @Test
+    public void shouldReplaceSmallestClassWhenOverLimit() throws Exception {
+        // given
+        String output = Joiner.on('\n').join(
+                " num     #instances         #bytes  class name",
+                "----------------------------------------------",
+                "   1:           100          10000  org.example.A",
+                "   2:            50           5000  org.example.B",
+                "   3:            80           8000  org.example.C",
+                "Total           230          23000",
+                "");
+        // when
+        HeapHistogram heapHistogram =
+                new HeapHistogramProcessor(false, 2).process(toStream(output));
+        // then
+        assertThat(heapHistogram.getClassInfoCount()).isEqualTo(2);
+        assertClassInfo(heapHistogram.getClassInfo(0), "org.example.A", 10000, 100);
+        assertClassInfo(heapHistogram.getClassInfo(1), "org.example.C", 8000, 80);
+    }
+
+    @Test
+    public void shouldParseJRockitHistogram() throws Exception {
+        // given
+        String output = Joiner.on('\n').join(
+                "--------- Detailed Heap Statistics: ---------",
+                "   88.4% 1650k       12345  +1650k [B",
+                "    9.6%  ???k        4000  +180k org.example.Generated",
+                "    1.9%   36k        1000   +36k java.lang.String",
+                "    1866kB total ---",
+                "");
+        // when
+        HeapHistogram heapHistogram =
+                new HeapHistogramProcessor(true, 0).process(toStream(output));
+        // then
+        // the line with the malformed kilobytes is skipped
+        assertThat(heapHistogram.getClassInfoCount()).isEqualTo(2);
+        assertClassInfo(heapHistogram.getClassInfo(0), "byte[]", 1650 * 1024, 12345);
+        assertClassInfo(heapHistogram.getClassInfo(1), "java.lang.String", 36 * 1024, 1000);
+    }
+
+    @Test
+    public void shouldSkipUnexpectedLines() throws Exception {
+        // given
+        String output = Joiner.on('\n').join(
+                " num     #instances         #bytes  class name",
+                "----------------------------------------------",
+                "   1:         12345         987600  [B",
+                "",
+                "   2:          4000         320000",
+                "   3:          abcd         320000  org.example.Generated",
+                "   4:          1000          24000  java.lang.String",
+                "Total         17345        1651600",
+                "");
+        // when
+        HeapHistogram heapHistogram = new HeapHistogramProcessor(false, 0).process(toStream(output));
+        // then
+        assertThat(heapHistogram.getClassInfoCount()).isEqualTo(2);
+        assertClassInfo(heapHistogram.getClassInfo(0), "byte[]", 987600, 12345);
+        assertClassInfo(heapHistogram.getClassInfo(1), "java.lang.String", 24000, 1000);
+    }
+
+    private static InputStream toStream() {
+        return toStream(OUTPUT);
+    }
+
+    private static InputStream toStream(String output) {
+        return new ByteArrayInputStream(output.getBytes(Charsets.UTF_8));
+    }
+
+    private static void assertClassInfo(HeapHistogram.ClassInfo classInfo, String className,
+            long bytes, long count) {
+        assertThat(classInfo.getClassName()).isEqualTo(className);
+        assertThat(classInfo.getBytes()).isEqualTo(bytes);
+        assertThat(classInfo.getCount()).isEqualTo(count);
+    }
+}
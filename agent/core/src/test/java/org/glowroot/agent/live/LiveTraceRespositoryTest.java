@@ -16,27 +16,34 @@
 package org.glowroot.agent.live;
 
 import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
 import org.junit.Before;
 import org.junit.Test;
 
 import org.glowroot.agent.impl.Transaction;
+import org.glowroot.agent.impl.Transaction.TraceEntryVisitor;
 import org.glowroot.agent.impl.TransactionCollector;
 import org.glowroot.agent.impl.TransactionRegistry;
+import org.glowroot.common.live.LiveTraceRepository.Entries;
 import org.glowroot.common.util.Clock;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class LiveTraceRespositoryTest {
 
     private LiveTraceRepositoryImpl liveTraceRepository;
+    private TransactionRegistry transactionRegistry;
     private TransactionCollector transactionCollector;
 
     @Before
     public void beforeEachTest() {
-        TransactionRegistry transactionRegistry = mock(TransactionRegistry.class);
+        transactionRegistry = mock(TransactionRegistry.class);
         transactionCollector = mock(TransactionCollector.class);
         Clock clock = mock(Clock.class);
         Ticker ticker = mock(Ticker.class);
@@ -108,4 +115,18 @@ public class LiveTraceRespositoryTest {
         // then
         assertThat(matches).isTrue();
     }
+
+    @Test
+    public void shouldOnlyVisitRequestedEntryPage() throws Exception {
+        // given
+        Transaction transaction = mock(Transaction.class);
+        when(transaction.getTraceId()).thenReturn("abc");
+        when(transactionRegistry.getTransactions()).thenReturn(ImmutableList.of(transaction));
+        // when
+        Entries entries = liveTraceRepository.getEntries("", "abc", 2, 3);
+        // then
+        verify(transaction).visitEntries(anyLong(), eq(2), eq(3), any(TraceEntryVisitor.class));
+        // no entries at index 2 or beyond
+        assertThat(entries).isNull();
+    }
 }
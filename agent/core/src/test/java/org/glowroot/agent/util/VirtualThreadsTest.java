@@ -0,0 +1,73 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.util;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// unlike VirtualThreadIT, this runs on all supported jvm versions
+public class VirtualThreadsTest {
+
+    @Test
+    public void shouldNotDetectPlatformThread() throws Exception {
+        // given
+        final AtomicBoolean virtual = new AtomicBoolean(true);
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                virtual.set(VirtualThreads.isVirtual(Thread.currentThread()));
+            }
+        });
+        // when
+        thread.start();
+        thread.join();
+        // then
+        assertThat(VirtualThreads.isVirtual(Thread.currentThread())).isFalse();
+        assertThat(virtual.get()).isFalse();
+    }
+
+    @Test
+    public void shouldDetectVirtualThread() throws Exception {
+        Method startVirtualThreadMethod;
+        try {
+            startVirtualThreadMethod =
+                    Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException e) {
+            // prior to Java 21
+            assertThat(VirtualThreads.isSupported()).isFalse();
+            return;
+        }
+        assertThat(VirtualThreads.isSupported()).isTrue();
+        // given
+        final AtomicBoolean virtual = new AtomicBoolean();
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                virtual.set(VirtualThreads.isVirtual(Thread.currentThread()));
+            }
+        };
+        // when
+        Thread thread = (Thread) startVirtualThreadMethod.invoke(null, runnable);
+        thread.join();
+        // then
+        assertThat(virtual.get()).isTrue();
+        assertThat(VirtualThreads.isVirtual(thread)).isTrue();
+    }
+}
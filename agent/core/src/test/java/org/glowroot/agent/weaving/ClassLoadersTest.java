@@ -1,5 +1,5 @@
 /*
- * Copyright 2015 the original author or authors.
+ * Copyright 2015-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -17,10 +17,22 @@ package org.glowroot.agent.weaving;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.instrument.Instrumentation;
+import java.util.List;
+import java.util.jar.JarFile;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
 import org.junit.Test;
+import org.objectweb.asm.Type;
+
+import org.glowroot.agent.weaving.ClassLoaders.LazyDefinedClass;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 public class ClassLoadersTest {
 
@@ -44,4 +56,77 @@ public class ClassLoadersTest {
         // then
         assertThat(file.isDirectory()).isTrue();
     }
+
+    @Test
+    public void shouldRetainFile() throws IOException {
+        // given
+        File dir = Files.createTempDir();
+        File retainFile = new File(dir, "abc-1.jar");
+        File otherFile = new File(dir, "abc-2.jar");
+        Files.touch(retainFile);
+        Files.touch(otherFile);
+        // when
+        ClassLoaders.createDirectoryOrCleanPreviousContentsWithPrefix(dir, "abc",
+                retainFile.getName());
+        // then
+        assertThat(retainFile.exists()).isTrue();
+        assertThat(otherFile.exists()).isFalse();
+    }
+
+    @Test
+    public void shouldComputeSameFingerprintForSameClasses() {
+        // given
+        ImmutableList<LazyDefinedClass> classes = ImmutableList.of(
+                createLazyDefinedClass("org/glowroot/Abc", new byte[] {1, 2, 3}),
+                createLazyDefinedClass("org/glowroot/Xyz", new byte[] {4, 5, 6}));
+        // when
+        String fingerprint = ClassLoaders.getFingerprint(classes);
+        String fingerprintOtherOrder = ClassLoaders.getFingerprint(classes.reverse());
+        // then
+        assertThat(fingerprintOtherOrder).isEqualTo(fingerprint);
+    }
+
+    @Test
+    public void shouldComputeDifferentFingerprintForDifferentClasses() {
+        // given
+        List<LazyDefinedClass> classes = ImmutableList.of(
+                createLazyDefinedClass("org/glowroot/Abc", new byte[] {1, 2, 3}));
+        List<LazyDefinedClass> otherNameClasses = ImmutableList.of(
+                createLazyDefinedClass("org/glowroot/Xyz", new byte[] {1, 2, 3}));
+        List<LazyDefinedClass> otherBytesClasses = ImmutableList.of(
+                createLazyDefinedClass("org/glowroot/Abc", new byte[] {1, 2, 4}));
+        // when
+        String fingerprint = ClassLoaders.getFingerprint(classes);
+        String otherNameFingerprint = ClassLoaders.getFingerprint(otherNameClasses);
+        String otherBytesFingerprint = ClassLoaders.getFingerprint(otherBytesClasses);
+        // then
+        assertThat(otherNameFingerprint).isNotEqualTo(fingerprint);
+        assertThat(otherBytesFingerprint).isNotEqualTo(fingerprint);
+    }
+
+    @Test
+    public void shouldReuseExistingJarFile() throws IOException {
+        // given
+        List<LazyDefinedClass> classes = ImmutableList.of(
+                createLazyDefinedClass("org/glowroot/Abc", new byte[] {1, 2, 3}));
+        File jarFile = new File(Files.createTempDir(),
+                "test-" + ClassLoaders.getFingerprint(classes) + ".jar");
+        Instrumentation instrumentation = mock(Instrumentation.class);
+        ClassLoaders.defineClassesInBootstrapClassLoader(classes, instrumentation, jarFile);
+        long lastModified = jarFile.lastModified() - 10000;
+        jarFile.setLastModified(lastModified);
+        // when
+        ClassLoaders.defineClassesInBootstrapClassLoader(classes, instrumentation, jarFile);
+        // then
+        assertThat(jarFile.lastModified()).isEqualTo(lastModified);
+        assertThat(new File(jarFile.getPath() + ".tmp").exists()).isFalse();
+        verify(instrumentation, times(2)).appendToBootstrapClassLoaderSearch(any(JarFile.class));
+    }
+
+    private static LazyDefinedClass createLazyDefinedClass(String internalName, byte[] bytes) {
+        return ImmutableLazyDefinedClass.builder()
+                .type(Type.getObjectType(internalName))
+                .bytes(bytes)
+                .build();
+    }
 }
@@ -44,6 +44,7 @@ import org.glowroot.agent.embedded.util.RowMappers;
 import org.glowroot.agent.embedded.util.Schemas.Column;
 import org.glowroot.agent.embedded.util.Schemas.ColumnType;
 import org.glowroot.agent.embedded.util.Schemas.Index;
+import org.glowroot.agent.model.SharedStringCollection;
 import org.glowroot.common.ConfigDefaults;
 import org.glowroot.common.Constants;
 import org.glowroot.common.live.ImmutableOverviewAggregate;
@@ -104,7 +105,9 @@ public class AggregateDao implements AggregateRepository {
                     ImmutableColumn.of("aux_thread_total_waited_nanos", ColumnType.DOUBLE),
                     ImmutableColumn.of("aux_thread_total_allocated_bytes", ColumnType.DOUBLE),
                     ImmutableColumn.of("async_timers", ColumnType.VARBINARY), // protobuf
-                    ImmutableColumn.of("duration_nanos_histogram", ColumnType.VARBINARY)); // protobuf
+                    // protobuf
+                    ImmutableColumn.of("duration_nanos_histogram", ColumnType.VARBINARY),
+                    ImmutableColumn.of("unsampled_transaction_count", ColumnType.BIGINT));
 
     private static final ImmutableList<Column> transactionAggregateColumns =
             ImmutableList.<Column>of(
@@ -130,7 +133,9 @@ public class AggregateDao implements AggregateRepository {
                     ImmutableColumn.of("aux_thread_total_waited_nanos", ColumnType.DOUBLE),
                     ImmutableColumn.of("aux_thread_total_allocated_bytes", ColumnType.DOUBLE),
                     ImmutableColumn.of("async_timers", ColumnType.VARBINARY), // protobuf
-                    ImmutableColumn.of("duration_nanos_histogram", ColumnType.VARBINARY)); // protobuf
+                    // protobuf
+                    ImmutableColumn.of("duration_nanos_histogram", ColumnType.VARBINARY),
+                    ImmutableColumn.of("unsampled_transaction_count", ColumnType.BIGINT));
 
     // this index includes all columns needed for the overall aggregate query so h2 can return
     // the result set directly from the index without having to reference the table for each row
@@ -197,6 +202,10 @@ public class AggregateDao implements AggregateRepository {
         final CappedDatabase cappedDatabase = rollupCappedDatabases.get(0);
         final List<TruncatedQueryText> truncatedQueryTexts = Lists.newArrayList();
         aggregateReader.accept(new AggregateVisitor() {
+            @Override
+            public @Nullable SharedStringCollection getSharedStringCollection() {
+                return null;
+            }
             @Override
             public void visitOverallAggregate(String transactionType, List<String> sharedQueryTexts,
                     Aggregate overallAggregate) throws Exception {
@@ -490,10 +499,13 @@ public class AggregateDao implements AggregateRepository {
         }
         byte[] asyncTimers = resultSet.getBytes(i++);
         byte[] durationNanosHistogram = checkNotNull(resultSet.getBytes(i++));
+        // null (read as zero) for data written prior to 0.12.3
+        long unsampledTransactionCount = resultSet.getLong(i++);
 
         mergedAggregate.addTotalDurationNanos(totalDurationNanos);
         mergedAggregate.addTransactionCount(transactionCount);
         mergedAggregate.addErrorCount(errorCount);
+        mergedAggregate.addUnsampledTransactionCount(unsampledTransactionCount);
         mergedAggregate.addAsyncTransactions(asyncTransactions);
         mergedAggregate.mergeMainThreadRootTimers(
                 readMessages(mainThreadRootTimers, Aggregate.Timer.parser()));
@@ -888,7 +900,8 @@ public class AggregateDao implements AggregateRepository {
                     + " main_thread_total_allocated_bytes, aux_thread_root_timer,"
                     + " aux_thread_total_cpu_nanos, aux_thread_total_blocked_nanos,"
                     + " aux_thread_total_waited_nanos, aux_thread_total_allocated_bytes,"
-                    + " async_timers from " + tableName + " where transaction_type = ?"
+                    + " async_timers, unsampled_transaction_count from " + tableName
+                    + " where transaction_type = ?"
                     + transactionNameCriteria + " and capture_time >= ? and capture_time <= ?"
                     + " order by capture_time";
         }
@@ -937,6 +950,8 @@ public class AggregateDao implements AggregateRepository {
             if (asyncTimers != null) {
                 builder.asyncTimers(readMessages(asyncTimers, Aggregate.Timer.parser()));
             }
+            // null (read as zero) for data written prior to 0.12.3
+            builder.unsampledTransactionCount(resultSet.getLong(i++));
             return builder.build();
         }
     }
@@ -1037,7 +1052,8 @@ public class AggregateDao implements AggregateRepository {
                     + " main_thread_total_allocated_bytes, aux_thread_root_timer,"
                     + " aux_thread_total_cpu_nanos, aux_thread_total_blocked_nanos,"
                     + " aux_thread_total_waited_nanos, aux_thread_total_allocated_bytes,"
-                    + " async_timers, duration_nanos_histogram from aggregate_tt_rollup_"
+                    + " async_timers, duration_nanos_histogram, unsampled_transaction_count"
+                    + " from aggregate_tt_rollup_"
                     + castUntainted(fromRollupLevel) + " where capture_time > ?"
                     + " and capture_time <= ? order by transaction_type";
         }
@@ -1106,8 +1122,9 @@ public class AggregateDao implements AggregateRepository {
                     + " main_thread_total_waited_nanos, main_thread_total_allocated_bytes,"
                     + " aux_thread_root_timer, aux_thread_total_cpu_nanos,"
                     + " aux_thread_total_blocked_nanos, aux_thread_total_waited_nanos,"
-                    + " aux_thread_total_allocated_bytes, async_timers, duration_nanos_histogram"
-                    + " from aggregate_tn_rollup_" + castUntainted(fromRollupLevel)
+                    + " aux_thread_total_allocated_bytes, async_timers, duration_nanos_histogram,"
+                    + " unsampled_transaction_count from aggregate_tn_rollup_"
+                    + castUntainted(fromRollupLevel)
                     + " where capture_time > ? and capture_time <= ? order by transaction_type,"
                     + " transaction_name";
         }
@@ -74,6 +74,7 @@ class AggregateInsert implements JdbcUpdate {
     private final double auxThreadTotalAllocatedBytes;
     private final byte /*@Nullable*/ [] asyncTimers;
     private final byte[] durationNanosHistogramBytes;
+    private final long unsampledTransactionCount;
 
     private final int rollupLevel;
 
@@ -129,6 +130,7 @@ class AggregateInsert implements JdbcUpdate {
         }
         asyncTimers = toByteArray(aggregate.getAsyncTimerList());
         durationNanosHistogramBytes = aggregate.getDurationNanosHistogram().toByteArray();
+        unsampledTransactionCount = aggregate.getUnsampledTransactionCount();
     }
 
     AggregateInsert(String transactionType, @Nullable String transactionName,
@@ -175,6 +177,7 @@ class AggregateInsert implements JdbcUpdate {
         asyncTimers = toByteArray(aggregate.getAsyncTimersProto());
         durationNanosHistogramBytes =
                 aggregate.getDurationNanosHistogram().toProto(scratchBuffer).toByteArray();
+        unsampledTransactionCount = aggregate.getUnsampledTransactionCount();
     }
 
     @Override
@@ -200,12 +203,13 @@ class AggregateInsert implements JdbcUpdate {
                 + " main_thread_total_allocated_bytes, aux_thread_root_timer,"
                 + " aux_thread_total_cpu_nanos, aux_thread_total_blocked_nanos,"
                 + " aux_thread_total_waited_nanos, aux_thread_total_allocated_bytes, async_timers,"
-                + " duration_nanos_histogram) key (transaction_type");
+                + " duration_nanos_histogram, unsampled_transaction_count) key"
+                + " (transaction_type");
         if (transactionName != null) {
             sb.append(", transaction_name");
         }
         sb.append(", capture_time) values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?,"
-                + " ?, ?, ?");
+                + " ?, ?, ?, ?");
         if (transactionName != null) {
             sb.append(", ?");
         }
@@ -242,6 +246,7 @@ class AggregateInsert implements JdbcUpdate {
         preparedStatement.setDouble(i++, auxThreadTotalAllocatedBytes);
         RowMappers.setBytes(preparedStatement, i++, asyncTimers);
         preparedStatement.setBytes(i++, durationNanosHistogramBytes);
+        preparedStatement.setLong(i++, unsampledTransactionCount);
     }
 
     private static List<Stored.QueriesByType> toStored(List<Aggregate.Query> aggregateQueries,
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.embedded.repo;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.GaugeValue;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+// encodes a block of gauge values (for a single gauge) using the compression scheme from
+// "Gorilla: A Fast, Scalable, In-Memory Time Series Database"
+// (http://www.vldb.org/pvldb/vol8/p1816-teller.pdf)
+//
+// capture times are encoded as delta-of-deltas, and values and weights are encoded as the xor with
+// the prior value/weight, which for gauge values collected at a fixed interval typically reduces
+// each point to just a few bytes
+class GaugeValueBlocks {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private GaugeValueBlocks() {}
+
+    // gaugeValues must be non-empty and ordered by capture time
+    static byte[] encode(List<GaugeValue> gaugeValues) {
+        checkArgument(!gaugeValues.isEmpty());
+        BitOutput out = new BitOutput(gaugeValues.size() * 4 + 32);
+        out.writeBits(FORMAT_VERSION, 8);
+        out.writeBits(gaugeValues.size(), 32);
+        GaugeValue first = gaugeValues.get(0);
+        long priorCaptureTime = first.getCaptureTime();
+        long priorDelta = 0;
+        XorState valueState = new XorState(Double.doubleToRawLongBits(first.getValue()));
+        XorState weightState = new XorState(first.getWeight());
+        out.writeBits(priorCaptureTime, 64);
+        out.writeBits(valueState.prior, 64);
+        out.writeBits(weightState.prior, 64);
+        for (int i = 1; i < gaugeValues.size(); i++) {
+            GaugeValue gaugeValue = gaugeValues.get(i);
+            long captureTime = gaugeValue.getCaptureTime();
+            long delta = captureTime - priorCaptureTime;
+            writeDeltaOfDelta(out, delta - priorDelta);
+            priorCaptureTime = captureTime;
+            priorDelta = delta;
+            valueState.write(out, Double.doubleToRawLongBits(gaugeValue.getValue()));
+            weightState.write(out, gaugeValue.getWeight());
+        }
+        return out.toByteArray();
+    }
+
+    // from and to are both INCLUSIVE
+    static void decode(byte[] block, long from, long to, List<GaugeValue> gaugeValues) {
+        BitInput in = new BitInput(block);
+        int formatVersion = (int) in.readBits(8);
+        checkArgument(formatVersion == FORMAT_VERSION, "unexpected gauge value block format: %s",
+                formatVersion);
+        int count = (int) in.readBits(32);
+        long captureTime = in.readBits(64);
+        long delta = 0;
+        XorState valueState = new XorState(in.readBits(64));
+        XorState weightState = new XorState(in.readBits(64));
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                delta += readDeltaOfDelta(in);
+                captureTime += delta;
+                valueState.read(in);
+                weightState.read(in);
+            }
+            if (captureTime > to) {
+                // capture times are ordered
+                return;
+            }
+            if (captureTime >= from) {
+                gaugeValues.add(GaugeValue.newBuilder()
+                        .setCaptureTime(captureTime)
+                        .setValue(Double.longBitsToDouble(valueState.prior))
+                        .setWeight(weightState.prior)
+                        .build());
+            }
+        }
+    }
+
+    static long getFirstCaptureTime(byte[] block) {
+        BitInput in = new BitInput(block);
+        in.readBits(8 + 32);
+        return in.readBits(64);
+    }
+
+    private static void writeDeltaOfDelta(BitOutput out, long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            out.writeBits(0, 1);
+        } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+            out.writeBits(0x2, 2);
+            out.writeBits(deltaOfDelta + 63, 7);
+        } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+            out.writeBits(0x6, 3);
+            out.writeBits(deltaOfDelta + 255, 9);
+        } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+            out.writeBits(0xE, 4);
+            out.writeBits(deltaOfDelta + 2047, 12);
+        } else {
+            // capture times are in milliseconds (not seconds as in the paper), so gaps in the data
+            // can easily exceed 32 bits
+            out.writeBits(0xF, 4);
+            out.writeBits(deltaOfDelta, 64);
+        }
+    }
+
+    private static long readDeltaOfDelta(BitInput in) {
+        if (in.readBits(1) == 0) {
+            return 0;
+        }
+        if (in.readBits(1) == 0) {
+            return in.readBits(7) - 63;
+        }
+        if (in.readBits(1) == 0) {
+            return in.readBits(9) - 255;
+        }
+        if (in.readBits(1) == 0) {
+            return in.readBits(12) - 2047;
+        }
+        return in.readBits(64);
+    }
+
+    private static class XorState {
+
+        private long prior;
+        // -1 until the first non-zero xor is written
+        private int priorLeadingZeros = -1;
+        private int priorTrailingZeros;
+
+        private XorState(long first) {
+            prior = first;
+        }
+
+        private void write(BitOutput out, long bits) {
+            long xor = bits ^ prior;
+            prior = bits;
+            if (xor == 0) {
+                out.writeBits(0, 1);
+                return;
+            }
+            out.writeBits(1, 1);
+            // leading zeros are written using 5 bits
+            int leadingZeros = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailingZeros = Long.numberOfTrailingZeros(xor);
+            if (priorLeadingZeros != -1 && leadingZeros >= priorLeadingZeros
+                    && trailingZeros >= priorTrailingZeros) {
+                // meaningful bits fall within the prior meaningful bits
+                out.writeBits(0, 1);
+                out.writeBits(xor >>> priorTrailingZeros,
+                        64 - priorLeadingZeros - priorTrailingZeros);
+            } else {
+                int meaningfulBits = 64 - leadingZeros - trailingZeros;
+                out.writeBits(1, 1);
+                out.writeBits(leadingZeros, 5);
+                // meaningfulBits is between 1 and 64, so subtract 1 to fit in 6 bits
+                out.writeBits(meaningfulBits - 1, 6);
+                out.writeBits(xor >>> trailingZeros, meaningfulBits);
+                priorLeadingZeros = leadingZeros;
+                priorTrailingZeros = trailingZeros;
+            }
+        }
+
+        private void read(BitInput in) {
+            if (in.readBits(1) == 0) {
+                return;
+            }
+            if (in.readBits(1) == 1) {
+                priorLeadingZeros = (int) in.readBits(5);
+                int meaningfulBits = (int) in.readBits(6) + 1;
+                priorTrailingZeros = 64 - priorLeadingZeros - meaningfulBits;
+            }
+            long xor = in.readBits(64 - priorLeadingZeros - priorTrailingZeros);
+            prior ^= xor << priorTrailingZeros;
+        }
+    }
+
+    private static class BitOutput {
+
+        private byte[] bytes;
+        private int bitCount;
+
+        private BitOutput(int initialCapacity) {
+            bytes = new byte[initialCapacity];
+        }
+
+        // writes the lowest numBits bits of value, most significant bit first
+        private void writeBits(long value, int numBits) {
+            int remaining = numBits;
+            while (remaining > 0) {
+                int byteIndex = bitCount >>> 3;
+                if (byteIndex == bytes.length) {
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                }
+                int available = 8 - (bitCount & 7);
+                int n = Math.min(available, remaining);
+                int bits = (int) (value >>> (remaining - n)) & ((1 << n) - 1);
+                bytes[byteIndex] |= (byte) (bits << (available - n));
+                bitCount += n;
+                remaining -= n;
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(bytes, (bitCount + 7) >>> 3);
+        }
+    }
+
+    private static class BitInput {
+
+        private final byte[] bytes;
+        private int bitIndex;
+
+        private BitInput(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private long readBits(int numBits) {
+            long value = 0;
+            int remaining = numBits;
+            while (remaining > 0) {
+                int available = 8 - (bitIndex & 7);
+                int n = Math.min(available, remaining);
+                int bits = ((bytes[bitIndex >>> 3] & 0xFF) >>> (available - n)) & ((1 << n) - 1);
+                value = (value << n) | bits;
+                bitIndex += n;
+                remaining -= n;
+            }
+            return value;
+        }
+    }
+}
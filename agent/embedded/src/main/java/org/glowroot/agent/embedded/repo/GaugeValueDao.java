@@ -23,12 +23,16 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLongArray;
 
+import javax.annotation.concurrent.GuardedBy;
+
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.primitives.Longs;
 import org.checkerframework.checker.tainting.qual.Untainted;
+import org.immutables.value.Value;
 
 import org.glowroot.agent.embedded.util.DataSource;
 import org.glowroot.agent.embedded.util.DataSource.JdbcQuery;
@@ -39,6 +43,7 @@ import org.glowroot.agent.embedded.util.ImmutableIndex;
 import org.glowroot.agent.embedded.util.Schemas.Column;
 import org.glowroot.agent.embedded.util.Schemas.ColumnType;
 import org.glowroot.agent.embedded.util.Schemas.Index;
+import org.glowroot.common.util.CaptureTimes;
 import org.glowroot.common.util.Clock;
 import org.glowroot.common2.repo.ConfigRepository.RollupConfig;
 import org.glowroot.common2.repo.GaugeValueRepository;
@@ -46,6 +51,7 @@ import org.glowroot.common2.repo.util.Gauges;
 import org.glowroot.common2.repo.util.RollupLevelService;
 import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.GaugeValue;
 
+import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static org.glowroot.agent.util.Checkers.castUntainted;
 
@@ -60,24 +66,54 @@ public class GaugeValueDao implements GaugeValueRepository {
             // for counters, it is the interval of time that the (averaged) value represents
             ImmutableColumn.of("weight", ColumnType.BIGINT));
 
+    // once gauge values are no longer needed for rollup, they are compacted into blocks (one row
+    // per gauge per block interval, see GaugeValueBlocks), which avoids the per-row (and per-index
+    // entry) overhead that otherwise dominates the storage of gauge values
+    private static final ImmutableList<Column> blockColumns = ImmutableList.<Column>of(
+            ImmutableColumn.of("gauge_id", ColumnType.BIGINT),
+            // capture time of the end of the block interval (the block contains gauge values with
+            // capture time > capture_time - block interval and <= capture_time)
+            ImmutableColumn.of("capture_time", ColumnType.BIGINT),
+            ImmutableColumn.of("data", ColumnType.VARBINARY));
+
+    // this limits the time spent compacting in a single call to store(), e.g. after upgrading
+    // with lots of existing (non-compacted) gauge values
+    private static final int MAX_BLOCKS_PER_STORE = 10;
+
     private final GaugeIdDao gaugeIdDao;
     private final GaugeNameDao gaugeNameDao;
     private final DataSource dataSource;
     private final Clock clock;
     private final ImmutableList<RollupConfig> rollupConfigs;
+    private final boolean compactIntoBlocks;
+
+    // index is rollupLevel
+    private final long[] blockIntervalMillis;
 
     // AtomicLongArray used for visibility
     private final AtomicLongArray lastRollupTimes;
 
     private final Object rollupLock = new Object();
 
+    // index is rollupLevel, -1 means there are no blocks yet
+    @GuardedBy("rollupLock")
+    private final long[] lastBlockTimes;
+
     GaugeValueDao(DataSource dataSource, GaugeIdDao gaugeIdDao, GaugeNameDao gaugeNameDao,
             Clock clock) throws Exception {
+        this(dataSource, gaugeIdDao, gaugeNameDao, clock, true);
+    }
+
+    @VisibleForTesting
+    GaugeValueDao(DataSource dataSource, GaugeIdDao gaugeIdDao, GaugeNameDao gaugeNameDao,
+            Clock clock, boolean compactIntoBlocks) throws Exception {
         this.dataSource = dataSource;
         this.gaugeIdDao = gaugeIdDao;
         this.gaugeNameDao = gaugeNameDao;
         this.clock = clock;
         this.rollupConfigs = ImmutableList.copyOf(RollupConfig.buildRollupConfigs());
+        this.compactIntoBlocks = compactIntoBlocks;
+        blockIntervalMillis = getBlockIntervalMillis(rollupConfigs);
 
         for (int i = 0; i <= rollupConfigs.size(); i++) {
             dataSource.syncTable("gauge_value_rollup_" + castUntainted(i), columns);
@@ -93,6 +129,16 @@ public class GaugeValueDao implements GaugeValueRepository {
                                             + "_by_capture_time_idx",
                                     ImmutableList.of("capture_time", "gauge_id", "value",
                                             "weight"))));
+            dataSource.syncTable("gauge_value_block_" + castUntainted(i), blockColumns);
+            dataSource.syncIndexes("gauge_value_block_" + castUntainted(i),
+                    ImmutableList.<Index>of(
+                            ImmutableIndex.of("gauge_value_block_" + castUntainted(i) + "_idx",
+                                    ImmutableList.of("gauge_id", "capture_time")),
+                            // this index is used by deleteBefore() and by compaction
+                            ImmutableIndex.of(
+                                    "gauge_value_block_" + castUntainted(i)
+                                            + "_by_capture_time_idx",
+                                    ImmutableList.of("capture_time", "gauge_id"))));
         }
         List<Column> columns = Lists.newArrayList();
         for (int i = 1; i <= rollupConfigs.size(); i++) {
@@ -101,6 +147,7 @@ public class GaugeValueDao implements GaugeValueRepository {
         dataSource.syncTable("gauge_value_last_rollup_times", columns);
 
         lastRollupTimes = initData(rollupConfigs, dataSource);
+        lastBlockTimes = initLastBlockTimes(blockIntervalMillis, dataSource);
 
         // TODO initial rollup in case store is not called in a reasonable time
     }
@@ -160,6 +207,9 @@ public class GaugeValueDao implements GaugeValueRepository {
                     lastRollupTimes.set(i, safeRollupTime);
                 }
             }
+            if (compactIntoBlocks) {
+                compactIntoBlocks();
+            }
         }
     }
 
@@ -172,20 +222,68 @@ public class GaugeValueDao implements GaugeValueRepository {
             // not necessarily an error, gauge id not created until first store
             return ImmutableList.of();
         }
-        return dataSource.query(new GaugeValueQuery(gaugeId, from, to, rollupLevel));
+        List<GaugeValue> gaugeValues =
+                dataSource.query(new GaugeValueQuery(gaugeId, from, to, rollupLevel));
+        // blocks are read after the (non-compacted) gauge values, so that gauge values which are
+        // concurrently compacted are not missed (though they may be read twice, see merge())
+        List<byte[]> blocks = dataSource.query(new GaugeValueBlockQuery(gaugeId, from,
+                to + blockIntervalMillis[rollupLevel], rollupLevel));
+        if (blocks.isEmpty()) {
+            return gaugeValues;
+        }
+        List<GaugeValue> blockGaugeValues = Lists.newArrayList();
+        for (byte[] block : blocks) {
+            GaugeValueBlocks.decode(block, from, to, blockGaugeValues);
+        }
+        return merge(blockGaugeValues, gaugeValues);
+    }
+
+    @Override
+    public Map<String, List<GaugeValue>> readGaugeValues(String agentRollupId,
+            List<String> gaugeNames, long from, long to, int rollupLevel) throws Exception {
+        // H2 does not benefit from issuing the queries concurrently
+        Map<String, List<GaugeValue>> gaugeValues = Maps.newLinkedHashMap();
+        for (String gaugeName : gaugeNames) {
+            gaugeValues.put(gaugeName,
+                    readGaugeValues(agentRollupId, gaugeName, from, to, rollupLevel));
+        }
+        return gaugeValues;
     }
 
     @Override
     public long getOldestCaptureTime(String agentRollupId, String gaugeName, int rollupLevel)
             throws Exception {
+        Long gaugeId = gaugeIdDao.getGaugeId(gaugeName);
+        if (gaugeId == null) {
+            return Long.MAX_VALUE;
+        }
+        byte[] oldestBlock =
+                dataSource.queryAtMostOne(new OldestGaugeValueBlockQuery(gaugeId, rollupLevel));
+        if (oldestBlock != null) {
+            // blocks always hold older gauge values than the non-compacted gauge values
+            return GaugeValueBlocks.getFirstCaptureTime(oldestBlock);
+        }
         Long oldestCaptureTime = dataSource.queryForOptionalLong("select top 1 capture_time from"
                 + " gauge_value_rollup_" + castUntainted(rollupLevel) + " where gauge_id = ? order"
-                + " by capture_time", gaugeName);
+                + " by capture_time", gaugeId);
         return oldestCaptureTime == null ? Long.MAX_VALUE : oldestCaptureTime;
     }
 
     void deleteBefore(long captureTime, int rollupLevel) throws Exception {
         dataSource.deleteBefore("gauge_value_rollup_" + castUntainted(rollupLevel), captureTime);
+        // the capture time of a block is the END of its block interval, so this only deletes the
+        // blocks whose gauge values have all expired
+        dataSource.deleteBefore("gauge_value_block_" + castUntainted(rollupLevel), captureTime);
+        // the remaining blocks whose block interval spans captureTime still hold expired gauge
+        // values, so those are re-encoded without them (otherwise the expired gauge values would
+        // still be returned by reads until the end of the block interval expires)
+        synchronized (rollupLock) {
+            List<ExpiringBlock> expiringBlocks = dataSource.query(new ExpiringBlockQuery(
+                    rollupLevel, captureTime, captureTime + blockIntervalMillis[rollupLevel]));
+            for (ExpiringBlock expiringBlock : expiringBlocks) {
+                trimExpiredGaugeValues(expiringBlock, captureTime, rollupLevel);
+            }
+        }
     }
 
     void reinitAfterDeletingDatabase() throws Exception {
@@ -193,6 +291,10 @@ public class GaugeValueDao implements GaugeValueRepository {
         for (int i = 0; i < lastRollupTimes.length(); i++) {
             this.lastRollupTimes.set(i, lastRollupTimes.get(i));
         }
+        synchronized (rollupLock) {
+            long[] lastBlockTimes = initLastBlockTimes(blockIntervalMillis, dataSource);
+            System.arraycopy(lastBlockTimes, 0, this.lastBlockTimes, 0, lastBlockTimes.length);
+        }
     }
 
     private void rollup(long lastRollupTime, long safeRollupTime, long fixedIntervalMillis,
@@ -209,6 +311,131 @@ public class GaugeValueDao implements GaugeValueRepository {
                 lastRollupTime, safeRollupTime);
     }
 
+    @GuardedBy("rollupLock")
+    private void compactIntoBlocks() throws Exception {
+        int remaining = MAX_BLOCKS_PER_STORE;
+        for (int rollupLevel = 0; rollupLevel <= rollupConfigs.size(); rollupLevel++) {
+            // gauge values can only be compacted once they have been rolled up to the next rollup
+            // level, and for the last rollup level, once the rollup into the last rollup level has
+            // completed (so that no more gauge values will be written to the block interval)
+            long safeBlockTime = rollupLevel < rollupConfigs.size()
+                    ? lastRollupTimes.get(rollupLevel) : lastRollupTimes.get(rollupLevel - 1);
+            long intervalMillis = blockIntervalMillis[rollupLevel];
+            long lastBlockTime = lastBlockTimes[rollupLevel];
+            if (lastBlockTime == -1) {
+                Long oldestCaptureTime = dataSource.queryForOptionalLong("select min(capture_time)"
+                        + " from gauge_value_rollup_" + castUntainted(rollupLevel));
+                if (oldestCaptureTime == null) {
+                    continue;
+                }
+                lastBlockTime =
+                        CaptureTimes.getRollup(oldestCaptureTime, intervalMillis) - intervalMillis;
+            }
+            while (remaining > 0 && lastBlockTime + intervalMillis <= safeBlockTime) {
+                long blockTime = lastBlockTime + intervalMillis;
+                compactIntoBlocks(rollupLevel, lastBlockTime, blockTime);
+                lastBlockTime = blockTime;
+                remaining--;
+            }
+            lastBlockTimes[rollupLevel] = lastBlockTime;
+        }
+    }
+
+    // from is non-inclusive
+    private void compactIntoBlocks(int rollupLevel, long from, long blockTime) throws Exception {
+        Map<Long, List<GaugeValue>> gaugeValues =
+                dataSource.query(new GaugeValuesForBlockQuery(rollupLevel, from, blockTime));
+        if (gaugeValues.isEmpty()) {
+            return;
+        }
+        // blocks can already exist for this block interval if the JVM terminated after storing
+        // the blocks but before deleting the compacted gauge values, see initLastBlockTimes()
+        for (Long gaugeId : dataSource.query(new BlockGaugeIdQuery(rollupLevel, blockTime))) {
+            gaugeValues.remove(gaugeId);
+        }
+        if (!gaugeValues.isEmpty()) {
+            dataSource.batchUpdate(new GaugeValueBlocksBinder(rollupLevel, blockTime, gaugeValues));
+        }
+        dataSource.update("delete from gauge_value_rollup_" + castUntainted(rollupLevel)
+                + " where capture_time > ? and capture_time <= ?", from, blockTime);
+    }
+
+    @GuardedBy("rollupLock")
+    private void trimExpiredGaugeValues(ExpiringBlock expiringBlock, long captureTime,
+            int rollupLevel) throws Exception {
+        List<GaugeValue> gaugeValues = Lists.newArrayList();
+        GaugeValueBlocks.decode(expiringBlock.data(), captureTime, expiringBlock.blockTime(),
+                gaugeValues);
+        if (gaugeValues.isEmpty()) {
+            dataSource.update("delete from gauge_value_block_" + castUntainted(rollupLevel)
+                    + " where gauge_id = ? and capture_time = ?", expiringBlock.gaugeId(),
+                    expiringBlock.blockTime());
+        } else if (GaugeValueBlocks.getFirstCaptureTime(expiringBlock.data()) < captureTime) {
+            dataSource.update("update gauge_value_block_" + castUntainted(rollupLevel)
+                    + " set data = ? where gauge_id = ? and capture_time = ?",
+                    GaugeValueBlocks.encode(gaugeValues), expiringBlock.gaugeId(),
+                    expiringBlock.blockTime());
+        }
+    }
+
+    // both lists are ordered by capture time
+    private static List<GaugeValue> merge(List<GaugeValue> gaugeValues1,
+            List<GaugeValue> gaugeValues2) {
+        List<GaugeValue> gaugeValues =
+                Lists.newArrayListWithCapacity(gaugeValues1.size() + gaugeValues2.size());
+        int i = 0;
+        int j = 0;
+        while (i < gaugeValues1.size() && j < gaugeValues2.size()) {
+            GaugeValue gaugeValue1 = gaugeValues1.get(i);
+            GaugeValue gaugeValue2 = gaugeValues2.get(j);
+            long captureTime1 = gaugeValue1.getCaptureTime();
+            long captureTime2 = gaugeValue2.getCaptureTime();
+            if (captureTime1 < captureTime2) {
+                gaugeValues.add(gaugeValue1);
+                i++;
+            } else if (captureTime1 > captureTime2) {
+                gaugeValues.add(gaugeValue2);
+                j++;
+            } else {
+                // same gauge value read from both a block and the non-compacted gauge values
+                gaugeValues.add(gaugeValue1);
+                i++;
+                j++;
+            }
+        }
+        gaugeValues.addAll(gaugeValues1.subList(i, gaugeValues1.size()));
+        gaugeValues.addAll(gaugeValues2.subList(j, gaugeValues2.size()));
+        return gaugeValues;
+    }
+
+    // each block holds up to 60 gauge values (at rollup level 0 this is based on the default gauge
+    // collection interval of 5 seconds)
+    private static long[] getBlockIntervalMillis(List<RollupConfig> rollupConfigs) {
+        long[] blockIntervalMillis = new long[rollupConfigs.size() + 1];
+        blockIntervalMillis[0] = rollupConfigs.get(0).intervalMillis() * 5;
+        for (int i = 1; i <= rollupConfigs.size(); i++) {
+            blockIntervalMillis[i] = rollupConfigs.get(i - 1).intervalMillis() * 60;
+        }
+        return blockIntervalMillis;
+    }
+
+    private static long[] initLastBlockTimes(long[] blockIntervalMillis, DataSource dataSource)
+            throws Exception {
+        long[] lastBlockTimes = new long[blockIntervalMillis.length];
+        for (int i = 0; i < blockIntervalMillis.length; i++) {
+            Long lastBlockTime = dataSource.queryForOptionalLong(
+                    "select max(capture_time) from gauge_value_block_" + castUntainted(i));
+            if (lastBlockTime == null) {
+                lastBlockTimes[i] = -1;
+            } else {
+                // the last block interval is compacted again in case the JVM terminated after
+                // storing the blocks but before deleting the compacted gauge values
+                lastBlockTimes[i] = lastBlockTime - blockIntervalMillis[i];
+            }
+        }
+        return lastBlockTimes;
+    }
+
     private static AtomicLongArray initData(ImmutableList<RollupConfig> rollupConfigs,
             DataSource dataSource) throws Exception {
         List<String> columnNames = Lists.newArrayList();
@@ -258,6 +485,37 @@ public class GaugeValueDao implements GaugeValueRepository {
         }
     }
 
+    private static class GaugeValueBlocksBinder implements JdbcUpdate {
+
+        private final int rollupLevel;
+        private final long blockTime;
+        private final Map<Long, List<GaugeValue>> gaugeValues;
+
+        private GaugeValueBlocksBinder(int rollupLevel, long blockTime,
+                Map<Long, List<GaugeValue>> gaugeValues) {
+            this.rollupLevel = rollupLevel;
+            this.blockTime = blockTime;
+            this.gaugeValues = gaugeValues;
+        }
+
+        @Override
+        public @Untainted String getSql() {
+            return "insert into gauge_value_block_" + castUntainted(rollupLevel)
+                    + " (gauge_id, capture_time, data) values (?, ?, ?)";
+        }
+
+        @Override
+        public void bind(PreparedStatement preparedStatement) throws SQLException {
+            for (Map.Entry<Long, List<GaugeValue>> entry : gaugeValues.entrySet()) {
+                int i = 1;
+                preparedStatement.setLong(i++, entry.getKey());
+                preparedStatement.setLong(i++, blockTime);
+                preparedStatement.setBytes(i++, GaugeValueBlocks.encode(entry.getValue()));
+                preparedStatement.addBatch();
+            }
+        }
+    }
+
     private static class LastRollupTimesQuery implements JdbcQuery<long[]> {
 
         private final @Untainted String selectClause;
@@ -332,4 +590,191 @@ public class GaugeValueDao implements GaugeValueRepository {
                     .build();
         }
     }
+
+    private static class GaugeValueBlockQuery implements JdbcRowQuery<byte[]> {
+
+        private final long gaugeId;
+        private final long from;
+        private final long to;
+        private final int rollupLevel;
+
+        private GaugeValueBlockQuery(long gaugeId, long from, long to, int rollupLevel) {
+            this.gaugeId = gaugeId;
+            this.from = from;
+            this.to = to;
+            this.rollupLevel = rollupLevel;
+        }
+
+        @Override
+        public @Untainted String getSql() {
+            return "select data from gauge_value_block_" + castUntainted(rollupLevel)
+                    + " where gauge_id = ? and capture_time >= ? and capture_time < ? order by"
+                    + " capture_time";
+        }
+
+        @Override
+        public void bind(PreparedStatement preparedStatement) throws SQLException {
+            int i = 1;
+            preparedStatement.setLong(i++, gaugeId);
+            preparedStatement.setLong(i++, from);
+            preparedStatement.setLong(i++, to);
+        }
+
+        @Override
+        public byte[] mapRow(ResultSet resultSet) throws SQLException {
+            return checkNotNull(resultSet.getBytes(1));
+        }
+    }
+
+    private static class ExpiringBlockQuery implements JdbcRowQuery<ExpiringBlock> {
+
+        private final int rollupLevel;
+        private final long from;
+        private final long to;
+
+        private ExpiringBlockQuery(int rollupLevel, long from, long to) {
+            this.rollupLevel = rollupLevel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public @Untainted String getSql() {
+            return "select gauge_id, capture_time, data from gauge_value_block_"
+                    + castUntainted(rollupLevel) + " where capture_time >= ? and capture_time < ?";
+        }
+
+        @Override
+        public void bind(PreparedStatement preparedStatement) throws SQLException {
+            int i = 1;
+            preparedStatement.setLong(i++, from);
+            preparedStatement.setLong(i++, to);
+        }
+
+        @Override
+        public ExpiringBlock mapRow(ResultSet resultSet) throws SQLException {
+            int i = 1;
+            return ImmutableExpiringBlock.builder()
+                    .gaugeId(resultSet.getLong(i++))
+                    .blockTime(resultSet.getLong(i++))
+                    .data(checkNotNull(resultSet.getBytes(i++)))
+                    .build();
+        }
+    }
+
+    private static class OldestGaugeValueBlockQuery implements JdbcRowQuery<byte[]> {
+
+        private final long gaugeId;
+        private final int rollupLevel;
+
+        private OldestGaugeValueBlockQuery(long gaugeId, int rollupLevel) {
+            this.gaugeId = gaugeId;
+            this.rollupLevel = rollupLevel;
+        }
+
+        @Override
+        public @Untainted String getSql() {
+            return "select top 1 data from gauge_value_block_" + castUntainted(rollupLevel)
+                    + " where gauge_id = ? order by capture_time";
+        }
+
+        @Override
+        public void bind(PreparedStatement preparedStatement) throws SQLException {
+            preparedStatement.setLong(1, gaugeId);
+        }
+
+        @Override
+        public byte[] mapRow(ResultSet resultSet) throws SQLException {
+            return checkNotNull(resultSet.getBytes(1));
+        }
+    }
+
+    private static class GaugeValuesForBlockQuery
+            implements JdbcQuery<Map<Long, List<GaugeValue>>> {
+
+        private final int rollupLevel;
+        private final long from;
+        private final long to;
+
+        private GaugeValuesForBlockQuery(int rollupLevel, long from, long to) {
+            this.rollupLevel = rollupLevel;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public @Untainted String getSql() {
+            return "select gauge_id, capture_time, value, weight from gauge_value_rollup_"
+                    + castUntainted(rollupLevel) + " where capture_time > ? and capture_time <= ?"
+                    + " order by gauge_id, capture_time";
+        }
+
+        @Override
+        public void bind(PreparedStatement preparedStatement) throws SQLException {
+            int i = 1;
+            preparedStatement.setLong(i++, from);
+            preparedStatement.setLong(i++, to);
+        }
+
+        @Override
+        public Map<Long, List<GaugeValue>> processResultSet(ResultSet resultSet)
+                throws SQLException {
+            Map<Long, List<GaugeValue>> gaugeValues = Maps.newLinkedHashMap();
+            while (resultSet.next()) {
+                int i = 1;
+                long gaugeId = resultSet.getLong(i++);
+                List<GaugeValue> list = gaugeValues.get(gaugeId);
+                if (list == null) {
+                    list = Lists.newArrayList();
+                    gaugeValues.put(gaugeId, list);
+                }
+                list.add(GaugeValue.newBuilder()
+                        .setCaptureTime(resultSet.getLong(i++))
+                        .setValue(resultSet.getDouble(i++))
+                        .setWeight(resultSet.getLong(i++))
+                        .build());
+            }
+            return gaugeValues;
+        }
+
+        @Override
+        public Map<Long, List<GaugeValue>> valueIfDataSourceClosed() {
+            return Maps.newHashMap();
+        }
+    }
+
+    private static class BlockGaugeIdQuery implements JdbcRowQuery<Long> {
+
+        private final int rollupLevel;
+        private final long blockTime;
+
+        private BlockGaugeIdQuery(int rollupLevel, long blockTime) {
+            this.rollupLevel = rollupLevel;
+            this.blockTime = blockTime;
+        }
+
+        @Override
+        public @Untainted String getSql() {
+            return "select gauge_id from gauge_value_block_" + castUntainted(rollupLevel)
+                    + " where capture_time = ?";
+        }
+
+        @Override
+        public void bind(PreparedStatement preparedStatement) throws SQLException {
+            preparedStatement.setLong(1, blockTime);
+        }
+
+        @Override
+        public Long mapRow(ResultSet resultSet) throws SQLException {
+            return resultSet.getLong(1);
+        }
+    }
+
+    @Value.Immutable
+    interface ExpiringBlock {
+        long gaugeId();
+        // end of the block interval
+        long blockTime();
+        byte[] data();
+    }
 }
@@ -19,6 +19,7 @@ import java.sql.SQLException;
 
 import com.google.common.collect.ImmutableList;
 import org.checkerframework.checker.nullness.qual.Nullable;
+import org.checkerframework.checker.tainting.qual.Untainted;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,7 +37,7 @@ class SchemaUpgrade {
     // log startup messages using logger name "org.glowroot"
     private static final Logger startupLogger = LoggerFactory.getLogger("org.glowroot");
 
-    private static final int CURR_SCHEMA_VERSION = 6;
+    private static final int CURR_SCHEMA_VERSION = 7;
 
     private static final ImmutableList<Column> columns =
             ImmutableList.<Column>of(ImmutableColumn.of("schema_version", ColumnType.BIGINT));
@@ -91,6 +92,11 @@ class SchemaUpgrade {
             renameAggregateColumnNames();
             updateSchemaVersion(6);
         }
+        // upgrade from 0.12.2 to 0.12.3
+        if (initialSchemaVersion < 7) {
+            addAggregateUnsampledTransactionCountColumn();
+            updateSchemaVersion(7);
+        }
 
         // when adding new schema upgrade, make sure to update CURR_SCHEMA_VERSION above
         startupLogger.info("upgraded glowroot schema from version {} to version {}",
@@ -156,6 +162,24 @@ class SchemaUpgrade {
 
     }
 
+    private void addAggregateUnsampledTransactionCountColumn() throws SQLException {
+        for (int i = 0; i < 4; i++) {
+            addColumnIfNotExists("aggregate_tt_rollup_" + castUntainted(i),
+                    "unsampled_transaction_count", "bigint");
+            addColumnIfNotExists("aggregate_tn_rollup_" + castUntainted(i),
+                    "unsampled_transaction_count", "bigint");
+        }
+    }
+
+    private void addColumnIfNotExists(@Untainted String tableName, @Untainted String columnName,
+            @Untainted String columnType) throws SQLException {
+        if (dataSource.tableExists(tableName)
+                && !dataSource.columnExists(tableName, columnName)) {
+            dataSource.execute("alter table " + tableName + " add column " + columnName + " "
+                    + columnType);
+        }
+    }
+
     private static @Nullable Integer getSchemaVersion(DataSource dataSource) throws SQLException {
         Long schemaVersion =
                 dataSource.queryForOptionalLong("select schema_version from schema_version");
@@ -23,6 +23,7 @@ public class TraceCappedDatabaseStats implements TraceCappedDatabaseStatsMXBean
     static final String TRACE_ENTRIES = "trace entries";
     static final String TRACE_QUERIES = "trace queries";
     static final String TRACE_SHARED_QUERY_TEXTS = "trace shared query texts";
+    static final String TRACE_LOCATION_STACK_TRACES = "trace location stack traces";
     static final String TRACE_PROFILES = "trace profiles";
 
     private final CappedDatabase cappedDatabase;
@@ -46,6 +47,11 @@ public class TraceCappedDatabaseStats implements TraceCappedDatabaseStatsMXBean
         return cappedDatabase.getStats(TRACE_SHARED_QUERY_TEXTS);
     }
 
+    @Override
+    public CappedDatabaseStats getTraceLocationStackTraces() {
+        return cappedDatabase.getStats(TRACE_LOCATION_STACK_TRACES);
+    }
+
     @Override
     public CappedDatabaseStats getTraceProfiles() {
         return cappedDatabase.getStats(TRACE_PROFILES);
@@ -22,5 +22,6 @@ public interface TraceCappedDatabaseStatsMXBean {
     CappedDatabaseStats getTraceEntries();
     CappedDatabaseStats getTraceQueries();
     CappedDatabaseStats getTraceSharedQueryTexts();
+    CappedDatabaseStats getTraceLocationStackTraces();
     CappedDatabaseStats getTraceProfiles();
 }
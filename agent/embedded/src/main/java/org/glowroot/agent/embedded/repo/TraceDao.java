@@ -22,10 +22,14 @@ import java.sql.SQLException;
 import java.sql.Types;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
 
 import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.tainting.qual.Untainted;
 import org.slf4j.Logger;
@@ -65,6 +69,7 @@ import org.glowroot.common2.repo.ImmutableHeaderPlus;
 import org.glowroot.common2.repo.TraceRepository;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
+import org.glowroot.wire.api.model.Proto;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -94,6 +99,7 @@ public class TraceDao implements TraceRepository {
             ImmutableColumn.of("entries_capped_id", ColumnType.BIGINT),
             ImmutableColumn.of("queries_capped_id", ColumnType.BIGINT),
             ImmutableColumn.of("shared_query_texts_capped_id", ColumnType.BIGINT),
+            ImmutableColumn.of("location_stack_traces_capped_id", ColumnType.BIGINT),
             ImmutableColumn.of("main_thread_profile_capped_id", ColumnType.BIGINT),
             ImmutableColumn.of("aux_thread_profile_capped_id", ColumnType.BIGINT));
 
@@ -163,6 +169,15 @@ public class TraceDao implements TraceRepository {
             dataSource.execute("alter table trace add column queries_capped_id bigint");
             startupLogger.info("glowroot schema upgrade complete");
         }
+        if (dataSource.tableExists("trace")
+                && !dataSource.columnExists("trace", "location_stack_traces_capped_id")) {
+            // upgrade to 0.12.3
+            startupLogger.info("upgrading glowroot schema, this may delay glowroot startup for a"
+                    + " few minutes (depending on data size)...");
+            dataSource.execute(
+                    "alter table trace add column location_stack_traces_capped_id bigint");
+            startupLogger.info("glowroot schema upgrade complete");
+        }
         dataSource.syncTable("trace", traceColumns);
         dataSource.syncIndexes("trace", traceIndexes);
         dataSource.syncTable("trace_attribute", traceAttributeColumns);
@@ -260,7 +275,13 @@ public class TraceDao implements TraceRepository {
 
     @Override
     public @Nullable Entries readEntries(String agentId, String traceId) throws Exception {
-        return dataSource.query(new EntriesQuery(traceId));
+        return dataSource.query(new EntriesQuery(traceId, 0, Integer.MAX_VALUE));
+    }
+
+    @Override
+    public @Nullable Entries readEntries(String agentId, String traceId, int fromIndex, int limit)
+            throws Exception {
+        return dataSource.query(new EntriesQuery(traceId, fromIndex, limit));
     }
 
     @Override
@@ -382,11 +403,58 @@ public class TraceDao implements TraceRepository {
         return i;
     }
 
+    // entries reference location stack traces by index into the shared location stack traces (see
+    // TraceVisitorImpl), this resolves them back so that callers never see the indexes
+    //
+    // only the location stack traces referenced by the given entries are read, so that paging
+    // through the entries of a large trace does not read all of its location stack traces for
+    // every page
+    private List<Trace.Entry> resolveLocationStackTraces(List<Trace.Entry> entries,
+            @Nullable Long locationStackTracesCappedId) throws IOException {
+        if (locationStackTracesCappedId == null) {
+            return entries;
+        }
+        SortedSet<Integer> indexes = new TreeSet<Integer>();
+        for (Trace.Entry entry : entries) {
+            if (entry.hasSharedLocationStackTraceIndex()) {
+                indexes.add(entry.getSharedLocationStackTraceIndex().getValue());
+            }
+        }
+        if (indexes.isEmpty()) {
+            return entries;
+        }
+        Map<Integer, Trace.LocationStackTrace> locationStackTraces = traceCappedDatabase
+                .readMessages(locationStackTracesCappedId, Trace.LocationStackTrace.parser(),
+                        indexes);
+        List<Trace.Entry> resolvedEntries = Lists.newArrayListWithCapacity(entries.size());
+        for (Trace.Entry entry : entries) {
+            if (!entry.hasSharedLocationStackTraceIndex()) {
+                resolvedEntries.add(entry);
+                continue;
+            }
+            int index = entry.getSharedLocationStackTraceIndex().getValue();
+            Trace.Entry.Builder builder = entry.toBuilder()
+                    .clearSharedLocationStackTraceIndex();
+            Trace.LocationStackTrace locationStackTrace = locationStackTraces.get(index);
+            if (locationStackTrace != null) {
+                // location stack trace can only be missing if it has expired from the capped
+                // database (in which case the entries have almost certainly expired too)
+                builder.addAllLocationStackTraceElement(locationStackTrace.getElementList());
+            }
+            resolvedEntries.add(builder.build());
+        }
+        return resolvedEntries;
+    }
+
     private class TraceVisitorImpl implements TraceVisitor {
 
         private final long captureTime;
         private final Trace.Builder builder;
 
+        // identical location stack traces are common, e.g. from the same query executed in a loop
+        private final Map<List<Proto.StackTraceElement>, Integer> locationStackTraceIndexes =
+                Maps.newHashMap();
+
         private TraceVisitorImpl(long captureTime, Trace.Builder builder) {
             this.captureTime = captureTime;
             this.builder = builder;
@@ -394,7 +462,23 @@ public class TraceDao implements TraceRepository {
 
         @Override
         public void visitEntry(Trace.Entry entry) {
-            builder.addEntry(entry);
+            if (entry.getLocationStackTraceElementCount() == 0) {
+                builder.addEntry(entry);
+                return;
+            }
+            List<Proto.StackTraceElement> locationStackTrace =
+                    entry.getLocationStackTraceElementList();
+            Integer index = locationStackTraceIndexes.get(locationStackTrace);
+            if (index == null) {
+                index = locationStackTraceIndexes.size();
+                locationStackTraceIndexes.put(locationStackTrace, index);
+                builder.addSharedLocationStackTrace(Trace.LocationStackTrace.newBuilder()
+                        .addAllElement(locationStackTrace));
+            }
+            builder.addEntry(entry.toBuilder()
+                    .clearLocationStackTraceElement()
+                    .setSharedLocationStackTraceIndex(
+                            Proto.OptionalInt32.newBuilder().setValue(index)));
         }
 
         @Override
@@ -447,6 +531,7 @@ public class TraceDao implements TraceRepository {
         private final @Nullable Long entriesCappedId;
         private final @Nullable Long queriesCappedId;
         private final @Nullable Long sharedQueryTextsCappedId;
+        private final @Nullable Long locationStackTracesCappedId;
         private final @Nullable Long mainThreadProfileId;
         private final @Nullable Long auxThreadProfileId;
 
@@ -475,6 +560,14 @@ public class TraceDao implements TraceRepository {
                 sharedQueryTextsCappedId = traceCappedDatabase.writeMessages(sharedQueryTexts,
                         TraceCappedDatabaseStats.TRACE_SHARED_QUERY_TEXTS);
             }
+            List<Trace.LocationStackTrace> locationStackTraces =
+                    trace.getSharedLocationStackTraceList();
+            if (locationStackTraces.isEmpty()) {
+                locationStackTracesCappedId = null;
+            } else {
+                locationStackTracesCappedId = traceCappedDatabase.writeMessages(
+                        locationStackTraces, TraceCappedDatabaseStats.TRACE_LOCATION_STACK_TRACES);
+            }
             if (trace.hasMainThreadProfile()) {
                 mainThreadProfileId = traceCappedDatabase.writeMessage(trace.getMainThreadProfile(),
                         TraceCappedDatabaseStats.TRACE_PROFILES);
@@ -494,9 +587,9 @@ public class TraceDao implements TraceRepository {
             return "merge into trace (id, partial, slow, error, start_time, capture_time,"
                     + " duration_nanos, transaction_type, transaction_name, headline, user,"
                     + " error_message, header, entries_capped_id, queries_capped_id,"
-                    + " shared_query_texts_capped_id, main_thread_profile_capped_id,"
-                    + " aux_thread_profile_capped_id) key (id) values (?, ?, ?, ?, ?, ?, ?, ?, ?,"
-                    + " ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+                    + " shared_query_texts_capped_id, location_stack_traces_capped_id,"
+                    + " main_thread_profile_capped_id, aux_thread_profile_capped_id) key (id)"
+                    + " values (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
         }
 
         // minimal work inside this method as it is called with active connection
@@ -531,6 +624,7 @@ public class TraceDao implements TraceRepository {
             RowMappers.setLong(preparedStatement, i++, entriesCappedId);
             RowMappers.setLong(preparedStatement, i++, queriesCappedId);
             RowMappers.setLong(preparedStatement, i++, sharedQueryTextsCappedId);
+            RowMappers.setLong(preparedStatement, i++, locationStackTracesCappedId);
             RowMappers.setLong(preparedStatement, i++, mainThreadProfileId);
             RowMappers.setLong(preparedStatement, i++, auxThreadProfileId);
         }
@@ -662,14 +756,19 @@ public class TraceDao implements TraceRepository {
     private class EntriesQuery implements JdbcQuery</*@Nullable*/ Entries> {
 
         private final String traceId;
+        private final int fromIndex;
+        private final int limit;
 
-        private EntriesQuery(String traceId) {
+        private EntriesQuery(String traceId, int fromIndex, int limit) {
             this.traceId = traceId;
+            this.fromIndex = fromIndex;
+            this.limit = limit;
         }
 
         @Override
         public @Untainted String getSql() {
-            return "select entries_capped_id, shared_query_texts_capped_id from trace where id = ?";
+            return "select entries_capped_id, shared_query_texts_capped_id,"
+                    + " location_stack_traces_capped_id from trace where id = ?";
         }
 
         @Override
@@ -685,17 +784,20 @@ public class TraceDao implements TraceRepository {
             int i = 1;
             Long entriesCappedId = RowMappers.getLong(resultSet, i++);
             Long sharedQueryTextsCappedId = RowMappers.getLong(resultSet, i++);
+            Long locationStackTracesCappedId = RowMappers.getLong(resultSet, i++);
             if (entriesCappedId == null) {
                 return null;
             }
-            List<Trace.Entry> entries =
-                    traceCappedDatabase.readMessages(entriesCappedId, Trace.Entry.parser());
+            List<Trace.Entry> entries = traceCappedDatabase.readMessages(entriesCappedId,
+                    Trace.Entry.parser(), fromIndex, limit);
             if (entries.isEmpty()) {
                 return null;
             }
+            entries = resolveLocationStackTraces(entries, locationStackTracesCappedId);
             ImmutableEntries.Builder result = ImmutableEntries.builder()
                     .addAllEntries(entries);
-            if (sharedQueryTextsCappedId != null) {
+            // shared query texts are only needed once, with the first page
+            if (sharedQueryTextsCappedId != null && fromIndex == 0) {
                 result.addAllSharedQueryTexts(traceCappedDatabase
                         .readMessages(sharedQueryTextsCappedId, Trace.SharedQueryText.parser()));
             }
@@ -767,8 +869,8 @@ public class TraceDao implements TraceRepository {
 
         @Override
         public @Untainted String getSql() {
-            return "select entries_capped_id, queries_capped_id, shared_query_texts_capped_id from"
-                    + " trace where id = ?";
+            return "select entries_capped_id, queries_capped_id, shared_query_texts_capped_id,"
+                    + " location_stack_traces_capped_id from trace where id = ?";
         }
 
         @Override
@@ -785,9 +887,11 @@ public class TraceDao implements TraceRepository {
             Long entriesCappedId = RowMappers.getLong(resultSet, i++);
             Long queriesCappedId = RowMappers.getLong(resultSet, i++);
             Long sharedQueryTextsCappedId = RowMappers.getLong(resultSet, i++);
+            Long locationStackTracesCappedId = RowMappers.getLong(resultSet, i++);
             List<Trace.Entry> entries = ImmutableList.of();
             if (entriesCappedId != null) {
                 entries = traceCappedDatabase.readMessages(entriesCappedId, Trace.Entry.parser());
+                entries = resolveLocationStackTraces(entries, locationStackTracesCappedId);
             }
             List<Aggregate.Query> queries = ImmutableList.of();
             if (queriesCappedId != null) {
@@ -26,19 +26,23 @@ import java.io.RandomAccessFile;
 import java.io.Reader;
 import java.util.List;
 import java.util.Map;
+import java.util.SortedSet;
 
 import javax.annotation.concurrent.GuardedBy;
 
 import com.google.common.base.StandardSystemProperty;
 import com.google.common.base.Ticker;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.ByteSource;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.CharSource;
 import com.google.common.io.CountingOutputStream;
 import com.google.common.primitives.Longs;
 import com.google.protobuf.AbstractMessage;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.MessageLite;
 import com.google.protobuf.Parser;
 import com.ning.compress.lzf.LZFInputStream;
@@ -196,6 +200,12 @@ public class CappedDatabase {
 
     public <T extends /*@NonNull*/ MessageLite> List<T> readMessages(long cappedId,
             Parser<T> parser) throws IOException {
+        return readMessages(cappedId, parser, 0, Integer.MAX_VALUE);
+    }
+
+    // messages before fromIndex are skipped over using their length prefix, without being parsed
+    public <T extends /*@NonNull*/ MessageLite> List<T> readMessages(long cappedId,
+            Parser<T> parser, int fromIndex, int limit) throws IOException {
         boolean overwritten;
         boolean inTheFuture;
         synchronized (lock) {
@@ -222,8 +232,14 @@ public class CappedDatabase {
                 new SizeLimitBypassingParser<T>(parser);
         List<T> messages = Lists.newArrayList();
         try {
+            for (int i = 0; i < fromIndex; i++) {
+                if (!skipDelimitedMessage(input)) {
+                    return messages;
+                }
+            }
             T message;
-            while ((message = sizeLimitBypassingParser.parseDelimitedFrom(input)) != null) {
+            while (messages.size() < limit
+                    && (message = sizeLimitBypassingParser.parseDelimitedFrom(input)) != null) {
                 messages.add(message);
             }
         } catch (Exception e) {
@@ -240,6 +256,74 @@ public class CappedDatabase {
         return messages;
     }
 
+    // only the messages at the given indexes are parsed, the other messages are skipped over using
+    // their length prefix, and reading stops after the last given index
+    public <T extends /*@NonNull*/ MessageLite> Map<Integer, T> readMessages(long cappedId,
+            Parser<T> parser, SortedSet<Integer> indexes) throws IOException {
+        if (indexes.isEmpty()) {
+            return ImmutableMap.of();
+        }
+        boolean overwritten;
+        boolean inTheFuture;
+        synchronized (lock) {
+            overwritten = out.isOverwritten(cappedId);
+            inTheFuture = cappedId >= out.getCurrIndex();
+        }
+        if (overwritten) {
+            return ImmutableMap.of();
+        }
+        if (inTheFuture) {
+            // see comment in readMessages() above
+            return ImmutableMap.of();
+        }
+        // it's important to wrap CappedBlockInputStream in a BufferedInputStream to prevent
+        // lots of small reads from the underlying RandomAccessFile
+        final int bufferSize = 32768;
+        InputStream input = newLZFInputStream(
+                new BufferedInputStream(new CappedBlockInputStream(cappedId), bufferSize));
+        SizeLimitBypassingParser<T> sizeLimitBypassingParser =
+                new SizeLimitBypassingParser<T>(parser);
+        Map<Integer, T> messages = Maps.newHashMap();
+        try {
+            int currIndex = 0;
+            for (int index : indexes) {
+                for (; currIndex < index; currIndex++) {
+                    if (!skipDelimitedMessage(input)) {
+                        return messages;
+                    }
+                }
+                T message = sizeLimitBypassingParser.parseDelimitedFrom(input);
+                if (message == null) {
+                    return messages;
+                }
+                messages.put(index, message);
+                currIndex++;
+            }
+        } catch (Exception e) {
+            synchronized (lock) {
+                overwritten = out.isOverwritten(cappedId);
+            }
+            if (!overwritten) {
+                logger.error(e.getMessage(), e);
+            }
+            return ImmutableMap.of();
+        } finally {
+            input.close();
+        }
+        return messages;
+    }
+
+    // returns false if end of stream was reached
+    private static boolean skipDelimitedMessage(InputStream input) throws IOException {
+        int firstByte = input.read();
+        if (firstByte == -1) {
+            return false;
+        }
+        int size = CodedInputStream.readRawVarint32(firstByte, input);
+        ByteStreams.skipFully(input, size);
+        return true;
+    }
+
     @OnlyUsedByTests
     CharSource read(long cappedId) {
         return new CappedBlockCharSource(cappedId);
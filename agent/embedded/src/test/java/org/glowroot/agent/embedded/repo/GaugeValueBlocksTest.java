@@ -0,0 +1,101 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.embedded.repo;
+
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.GaugeValue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GaugeValueBlocksTest {
+
+    @Test
+    public void shouldRoundTripRegularGaugeValues() {
+        // given
+        List<GaugeValue> gaugeValues = Lists.newArrayList();
+        Random random = new Random(0);
+        long captureTime = 1500000000000L;
+        double value = 1000;
+        for (int i = 0; i < 60; i++) {
+            captureTime += 5000 + random.nextInt(10);
+            if (i % 3 == 0) {
+                value += random.nextInt(100);
+            }
+            gaugeValues.add(createGaugeValue(captureTime, value, 1));
+        }
+        // when
+        byte[] block = GaugeValueBlocks.encode(gaugeValues);
+        // then
+        assertThat(block.length).isLessThan(gaugeValues.size() * 8);
+        assertThat(decode(block)).isEqualTo(gaugeValues);
+        assertThat(GaugeValueBlocks.getFirstCaptureTime(block))
+                .isEqualTo(gaugeValues.get(0).getCaptureTime());
+    }
+
+    @Test
+    public void shouldRoundTripIrregularGaugeValues() {
+        // given
+        List<GaugeValue> gaugeValues = Lists.newArrayList();
+        Random random = new Random(0);
+        long captureTime = 0;
+        for (int i = 0; i < 100; i++) {
+            // includes duplicate capture times and large gaps
+            captureTime += random.nextInt(Integer.MAX_VALUE) * (long) random.nextInt(3);
+            gaugeValues.add(createGaugeValue(captureTime, random.nextGaussian() * Double.MAX_VALUE,
+                    random.nextLong()));
+        }
+        gaugeValues.add(createGaugeValue(captureTime + 1, Double.NaN, 1));
+        gaugeValues.add(createGaugeValue(captureTime + 2, Double.NEGATIVE_INFINITY, 1));
+        // when
+        byte[] block = GaugeValueBlocks.encode(gaugeValues);
+        // then
+        assertThat(decode(block)).isEqualTo(gaugeValues);
+    }
+
+    @Test
+    public void shouldDecodeRange() {
+        // given
+        List<GaugeValue> gaugeValues = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            gaugeValues.add(createGaugeValue(i * 1000, i, 1));
+        }
+        byte[] block = GaugeValueBlocks.encode(gaugeValues);
+        List<GaugeValue> decoded = Lists.newArrayList();
+        // when
+        GaugeValueBlocks.decode(block, 3000, 5000, decoded);
+        // then
+        assertThat(decoded).isEqualTo(gaugeValues.subList(3, 6));
+    }
+
+    private static List<GaugeValue> decode(byte[] block) {
+        List<GaugeValue> gaugeValues = Lists.newArrayList();
+        GaugeValueBlocks.decode(block, Long.MIN_VALUE, Long.MAX_VALUE, gaugeValues);
+        return gaugeValues;
+    }
+
+    private static GaugeValue createGaugeValue(long captureTime, double value, long weight) {
+        return GaugeValue.newBuilder()
+                .setCaptureTime(captureTime)
+                .setValue(value)
+                .setWeight(weight)
+                .build();
+    }
+}
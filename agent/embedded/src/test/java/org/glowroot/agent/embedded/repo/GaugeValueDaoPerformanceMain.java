@@ -0,0 +1,118 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.embedded.repo;
+
+import java.io.File;
+import java.util.List;
+import java.util.Random;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.glowroot.agent.embedded.util.DataSource;
+import org.glowroot.common.util.Clock;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.GaugeValue;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+
+// compares bytes per gauge value and read latency between storing gauge values as individual rows
+// and compacting them into blocks
+public class GaugeValueDaoPerformanceMain {
+
+    private static final Logger logger =
+            LoggerFactory.getLogger(GaugeValueDaoPerformanceMain.class);
+
+    private static final int GAUGE_COUNT = 50;
+    private static final long DURATION_MILLIS = HOURS.toMillis(6);
+    private static final long START_TIME = HOURS.toMillis(24 * 1000);
+
+    private GaugeValueDaoPerformanceMain() {}
+
+    public static void main(String[] args) throws Exception {
+        run(false);
+        run(true);
+    }
+
+    private static void run(boolean compactIntoBlocks) throws Exception {
+        File dir = Files.createTempDir();
+        File dbFile = new File(dir, "data.h2.db");
+        DataSource dataSource = new DataSource(dbFile);
+        MutableClock clock = new MutableClock();
+        GaugeValueDao gaugeValueDao = new GaugeValueDao(dataSource, new GaugeIdDao(dataSource),
+                new GaugeNameDao(dataSource), clock, compactIntoBlocks);
+
+        Random random = new Random(0);
+        double[] values = new double[GAUGE_COUNT];
+        long gaugeValueCount = 0;
+        for (long time = START_TIME; time < START_TIME + DURATION_MILLIS; time += 5000) {
+            // capture time jitter similar to what is seen in practice
+            long captureTime = time + random.nextInt(5);
+            List<GaugeValue> gaugeValues = Lists.newArrayList();
+            for (int i = 0; i < GAUGE_COUNT; i++) {
+                // mix of slowly changing gauges and noisy gauges
+                if (i % 2 == 0) {
+                    values[i] += random.nextInt(10) == 0 ? random.nextInt(1000) : 0;
+                } else {
+                    values[i] = random.nextDouble() * 100;
+                }
+                gaugeValues.add(GaugeValue.newBuilder()
+                        .setGaugeName("test:type=Gauge,name=g" + i + ":Value")
+                        .setCaptureTime(captureTime)
+                        .setValue(values[i])
+                        .setWeight(1)
+                        .build());
+            }
+            clock.currentTimeMillis = captureTime + 1;
+            gaugeValueDao.store(gaugeValues);
+            gaugeValueCount += gaugeValues.size();
+        }
+        dataSource.defrag();
+
+        int readCount = 0;
+        Stopwatch stopwatch = Stopwatch.createStarted();
+        for (int j = 0; j < 10; j++) {
+            for (int i = 0; i < GAUGE_COUNT; i++) {
+                gaugeValueDao.readGaugeValues("", "test:type=Gauge,name=g" + i + ":Value",
+                        START_TIME, START_TIME + DURATION_MILLIS, 0);
+                readCount++;
+            }
+        }
+        long readMicros = stopwatch.elapsed(MICROSECONDS);
+
+        logger.info("compactIntoBlocks: {}", compactIntoBlocks);
+        logger.info("database bytes per gauge value: {}",
+                dbFile.length() / (double) gaugeValueCount);
+        logger.info("average read time (6 hours of 5 second gauge values): {} microseconds",
+                readMicros / readCount);
+        dataSource.close();
+        dbFile.delete();
+        dir.delete();
+    }
+
+    private static class MutableClock extends Clock {
+
+        private long currentTimeMillis;
+
+        @Override
+        public long currentTimeMillis() {
+            return currentTimeMillis;
+        }
+    }
+}
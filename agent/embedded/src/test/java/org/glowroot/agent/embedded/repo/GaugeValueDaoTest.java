@@ -0,0 +1,146 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.embedded.repo;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.agent.embedded.util.DataSource;
+import org.glowroot.common.util.Clock;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.GaugeValue;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class GaugeValueDaoTest {
+
+    private static final String GAUGE_NAME = "test:aaa=bbb:ccc";
+
+    // aligned to all of the block intervals
+    private static final long START_TIME = HOURS.toMillis(24 * 1000);
+
+    private DataSource dataSource;
+    private Clock clock;
+    private GaugeValueDao gaugeValueDao;
+
+    @Before
+    public void beforeEachTest() throws Exception {
+        dataSource = new DataSource();
+        clock = mock(Clock.class);
+        gaugeValueDao = new GaugeValueDao(dataSource, new GaugeIdDao(dataSource),
+                new GaugeNameDao(dataSource), clock);
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        dataSource.close();
+    }
+
+    @Test
+    public void shouldReadCompactedGaugeValues() throws Exception {
+        // given
+        storeGaugeValues(360);
+
+        // when
+        List<GaugeValue> gaugeValues = gaugeValueDao.readGaugeValues("", GAUGE_NAME, START_TIME,
+                START_TIME + HOURS.toMillis(1), 0);
+
+        // then
+        assertThat(dataSource.queryForLong("select count(*) from gauge_value_block_0"))
+                .isGreaterThan(0);
+        assertThat(dataSource.queryForLong("select count(*) from gauge_value_rollup_0"))
+                .isLessThan(360);
+        assertThat(gaugeValues).hasSize(360);
+        for (int i = 0; i < 360; i++) {
+            assertThat(gaugeValues.get(i)).isEqualTo(createGaugeValue(i));
+        }
+    }
+
+    @Test
+    public void shouldReadPartialBlocks() throws Exception {
+        // given
+        storeGaugeValues(360);
+
+        // when
+        List<GaugeValue> gaugeValues = gaugeValueDao.readGaugeValues("", GAUGE_NAME,
+                createGaugeValue(50).getCaptureTime(), createGaugeValue(250).getCaptureTime(), 0);
+
+        // then
+        assertThat(gaugeValues).hasSize(201);
+        for (int i = 0; i < 201; i++) {
+            assertThat(gaugeValues.get(i)).isEqualTo(createGaugeValue(i + 50));
+        }
+    }
+
+    @Test
+    public void shouldReadOldestCaptureTime() throws Exception {
+        // given
+        storeGaugeValues(360);
+
+        // when
+        long oldestCaptureTime = gaugeValueDao.getOldestCaptureTime("", GAUGE_NAME, 0);
+
+        // then
+        assertThat(oldestCaptureTime).isEqualTo(createGaugeValue(0).getCaptureTime());
+    }
+
+    @Test
+    public void shouldDeleteExpiredGaugeValuesFromBlocks() throws Exception {
+        // given
+        storeGaugeValues(360);
+        long blockCount = dataSource.queryForLong("select count(*) from gauge_value_block_0");
+
+        // when
+        gaugeValueDao.deleteBefore(createGaugeValue(90).getCaptureTime(), 0);
+
+        // then
+        assertThat(dataSource.queryForLong("select count(*) from gauge_value_block_0"))
+                .isEqualTo(blockCount - 1);
+        List<GaugeValue> gaugeValues = gaugeValueDao.readGaugeValues("", GAUGE_NAME, START_TIME,
+                START_TIME + HOURS.toMillis(1), 0);
+        assertThat(gaugeValues).hasSize(270);
+        for (int i = 0; i < 270; i++) {
+            assertThat(gaugeValues.get(i)).isEqualTo(createGaugeValue(i + 90));
+        }
+        assertThat(gaugeValueDao.getOldestCaptureTime("", GAUGE_NAME, 0))
+                .isEqualTo(createGaugeValue(90).getCaptureTime());
+    }
+
+    private void storeGaugeValues(int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            GaugeValue gaugeValue = createGaugeValue(i);
+            when(clock.currentTimeMillis()).thenReturn(gaugeValue.getCaptureTime() + 1);
+            gaugeValueDao.store(ImmutableList.of(gaugeValue.toBuilder()
+                    .setGaugeName(GAUGE_NAME)
+                    .build()));
+        }
+    }
+
+    private static GaugeValue createGaugeValue(int i) {
+        return GaugeValue.newBuilder()
+                // with some jitter in the capture times
+                .setCaptureTime(START_TIME + i * 5000 + i % 3)
+                .setValue(1000 + i % 10)
+                .setWeight(1)
+                .build();
+    }
+}
@@ -16,8 +16,10 @@
 package org.glowroot.agent.embedded.repo;
 
 import java.io.File;
+import java.util.List;
 
 import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
@@ -27,12 +29,14 @@ import org.glowroot.agent.collector.Collector.TraceReader;
 import org.glowroot.agent.embedded.util.CappedDatabase;
 import org.glowroot.agent.embedded.util.DataSource;
 import org.glowroot.common.live.ImmutableTracePointFilter;
+import org.glowroot.common.live.LiveTraceRepository.Entries;
 import org.glowroot.common.live.LiveTraceRepository.TracePoint;
 import org.glowroot.common.live.LiveTraceRepository.TracePointFilter;
 import org.glowroot.common.live.StringComparator;
 import org.glowroot.common.model.Result;
 import org.glowroot.common2.repo.ImmutableTraceQuery;
 import org.glowroot.common2.repo.TraceRepository.TraceQuery;
+import org.glowroot.wire.api.model.Proto;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -286,6 +290,52 @@ public class TraceDaoTest {
         assertThat(queryResult.records()).isEmpty();
     }
 
+    @Test
+    public void shouldReadEntriesWithSharedLocationStackTraces() throws Exception {
+        // given
+        Proto.StackTraceElement element1 = Proto.StackTraceElement.newBuilder()
+                .setClassName("a.b.C")
+                .setMethodName("d")
+                .setFileName("C.java")
+                .setLineNumber(11)
+                .build();
+        Proto.StackTraceElement element2 = Proto.StackTraceElement.newBuilder()
+                .setClassName("e.f.G")
+                .setMethodName("h")
+                .setFileName("G.java")
+                .setLineNumber(22)
+                .build();
+        List<Trace.Entry> entries = ImmutableList.of(
+                Trace.Entry.newBuilder()
+                        .setMessage("one")
+                        .addLocationStackTraceElement(element1)
+                        .addLocationStackTraceElement(element2)
+                        .build(),
+                Trace.Entry.newBuilder()
+                        .setMessage("two")
+                        .build(),
+                Trace.Entry.newBuilder()
+                        .setMessage("three")
+                        .addLocationStackTraceElement(element2)
+                        .build(),
+                Trace.Entry.newBuilder()
+                        .setMessage("four")
+                        .addLocationStackTraceElement(element1)
+                        .addLocationStackTraceElement(element2)
+                        .build());
+        TraceReader traceReader =
+                TraceTestData.createTraceReader(TraceTestData.createTraceHeader(), entries);
+        traceDao.store(traceReader);
+
+        // when
+        Entries allEntries = traceDao.readEntries(AGENT_ID, traceReader.traceId());
+        Entries entryPage = traceDao.readEntries(AGENT_ID, traceReader.traceId(), 2, 2);
+
+        // then
+        assertThat(allEntries.entries()).isEqualTo(entries);
+        assertThat(entryPage.entries()).isEqualTo(entries.subList(2, 4));
+    }
+
     @Test
     public void shouldDeletedTrace() throws Exception {
         // given
@@ -18,9 +18,13 @@ package org.glowroot.agent.embedded.util;
 import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
+import java.util.List;
+import java.util.Map;
 import java.util.Random;
 
 import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
 import com.google.common.io.ByteSource;
 import org.junit.After;
 import org.junit.Before;
@@ -28,6 +32,8 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
 
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
 import static com.google.common.base.Charsets.UTF_8;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -152,4 +158,52 @@ public class CappedDatabaseTest {
         assertThat(exceptionClassName).isEqualTo("org.glowroot.agent.embedded.util.CappedDatabase"
                 + "$CappedBlockRolledOverMidReadException");
     }
+
+    @Test
+    public void shouldReadMessagePage() throws Exception {
+        // given
+        List<Trace.Entry> entries = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            entries.add(Trace.Entry.newBuilder()
+                    .setDepth(i % 3)
+                    .setMessage("message " + i)
+                    .build());
+        }
+        long cappedId = cappedDatabase.writeMessages(entries, "test");
+
+        // when
+        List<Trace.Entry> page = cappedDatabase.readMessages(cappedId, Trace.Entry.parser(), 3, 4);
+        List<Trace.Entry> lastPage =
+                cappedDatabase.readMessages(cappedId, Trace.Entry.parser(), 8, 4);
+        List<Trace.Entry> emptyPage =
+                cappedDatabase.readMessages(cappedId, Trace.Entry.parser(), 12, 4);
+
+        // then
+        assertThat(page).containsExactlyElementsOf(entries.subList(3, 7));
+        assertThat(lastPage).containsExactlyElementsOf(entries.subList(8, 10));
+        assertThat(emptyPage).isEmpty();
+    }
+
+    @Test
+    public void shouldReadOnlyGivenIndexes() throws Exception {
+        // given
+        List<Trace.Entry> entries = Lists.newArrayList();
+        for (int i = 0; i < 10; i++) {
+            entries.add(Trace.Entry.newBuilder()
+                    .setDepth(i % 3)
+                    .setMessage("message " + i)
+                    .build());
+        }
+        long cappedId = cappedDatabase.writeMessages(entries, "test");
+
+        // when
+        Map<Integer, Trace.Entry> messages = cappedDatabase.readMessages(cappedId,
+                Trace.Entry.parser(), ImmutableSortedSet.of(1, 2, 7, 12));
+
+        // then
+        assertThat(messages).hasSize(3);
+        assertThat(messages.get(1)).isEqualTo(entries.get(1));
+        assertThat(messages.get(2)).isEqualTo(entries.get(2));
+        assertThat(messages.get(7)).isEqualTo(entries.get(7));
+    }
 }
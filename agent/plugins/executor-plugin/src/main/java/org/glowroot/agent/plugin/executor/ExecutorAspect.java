@@ -152,6 +152,27 @@ public class ExecutorAspect {
         }
     }
 
+    // virtual threads (Java 21+) do not go through any of the public Thread constructors above,
+    // e.g. Thread.startVirtualThread() and Thread.ofVirtual().start()
+    //
+    // the virtual thread's continuation is scheduled (and re-scheduled after each unmount) on its
+    // carrier thread pool using a lambda, which is never woven, so the auxiliary thread context is
+    // only propagated once (to the virtual thread itself) and not to the carrier threads
+    @Pointcut(className = "java.lang.VirtualThread", methodName = "<init>",
+            methodParameterTypes = {"java.util.concurrent.Executor", "java.lang.String", "int",
+                    "java.lang.Runnable"},
+            nestingGroup = "executor-execute")
+    public static class VirtualThreadInitAdvice {
+        @OnReturn
+        public static void onReturn(ThreadContext context, @BindReceiver Thread thread,
+                @SuppressWarnings("unused") @BindParameter @Nullable Object scheduler,
+                @SuppressWarnings("unused") @BindParameter @Nullable String name,
+                @SuppressWarnings("unused") @BindParameter int characteristics,
+                @BindParameter @Nullable Runnable runnable) {
+            onThreadInitCommon(context, thread, runnable);
+        }
+    }
+
     @Pointcut(className = "com.google.common.util.concurrent.ListenableFuture",
             methodName = "addListener",
             methodParameterTypes = {"java.lang.Runnable", "java.util.concurrent.Executor"},
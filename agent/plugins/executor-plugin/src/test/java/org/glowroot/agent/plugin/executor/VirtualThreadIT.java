@@ -0,0 +1,206 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.executor;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import org.glowroot.agent.it.harness.AppUnderTest;
+import org.glowroot.agent.it.harness.Container;
+import org.glowroot.agent.it.harness.TraceEntryMarker;
+import org.glowroot.agent.it.harness.TransactionMarker;
+import org.glowroot.agent.it.harness.impl.JavaagentContainer;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+// virtual threads are only available in Java 21+, so they are created via reflection
+public class VirtualThreadIT {
+
+    private static Container container;
+
+    @BeforeClass
+    public static void setUp() throws Exception {
+        Assume.assumeTrue(isVirtualThreadSupported());
+        // tests only work with javaagent container because they need to weave bootstrap classes
+        // (java.lang.VirtualThread, whose constructor is also used by the virtual threads that
+        // java.util.concurrent.ThreadPerTaskExecutor creates for each submitted task)
+        container = JavaagentContainer.create();
+    }
+
+    @AfterClass
+    public static void tearDown() throws Exception {
+        // need null check in case assumption is false in setUp()
+        if (container != null) {
+            container.close();
+        }
+    }
+
+    @After
+    public void afterEachTest() throws Exception {
+        container.checkAndReset();
+    }
+
+    @Test
+    public void shouldCaptureVirtualThreadPerTaskExecutorSubmit() throws Exception {
+        // when
+        Trace trace = container.execute(DoSubmitToVirtualThreadPerTaskExecutor.class);
+        // then
+        checkTrace(trace);
+    }
+
+    @Test
+    public void shouldCaptureStartVirtualThread() throws Exception {
+        // when
+        Trace trace = container.execute(DoStartVirtualThread.class);
+        // then
+        checkTrace(trace);
+    }
+
+    private static void checkTrace(Trace trace) {
+        Trace.Header header = trace.getHeader();
+        assertThat(header.hasAuxThreadRootTimer()).isTrue();
+        assertThat(header.getAsyncTimerCount()).isZero();
+        assertThat(header.getAuxThreadRootTimer().getName()).isEqualTo("auxiliary thread");
+        assertThat(header.getAuxThreadRootTimer().getCount()).isEqualTo(3);
+        // should be 300ms, but margin of error, esp. in travis builds is high
+        assertThat(header.getAuxThreadRootTimer().getTotalNanos())
+                .isGreaterThanOrEqualTo(MILLISECONDS.toNanos(250));
+        assertThat(header.getAuxThreadRootTimer().getChildTimerCount()).isEqualTo(1);
+        assertThat(header.getAuxThreadRootTimer().getChildTimer(0).getName())
+                .isEqualTo("mock trace entry marker");
+        // thread stats are not available for virtual threads, and since all of the auxiliary
+        // threads are virtual threads, there are no auxiliary thread stats to merge
+        assertThat(header.getAuxThreadStats().getCpuNanos()).isEqualTo(-1);
+        List<Trace.Entry> entries = trace.getEntryList();
+        assertThat(entries).hasSize(6);
+        for (int i = 0; i < entries.size(); i += 2) {
+            assertThat(entries.get(i).getDepth()).isEqualTo(0);
+            assertThat(entries.get(i).getMessage()).isEqualTo("auxiliary thread");
+
+            assertThat(entries.get(i + 1).getDepth()).isEqualTo(1);
+            assertThat(entries.get(i + 1).getMessage())
+                    .isEqualTo("trace entry marker / CreateTraceEntry");
+        }
+    }
+
+    private static boolean isVirtualThreadSupported() {
+        try {
+            Thread.class.getMethod("startVirtualThread", Runnable.class);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    public static class DoSubmitToVirtualThreadPerTaskExecutor
+            implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            Future<Void> future1 = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    new CreateTraceEntry().traceEntryMarker();
+                    return null;
+                }
+            });
+            Future<?> future2 = executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    new CreateTraceEntry().traceEntryMarker();
+                }
+            });
+            Future<Void> future3 = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    new CreateTraceEntry().traceEntryMarker();
+                    return null;
+                }
+            });
+            future1.get();
+            future2.get();
+            future3.get();
+            executor.shutdown();
+            executor.awaitTermination(10, SECONDS);
+        }
+    }
+
+    public static class DoStartVirtualThread implements AppUnderTest, TransactionMarker {
+
+        @Override
+        public void executeApp() throws Exception {
+            transactionMarker();
+        }
+
+        @Override
+        public void transactionMarker() throws Exception {
+            Method startVirtualThreadMethod =
+                    Thread.class.getMethod("startVirtualThread", Runnable.class);
+            Thread thread1 = (Thread) startVirtualThreadMethod.invoke(null, new Runnable() {
+                @Override
+                public void run() {
+                    new CreateTraceEntry().traceEntryMarker();
+                }
+            });
+            Thread thread2 = (Thread) startVirtualThreadMethod.invoke(null, new Runnable() {
+                @Override
+                public void run() {
+                    new CreateTraceEntry().traceEntryMarker();
+                }
+            });
+            Thread thread3 = (Thread) startVirtualThreadMethod.invoke(null, new Runnable() {
+                @Override
+                public void run() {
+                    new CreateTraceEntry().traceEntryMarker();
+                }
+            });
+            thread1.join();
+            thread2.join();
+            thread3.join();
+        }
+    }
+
+    private static class CreateTraceEntry implements TraceEntryMarker {
+
+        @Override
+        public void traceEntryMarker() {
+            try {
+                MILLISECONDS.sleep(100);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+}
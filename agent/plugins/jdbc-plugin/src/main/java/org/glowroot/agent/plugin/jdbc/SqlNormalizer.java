@@ -0,0 +1,359 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import org.glowroot.agent.plugin.api.checker.Nullable;
+
+// replaces string and numeric literals with "?" and collapses lists of literals inside of
+// "in (...)" to a single "?", so that non-prepared statements which differ only by their literal
+// values are grouped under the same query text
+//
+// this is a lexer only (not a parser), it understands just enough sql to not touch quoted
+// identifiers, comments or literal-looking parts of identifiers (e.g. "table1")
+class SqlNormalizer {
+
+    private SqlNormalizer() {}
+
+    // returns the original string (without allocating) if there is nothing to replace
+    static String normalize(String sql) {
+        @Nullable
+        StringBuilder sb = null;
+        int copiedUpTo = 0;
+        int length = sql.length();
+        int i = 0;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                int end = skipStringLiteral(sql, i);
+                sb = append(sb, sql, copiedUpTo, i);
+                sb.append('?');
+                copiedUpTo = end;
+                i = end;
+            } else if (c == '"' || c == '`') {
+                i = skipQuoted(sql, i, c);
+            } else if (c == '$' && dollarQuoteTagEnd(sql, i) != -1) {
+                // e.g. postgres $$abc$$ or $tag$abc$tag$
+                int end = skipDollarQuoted(sql, i, dollarQuoteTagEnd(sql, i));
+                sb = append(sb, sql, copiedUpTo, i);
+                sb.append('?');
+                copiedUpTo = end;
+                i = end;
+            } else if (c == '-' && isNextChar(sql, i, '-')) {
+                i = skipLineComment(sql, i);
+            } else if (c == '/' && isNextChar(sql, i, '*')) {
+                i = skipBlockComment(sql, i);
+            } else if (isNumberStart(sql, i)) {
+                int end = skipNumber(sql, i);
+                if (end == -1) {
+                    // not a number, e.g. mysql allows identifiers that start with a digit
+                    i = skipIdentifier(sql, i + 1);
+                } else {
+                    sb = append(sb, sql, copiedUpTo, i);
+                    sb.append('?');
+                    copiedUpTo = end;
+                    i = end;
+                }
+            } else if (isIdentifierPart(c)) {
+                int end = skipIdentifier(sql, i);
+                if (end - i == 1 && isPrefixedStringLiteral(sql, i)) {
+                    // e.g. N'abc' or X'0F'
+                    int literalEnd = skipPrefixedStringLiteral(sql, i);
+                    sb = append(sb, sql, copiedUpTo, i);
+                    sb.append('?');
+                    copiedUpTo = literalEnd;
+                    i = literalEnd;
+                    continue;
+                }
+                if (end - i == 2 && sql.regionMatches(true, i, "in", 0, 2)) {
+                    int listEnd = skipInList(sql, end);
+                    if (listEnd != -1) {
+                        int openParen = sql.indexOf('(', end);
+                        sb = append(sb, sql, copiedUpTo, openParen + 1);
+                        sb.append("?)");
+                        copiedUpTo = listEnd;
+                        i = listEnd;
+                        continue;
+                    }
+                }
+                i = end;
+            } else {
+                i++;
+            }
+        }
+        if (sb == null) {
+            return sql;
+        }
+        sb.append(sql, copiedUpTo, length);
+        return sb.toString();
+    }
+
+    private static StringBuilder append(@Nullable StringBuilder sb, String sql, int from, int to) {
+        if (sb == null) {
+            sb = new StringBuilder(sql.length());
+        }
+        sb.append(sql, from, to);
+        return sb;
+    }
+
+    // returns index after the closing paren, or -1 if the "in" is not followed by a list made up
+    // entirely of literals (e.g. a sub-query)
+    private static int skipInList(String sql, int afterIn) {
+        int length = sql.length();
+        int i = skipWhitespace(sql, afterIn);
+        if (i == length || sql.charAt(i) != '(') {
+            return -1;
+        }
+        i++;
+        while (true) {
+            i = skipWhitespace(sql, i);
+            if (i == length) {
+                return -1;
+            }
+            char c = sql.charAt(i);
+            if (c == '-' || c == '+') {
+                i++;
+            }
+            int itemEnd;
+            if (i == length) {
+                return -1;
+            } else if (sql.charAt(i) == '\'') {
+                itemEnd = skipStringLiteral(sql, i);
+            } else if (sql.charAt(i) == '?') {
+                itemEnd = i + 1;
+            } else if (isNumberStart(sql, i)) {
+                itemEnd = skipNumber(sql, i);
+            } else if (isPrefixedStringLiteral(sql, i)) {
+                itemEnd = skipPrefixedStringLiteral(sql, i);
+            } else if (sql.charAt(i) == '$' && dollarQuoteTagEnd(sql, i) != -1) {
+                itemEnd = skipDollarQuoted(sql, i, dollarQuoteTagEnd(sql, i));
+            } else {
+                return -1;
+            }
+            if (itemEnd == -1) {
+                return -1;
+            }
+            i = skipWhitespace(sql, itemEnd);
+            if (i == length) {
+                return -1;
+            }
+            c = sql.charAt(i);
+            if (c == ')') {
+                return i + 1;
+            }
+            if (c != ',') {
+                return -1;
+            }
+            i++;
+        }
+    }
+
+    // mysql (by default) treats backslash as an escape character inside of string literals, while
+    // standard sql (and postgres without the E prefix) does not, so the backslash interpretation
+    // is tried first, falling back to the standard interpretation if that leaves the literal
+    // unterminated (e.g. standard sql 'C:\')
+    //
+    // returns index after the closing quote (or the end of the string if unterminated)
+    private static int skipStringLiteral(String sql, int openQuote) {
+        int end = skipQuoted(sql, openQuote, '\'', true);
+        if (end == -1) {
+            end = skipQuoted(sql, openQuote, '\'', false);
+        }
+        return end == -1 ? sql.length() : end;
+    }
+
+    // returns index after the closing quote (or the end of the string if unterminated)
+    private static int skipPrefixedStringLiteral(String sql, int prefix) {
+        char c = sql.charAt(prefix);
+        if (c == 'E' || c == 'e') {
+            // postgres escape string, backslash is always an escape character
+            int end = skipQuoted(sql, prefix + 1, '\'', true);
+            return end == -1 ? sql.length() : end;
+        }
+        return skipStringLiteral(sql, prefix + 1);
+    }
+
+    // returns index after the closing quote (or the end of the string if unterminated)
+    private static int skipQuoted(String sql, int openQuote, char quote) {
+        int end = skipQuoted(sql, openQuote, quote, false);
+        return end == -1 ? sql.length() : end;
+    }
+
+    // returns index after the closing quote, or -1 if unterminated
+    private static int skipQuoted(String sql, int openQuote, char quote,
+            boolean backslashEscapes) {
+        int length = sql.length();
+        int i = openQuote + 1;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '\\' && backslashEscapes) {
+                i += 2;
+                continue;
+            }
+            if (c == quote) {
+                if (isNextChar(sql, i, quote)) {
+                    // escaped quote
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    // returns index of the second "$" of the opening dollar quote tag (e.g. "$$" or "$tag$"), or -1
+    // if not the start of a dollar quoted string (e.g. postgres positional parameter "$1" or an
+    // identifier containing "$")
+    private static int dollarQuoteTagEnd(String sql, int start) {
+        if (start > 0 && isIdentifierPart(sql.charAt(start - 1))) {
+            return -1;
+        }
+        int length = sql.length();
+        int i = start + 1;
+        while (i < length) {
+            char c = sql.charAt(i);
+            if (c == '$') {
+                return i;
+            }
+            if (!Character.isLetter(c) && c != '_' && (i == start + 1 || !isDigit(c))) {
+                return -1;
+            }
+            i++;
+        }
+        return -1;
+    }
+
+    // returns index after the closing dollar quote tag (or the end of the string if unterminated)
+    private static int skipDollarQuoted(String sql, int start, int tagEnd) {
+        String tag = sql.substring(start, tagEnd + 1);
+        int end = sql.indexOf(tag, tagEnd + 1);
+        return end == -1 ? sql.length() : end + tag.length();
+    }
+
+    private static int skipLineComment(String sql, int start) {
+        int end = sql.indexOf('\n', start + 2);
+        return end == -1 ? sql.length() : end + 1;
+    }
+
+    private static int skipBlockComment(String sql, int start) {
+        int end = sql.indexOf("*/", start + 2);
+        return end == -1 ? sql.length() : end + 2;
+    }
+
+    // returns index after the number, or -1 if the number runs directly into identifier characters
+    private static int skipNumber(String sql, int start) {
+        int length = sql.length();
+        int i = start;
+        if (sql.charAt(i) == '0' && i + 2 < length && (sql.charAt(i + 1) == 'x'
+                || sql.charAt(i + 1) == 'X') && isHexDigit(sql.charAt(i + 2))) {
+            i += 2;
+            while (i < length && isHexDigit(sql.charAt(i))) {
+                i++;
+            }
+        } else {
+            i = skipDigits(sql, i);
+            if (i < length && sql.charAt(i) == '.') {
+                i = skipDigits(sql, i + 1);
+            }
+            if (i < length && (sql.charAt(i) == 'e' || sql.charAt(i) == 'E')) {
+                int j = i + 1;
+                if (j < length && (sql.charAt(j) == '+' || sql.charAt(j) == '-')) {
+                    j++;
+                }
+                if (j < length && isDigit(sql.charAt(j))) {
+                    i = skipDigits(sql, j);
+                }
+            }
+        }
+        if (i < length && isIdentifierPart(sql.charAt(i))) {
+            return -1;
+        }
+        return i;
+    }
+
+    private static int skipDigits(String sql, int start) {
+        int length = sql.length();
+        int i = start;
+        while (i < length && isDigit(sql.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipIdentifier(String sql, int start) {
+        int length = sql.length();
+        int i = start;
+        while (i < length && isIdentifierPart(sql.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipWhitespace(String sql, int start) {
+        int length = sql.length();
+        int i = start;
+        while (i < length && Character.isWhitespace(sql.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isNumberStart(String sql, int i) {
+        char c = sql.charAt(i);
+        if (isDigit(c)) {
+            return true;
+        }
+        // e.g. ".5", but not "t.col"
+        return c == '.' && i + 1 < sql.length() && isDigit(sql.charAt(i + 1))
+                && (i == 0 || !isIdentifierPart(sql.charAt(i - 1)));
+    }
+
+    private static boolean isPrefixedStringLiteral(String sql, int i) {
+        if (!isNextChar(sql, i, '\'')) {
+            return false;
+        }
+        switch (sql.charAt(i)) {
+            case 'N':
+            case 'n':
+            case 'X':
+            case 'x':
+            case 'B':
+            case 'b':
+            case 'E':
+            case 'e':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isNextChar(String sql, int i, char c) {
+        return i + 1 < sql.length() && sql.charAt(i + 1) == c;
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '#' || c == '@';
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isHexDigit(char c) {
+        return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
+    }
+}
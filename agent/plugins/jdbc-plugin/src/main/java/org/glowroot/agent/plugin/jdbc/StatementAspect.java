@@ -60,6 +60,9 @@ public class StatementAspect {
     private static final BooleanProperty captureStatementClose =
             configService.getBooleanProperty("captureStatementClose");
 
+    private static final BooleanProperty normalizeStatementLiterals =
+            configService.getBooleanProperty("normalizeStatementLiterals");
+
     private static boolean captureBindParameters;
 
     static {
@@ -315,7 +318,7 @@ public class StatementAspect {
                 // this shouldn't happen since just checked hasGlowrootStatementMirror() above
                 return null;
             }
-            QueryEntry query = context.startQueryEntry(QUERY_TYPE, sql,
+            QueryEntry query = context.startQueryEntry(QUERY_TYPE, normalizeIfEnabled(sql),
                     QueryMessageSupplier.create("jdbc query: "), timerName);
             mirror.setLastQueryEntry(query);
             return query;
@@ -585,7 +588,7 @@ public class StatementAspect {
                     if (!first) {
                         sb.append(", ");
                     }
-                    sb.append(sql);
+                    sb.append(normalizeIfEnabled(sql));
                     first = false;
                 }
                 concatenated = sb.toString();
@@ -649,4 +652,11 @@ public class StatementAspect {
             }
         }
     }
+
+    private static String normalizeIfEnabled(String sql) {
+        if (normalizeStatementLiterals.value()) {
+            return SqlNormalizer.normalize(sql);
+        }
+        return sql;
+    }
 }
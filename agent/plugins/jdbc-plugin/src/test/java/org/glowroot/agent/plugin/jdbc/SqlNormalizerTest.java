@@ -0,0 +1,97 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.jdbc;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SqlNormalizerTest {
+
+    @Test
+    public void shouldReplaceLiterals() {
+        assertThat(SqlNormalizer.normalize("select * from employee where id = 123"))
+                .isEqualTo("select * from employee where id = ?");
+        assertThat(SqlNormalizer.normalize("select * from employee where name = 'it''s'"
+                + " and age > 21.5"))
+                        .isEqualTo("select * from employee where name = ? and age > ?");
+        assertThat(SqlNormalizer.normalize("select x from t where a = -5 and b = 1e10"
+                + " and c = 0x1F and d = .5 and e = N'abc' and f = X'0F'"))
+                        .isEqualTo("select x from t where a = -? and b = ? and c = ? and d = ?"
+                                + " and e = ? and f = ?");
+        assertThat(SqlNormalizer.normalize("insert into t values (1, 'a', null)"))
+                .isEqualTo("insert into t values (?, ?, null)");
+    }
+
+    @Test
+    public void shouldCollapseInLists() {
+        assertThat(SqlNormalizer.normalize("select * from t where x in (1, 2, 3)"
+                + " and y IN ('a','b') and z in (select id from t2)"))
+                        .isEqualTo("select * from t where x in (?) and y IN (?)"
+                                + " and z in (select id from t2)");
+    }
+
+    @Test
+    public void shouldNotReplaceIdentifiersOrComments() {
+        assertThat(SqlNormalizer.normalize("select \"col1\", `col2`, t1.c2 from tab1"
+                + " /* hint 42 */ -- comment 7"))
+                        .isEqualTo("select \"col1\", `col2`, t1.c2 from tab1"
+                                + " /* hint 42 */ -- comment 7");
+    }
+
+    @Test
+    public void shouldHandleBackslashEscapes() {
+        // mysql
+        assertThat(SqlNormalizer.normalize("select * from t where a = 'it\\'s' and b = 1"))
+                .isEqualTo("select * from t where a = ? and b = ?");
+        assertThat(SqlNormalizer.normalize("select * from t where a in ('it\\'s', 'x')"))
+                .isEqualTo("select * from t where a in (?)");
+        // postgres
+        assertThat(SqlNormalizer.normalize("select * from t where a = E'it\\'s' and b = 1"))
+                .isEqualTo("select * from t where a = ? and b = ?");
+        // standard sql, where backslash is not an escape character
+        assertThat(SqlNormalizer.normalize("select * from t where a = 'C:\\'"))
+                .isEqualTo("select * from t where a = ?");
+    }
+
+    @Test
+    public void shouldHandleDollarQuoting() {
+        assertThat(SqlNormalizer.normalize("select * from t where a = $$it's$$ and b = 1"))
+                .isEqualTo("select * from t where a = ? and b = ?");
+        assertThat(SqlNormalizer.normalize("select * from t where a = $x$a $$ b$x$ and b = 1"))
+                .isEqualTo("select * from t where a = ? and b = ?");
+        assertThat(SqlNormalizer.normalize("select * from t where a in ($$x$$, $$y$$)"))
+                .isEqualTo("select * from t where a in (?)");
+    }
+
+    @Test
+    public void shouldNotReplacePositionalParametersOrDollarIdentifiers() {
+        String sql = "select a$b from t where c = $1 and d = $2";
+        assertThat(SqlNormalizer.normalize(sql)).isSameAs(sql);
+    }
+
+    @Test
+    public void shouldReturnSameInstanceWhenNothingToReplace() {
+        String sql = "select * from employee";
+        assertThat(SqlNormalizer.normalize(sql)).isSameAs(sql);
+    }
+
+    @Test
+    public void shouldHandleUnterminatedLiteral() {
+        assertThat(SqlNormalizer.normalize("select * from t where c = 'abc"))
+                .isEqualTo("select * from t where c = ?");
+    }
+}
@@ -20,9 +20,7 @@ import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 import org.glowroot.agent.plugin.api.checker.Nullable;
 import org.glowroot.agent.plugin.api.util.ImmutableList;
@@ -42,7 +40,7 @@ class DetailCapture {
 
     static Map<String, Object> captureRequestParameters(
             Map</*@Nullable*/ String, /*@Nullable*/ Object> requestParameters) {
-        List<Pattern> capturePatterns = ServletPluginProperties.captureRequestParameters();
+        WildcardMatcher captureMatcher = ServletPluginProperties.captureRequestParameters();
         Map<String, Object> map = new HashMap<String, Object>();
         for (Map.Entry</*@Nullable*/ String, /*@Nullable*/ Object> entry : requestParameters
                 .entrySet()) {
@@ -50,9 +48,7 @@ class DetailCapture {
             if (name == null) {
                 continue;
             }
-            // converted to lower case for case-insensitive matching (patterns are lower case)
-            String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-            if (!matchesOneOf(keyLowerCase, capturePatterns)) {
+            if (!captureMatcher.matches(name)) {
                 continue;
             }
             @Nullable
@@ -69,8 +65,8 @@ class DetailCapture {
         if (e == null) {
             return Collections.emptyMap();
         }
-        List<Pattern> capturePatterns = ServletPluginProperties.captureRequestParameters();
-        List<Pattern> maskPatterns = ServletPluginProperties.maskRequestParameters();
+        WildcardMatcher captureMatcher = ServletPluginProperties.captureRequestParameters();
+        WildcardMatcher maskMatcher = ServletPluginProperties.maskRequestParameters();
         Map<String, Object> map = new HashMap<String, Object>();
         while (e.hasMoreElements()) {
             Object nameObj = e.nextElement();
@@ -81,12 +77,10 @@ class DetailCapture {
                 continue;
             }
             String name = (String) nameObj;
-            // converted to lower case for case-insensitive matching (patterns are lower case)
-            String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-            if (!matchesOneOf(keyLowerCase, capturePatterns)) {
+            if (!captureMatcher.matches(name)) {
                 continue;
             }
-            if (matchesOneOf(keyLowerCase, maskPatterns)) {
+            if (maskMatcher.matches(name)) {
                 map.put(name, "****");
                 continue;
             }
@@ -117,8 +111,8 @@ class DetailCapture {
     }
 
     static Map<String, Object> captureRequestHeaders(HttpServletRequest request) {
-        List<Pattern> capturePatterns = ServletPluginProperties.captureRequestHeaders();
-        if (capturePatterns.isEmpty()) {
+        WildcardMatcher captureMatcher = ServletPluginProperties.captureRequestHeaders();
+        if (captureMatcher.isEmpty()) {
             return Collections.emptyMap();
         }
         Map<String, Object> requestHeaders = new HashMap<String, Object>();
@@ -131,9 +125,7 @@ class DetailCapture {
             if (name == null) {
                 continue;
             }
-            // converted to lower case for case-insensitive matching (patterns are lower case)
-            String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-            if (!matchesOneOf(keyLowerCase, capturePatterns)) {
+            if (!captureMatcher.matches(name)) {
                 continue;
             }
             Enumeration</*@Nullable*/ String> values = request.getHeaders(name);
@@ -179,15 +171,6 @@ class DetailCapture {
         }
     }
 
-    static boolean matchesOneOf(String key, List<Pattern> patterns) {
-        for (Pattern pattern : patterns) {
-            if (pattern.matcher(key).matches()) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     private static void captureRequestHeader(String name, Enumeration</*@Nullable*/ String> values,
             Map<String, Object> requestHeaders) {
         if (!values.hasMoreElements()) {
@@ -17,12 +17,9 @@ package org.glowroot.agent.plugin.servlet;
 
 import java.util.HashMap;
 import java.util.LinkedHashMap;
-import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
-import java.util.regex.Pattern;
 
 import org.glowroot.agent.plugin.api.Message;
 import org.glowroot.agent.plugin.api.MessageSupplier;
@@ -84,16 +81,16 @@ class ServletMessageSupplier extends MessageSupplier implements ServletRequestIn
 
     @Override
     public Message get() {
-        List<Pattern> maskPatterns = ServletPluginProperties.maskRequestParameters();
+        WildcardMatcher maskMatcher = ServletPluginProperties.maskRequestParameters();
         Map<String, Object> detail = new LinkedHashMap<String, Object>();
         detail.put("Request http method", requestMethod);
-        String maskedRequestQueryString = maskRequestQueryString(requestQueryString, maskPatterns);
+        String maskedRequestQueryString = maskRequestQueryString(requestQueryString, maskMatcher);
         if (maskedRequestQueryString != null) {
             // including empty query string since that means request ended with ?
             detail.put("Request query string", maskedRequestQueryString);
         }
         Map<String, Object> maskedRequestParameters =
-                maskRequestParameters(requestParameters, maskPatterns);
+                maskRequestParameters(requestParameters, maskMatcher);
         if (maskedRequestParameters != null && !maskedRequestParameters.isEmpty()) {
             detail.put("Request parameters", maskedRequestParameters);
         }
@@ -250,11 +247,11 @@ class ServletMessageSupplier extends MessageSupplier implements ServletRequestIn
     }
 
     static @Nullable String maskRequestQueryString(@Nullable String requestQueryString,
-            List<Pattern> maskPatterns) {
+            WildcardMatcher maskMatcher) {
         if (requestQueryString == null) {
             return null;
         }
-        if (maskPatterns.isEmpty()) {
+        if (maskMatcher.isEmpty()) {
             return requestQueryString;
         }
         StringBuilder sb = new StringBuilder(requestQueryString.length());
@@ -278,10 +275,7 @@ class ServletMessageSupplier extends MessageSupplier implements ServletRequestIn
                     } else {
                         String key = sb.substring(keyStartIndex, sb.length());
                         sb.append('=');
-                        // converted to lower case for case-insensitive matching
-                        // (patterns are lower case)
-                        String keyLowerCase = key.toLowerCase(Locale.ENGLISH);
-                        if (DetailCapture.matchesOneOf(keyLowerCase, maskPatterns)) {
+                        if (maskMatcher.matches(key)) {
                             inMaskedValue = true;
                             sb.append(MASK_TEXT);
                             existMaskedParameters = true;
@@ -304,19 +298,17 @@ class ServletMessageSupplier extends MessageSupplier implements ServletRequestIn
     }
 
     private static @Nullable Map<String, Object> maskRequestParameters(
-            @Nullable Map<String, Object> requestParameters, List<Pattern> maskPatterns) {
+            @Nullable Map<String, Object> requestParameters, WildcardMatcher maskMatcher) {
         if (requestParameters == null) {
             return null;
         }
-        if (maskPatterns.isEmpty()) {
+        if (maskMatcher.isEmpty()) {
             return requestParameters;
         }
         Map<String, Object> maskedRequestParameters = new LinkedHashMap<String, Object>();
         for (Map.Entry<String, Object> entry : requestParameters.entrySet()) {
             String name = entry.getKey();
-            // converted to lower case for case-insensitive matching (patterns are lower case)
-            String keyLowerCase = name.toLowerCase(Locale.ENGLISH);
-            if (DetailCapture.matchesOneOf(keyLowerCase, maskPatterns)) {
+            if (maskMatcher.matches(name)) {
                 maskedRequestParameters.put(name, MASK_TEXT);
             } else {
                 maskedRequestParameters.put(name, entry.getValue());
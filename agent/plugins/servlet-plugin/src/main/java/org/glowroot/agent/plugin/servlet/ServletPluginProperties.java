@@ -19,9 +19,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
 import java.util.Set;
-import java.util.regex.Pattern;
 
 import org.glowroot.agent.plugin.api.Agent;
 import org.glowroot.agent.plugin.api.checker.Nullable;
@@ -36,9 +34,9 @@ class ServletPluginProperties {
 
     private static final ConfigService configService = Agent.getConfigService("servlet");
 
-    private static List<Pattern> captureRequestParameters = Collections.emptyList();
-    private static List<Pattern> maskRequestParameters = Collections.emptyList();
-    private static List<Pattern> captureRequestHeaders = Collections.emptyList();
+    private static WildcardMatcher captureRequestParameters = WildcardMatcher.EMPTY;
+    private static WildcardMatcher maskRequestParameters = WildcardMatcher.EMPTY;
+    private static WildcardMatcher captureRequestHeaders = WildcardMatcher.EMPTY;
 
     private static boolean someRequestHostAndPortDetail;
     private static boolean captureRequestRemoteAddress;
@@ -50,7 +48,7 @@ class ServletPluginProperties {
     private static boolean captureRequestServerHostname;
     private static boolean captureRequestServerPort;
 
-    private static List<Pattern> captureResponseHeaders = Collections.emptyList();
+    private static WildcardMatcher captureResponseHeaders = WildcardMatcher.EMPTY;
     private static boolean captureResponseHeadersNonEmpty;
     private static boolean captureContentLengthResponseHeader;
     private static boolean captureContentTypeResponseHeader;
@@ -71,15 +69,15 @@ class ServletPluginProperties {
 
     private ServletPluginProperties() {}
 
-    static List<Pattern> captureRequestParameters() {
+    static WildcardMatcher captureRequestParameters() {
         return captureRequestParameters;
     }
 
-    static List<Pattern> maskRequestParameters() {
+    static WildcardMatcher maskRequestParameters() {
         return maskRequestParameters;
     }
 
-    static List<Pattern> captureRequestHeaders() {
+    static WildcardMatcher captureRequestHeaders() {
         return captureRequestHeaders;
     }
 
@@ -119,7 +117,7 @@ class ServletPluginProperties {
         return captureRequestServerPort;
     }
 
-    static List<Pattern> captureResponseHeaders() {
+    static WildcardMatcher captureResponseHeaders() {
         return captureResponseHeaders;
     }
 
@@ -215,9 +213,9 @@ class ServletPluginProperties {
         }
 
         private static void recalculateProperties() {
-            captureRequestParameters = buildPatternList("captureRequestParameters");
-            maskRequestParameters = buildPatternList("maskRequestParameters");
-            captureRequestHeaders = buildPatternList("captureRequestHeaders");
+            captureRequestParameters = buildWildcardMatcher("captureRequestParameters");
+            maskRequestParameters = buildWildcardMatcher("maskRequestParameters");
+            captureRequestHeaders = buildWildcardMatcher("captureRequestHeaders");
             captureRequestRemoteAddress =
                     configService.getBooleanProperty("captureRequestRemoteAddr").value();
             captureRequestRemoteHostname =
@@ -239,14 +237,14 @@ class ServletPluginProperties {
                             || captureRequestRemotePort || captureRequestLocalAddress
                             || captureRequestLocalHostname || captureRequestLocalPort
                             || captureRequestServerHostname || captureRequestServerPort;
-            captureResponseHeaders = buildPatternList("captureResponseHeaders");
+            captureResponseHeaders = buildWildcardMatcher("captureResponseHeaders");
             captureResponseHeadersNonEmpty = !captureResponseHeaders.isEmpty();
             captureContentLengthResponseHeader =
-                    DetailCapture.matchesOneOf("content-length", captureResponseHeaders);
+                    captureResponseHeaders.matches("content-length");
             captureContentTypeResponseHeader =
-                    DetailCapture.matchesOneOf("content-type", captureResponseHeaders);
+                    captureResponseHeaders.matches("content-type");
             captureContentLanguageResponseHeader =
-                    DetailCapture.matchesOneOf("content-language", captureResponseHeaders);
+                    captureResponseHeaders.matches("content-language");
             userAttributePath = buildSessionAttributePath(
                     configService.getStringProperty("sessionUserAttribute").value());
             captureSessionAttributePaths = buildSessionAttributePaths(
@@ -258,14 +256,8 @@ class ServletPluginProperties {
                     configService.getBooleanProperty("traceErrorOn4xxResponseCode").value();
         }
 
-        private static List<Pattern> buildPatternList(String propertyName) {
-            List<String> values = configService.getListProperty(propertyName).value();
-            List<Pattern> patterns = new ArrayList<Pattern>();
-            for (String value : values) {
-                // converted to lower case for case-insensitive matching
-                patterns.add(buildRegexPattern(value.trim().toLowerCase(Locale.ENGLISH)));
-            }
-            return ImmutableList.copyOf(patterns);
+        private static WildcardMatcher buildWildcardMatcher(String propertyName) {
+            return WildcardMatcher.compile(configService.getListProperty(propertyName).value());
         }
 
         private static List<SessionAttributePath> buildSessionAttributePaths(
@@ -302,13 +294,5 @@ class ServletPluginProperties {
             }
             return ImmutableSet.copyOf(names);
         }
-
-        private static Pattern buildRegexPattern(String wildcardPattern) {
-            // convert * into .* and quote the rest of the text using \Q...\E
-            String regex = "\\Q" + wildcardPattern.replace("*", "\\E.*\\Q") + "\\E";
-            // strip off unnecessary \\Q\\E in case * appeared at beginning or end of part
-            regex = regex.replace("\\Q\\E", "");
-            return Pattern.compile(regex);
-        }
     }
 }
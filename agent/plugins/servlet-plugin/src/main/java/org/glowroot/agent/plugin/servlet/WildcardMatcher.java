@@ -0,0 +1,164 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.servlet;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+// matches names (request parameter names, request and response header names) case-insensitively
+// against a list of wildcard patterns
+//
+// the common wildcard pattern shapes ("abc", "abc*", "*abc" and "*abc*") are matched using plain
+// string operations instead of regular expressions, and since the same small set of names is seen
+// over and over, the result is cached per distinct name (which also saves lower casing the name)
+class WildcardMatcher {
+
+    static final WildcardMatcher EMPTY = compile(new ArrayList<String>());
+
+    // the cache is not bounded by eviction, but instead stops growing once full, which protects
+    // against unbounded growth from (e.g. attacker controlled) random parameter names
+    private static final int CACHE_MAX_SIZE = 1000;
+
+    private final boolean empty;
+    private final boolean matchAll;
+    private final Set<String> exacts;
+    private final String[] prefixes;
+    private final String[] suffixes;
+    private final String[] contains;
+    private final Pattern[] patterns;
+
+    private final ConcurrentMap<String, Boolean> cache = new ConcurrentHashMap<String, Boolean>();
+
+    private WildcardMatcher(boolean empty, boolean matchAll, Set<String> exacts,
+            List<String> prefixes, List<String> suffixes, List<String> contains,
+            List<Pattern> patterns) {
+        this.empty = empty;
+        this.matchAll = matchAll;
+        this.exacts = exacts;
+        this.prefixes = prefixes.toArray(new String[prefixes.size()]);
+        this.suffixes = suffixes.toArray(new String[suffixes.size()]);
+        this.contains = contains.toArray(new String[contains.size()]);
+        this.patterns = patterns.toArray(new Pattern[patterns.size()]);
+    }
+
+    boolean isEmpty() {
+        return empty;
+    }
+
+    boolean matches(String name) {
+        if (empty) {
+            return false;
+        }
+        if (matchAll) {
+            return true;
+        }
+        Boolean cached = cache.get(name);
+        if (cached != null) {
+            return cached;
+        }
+        // converted to lower case for case-insensitive matching (patterns are lower case)
+        boolean matches = matchesLowerCase(name.toLowerCase(Locale.ENGLISH));
+        if (cache.size() < CACHE_MAX_SIZE) {
+            cache.put(name, matches);
+        }
+        return matches;
+    }
+
+    private boolean matchesLowerCase(String name) {
+        if (exacts.contains(name)) {
+            return true;
+        }
+        for (String prefix : prefixes) {
+            if (name.startsWith(prefix)) {
+                return true;
+            }
+        }
+        for (String suffix : suffixes) {
+            if (name.endsWith(suffix)) {
+                return true;
+            }
+        }
+        for (String part : contains) {
+            if (name.contains(part)) {
+                return true;
+            }
+        }
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(name).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static WildcardMatcher compile(List<String> wildcardPatterns) {
+        boolean matchAll = false;
+        Set<String> exacts = new HashSet<String>();
+        List<String> prefixes = new ArrayList<String>();
+        List<String> suffixes = new ArrayList<String>();
+        List<String> contains = new ArrayList<String>();
+        List<Pattern> patterns = new ArrayList<Pattern>();
+        for (String value : wildcardPatterns) {
+            // converted to lower case for case-insensitive matching
+            String wildcardPattern = value.trim().toLowerCase(Locale.ENGLISH);
+            int firstIndex = wildcardPattern.indexOf('*');
+            if (firstIndex == -1) {
+                exacts.add(wildcardPattern);
+                continue;
+            }
+            String inner = stripLeadingAndTrailingStars(wildcardPattern);
+            if (inner.isEmpty()) {
+                matchAll = true;
+            } else if (inner.indexOf('*') != -1) {
+                patterns.add(buildRegexPattern(wildcardPattern));
+            } else if (wildcardPattern.startsWith("*") && wildcardPattern.endsWith("*")) {
+                contains.add(inner);
+            } else if (wildcardPattern.endsWith("*")) {
+                prefixes.add(inner);
+            } else {
+                suffixes.add(inner);
+            }
+        }
+        return new WildcardMatcher(wildcardPatterns.isEmpty(), matchAll, exacts, prefixes,
+                suffixes, contains, patterns);
+    }
+
+    private static String stripLeadingAndTrailingStars(String wildcardPattern) {
+        int start = 0;
+        int end = wildcardPattern.length();
+        while (start < end && wildcardPattern.charAt(start) == '*') {
+            start++;
+        }
+        while (end > start && wildcardPattern.charAt(end - 1) == '*') {
+            end--;
+        }
+        return wildcardPattern.substring(start, end);
+    }
+
+    private static Pattern buildRegexPattern(String wildcardPattern) {
+        // convert * into .* and quote the rest of the text using \Q...\E
+        String regex = "\\Q" + wildcardPattern.replace("*", "\\E.*\\Q") + "\\E";
+        // strip off unnecessary \\Q\\E in case * appeared at beginning or end of part
+        regex = regex.replace("\\Q\\E", "");
+        return Pattern.compile(regex);
+    }
+}
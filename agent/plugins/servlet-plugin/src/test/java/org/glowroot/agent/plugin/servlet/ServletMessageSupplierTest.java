@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 the original author or authors.
+ * Copyright 2017-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,9 +15,6 @@
  */
 package org.glowroot.agent.plugin.servlet;
 
-import java.util.List;
-import java.util.regex.Pattern;
-
 import com.google.common.collect.ImmutableList;
 import org.junit.Test;
 
@@ -28,11 +25,11 @@ public class ServletMessageSupplierTest {
     @Test
     public void shouldMask() {
         // given
-        List<Pattern> maskPatterns = ImmutableList.of(Pattern.compile(".*password.*"));
+        WildcardMatcher maskMatcher = WildcardMatcher.compile(ImmutableList.of("*password*"));
         String requestQueryString = "test=one&xpasswordy=maskme&test=two";
         // when
         String maskRequestQueryString =
-                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPatterns);
+                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskMatcher);
         // then
         assertThat(maskRequestQueryString).isEqualTo("test=one&xpasswordy=****&test=two");
     }
@@ -40,11 +37,11 @@ public class ServletMessageSupplierTest {
     @Test
     public void shouldNotMask() {
         // given
-        List<Pattern> maskPatterns = ImmutableList.of(Pattern.compile(".*password.*"));
+        WildcardMatcher maskMatcher = WildcardMatcher.compile(ImmutableList.of("*password*"));
         String requestQueryString = "test=one&xpassworry=nomask&test=two";
         // when
         String maskRequestQueryString =
-                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPatterns);
+                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskMatcher);
         // then
         assertThat(maskRequestQueryString).isEqualTo("test=one&xpassworry=nomask&test=two");
     }
@@ -52,11 +49,11 @@ public class ServletMessageSupplierTest {
     @Test
     public void shouldMaskStrange() {
         // given
-        List<Pattern> maskPatterns = ImmutableList.of(Pattern.compile(".*password.*"));
+        WildcardMatcher maskMatcher = WildcardMatcher.compile(ImmutableList.of("*password*"));
         String requestQueryString = "test=one&&&===&=&xpasswordy=mask=me&&&==&test=two";
         // when
         String maskRequestQueryString =
-                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPatterns);
+                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskMatcher);
         // then
         assertThat(maskRequestQueryString)
                 .isEqualTo("test=one&&&===&=&xpasswordy=****&&&==&test=two");
@@ -65,11 +62,11 @@ public class ServletMessageSupplierTest {
     @Test
     public void shouldNotMaskStrange() {
         // given
-        List<Pattern> maskPatterns = ImmutableList.of(Pattern.compile(".*password.*"));
+        WildcardMatcher maskMatcher = WildcardMatcher.compile(ImmutableList.of("*password*"));
         String requestQueryString = "test=one&&&===&=&xpassworry=no=mask&&&==&test=two";
         // when
         String maskRequestQueryString =
-                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskPatterns);
+                ServletMessageSupplier.maskRequestQueryString(requestQueryString, maskMatcher);
         // then
         assertThat(maskRequestQueryString)
                 .isEqualTo("test=one&&&===&=&xpassworry=no=mask&&&==&test=two");
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.agent.plugin.servlet;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WildcardMatcherTest {
+
+    @Test
+    public void shouldMatch() {
+        // given
+        WildcardMatcher matcher = WildcardMatcher.compile(
+                ImmutableList.of("Content-Type", "x-*", "*-id", "*password*", "a*b*c"));
+
+        // then
+        assertThat(matcher.isEmpty()).isFalse();
+        assertThat(matcher.matches("content-type")).isTrue();
+        assertThat(matcher.matches("CONTENT-TYPE")).isTrue();
+        assertThat(matcher.matches("X-Forwarded-For")).isTrue();
+        assertThat(matcher.matches("Request-ID")).isTrue();
+        assertThat(matcher.matches("newPassword2")).isTrue();
+        assertThat(matcher.matches("aXbYc")).isTrue();
+        assertThat(matcher.matches("aXbYcZ")).isFalse();
+        assertThat(matcher.matches("content-length")).isFalse();
+        // and again, now from the cache
+        assertThat(matcher.matches("CONTENT-TYPE")).isTrue();
+        assertThat(matcher.matches("content-length")).isFalse();
+    }
+
+    @Test
+    public void shouldMatchAll() {
+        WildcardMatcher matcher = WildcardMatcher.compile(ImmutableList.of(" * "));
+        assertThat(matcher.matches("anything")).isTrue();
+    }
+
+    @Test
+    public void shouldMatchNothingWhenEmpty() {
+        WildcardMatcher matcher = WildcardMatcher.compile(ImmutableList.<String>of());
+        assertThat(matcher.isEmpty()).isTrue();
+        assertThat(matcher.matches("")).isFalse();
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import org.checkerframework.checker.nullness.qual.Nullable;
+import org.immutables.value.Value;
+
+import org.glowroot.common.model.LazyHistogram;
+import org.glowroot.common.util.Styles;
+import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig.AlertCondition.MetricCondition;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate.Histogram;
+import org.glowroot.wire.api.model.AggregateOuterClass.OldAggregatesByType;
+import org.glowroot.wire.api.model.AggregateOuterClass.OldTransactionAggregate;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.GaugeValue;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// sliding windows over the data collected from each agent for its metric alerts, so that agent
+// metric alerts can be evaluated without reading back the whole alert time period from cassandra
+//
+// a window can only be used to evaluate a time period when it is known to contain all of the data
+// for that time period, which is not the case after central start-up, after the window has expired,
+// or after a gap in collection (e.g. the agent was temporarily connected to a different central
+// collector node), in which case the caller falls back to reading the time period from cassandra
+class AlertMetricWindows {
+
+    private static final double NANOSECONDS_PER_MILLISECOND = 1000000.0;
+
+    // alerts with longer time periods are always evaluated from cassandra (where rollups are used)
+    private static final long MAX_TIME_PERIOD_MILLIS = HOURS.toMillis(1);
+
+    // aggregates are collected once a minute (even when there were no transactions)
+    private static final long AGGREGATE_MAX_GAP_MILLIS = MINUTES.toMillis(1);
+    // gauge values are collected every 5 seconds (and are sent to central in batches)
+    private static final long GAUGE_MAX_GAP_MILLIS = SECONDS.toMillis(30);
+
+    // samples are retained a bit longer than the alert time period, so that alert checks that are
+    // queued behind more recently collected data can still be evaluated
+    private static final long RETAIN_EXTRA_MILLIS = MINUTES.toMillis(5);
+
+    private final Cache<WindowKey, Window> windows = CacheBuilder.newBuilder()
+            .expireAfterWrite(10, MINUTES)
+            .build();
+
+    void addAggregates(String agentId, List<MetricCondition> metricConditions, long captureTime,
+            List<OldAggregatesByType> aggregatesByTypeList) {
+        for (MetricCondition metricCondition : metricConditions) {
+            long timePeriodMillis = SECONDS.toMillis(metricCondition.getTimePeriodSeconds());
+            if (timePeriodMillis > MAX_TIME_PERIOD_MILLIS) {
+                continue;
+            }
+            Aggregate aggregate = getAggregate(aggregatesByTypeList,
+                    metricCondition.getTransactionType(), metricCondition.getTransactionName());
+            List<Sample> samples = new ArrayList<>();
+            if (aggregate != null) {
+                boolean includeHistogram =
+                        metricCondition.getMetric().equals("transaction:x-percentile");
+                samples.add(Sample.fromAggregate(captureTime, aggregate, includeHistogram));
+            }
+            add(agentId, metricCondition, captureTime, samples, timePeriodMillis,
+                    AGGREGATE_MAX_GAP_MILLIS);
+        }
+    }
+
+    void addGaugeValues(String agentId, List<MetricCondition> metricConditions,
+            long maxCaptureTime, List<GaugeValue> gaugeValues) {
+        for (MetricCondition metricCondition : metricConditions) {
+            long timePeriodMillis = SECONDS.toMillis(metricCondition.getTimePeriodSeconds());
+            if (timePeriodMillis > MAX_TIME_PERIOD_MILLIS) {
+                continue;
+            }
+            String gaugeName = metricCondition.getMetric().substring("gauge:".length());
+            List<Sample> samples = new ArrayList<>();
+            for (GaugeValue gaugeValue : gaugeValues) {
+                if (gaugeValue.getGaugeName().equals(gaugeName)) {
+                    samples.add(Sample.fromGaugeValue(gaugeValue));
+                }
+            }
+            add(agentId, metricCondition, maxCaptureTime, samples, timePeriodMillis,
+                    GAUGE_MAX_GAP_MILLIS);
+        }
+    }
+
+    // returns null if the time period cannot be evaluated from the window, in which case the
+    // caller needs to evaluate the time period from cassandra
+    @Nullable
+    WindowValue getValue(String agentId, MetricCondition metricCondition, long endTime) {
+        Window window = windows.getIfPresent(ImmutableWindowKey.of(agentId, metricCondition));
+        if (window == null) {
+            return null;
+        }
+        long startTime = endTime - SECONDS.toMillis(metricCondition.getTimePeriodSeconds());
+        List<Sample> samples = window.getSamples(startTime, endTime);
+        if (samples == null) {
+            return null;
+        }
+        long transactionCount = 0;
+        long errorCount = 0;
+        double totalDurationNanos = 0;
+        double totalWeightedValue = 0;
+        long totalWeight = 0;
+        for (Sample sample : samples) {
+            transactionCount += sample.transactionCount;
+            errorCount += sample.errorCount;
+            totalDurationNanos += sample.totalDurationNanos;
+            totalWeightedValue += sample.value * sample.weight;
+            totalWeight += sample.weight;
+        }
+        // the calculations below mirror MetricService
+        String metric = metricCondition.getMetric();
+        @Nullable Number value;
+        if (metric.equals("transaction:x-percentile")) {
+            if (samples.isEmpty()) {
+                value = null;
+            } else {
+                LazyHistogram durationNanosHistogram = new LazyHistogram();
+                for (Sample sample : samples) {
+                    durationNanosHistogram.merge(checkNotNull(sample.durationNanosHistogram));
+                }
+                value = durationNanosHistogram.getValueAtPercentile(
+                        metricCondition.getPercentile().getValue()) / NANOSECONDS_PER_MILLISECOND;
+            }
+        } else if (metric.equals("transaction:average")) {
+            if (samples.isEmpty()) {
+                value = null;
+            } else {
+                // individual aggregate transaction counts cannot be zero
+                checkState(transactionCount != 0);
+                value = totalDurationNanos / (transactionCount * NANOSECONDS_PER_MILLISECOND);
+            }
+        } else if (metric.equals("transaction:count")) {
+            value = transactionCount;
+        } else if (metric.equals("error:rate")) {
+            if (samples.isEmpty()) {
+                value = null;
+            } else {
+                // individual aggregate transaction counts cannot be zero
+                checkState(transactionCount != 0);
+                value = (100.0 * errorCount) / transactionCount;
+            }
+        } else if (metric.equals("error:count")) {
+            value = errorCount;
+        } else if (metric.startsWith("gauge:")) {
+            if (samples.isEmpty()) {
+                value = null;
+            } else {
+                // individual gauge value weights cannot be zero
+                checkState(totalWeight != 0);
+                value = totalWeightedValue / totalWeight;
+            }
+        } else {
+            throw new IllegalStateException("Unexpected metric: " + metric);
+        }
+        return new WindowValue(value, transactionCount);
+    }
+
+    private void add(String agentId, MetricCondition metricCondition, long batchCaptureTime,
+            List<Sample> samples, long timePeriodMillis, long maxGapMillis) {
+        WindowKey key = ImmutableWindowKey.of(agentId, metricCondition);
+        Window window = windows.getIfPresent(key);
+        if (window == null) {
+            window = new Window(maxGapMillis);
+        }
+        window.add(batchCaptureTime, samples, timePeriodMillis);
+        // (re-)put in order to reset expiration, so that only windows that are no longer being
+        // collected (e.g. agent has disconnected, or alert has been deleted) expire
+        windows.put(key, window);
+    }
+
+    private static @Nullable Aggregate getAggregate(List<OldAggregatesByType> aggregatesByTypeList,
+            String transactionType, String transactionName) {
+        for (OldAggregatesByType aggregatesByType : aggregatesByTypeList) {
+            if (!aggregatesByType.getTransactionType().equals(transactionType)) {
+                continue;
+            }
+            if (transactionName.isEmpty()) {
+                return aggregatesByType.getOverallAggregate();
+            }
+            for (OldTransactionAggregate transactionAggregate : aggregatesByType
+                    .getTransactionAggregateList()) {
+                if (transactionAggregate.getTransactionName().equals(transactionName)) {
+                    return transactionAggregate.getAggregate();
+                }
+            }
+            return null;
+        }
+        return null;
+    }
+
+    static class WindowValue {
+
+        private final @Nullable Number value;
+        private final long transactionCount;
+
+        private WindowValue(@Nullable Number value, long transactionCount) {
+            this.value = value;
+            this.transactionCount = transactionCount;
+        }
+
+        @Nullable
+        Number value() {
+            return value;
+        }
+
+        long transactionCount() {
+            return transactionCount;
+        }
+    }
+
+    private static class Window {
+
+        private final long maxGapMillis;
+
+        private final Deque<Sample> samples = new ArrayDeque<>();
+        // capture times of the batches that have been added (and are still retained), in order to
+        // distinguish a resent batch from a late batch
+        private final Deque<Long> batchCaptureTimes = new ArrayDeque<>();
+
+        // all samples with capture time greater than or equal to coveredFrom have been added
+        private long coveredFrom;
+        private long lastCaptureTime;
+
+        private Window(long maxGapMillis) {
+            this.maxGapMillis = maxGapMillis;
+        }
+
+        private synchronized void add(long batchCaptureTime, List<Sample> batchSamples,
+                long timePeriodMillis) {
+            if (batchCaptureTime <= lastCaptureTime) {
+                if (batchCaptureTime >= coveredFrom
+                        && !batchCaptureTimes.contains(batchCaptureTime)) {
+                    // late batch (e.g. delayed by retries while later batches were collected), so
+                    // its samples are missing from the time that the window claims to cover, and
+                    // the window cannot be used until it covers a full time period again
+                    samples.clear();
+                    coveredFrom = lastCaptureTime + 1;
+                }
+                // otherwise already added, e.g. resent by the agent after not receiving the
+                // response, or too old to be part of any time period that the window covers
+                return;
+            }
+            if (lastCaptureTime == 0 || batchCaptureTime - lastCaptureTime > maxGapMillis) {
+                // data may be missing between the prior batch and this batch
+                samples.clear();
+                coveredFrom = batchCaptureTime;
+            }
+            for (Sample sample : batchSamples) {
+                if (sample.captureTime > lastCaptureTime) {
+                    samples.addLast(sample);
+                }
+            }
+            batchCaptureTimes.addLast(batchCaptureTime);
+            lastCaptureTime = batchCaptureTime;
+            long retainFrom = batchCaptureTime - timePeriodMillis - RETAIN_EXTRA_MILLIS;
+            while (!samples.isEmpty() && samples.getFirst().captureTime < retainFrom) {
+                samples.removeFirst();
+            }
+            while (!batchCaptureTimes.isEmpty() && batchCaptureTimes.getFirst() < retainFrom) {
+                batchCaptureTimes.removeFirst();
+            }
+            coveredFrom = Math.max(coveredFrom, retainFrom);
+        }
+
+        // returns samples with capture time in (startTime, endTime], consistent with the cassandra
+        // queries in MetricService
+        private synchronized @Nullable List<Sample> getSamples(long startTime, long endTime) {
+            if (lastCaptureTime == 0 || startTime + 1 < coveredFrom
+                    || endTime - lastCaptureTime >= maxGapMillis) {
+                return null;
+            }
+            List<Sample> list = new ArrayList<>();
+            for (Sample sample : samples) {
+                if (sample.captureTime > startTime && sample.captureTime <= endTime) {
+                    list.add(sample);
+                }
+            }
+            return list;
+        }
+    }
+
+    private static class Sample {
+
+        private final long captureTime;
+
+        // aggregate fields
+        private final long transactionCount;
+        private final long errorCount;
+        private final double totalDurationNanos;
+        private final @Nullable Histogram durationNanosHistogram;
+
+        // gauge fields
+        private final double value;
+        private final long weight;
+
+        private Sample(long captureTime, long transactionCount, long errorCount,
+                double totalDurationNanos, @Nullable Histogram durationNanosHistogram,
+                double value, long weight) {
+            this.captureTime = captureTime;
+            this.transactionCount = transactionCount;
+            this.errorCount = errorCount;
+            this.totalDurationNanos = totalDurationNanos;
+            this.durationNanosHistogram = durationNanosHistogram;
+            this.value = value;
+            this.weight = weight;
+        }
+
+        private static Sample fromAggregate(long captureTime, Aggregate aggregate,
+                boolean includeHistogram) {
+            return new Sample(captureTime, aggregate.getTransactionCount(),
+                    aggregate.getErrorCount(), aggregate.getTotalDurationNanos(),
+                    includeHistogram ? aggregate.getDurationNanosHistogram() : null, 0, 0);
+        }
+
+        private static Sample fromGaugeValue(GaugeValue gaugeValue) {
+            return new Sample(gaugeValue.getCaptureTime(), 0, 0, 0, null, gaugeValue.getValue(),
+                    gaugeValue.getWeight());
+        }
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface WindowKey {
+        String agentId();
+        MetricCondition metricCondition();
+    }
+}
@@ -15,36 +15,66 @@
  */
 package org.glowroot.central;
 
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import org.glowroot.agent.api.Instrumentation;
 import org.glowroot.agent.api.Instrumentation.AlreadyInTransactionBehavior;
+import org.glowroot.central.AlertMetricWindows.WindowValue;
 import org.glowroot.central.repo.ConfigRepositoryImpl;
 import org.glowroot.common2.repo.ConfigRepository.AgentConfigNotFoundException;
 import org.glowroot.common2.repo.util.AlertingService;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig.AlertCondition;
+import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig.AlertCondition.MetricCondition;
+import org.glowroot.wire.api.model.AggregateOuterClass.OldAggregatesByType;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.GaugeValue;
 
 import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
 class CentralAlertingService {
 
     private static final Logger logger = LoggerFactory.getLogger(CentralAlertingService.class);
 
+    private static final int ALERT_CHECKING_THREADS =
+            Integer.getInteger("glowroot.central.alertCheckingThreads", 8);
+
+    private static final String MBEAN_NAME = "org.glowroot.central:type=AlertChecking";
+
     private final ConfigRepositoryImpl configRepository;
     private final AlertingService alertingService;
     private final HeartbeatAlertingService heartbeatAlertingService;
 
     private final ExecutorService alertCheckingExecutor;
 
+    // alert checks for the same agent rollup are executed in order (and not concurrently with
+    // each other), while alert checks for different agent rollups are executed in parallel
+    private final LoadingCache<String, Executor> alertCheckingExecutorPerAgentRollupId;
+
+    private final AlertMetricWindows alertMetricWindows = new AlertMetricWindows();
+
+    private final AlertCheckingStats alertCheckingStats = new AlertCheckingStats();
+    private final boolean mbeanRegistered;
+
     private final Stopwatch stopwatch = Stopwatch.createStarted();
 
     private volatile boolean closed;
@@ -54,11 +84,23 @@ class CentralAlertingService {
         this.configRepository = configRepository;
         this.alertingService = alertingService;
         this.heartbeatAlertingService = heartbeatAlertingService;
-        alertCheckingExecutor = Executors.newSingleThreadExecutor();
+        alertCheckingExecutor = Executors.newFixedThreadPool(ALERT_CHECKING_THREADS);
+        alertCheckingExecutorPerAgentRollupId = CacheBuilder.newBuilder()
+                .weakValues()
+                .build(new CacheLoader<String, Executor>() {
+                    @Override
+                    public Executor load(String key) throws Exception {
+                        return MoreExecutors.newSequentialExecutor(alertCheckingExecutor);
+                    }
+                });
+        mbeanRegistered = registerMBean(alertCheckingStats);
     }
 
     void close() throws InterruptedException {
         closed = true;
+        if (mbeanRegistered) {
+            unregisterMBean();
+        }
         // shutdownNow() is needed here to send interrupt to alert checking thread
         alertCheckingExecutor.shutdownNow();
         if (!alertCheckingExecutor.awaitTermination(10, SECONDS)) {
@@ -90,8 +132,8 @@ class CentralAlertingService {
         }
     }
 
-    void checkAggregateAlertsAsync(String agentId, String agentDisplay, long endTime)
-            throws InterruptedException {
+    void checkAggregateAlertsAsync(String agentId, String agentDisplay, long endTime,
+            List<OldAggregatesByType> aggregatesByTypeList) throws InterruptedException {
         List<AlertConfig> alertConfigs;
         try {
             alertConfigs = configRepository.getAlertConfigs(agentId);
@@ -107,17 +149,20 @@ class CentralAlertingService {
             return;
         }
         List<AlertConfig> aggregateAlertConfigs = new ArrayList<>();
+        List<MetricCondition> metricConditions = new ArrayList<>();
         for (AlertConfig alertConfig : alertConfigs) {
             AlertCondition condition = alertConfig.getCondition();
             if (isAggregateMetricCondition(condition)) {
                 aggregateAlertConfigs.add(alertConfig);
+                metricConditions.add(condition.getMetricCondition());
             }
         }
+        alertMetricWindows.addAggregates(agentId, metricConditions, endTime, aggregatesByTypeList);
         checkAlertsAsync(agentId, agentDisplay, endTime, aggregateAlertConfigs);
     }
 
-    void checkGaugeAndHeartbeatAlertsAsync(String agentId, String agentDisplay, long endTime)
-            throws InterruptedException {
+    void checkGaugeAndHeartbeatAlertsAsync(String agentId, String agentDisplay, long endTime,
+            List<GaugeValue> gaugeValues) throws InterruptedException {
         List<AlertConfig> alertConfigs;
         try {
             alertConfigs = configRepository.getAlertConfigs(agentId);
@@ -133,13 +178,17 @@ class CentralAlertingService {
             return;
         }
         List<AlertConfig> gaugeAndHeartbeatAlertConfigs = new ArrayList<>();
+        List<MetricCondition> metricConditions = new ArrayList<>();
         for (AlertConfig alertConfig : alertConfigs) {
             AlertCondition condition = alertConfig.getCondition();
-            if (isGaugeMetricCondition(condition)
-                    || condition.getValCase() == AlertCondition.ValCase.HEARTBEAT_CONDITION) {
+            if (isGaugeMetricCondition(condition)) {
+                gaugeAndHeartbeatAlertConfigs.add(alertConfig);
+                metricConditions.add(condition.getMetricCondition());
+            } else if (condition.getValCase() == AlertCondition.ValCase.HEARTBEAT_CONDITION) {
                 gaugeAndHeartbeatAlertConfigs.add(alertConfig);
             }
         }
+        alertMetricWindows.addGaugeValues(agentId, metricConditions, endTime, gaugeValues);
         checkAlertsAsync(agentId, agentDisplay, endTime, gaugeAndHeartbeatAlertConfigs);
     }
 
@@ -179,19 +228,38 @@ class CentralAlertingService {
         if (closed) {
             return;
         }
-        alertCheckingExecutor.execute(() -> {
-            for (AlertConfig alertConfig : alertConfigs) {
+        long queuedAtNanos = System.nanoTime();
+        alertCheckingStats.pendingCount.incrementAndGet();
+        try {
+            alertCheckingExecutorPerAgentRollupId.getUnchecked(agentRollupId).execute(() -> {
                 try {
-                    checkAlert(agentRollupId, agentRollupDisplay, endTime, alertConfig);
-                } catch (InterruptedException e) {
-                    // probably shutdown requested (see close method above)
-                    logger.debug(e.getMessage(), e);
-                    return;
-                } catch (Throwable t) {
-                    logger.error("{} - {}", agentRollupDisplay, t.getMessage(), t);
+                    checkAlerts(agentRollupId, agentRollupDisplay, endTime, alertConfigs);
+                } finally {
+                    alertCheckingStats.pendingCount.decrementAndGet();
+                    alertCheckingStats.lagMillis =
+                            NANOSECONDS.toMillis(System.nanoTime() - queuedAtNanos);
                 }
+            });
+        } catch (RejectedExecutionException e) {
+            // probably shutdown requested (see close method above)
+            alertCheckingStats.pendingCount.decrementAndGet();
+            logger.debug(e.getMessage(), e);
+        }
+    }
+
+    private void checkAlerts(String agentRollupId, String agentRollupDisplay, long endTime,
+            List<AlertConfig> alertConfigs) {
+        for (AlertConfig alertConfig : alertConfigs) {
+            try {
+                checkAlert(agentRollupId, agentRollupDisplay, endTime, alertConfig);
+            } catch (InterruptedException e) {
+                // probably shutdown requested (see close method above)
+                logger.debug(e.getMessage(), e);
+                return;
+            } catch (Throwable t) {
+                logger.error("{} - {}", agentRollupDisplay, t.getMessage(), t);
             }
-        });
+        }
     }
 
     private void checkAlert(String agentRollupId, String agentDisplay, long endTime,
@@ -199,10 +267,8 @@ class CentralAlertingService {
         AlertCondition alertCondition = alertConfig.getCondition();
         switch (alertCondition.getValCase()) {
             case METRIC_CONDITION:
-                alertingService.checkMetricAlert(
-                        configRepository.getCentralAdminGeneralConfig().centralDisplayName(),
-                        agentRollupId, agentDisplay, alertConfig,
-                        alertCondition.getMetricCondition(), endTime);
+                checkMetricAlert(agentRollupId, agentDisplay, endTime, alertConfig,
+                        alertCondition.getMetricCondition());
                 break;
             case HEARTBEAT_CONDITION:
                 if (stopwatch.elapsed(MINUTES) >= 4) {
@@ -220,6 +286,24 @@ class CentralAlertingService {
         }
     }
 
+    private void checkMetricAlert(String agentRollupId, String agentDisplay, long endTime,
+            AlertConfig alertConfig, MetricCondition metricCondition) throws Exception {
+        String centralDisplay =
+                configRepository.getCentralAdminGeneralConfig().centralDisplayName();
+        WindowValue windowValue =
+                alertMetricWindows.getValue(agentRollupId, metricCondition, endTime);
+        if (windowValue == null) {
+            // no usable window (e.g. agent rollup, or central was recently started), so need to
+            // read the alert time period from cassandra
+            alertingService.checkMetricAlert(centralDisplay, agentRollupId, agentDisplay,
+                    alertConfig, metricCondition, endTime);
+        } else {
+            alertingService.checkMetricAlert(centralDisplay, agentRollupId, agentDisplay,
+                    alertConfig, metricCondition, endTime, windowValue.value(),
+                    windowValue.transactionCount());
+        }
+    }
+
     private static boolean isAggregateMetricCondition(AlertCondition alertCondition) {
         if (alertCondition.getValCase() != AlertCondition.ValCase.METRIC_CONDITION) {
             return false;
@@ -232,4 +316,54 @@ class CentralAlertingService {
         return alertCondition.getValCase() == AlertCondition.ValCase.METRIC_CONDITION
                 && alertCondition.getMetricCondition().getMetric().startsWith("gauge:");
     }
+
+    // returns true if registered
+    private static boolean registerMBean(AlertCheckingStats alertCheckingStats) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(alertCheckingStats,
+                    new ObjectName(MBEAN_NAME));
+            return true;
+        } catch (InstanceAlreadyExistsException e) {
+            // e.g. multiple central modules running in the same jvm during tests
+            logger.debug(e.getMessage(), e);
+            return false;
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+            return false;
+        }
+    }
+
+    private static void unregisterMBean() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(MBEAN_NAME));
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    // exposed via JMX so that alert checking lag can be monitored (e.g. via a glowroot gauge)
+    public interface AlertCheckingMXBean {
+
+        // time between the most recently completed alert check being queued (right after the
+        // corresponding data was collected) and completing
+        long getLagMillis();
+
+        int getPendingCount();
+    }
+
+    private static class AlertCheckingStats implements AlertCheckingMXBean {
+
+        private final AtomicInteger pendingCount = new AtomicInteger();
+        private volatile long lagMillis;
+
+        @Override
+        public long getLagMillis() {
+            return lagMillis;
+        }
+
+        @Override
+        public int getPendingCount() {
+            return pendingCount.get();
+        }
+    }
 }
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+// per-agent queue of pending collections, which are executed in order (and not concurrently with
+// each other) on the shared collector executor
+//
+// the number of pending collections per agent is bounded, and the collector grpc streams use
+// whenNotFull() to stop requesting messages from an agent while its queue is full, so that the
+// agent (instead of central) buffers collections that central cannot keep up with
+class CollectionQueue {
+
+    private final Executor sequentialExecutor;
+    private final int maxPending;
+
+    private final AtomicInteger pendingCount = new AtomicInteger();
+    private final Queue<Runnable> notFullListeners = new ConcurrentLinkedQueue<>();
+
+    CollectionQueue(Executor collectorExecutor, int maxPending) {
+        this.sequentialExecutor = MoreExecutors.newSequentialExecutor(collectorExecutor);
+        this.maxPending = maxPending;
+    }
+
+    // returns false (without executing the runnable) if the queue is full
+    //
+    // throws RejectedExecutionException if the collector executor rejects the runnable
+    boolean tryExecute(Runnable runnable) {
+        if (pendingCount.incrementAndGet() > maxPending) {
+            pendingCount.decrementAndGet();
+            return false;
+        }
+        try {
+            sequentialExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // referencing this queue from the pending runnable keeps it from being
+                    // collected (and replaced by a new queue) while collections are still
+                    // pending, which would break the per-agent ordering
+                    try {
+                        runnable.run();
+                    } finally {
+                        completed();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            completed();
+            throw e;
+        }
+        return true;
+    }
+
+    boolean isFull() {
+        return pendingCount.get() >= maxPending;
+    }
+
+    // the listener is run immediately if the queue is not full, otherwise it is run on the
+    // collector thread that completes the pending collection which makes room in the queue
+    void whenNotFull(Runnable listener) {
+        notFullListeners.add(listener);
+        notifyIfNotFull();
+    }
+
+    private void completed() {
+        pendingCount.decrementAndGet();
+        notifyIfNotFull();
+    }
+
+    private void notifyIfNotFull() {
+        Runnable listener;
+        while (!isFull() && (listener = notFullListeners.poll()) != null) {
+            listener.run();
+        }
+    }
+}
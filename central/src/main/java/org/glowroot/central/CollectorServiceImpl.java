@@ -21,14 +21,19 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.stub.ServerCallStreamObserver;
 import io.grpc.stub.StreamObserver;
 import org.checkerframework.checker.nullness.qual.MonotonicNonNull;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.checkerframework.checker.nullness.qual.RequiresNonNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -81,6 +86,9 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
 
     private static final Logger logger = LoggerFactory.getLogger(CollectorServiceImpl.class);
 
+    private static final int MAX_PENDING_COLLECTIONS_PER_AGENT =
+            Integer.getInteger("glowroot.central.maxPendingCollectionsPerAgent", 100);
+
     private final ActiveAgentDao activeAgentDao;
     private final AgentConfigDao agentConfigDao;
     private final EnvironmentDao environmentDao;
@@ -91,26 +99,31 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
     private final V09AgentRollupDao v09AgentRollupDao;
     private final GrpcCommon grpcCommon;
     private final CentralAlertingService centralAlertingService;
+    private final ExecutorService collectorExecutor;
     private final Clock clock;
     private final String version;
 
     private volatile long currentMinute;
     private final AtomicInteger nextDelay = new AtomicInteger();
 
-    private final LoadingCache<String, Semaphore> throttlePerAgentId = CacheBuilder.newBuilder()
-            .weakValues()
-            .build(new CacheLoader<String, Semaphore>() {
-                @Override
-                public Semaphore load(String key) throws Exception {
-                    return new Semaphore(1);
-                }
-            });
+    // weak values are ok since pending collections hold a strong reference to their queue, see
+    // CollectionQueue.tryExecute()
+    private final LoadingCache<String, CollectionQueue> queuePerAgentId =
+            CacheBuilder.newBuilder()
+                    .weakValues()
+                    .build(new CacheLoader<String, CollectionQueue>() {
+                        @Override
+                        public CollectionQueue load(String key) throws Exception {
+                            return new CollectionQueue(collectorExecutor,
+                                    MAX_PENDING_COLLECTIONS_PER_AGENT);
+                        }
+                    });
 
     CollectorServiceImpl(ActiveAgentDao activeAgentDao, AgentConfigDao agentConfigDao,
             EnvironmentDao environmentDao, HeartbeatDao heartbeatDao, AggregateDao aggregateDao,
             GaugeValueDao gaugeValueDao, TraceDao traceDao, V09AgentRollupDao v09AgentRollupDao,
-            GrpcCommon grpcCommon, CentralAlertingService centralAlertingService, Clock clock,
-            String version) {
+            GrpcCommon grpcCommon, CentralAlertingService centralAlertingService,
+            ExecutorService collectorExecutor, Clock clock, String version) {
         this.activeAgentDao = activeAgentDao;
         this.agentConfigDao = agentConfigDao;
         this.environmentDao = environmentDao;
@@ -121,6 +134,7 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         this.v09AgentRollupDao = v09AgentRollupDao;
         this.grpcCommon = grpcCommon;
         this.centralAlertingService = centralAlertingService;
+        this.collectorExecutor = collectorExecutor;
         this.clock = clock;
         this.version = version;
     }
@@ -158,7 +172,8 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         logger.info("agent connected: {}, version {}", getDisplayForLogging(agentId),
                 request.getEnvironment().getJavaInfo().getGlowrootAgentVersion());
         InitResponse.Builder response = InitResponse.newBuilder()
-                .setGlowrootCentralVersion(version);
+                .setGlowrootCentralVersion(version)
+                .setSharedStringsSupported(true);
         if (!updatedAgentConfig.equals(request.getAgentConfig())) {
             response.setAgentConfig(updatedAgentConfig);
         }
@@ -169,7 +184,12 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
     @Override
     public StreamObserver<AggregateStreamMessage> collectAggregateStream(
             StreamObserver<AggregateResponseMessage> responseObserver) {
-        return new AggregateStreamObserver(responseObserver);
+        ServerCallStreamObserver<AggregateResponseMessage> serverCallStreamObserver =
+                (ServerCallStreamObserver<AggregateResponseMessage>) responseObserver;
+        // see requestNextMessage()
+        serverCallStreamObserver.disableAutoInboundFlowControl();
+        serverCallStreamObserver.request(1);
+        return new AggregateStreamObserver(serverCallStreamObserver);
     }
 
     @Instrumentation.Transaction(transactionType = "gRPC", transactionName = "Aggregates",
@@ -205,7 +225,12 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
     @Override
     public StreamObserver<TraceStreamMessage> collectTraceStream(
             StreamObserver<EmptyMessage> responseObserver) {
-        return new TraceStreamObserver(responseObserver);
+        ServerCallStreamObserver<EmptyMessage> serverCallStreamObserver =
+                (ServerCallStreamObserver<EmptyMessage>) responseObserver;
+        // see requestNextMessage()
+        serverCallStreamObserver.disableAutoInboundFlowControl();
+        serverCallStreamObserver.request(1);
+        return new TraceStreamObserver(serverCallStreamObserver);
     }
 
     @Instrumentation.Transaction(transactionType = "gRPC", transactionName = "Trace",
@@ -286,27 +311,59 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         });
     }
 
+    // collections are queued per agent and executed in order on the collector executor, so that
+    // grpc threads are never blocked waiting for a prior collection from the same agent (or for
+    // the cassandra writes of the collection itself) to complete
+    //
+    // collections are rejected with RESOURCE_EXHAUSTED when the agent's queue or the collector
+    // executor's queue is full, and the agent will re-send them later
     private <T> void throttle(String agentId, boolean postV09, StreamObserver<T> responseObserver,
             Runnable runnable) {
-        Semaphore semaphore = throttlePerAgentId.getUnchecked(agentId);
-        boolean acquired;
+        CollectionQueue queue = queuePerAgentId.getUnchecked(agentId);
+        long queuedAt = clock.currentTimeMillis();
+        boolean queued;
         try {
-            acquired = semaphore.tryAcquire(1, MINUTES);
-        } catch (InterruptedException e) {
-            // probably shutdown requested
-            responseObserver.onError(e);
+            queued = queue.tryExecute(new Runnable() {
+                @Override
+                public void run() {
+                    if (clock.currentTimeMillis() - queuedAt > MINUTES.toMillis(1)) {
+                        logger.warn("{} - collection rejected due to backlog",
+                                getDisplayForLogging(agentId, postV09));
+                        responseObserver.onError(new Exception());
+                        return;
+                    }
+                    runnable.run();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // collector executor queue is full, or shutdown requested
+            logger.warn("{} - collection rejected: {}", getDisplayForLogging(agentId, postV09),
+                    e.getMessage());
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED.withCause(e).asRuntimeException());
             return;
         }
-        if (!acquired) {
-            logger.warn("{} - collection rejected due to backlog",
-                    getDisplayForLogging(agentId, postV09));
-            responseObserver.onError(new Exception());
-            return;
+        if (!queued) {
+            logger.warn("{} - collection rejected, {} collections are already pending",
+                    getDisplayForLogging(agentId, postV09), MAX_PENDING_COLLECTIONS_PER_AGENT);
+            responseObserver.onError(Status.RESOURCE_EXHAUSTED.asRuntimeException());
         }
-        try {
-            runnable.run();
-        } finally {
-            semaphore.release();
+    }
+
+    // inbound flow control for the collector streams, the next message is only requested from
+    // the agent once the agent's collection queue is not full, so that while central is behind,
+    // the agent's outbound stream (and not central's heap) fills up
+    private void requestNextMessage(@Nullable String agentId,
+            ServerCallStreamObserver<?> serverCallStreamObserver) {
+        Runnable requestNext = new Runnable() {
+            @Override
+            public void run() {
+                serverCallStreamObserver.request(1);
+            }
+        };
+        if (agentId == null) {
+            requestNext.run();
+        } else {
+            queuePerAgentId.getUnchecked(agentId).whenNotFull(requestNext);
         }
     }
 
@@ -340,13 +397,15 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         try {
             centralAlertingService.checkForDeletedAlerts(postV09AgentId, agentDisplay);
             centralAlertingService.checkAggregateAlertsAsync(postV09AgentId, agentDisplay,
-                    captureTime);
+                    captureTime, aggregatesByTypeList);
         } catch (InterruptedException e) {
             // probably shutdown requested
             logger.debug(e.getMessage(), e);
         }
         responseObserver.onNext(AggregateResponseMessage.newBuilder()
                 .setNextDelayMillis(getNextDelayMillis())
+                // the agent only keeps sending shared string indexes while they are acknowledged
+                .setSharedStringsAcknowledged(true)
                 .build());
         responseObserver.onCompleted();
     }
@@ -392,7 +451,7 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         try {
             centralAlertingService.checkForDeletedAlerts(postV09AgentId, agentDisplay);
             centralAlertingService.checkGaugeAndHeartbeatAlertsAsync(postV09AgentId, agentDisplay,
-                    maxCaptureTime);
+                    maxCaptureTime, request.getGaugeValueList());
         } catch (InterruptedException e) {
             // probably shutdown requested
             logger.debug(e.getMessage(), e);
@@ -494,23 +553,36 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
 
     private final class AggregateStreamObserver implements StreamObserver<AggregateStreamMessage> {
 
-        private final StreamObserver<AggregateResponseMessage> responseObserver;
+        private final ServerCallStreamObserver<AggregateResponseMessage> responseObserver;
         private @MonotonicNonNull AggregateStreamHeader streamHeader;
         private List<Aggregate.SharedQueryText> sharedQueryTexts = new ArrayList<>();
+        private List<String> sharedStrings = new ArrayList<>();
         private Map<String, OldAggregatesByType.Builder> aggregatesByTypeMap = new HashMap<>();
+        private boolean failed;
 
-        private AggregateStreamObserver(StreamObserver<AggregateResponseMessage> responseObserver) {
+        private AggregateStreamObserver(
+                ServerCallStreamObserver<AggregateResponseMessage> responseObserver) {
             this.responseObserver = responseObserver;
         }
 
         @Override
         public void onNext(AggregateStreamMessage value) {
+            if (failed) {
+                return;
+            }
             try {
                 onNextInternal(value);
+            } catch (StatusRuntimeException e) {
+                logError(e);
+                failed = true;
+                responseObserver.onError(e);
+                return;
             } catch (Throwable t) {
                 logError(t);
                 throw t;
             }
+            requestNextMessage(streamHeader == null ? null : streamHeader.getAgentId(),
+                    responseObserver);
         }
 
         @Instrumentation.Transaction(transactionType = "gRPC", transactionName = "Aggregates",
@@ -518,6 +590,9 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
                 timer = "aggregates")
         @Override
         public void onCompleted() {
+            if (failed) {
+                return;
+            }
             try {
                 onCompletedInternal();
             } catch (Throwable t) {
@@ -539,20 +614,40 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
                 case SHARED_QUERY_TEXT:
                     sharedQueryTexts.add(value.getSharedQueryText());
                     break;
+                case SHARED_STRING:
+                    sharedStrings.add(value.getSharedString());
+                    break;
                 case OVERALL_AGGREGATE:
                     OverallAggregate overallAggregate = value.getOverallAggregate();
-                    String transactionType = overallAggregate.getTransactionType();
+                    String transactionType;
+                    Aggregate aggregate;
+                    if (checkNotNull(streamHeader).getSharedStrings()) {
+                        transactionType =
+                                getSharedString(overallAggregate.getTransactionTypeIndex());
+                        aggregate = decode(overallAggregate.getAggregate());
+                    } else {
+                        transactionType = overallAggregate.getTransactionType();
+                        aggregate = overallAggregate.getAggregate();
+                    }
                     aggregatesByTypeMap.put(transactionType, OldAggregatesByType.newBuilder()
                             .setTransactionType(transactionType)
-                            .setOverallAggregate(overallAggregate.getAggregate()));
+                            .setOverallAggregate(aggregate));
                     break;
                 case TRANSACTION_AGGREGATE:
                     TransactionAggregate transactionAggregate = value.getTransactionAggregate();
-                    OldAggregatesByType.Builder builder = checkNotNull(
-                            aggregatesByTypeMap.get(transactionAggregate.getTransactionType()));
+                    if (checkNotNull(streamHeader).getSharedStrings()) {
+                        transactionType =
+                                getSharedString(transactionAggregate.getTransactionTypeIndex());
+                        aggregate = decode(transactionAggregate.getAggregate());
+                    } else {
+                        transactionType = transactionAggregate.getTransactionType();
+                        aggregate = transactionAggregate.getAggregate();
+                    }
+                    OldAggregatesByType.Builder builder =
+                            checkNotNull(aggregatesByTypeMap.get(transactionType));
                     builder.addTransactionAggregate(OldTransactionAggregate.newBuilder()
                             .setTransactionName(transactionAggregate.getTransactionName())
-                            .setAggregate(transactionAggregate.getAggregate())
+                            .setAggregate(aggregate)
                             .build());
                     break;
                 default:
@@ -571,6 +666,49 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
                     responseObserver);
         }
 
+        // resolves the shared string indexes back to strings prior to storage, updating the nested
+        // builders in place so that each timer/query/service call is only rebuilt once
+        private Aggregate decode(Aggregate aggregate) {
+            Aggregate.Builder builder = aggregate.toBuilder();
+            for (Aggregate.Timer.Builder timer : builder.getMainThreadRootTimerBuilderList()) {
+                decode(timer);
+            }
+            if (builder.hasAuxThreadRootTimer()) {
+                decode(builder.getAuxThreadRootTimerBuilder());
+            }
+            for (Aggregate.Timer.Builder timer : builder.getAsyncTimerBuilderList()) {
+                decode(timer);
+            }
+            for (Aggregate.Query.Builder query : builder.getQueryBuilderList()) {
+                query.setType(getSharedString(query.getTypeIndex()))
+                        .clearTypeIndex();
+            }
+            for (Aggregate.ServiceCall.Builder serviceCall : builder.getServiceCallBuilderList()) {
+                serviceCall.setType(getSharedString(serviceCall.getTypeIndex()))
+                        .clearTypeIndex();
+            }
+            return builder.build();
+        }
+
+        private void decode(Aggregate.Timer.Builder timer) {
+            timer.setName(getSharedString(timer.getNameIndex()))
+                    .clearNameIndex();
+            for (Aggregate.Timer.Builder childTimer : timer.getChildTimerBuilderList()) {
+                decode(childTimer);
+            }
+        }
+
+        // shared string indexes must refer to shared strings previously sent in the same stream
+        private String getSharedString(int index) {
+            if (index < 0 || index >= sharedStrings.size()) {
+                throw Status.INVALID_ARGUMENT
+                        .withDescription("shared string index " + index + " is out of bounds ("
+                                + sharedStrings.size() + " shared strings received)")
+                        .asRuntimeException();
+            }
+            return sharedStrings.get(index);
+        }
+
         private void logError(Throwable t) {
             if (streamHeader == null) {
                 logger.error(t.getMessage(), t);
@@ -583,7 +721,7 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
 
     private final class TraceStreamObserver implements StreamObserver<TraceStreamMessage> {
 
-        private final StreamObserver<EmptyMessage> responseObserver;
+        private final ServerCallStreamObserver<EmptyMessage> responseObserver;
         private @MonotonicNonNull TraceStreamHeader streamHeader;
         private List<Trace.SharedQueryText> sharedQueryTexts = new ArrayList<>();
         private @MonotonicNonNull Trace trace;
@@ -594,7 +732,7 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
         private Trace. /*@MonotonicNonNull*/ Header header;
         private @MonotonicNonNull TraceStreamCounts streamCounts;
 
-        private TraceStreamObserver(StreamObserver<EmptyMessage> responseObserver) {
+        private TraceStreamObserver(ServerCallStreamObserver<EmptyMessage> responseObserver) {
             this.responseObserver = responseObserver;
         }
 
@@ -606,6 +744,8 @@ class CollectorServiceImpl extends CollectorServiceGrpc.CollectorServiceImplBase
                 logError(t);
                 throw t;
             }
+            requestNextMessage(streamHeader == null ? null : streamHeader.getAgentId(),
+                    responseObserver);
         }
 
         @Instrumentation.Transaction(transactionType = "gRPC", transactionName = "Trace",
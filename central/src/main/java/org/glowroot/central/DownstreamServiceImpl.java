@@ -209,9 +209,10 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
         return response.getHeapDumpFileInfo();
     }
 
-    HeapHistogram heapHistogram(String agentId) throws Exception {
+    HeapHistogram heapHistogram(String agentId, int limit) throws Exception {
         AgentResponse responseWrapper = runOnCluster(agentId, CentralRequest.newBuilder()
-                .setHeapHistogramRequest(HeapHistogramRequest.newBuilder())
+                .setHeapHistogramRequest(HeapHistogramRequest.newBuilder()
+                        .setLimit(limit))
                 .build());
         HeapHistogramResponse response = responseWrapper.getHeapHistogramResponse();
         if (response.getUnavailableDueToRunningInJre()) {
@@ -220,7 +221,23 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
         if (response.getUnavailableDueToRunningInIbmJvm()) {
             throw new UnavailableDueToRunningInIbmJvmException();
         }
-        return response.getHeapHistogram();
+        HeapHistogram heapHistogram = response.getHeapHistogram();
+        if (limit == 0 || heapHistogram.getClassInfoCount() <= limit) {
+            return heapHistogram;
+        }
+        // older agents ignore the limit (and do not send the totals)
+        long totalBytes = 0;
+        long totalCount = 0;
+        for (HeapHistogram.ClassInfo classInfo : heapHistogram.getClassInfoList()) {
+            totalBytes += classInfo.getBytes();
+            totalCount += classInfo.getCount();
+        }
+        return HeapHistogram.newBuilder()
+                // class infos are already ordered by bytes descending
+                .addAllClassInfo(heapHistogram.getClassInfoList().subList(0, limit))
+                .setTotalBytes(totalBytes)
+                .setTotalCount(totalCount)
+                .build();
     }
 
     boolean isExplicitGcDisabled(String agentId) throws Exception {
@@ -361,6 +378,33 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
         }
     }
 
+    @Nullable
+    Entries getEntries(String agentId, String traceId, int fromIndex, int limit)
+            throws Exception {
+        AgentResponse responseWrapper = runOnCluster(agentId, CentralRequest.newBuilder()
+                .setEntriesRequest(EntriesRequest.newBuilder()
+                        .setTraceId(traceId)
+                        .setFromIndex(fromIndex)
+                        .setLimit(limit))
+                .build());
+        EntriesResponse response = responseWrapper.getEntriesResponse();
+        List<Trace.Entry> entries = response.getEntryList();
+        if (!response.getPaged()) {
+            // agents prior to 0.12.3 ignore from_index and limit and return all entries
+            int from = Math.min(fromIndex, entries.size());
+            int to = (int) Math.min((long) fromIndex + limit, entries.size());
+            entries = entries.subList(from, to);
+        }
+        if (entries.isEmpty()) {
+            return null;
+        } else {
+            return ImmutableEntries.builder()
+                    .addAllEntries(entries)
+                    .addAllSharedQueryTexts(response.getSharedQueryTextList())
+                    .build();
+        }
+    }
+
     @Nullable
     Queries getQueries(String agentId, String traceId) throws Exception {
         AgentResponse responseWrapper = runOnCluster(agentId, CentralRequest.newBuilder()
@@ -522,7 +566,8 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
                 connectedAgents.put(agentId, ConnectedAgent.this);
                 synchronized (requestObserver) {
                     requestObserver.onNext(CentralRequest.newBuilder()
-                            .setHelloAck(HelloAck.getDefaultInstance())
+                            .setHelloAck(HelloAck.newBuilder()
+                                    .setChunkedResponseSupported(true))
                             .build());
                 }
                 logger.info("downstream connection (re-)established with agent: {}",
@@ -535,14 +580,19 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
             }
             long requestId = value.getRequestId();
             ResponseHolder responseHolder = responseHolders.getIfPresent(requestId);
-            responseHolders.invalidate(requestId);
             if (responseHolder == null) {
                 logger.error("no response holder for request id: {}", requestId);
                 return;
             }
+            AgentResponse response = responseHolder.addChunk(value);
+            if (response == null) {
+                // more chunks to come
+                return;
+            }
+            responseHolders.invalidate(requestId);
             try {
                 // this shouldn't timeout since it is the other side of the exchange that is waiting
-                responseHolder.response.exchange(value, 1, MINUTES);
+                responseHolder.response.exchange(response, 1, MINUTES);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 logger.error("{} - {}", getDisplayForLogging(agentId), e.getMessage(), e);
@@ -598,10 +648,15 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
                     default:
                         timeoutSeconds = 60;
                 }
-                // timeout is in case agent never responds
-                // passing AgentResponse.getDefaultInstance() is just dummy (non-null) value
-                AgentResponse response = responseHolder.response
-                        .exchange(AgentResponse.getDefaultInstance(), timeoutSeconds, SECONDS);
+                AgentResponse response;
+                try {
+                    response = responseHolder.awaitResponse(timeoutSeconds);
+                } catch (TimeoutException e) {
+                    // so that any chunks that arrive late are dropped instead of being merged and
+                    // then blocking the grpc callback thread on the exchange
+                    responseHolders.invalidate(request.getRequestId());
+                    throw e;
+                }
                 return ImmutableAgentResult.builder()
                         .value(response)
                         .build();
@@ -651,7 +706,53 @@ class DownstreamServiceImpl extends DownstreamServiceImplBase {
     }
 
     private static class ResponseHolder {
+
         private final Exchanger<AgentResponse> response = new Exchanger<>();
+
+        // chunks are only received from the (single) grpc callback thread for the connection
+        private AgentResponse. /*@Nullable*/ Builder partialResponse;
+
+        private volatile boolean chunkReceived;
+
+        // returns null if more chunks are expected
+        private @Nullable AgentResponse addChunk(AgentResponse chunk) {
+            if (chunk.getMoreChunks()) {
+                chunkReceived = true;
+                if (partialResponse == null) {
+                    partialResponse = chunk.toBuilder();
+                } else {
+                    partialResponse.mergeFrom(chunk);
+                }
+                return null;
+            }
+            if (partialResponse == null) {
+                // not chunked
+                return chunk;
+            }
+            AgentResponse response = partialResponse.mergeFrom(chunk)
+                    .setMoreChunks(false)
+                    .build();
+            partialResponse = null;
+            return response;
+        }
+
+        private AgentResponse awaitResponse(int timeoutSeconds)
+                throws InterruptedException, TimeoutException {
+            while (true) {
+                try {
+                    // timeout is in case agent never responds
+                    // passing AgentResponse.getDefaultInstance() is just dummy (non-null) value
+                    return response.exchange(AgentResponse.getDefaultInstance(), timeoutSeconds,
+                            SECONDS);
+                } catch (TimeoutException e) {
+                    // keep waiting as long as chunks of a large response are still arriving
+                    if (!chunkReceived) {
+                        throw e;
+                    }
+                    chunkReceived = false;
+                }
+            }
+        }
     }
 
     @SuppressWarnings("serial")
@@ -19,8 +19,13 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.InetSocketAddress;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.grpc.Server;
+import io.grpc.ServerInterceptors;
 import io.grpc.netty.NettyServerBuilder;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.slf4j.Logger;
@@ -42,11 +47,23 @@ import static java.util.concurrent.TimeUnit.SECONDS;
 
 class GrpcServer {
 
+    private static final Logger logger = LoggerFactory.getLogger(GrpcServer.class);
+
     // log startup messages using logger name "org.glowroot"
     private static final Logger startupLogger = LoggerFactory.getLogger("org.glowroot");
 
+    private static final int COLLECTOR_THREADS =
+            Integer.getInteger("glowroot.central.collectorThreads", 50);
+    // each agent has at most one collection in this queue at a time (the agent's remaining
+    // pending collections are held in its CollectionQueue), so this needs to be comfortably larger
+    // than the number of agents
+    private static final int COLLECTOR_QUEUE_SIZE =
+            Integer.getInteger("glowroot.central.collectorQueueSize", 10000);
+
     private final DownstreamServiceImpl downstreamService;
 
+    private final ExecutorService collectorExecutor;
+
     private final @Nullable Server httpServer;
     private final @Nullable Server httpsServer;
 
@@ -60,9 +77,11 @@ class GrpcServer {
         GrpcCommon grpcCommon = new GrpcCommon(agentConfigDao, v09AgentRollupDao);
         downstreamService = new DownstreamServiceImpl(grpcCommon, clusterManager);
 
+        collectorExecutor = createCollectorExecutor();
         CollectorServiceImpl collectorService = new CollectorServiceImpl(activeAgentDao,
                 agentConfigDao, environmentDao, heartbeatDao, aggregateDao, gaugeValueDao, traceDao,
-                v09AgentRollupDao, grpcCommon, centralAlertingService, clock, version);
+                v09AgentRollupDao, grpcCommon, centralAlertingService, collectorExecutor, clock,
+                version);
 
         if (httpPort == null) {
             httpServer = null;
@@ -94,10 +113,13 @@ class GrpcServer {
                     getHttpsConfFile(confDir, "grpc-cert.pem", "cert.pem", "certificate"),
                     getHttpsConfFile(confDir, "grpc-key.pem", "key.pem", "private key"));
         }
-        return builder.addService(collectorService.bindService())
-                .addService(downstreamService.bindService())
-                // need to override default max message size of 4mb until streaming is implemented
-                // for DownstreamService.EntriesResponse and FullTraceResponse
+        GrpcServerCompression compression = new GrpcServerCompression();
+        return builder
+                .addService(ServerInterceptors.intercept(collectorService, compression))
+                .addService(ServerInterceptors.intercept(downstreamService, compression))
+                // need to override default max message size of 4mb for agents prior to 0.12.3 that
+                // do not send large DownstreamService responses (e.g. EntriesResponse and
+                // FullTraceResponse) in chunks
                 .maxInboundMessageSize(64 * 1024 * 1024)
                 // aggressive keep alive is used by agent to detect silently dropped connections
                 // (see org.glowroot.agent.central.CentralConnection)
@@ -109,6 +131,23 @@ class GrpcServer {
                 .start();
     }
 
+    // collections are executed on this executor (instead of on the grpc executor) so that grpc
+    // threads are not tied up waiting on cassandra writes
+    //
+    // the thread count and the queue are both bounded, and collections are rejected (see
+    // CollectorServiceImpl.throttle()) once the queue is full
+    static ThreadPoolExecutor createCollectorExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(COLLECTOR_THREADS, COLLECTOR_THREADS,
+                60, SECONDS, new ArrayBlockingQueue<Runnable>(COLLECTOR_QUEUE_SIZE),
+                new ThreadFactoryBuilder()
+                        .setDaemon(true)
+                        .setNameFormat("Glowroot-Collector-%d")
+                        .build(),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
     DownstreamServiceImpl getDownstreamService() {
         return downstreamService;
     }
@@ -140,6 +179,13 @@ class GrpcServer {
         if (httpServer != null) {
             shutdownNow(httpServer);
         }
+        // wait for queued collections to complete
+        collectorExecutor.shutdown();
+        if (!collectorExecutor.awaitTermination(10, SECONDS)) {
+            // continue with the rest of shutdown, the remaining collections will be re-sent by
+            // the agents to whichever central node they reconnect to
+            logger.warn("timed out waiting for collector threads to terminate");
+        }
     }
 
     private static File getHttpsConfFile(File confDir, String fileName, String sharedFileName,
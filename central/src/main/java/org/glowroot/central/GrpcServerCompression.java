@@ -0,0 +1,54 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.ForwardingServerCall.SimpleForwardingServerCall;
+import io.grpc.Metadata;
+import io.grpc.ServerCall;
+import io.grpc.ServerCallHandler;
+import io.grpc.ServerInterceptor;
+
+// compression of messages sent from the central collector to agents (e.g. agent config updates
+// sent over the downstream service), the agents decide on their own compression of messages sent
+// to the central collector (see org.glowroot.agent.central.GrpcCompression)
+//
+// grpc only applies the compression if the agent has advertised support for it in its
+// grpc-accept-encoding header, otherwise messages are sent uncompressed
+class GrpcServerCompression implements ServerInterceptor {
+
+    private static final int MIN_SIZE_BYTES =
+            Integer.getInteger("glowroot.central.grpcCompressionMinSizeBytes", 1024);
+
+    @Override
+    public <ReqT, RespT> ServerCall.Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call,
+            Metadata headers, ServerCallHandler<ReqT, RespT> next) {
+        call.setCompression("gzip");
+        return next.startCall(new SimpleForwardingServerCall<ReqT, RespT>(call) {
+            @Override
+            public void sendMessage(RespT message) {
+                delegate().setMessageCompression(shouldCompress(message));
+                super.sendMessage(message);
+            }
+        }, headers);
+    }
+
+    private static boolean shouldCompress(Object message) {
+        // compressing small messages (e.g. acks) costs more cpu than it's worth
+        return !(message instanceof MessageLite)
+                || ((MessageLite) message).getSerializedSize() >= MIN_SIZE_BYTES;
+    }
+}
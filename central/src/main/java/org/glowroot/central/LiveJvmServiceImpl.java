@@ -61,8 +61,8 @@ class LiveJvmServiceImpl implements LiveJvmService {
     }
 
     @Override
-    public HeapHistogram heapHistogram(String agentId) throws Exception {
-        return downstreamService.heapHistogram(agentId);
+    public HeapHistogram heapHistogram(String agentId, int limit) throws Exception {
+        return downstreamService.heapHistogram(agentId, limit);
     }
 
     @Override
@@ -42,6 +42,12 @@ class LiveTraceRepositoryImpl implements LiveTraceRepository {
         return downstreamService.getEntries(agentId, traceId);
     }
 
+    @Override
+    public @Nullable Entries getEntries(String agentId, String traceId, int fromIndex, int limit)
+            throws Exception {
+        return downstreamService.getEntries(agentId, traceId, fromIndex, limit);
+    }
+
     @Override
     public @Nullable Queries getQueries(String agentId, String traceId) throws Exception {
         return downstreamService.getQueries(agentId, traceId);
@@ -29,17 +29,24 @@ import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
-import com.google.common.base.Joiner;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
 import com.google.common.primitives.Ints;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.checkerframework.checker.nullness.qual.Nullable;
 import org.immutables.value.Value;
 
+import org.glowroot.central.util.MoreFutures;
+import org.glowroot.central.util.RateLimiter;
 import org.glowroot.central.util.Session;
 import org.glowroot.common.util.CaptureTimes;
 import org.glowroot.common.util.Clock;
+import org.glowroot.common.util.Styles;
 import org.glowroot.common2.repo.ActiveAgentRepository;
 import org.glowroot.common2.repo.ConfigRepository.RollupConfig;
 import org.glowroot.common2.repo.ImmutableAgentRollup;
@@ -51,9 +58,26 @@ import static com.google.common.base.Preconditions.checkNotNull;
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.concurrent.TimeUnit.DAYS;
 import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
 
 public class ActiveAgentDao implements ActiveAgentRepository {
 
+    // above this number of rollup intervals (e.g. when viewing a year at the daily rollup level),
+    // the active agents are read directly instead of through the cache
+    private static final int MAX_CACHED_INTERVALS = 100;
+
+    // this is enough to cache a full window at each rollup level
+    private static final int ACTIVE_AGENT_IDS_CACHE_MAX_SIZE = 400;
+
+    // cached rollup intervals that were not yet complete when they were loaded are reloaded after
+    // this amount of time, in order to pick up agents that were inserted through other central
+    // cluster nodes
+    private static final long OPEN_INTERVAL_RELOAD_MILLIS = MINUTES.toMillis(1);
+
+    // allowance for agents inserted into a rollup interval after it has ended (e.g. aggregates
+    // that are resent by the agent after central was temporarily unavailable)
+    private static final long OPEN_INTERVAL_GRACE_MILLIS = HOURS.toMillis(1);
+
     private final Session session;
     private final AgentConfigDao agentConfigDao;
     private final ConfigRepositoryImpl configRepository;
@@ -62,6 +86,25 @@ public class ActiveAgentDao implements ActiveAgentRepository {
 
     private final ImmutableList<PreparedStatement> insertPS;
     private final ImmutableList<PreparedStatement> readPS;
+    private final ImmutableList<PreparedStatement> readCaptureTimePS;
+
+    // inserts are blind writes, this only prevents re-writing the same row over and over (it is
+    // local to this central node, since other central cluster nodes re-writing the same row is
+    // harmless)
+    private final RateLimiter<ActiveAgentInsertKey> rateLimiter = new RateLimiter<>(100000);
+
+    // active agent ids per rollup interval, so that reading the agent rollup hierarchy doesn't
+    // scan the active_agent_rollup tables on every request (the agent rollup display names are
+    // already cached by AgentConfigDao)
+    //
+    // this is local to this central node, so that inserts (which happen continuously for every
+    // agent) do not need to invalidate it across the cluster, the cached sets are concurrent sets
+    // which are added to in place by inserts through this central node, and agents inserted
+    // through other central cluster nodes are picked up by reloading open rollup intervals
+    private final Cache<ActiveAgentKey, CachedActiveAgentIds> activeAgentIdsCache =
+            CacheBuilder.newBuilder()
+                    .maximumSize(ACTIVE_AGENT_IDS_CACHE_MAX_SIZE)
+                    .build();
 
     ActiveAgentDao(Session session, AgentConfigDao agentConfigDao,
             ConfigRepositoryImpl configRepository, RollupLevelService rollupLevelService,
@@ -78,6 +121,7 @@ public class ActiveAgentDao implements ActiveAgentRepository {
 
         List<PreparedStatement> insertPS = new ArrayList<>();
         List<PreparedStatement> readPS = new ArrayList<>();
+        List<PreparedStatement> readCaptureTimePS = new ArrayList<>();
         for (int i = 0; i < count; i++) {
             session.createTableWithTWCS("create table if not exists active_agent_rollup_" + i
                     + " (one int, capture_time timestamp, agent_id varchar, primary key (one,"
@@ -86,9 +130,12 @@ public class ActiveAgentDao implements ActiveAgentRepository {
                     + " capture_time, agent_id) values (1, ?, ?) using ttl ?"));
             readPS.add(session.prepare("select agent_id from active_agent_rollup_" + i + " where"
                     + " one = 1 and capture_time >= ? and capture_time <= ?"));
+            readCaptureTimePS.add(session.prepare("select agent_id from active_agent_rollup_" + i
+                    + " where one = 1 and capture_time = ?"));
         }
         this.insertPS = ImmutableList.copyOf(insertPS);
         this.readPS = ImmutableList.copyOf(readPS);
+        this.readCaptureTimePS = ImmutableList.copyOf(readCaptureTimePS);
     }
 
     @Override
@@ -106,14 +153,25 @@ public class ActiveAgentDao implements ActiveAgentRepository {
                 getRollupIntervalMillis(configRepository.getRollupConfigs(), rollupLevel);
         long rolledUpFrom = CaptureTimes.getRollup(from, rollupIntervalMillis);
         long rolledUpTo = CaptureTimes.getRollup(to, rollupIntervalMillis);
-        BoundStatement boundStatement = readPS.get(rollupLevel).bind();
-        boundStatement.setTimestamp(0, new Date(rolledUpFrom));
-        boundStatement.setTimestamp(1, new Date(rolledUpTo));
-        ResultSet results = session.read(boundStatement);
+        Set<String> agentIds = new HashSet<>();
+        if ((rolledUpTo - rolledUpFrom) / rollupIntervalMillis < MAX_CACHED_INTERVALS) {
+            for (long captureTime = rolledUpFrom; captureTime <= rolledUpTo;
+                    captureTime += rollupIntervalMillis) {
+                agentIds.addAll(
+                        getActiveAgentIds(ImmutableActiveAgentKey.of(rollupLevel, captureTime)));
+            }
+        } else {
+            BoundStatement boundStatement = readPS.get(rollupLevel).bind();
+            boundStatement.setTimestamp(0, new Date(rolledUpFrom));
+            boundStatement.setTimestamp(1, new Date(rolledUpTo));
+            ResultSet results = session.read(boundStatement);
+            for (Row row : results) {
+                agentIds.add(checkNotNull(row.getString(0)));
+            }
+        }
         Set<String> topLevelAgentRollupIds = new HashSet<>();
         Multimap<String, String> childMultimap = HashMultimap.create();
-        for (Row row : results) {
-            String agentId = checkNotNull(row.getString(0));
+        for (String agentId : agentIds) {
             List<String> agentRollupIds = AgentRollupIds.getAgentRollupIds(agentId);
             if (agentRollupIds.size() == 1) {
                 topLevelAgentRollupIds.add(agentId);
@@ -127,7 +185,7 @@ public class ActiveAgentDao implements ActiveAgentRepository {
         }
         List<AgentRollup> agentRollups = new ArrayList<>();
         for (String topLevelAgentRollupId : topLevelAgentRollupIds) {
-            agentRollups.add(createAgentRollup(topLevelAgentRollupId, childMultimap));
+            agentRollups.add(createAgentRollup(topLevelAgentRollupId, null, childMultimap));
         }
         agentRollups.sort(Comparator.comparing(AgentRollup::display));
         return agentRollups;
@@ -149,30 +207,76 @@ public class ActiveAgentDao implements ActiveAgentRepository {
         for (int rollupLevel = 0; rollupLevel < rollupConfigs.size(); rollupLevel++) {
             long rollupIntervalMillis = getRollupIntervalMillis(rollupConfigs, rollupLevel);
             long rollupCaptureTime = CaptureTimes.getRollup(captureTime, rollupIntervalMillis);
+            // re-inserting the same row would not extend its expiration since the TTL is adjusted
+            // based on the rollup capture time
+            ActiveAgentInsertKey rateLimiterKey =
+                    ImmutableActiveAgentInsertKey.of(rollupLevel, rollupCaptureTime, agentId);
+            if (!rateLimiter.tryAcquire(rateLimiterKey)) {
+                continue;
+            }
             int ttl = Ints.saturatedCast(HOURS.toSeconds(rollupExpirationHours.get(rollupLevel)));
             int adjustedTTL = Common.getAdjustedTTL(ttl, rollupCaptureTime, clock);
-            BoundStatement boundStatement = insertPS.get(rollupLevel).bind();
-            int i = 0;
-            boundStatement.setTimestamp(i++, new Date(rollupCaptureTime));
-            boundStatement.setString(i++, agentId);
-            boundStatement.setInt(i++, adjustedTTL);
-            futures.add(session.writeAsync(boundStatement));
+            ListenableFuture<?> future;
+            try {
+                BoundStatement boundStatement = insertPS.get(rollupLevel).bind();
+                int i = 0;
+                boundStatement.setTimestamp(i++, new Date(rollupCaptureTime));
+                boundStatement.setString(i++, agentId);
+                boundStatement.setInt(i++, adjustedTTL);
+                future = session.writeAsync(boundStatement);
+            } catch (Exception e) {
+                rateLimiter.invalidate(rateLimiterKey);
+                throw e;
+            }
+            ActiveAgentKey key = ImmutableActiveAgentKey.of(rollupLevel, rollupCaptureTime);
+            // the cached set is only updated after the write succeeds, so that a concurrent reload
+            // cannot drop the new agent id after it has been added
+            futures.add(MoreFutures.onSuccessAndFailure(future,
+                    () -> addToCachedActiveAgentIds(key, agentId),
+                    () -> rateLimiter.invalidate(rateLimiterKey)));
         }
         return futures;
     }
 
-    private AgentRollup createAgentRollup(String agentRollupId,
+    private Set<String> getActiveAgentIds(ActiveAgentKey key) throws Exception {
+        long currentTimeMillis = clock.currentTimeMillis();
+        CachedActiveAgentIds cached = activeAgentIdsCache.getIfPresent(key);
+        if (cached != null && !cached.needsReload(key, currentTimeMillis)) {
+            return cached.agentIds;
+        }
+        BoundStatement boundStatement = readCaptureTimePS.get(key.rollupLevel()).bind();
+        boundStatement.setTimestamp(0, new Date(key.captureTime()));
+        ResultSet results = session.read(boundStatement);
+        Set<String> agentIds = Sets.newConcurrentHashSet();
+        for (Row row : results) {
+            agentIds.add(checkNotNull(row.getString(0)));
+        }
+        activeAgentIdsCache.put(key, new CachedActiveAgentIds(agentIds, currentTimeMillis));
+        return agentIds;
+    }
+
+    private void addToCachedActiveAgentIds(ActiveAgentKey key, String agentId) {
+        CachedActiveAgentIds cached = activeAgentIdsCache.getIfPresent(key);
+        if (cached != null) {
+            cached.agentIds.add(agentId);
+        }
+    }
+
+    // the display is built from the parent display, instead of reading the display parts of all
+    // of the ancestors for every agent rollup in the hierarchy
+    private AgentRollup createAgentRollup(String agentRollupId, @Nullable String parentDisplay,
             Multimap<String, String> parentChildMap) throws Exception {
         Collection<String> childAgentRollupIds = parentChildMap.get(agentRollupId);
-        List<String> agentRollupDisplayParts =
-                configRepository.readAgentRollupDisplayParts(agentRollupId);
+        String lastDisplayPart = agentConfigDao.readAgentRollupLastDisplayPart(agentRollupId);
+        String display =
+                parentDisplay == null ? lastDisplayPart : parentDisplay + " :: " + lastDisplayPart;
         ImmutableAgentRollup.Builder builder = ImmutableAgentRollup.builder()
                 .id(agentRollupId)
-                .display(Joiner.on(" :: ").join(agentRollupDisplayParts))
-                .lastDisplayPart(Iterables.getLast(agentRollupDisplayParts));
+                .display(display)
+                .lastDisplayPart(lastDisplayPart);
         List<AgentRollup> childAgentRollups = new ArrayList<>();
         for (String childAgentRollupId : childAgentRollupIds) {
-            childAgentRollups.add(createAgentRollup(childAgentRollupId, parentChildMap));
+            childAgentRollups.add(createAgentRollup(childAgentRollupId, display, parentChildMap));
         }
         childAgentRollups.sort(Comparator.comparing(AgentRollup::display));
         return builder.addAllChildren(childAgentRollups)
@@ -189,9 +293,41 @@ public class ActiveAgentDao implements ActiveAgentRepository {
         return rollupIntervalMillis;
     }
 
+    @Value.Immutable
+    @Styles.AllParameters
+    interface ActiveAgentKey {
+        int rollupLevel();
+        long captureTime();
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface ActiveAgentInsertKey {
+        int rollupLevel();
+        long captureTime();
+        String agentId();
+    }
+
     @Value.Immutable
     public interface AgentConfigUpdate {
         AgentConfig config();
         UUID configUpdateToken();
     }
+
+    private static class CachedActiveAgentIds {
+
+        private final Set<String> agentIds;
+        private final long loadTimeMillis;
+
+        private CachedActiveAgentIds(Set<String> agentIds, long loadTimeMillis) {
+            this.agentIds = agentIds;
+            this.loadTimeMillis = loadTimeMillis;
+        }
+
+        // rollup capture times are the end of the rollup interval
+        private boolean needsReload(ActiveAgentKey key, long currentTimeMillis) {
+            return loadTimeMillis < key.captureTime() + OPEN_INTERVAL_GRACE_MILLIS
+                    && currentTimeMillis - loadTimeMillis >= OPEN_INTERVAL_RELOAD_MILLIS;
+        }
+    }
 }
@@ -218,7 +218,7 @@ public class AgentConfigDao {
         session.update(boundStatement);
     }
 
-    private String readAgentRollupLastDisplayPart(String agentRollupId) throws Exception {
+    String readAgentRollupLastDisplayPart(String agentRollupId) throws Exception {
         AgentConfig agentConfig = read(agentRollupId);
         if (agentConfig == null) {
             return MoreConfigDefaults.getDefaultAgentRollupDisplayPart(agentRollupId);
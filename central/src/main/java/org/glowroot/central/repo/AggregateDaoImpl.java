@@ -16,6 +16,8 @@
 package org.glowroot.central.repo;
 
 import java.io.IOException;
+import java.io.Serializable;
+import java.lang.management.ManagementFactory;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -27,17 +29,24 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.ToLongFunction;
 import java.util.stream.Collectors;
 
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.ObjectName;
+
 import com.datastax.driver.core.BoundStatement;
 import com.datastax.driver.core.PreparedStatement;
 import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.utils.UUIDs;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
@@ -47,9 +56,14 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.google.protobuf.AbstractMessage;
 import org.checkerframework.checker.nullness.qual.Nullable;
 import org.immutables.value.Value;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import org.glowroot.central.repo.Common.NeedsRollup;
 import org.glowroot.central.repo.Common.NeedsRollupFromChildren;
+import org.glowroot.central.util.Cache;
+import org.glowroot.central.util.Cache.CacheLoader;
+import org.glowroot.central.util.ClusterManager;
 import org.glowroot.central.util.Messages;
 import org.glowroot.central.util.MoreFutures;
 import org.glowroot.central.util.MoreFutures.DoRollup;
@@ -101,6 +115,22 @@ import static java.util.concurrent.TimeUnit.HOURS;
 
 public class AggregateDaoImpl implements AggregateDao {
 
+    private static final Logger logger = LoggerFactory.getLogger(AggregateDaoImpl.class);
+
+    // overview, percentile and throughput aggregates are cached in blocks of this many rollup
+    // intervals, e.g. 12 minute blocks for rollup level 0 and 2 day blocks for rollup level 3
+    private static final int BLOCK_CACHE_INTERVAL_COUNT = 12;
+
+    // number of transaction names per sort order (total time and throughput) that are stored in
+    // the top summary tables for each rolled up interval
+    private static final int TOP_SUMMARY_LIMIT = 100;
+
+    private static final int BLOCK_CACHE_MAX_SIZE =
+            Integer.getInteger("glowroot.central.aggregateBlockCacheMaxSize", 10000);
+
+    private static final String BLOCK_CACHE_MBEAN_NAME =
+            "org.glowroot.central:type=AggregateBlockCache";
+
     @SuppressWarnings("deprecation")
     private static final HashFunction SHA_1 = Hashing.sha1();
 
@@ -138,6 +168,8 @@ public class AggregateDaoImpl implements AggregateDao {
             .addColumns(ImmutableColumn.of("aux_thread_total_allocated_bytes", "double"))
             // ideally this would be named async_timers (as they are all root)
             .addColumns(ImmutableColumn.of("async_root_timers", "blob"))
+            // null for data inserted prior to glowroot central 0.12.3 (read as zero)
+            .addColumns(ImmutableColumn.of("unsampled_transaction_count", "bigint"))
             .summary(false)
             .fromInclusive(true)
             .build();
@@ -225,6 +257,10 @@ public class AggregateDaoImpl implements AggregateDao {
     private final List<PreparedStatement> existsAuxThreadProfileOverallPS;
     private final List<PreparedStatement> existsAuxThreadProfileTransactionPS;
 
+    // list index is rollupLevel - 1 (top summaries are only maintained for rolled up intervals)
+    private final List<PreparedStatement> insertTopSummaryPS;
+    private final List<PreparedStatement> readTopSummaryPS;
+
     private final List<PreparedStatement> insertNeedsRollup;
     private final List<PreparedStatement> readNeedsRollup;
     private final List<PreparedStatement> deleteNeedsRollup;
@@ -235,10 +271,17 @@ public class AggregateDaoImpl implements AggregateDao {
 
     private final ImmutableList<Table> allTables;
 
+    private final Cache<BlockKey, List<OverviewAggregate>> overviewBlockCache;
+    private final Cache<BlockKey, List<PercentileAggregate>> percentileBlockCache;
+    private final Cache<BlockKey, List<ThroughputAggregate>> throughputBlockCache;
+
+    private final BlockCacheStats blockCacheStats = new BlockCacheStats();
+    private final AtomicLong topSummaryHitCount = new AtomicLong();
+
     AggregateDaoImpl(Session session, ActiveAgentDao activeAgentDao,
             TransactionTypeDao transactionTypeDao, FullQueryTextDao fullQueryTextDao,
-            ConfigRepositoryImpl configRepository, ExecutorService asyncExecutor, Clock clock)
-            throws Exception {
+            ConfigRepositoryImpl configRepository, ClusterManager clusterManager,
+            ExecutorService asyncExecutor, Clock clock) throws Exception {
         this.session = session;
         this.activeAgentDao = activeAgentDao;
         this.transactionTypeDao = transactionTypeDao;
@@ -362,6 +405,33 @@ public class AggregateDaoImpl implements AggregateDao {
         this.existsAuxThreadProfileOverallPS = existsAuxThreadProfileOverallPS;
         this.existsAuxThreadProfileTransactionPS = existsAuxThreadProfileTransactionPS;
 
+        List<PreparedStatement> insertTopSummaryPS = new ArrayList<>();
+        List<PreparedStatement> readTopSummaryPS = new ArrayList<>();
+        for (int i = 1; i < count; i++) {
+            // the thresholds are the largest values (per interval) that were left out of the top
+            // summaries, which is needed to determine if the top summaries are sufficient to
+            // produce an exact result for a given range
+            session.createTableWithTWCS("create table if not exists"
+                    + " aggregate_tn_top_summary_rollup_" + i + " (agent_rollup varchar,"
+                    + " transaction_type varchar, capture_time timestamp,"
+                    + " transaction_name varchar, total_duration_nanos double,"
+                    + " transaction_count bigint, total_duration_nanos_threshold double,"
+                    + " transaction_count_threshold bigint, primary key ((agent_rollup,"
+                    + " transaction_type), capture_time, transaction_name))",
+                    rollupExpirationHours.get(i));
+            insertTopSummaryPS.add(session.prepare("insert into aggregate_tn_top_summary_rollup_"
+                    + i + " (agent_rollup, transaction_type, capture_time, transaction_name,"
+                    + " total_duration_nanos, transaction_count, total_duration_nanos_threshold,"
+                    + " transaction_count_threshold) values (?, ?, ?, ?, ?, ?, ?, ?) using TTL ?"));
+            readTopSummaryPS.add(session.prepare("select capture_time, transaction_name,"
+                    + " total_duration_nanos, transaction_count, total_duration_nanos_threshold,"
+                    + " transaction_count_threshold from aggregate_tn_top_summary_rollup_" + i
+                    + " where agent_rollup = ? and transaction_type = ? and capture_time > ? and"
+                    + " capture_time <= ?"));
+        }
+        this.insertTopSummaryPS = insertTopSummaryPS;
+        this.readTopSummaryPS = readTopSummaryPS;
+
         // since rollup operations are idempotent, any records resurrected after gc_grace_seconds
         // would just create extra work, but not have any other effect
         //
@@ -408,6 +478,14 @@ public class AggregateDaoImpl implements AggregateDao {
                 + " where agent_rollup = ?");
         deleteNeedsRollupFromChild = session.prepare("delete from aggregate_needs_rollup_from_child"
                 + " where agent_rollup = ? and capture_time = ? and uniqueness = ?");
+
+        overviewBlockCache = clusterManager.createSizeLimitedCache("overviewBlockCache",
+                BLOCK_CACHE_MAX_SIZE, new OverviewBlockCacheLoader());
+        percentileBlockCache = clusterManager.createSizeLimitedCache("percentileBlockCache",
+                BLOCK_CACHE_MAX_SIZE, new PercentileBlockCacheLoader());
+        throughputBlockCache = clusterManager.createSizeLimitedCache("throughputBlockCache",
+                BLOCK_CACHE_MAX_SIZE, new ThroughputBlockCacheLoader());
+        registerMBean(blockCacheStats);
     }
 
     @Override
@@ -542,28 +620,174 @@ public class AggregateDaoImpl implements AggregateDao {
         }
     }
 
-    // sortOrder and limit are only used by embedded H2 repository, while the central cassandra
-    // repository which currently has to pull in all records anyways just delegates ordering and
-    // limit to TransactionNameSummaryCollector
+    // for rolled up intervals, sortOrder and limit are used to try to serve the result from the
+    // top summaries, otherwise (and for the average time sort order which cannot be bounded from
+    // per-interval top summaries) this central cassandra repository has to pull in all records
+    // and delegates ordering and limit to TransactionNameSummaryCollector
     //
     // query.from() is non-inclusive
     @Override
     public void mergeTransactionNameSummariesInto(String agentRollupId, SummaryQuery query,
             SummarySortOrder sortOrder, int limit, TransactionNameSummaryCollector collector)
             throws Exception {
+        if (query.rollupLevel() > 0 && sortOrder != SummarySortOrder.AVERAGE_TIME
+                && limit <= TOP_SUMMARY_LIMIT && mergeTopTransactionNameSummariesInto(agentRollupId,
+                        query, sortOrder, limit, collector)) {
+            topSummaryHitCount.getAndIncrement();
+            return;
+        }
+        for (TransactionSummaryRow row : readTransactionSummaryRows(agentRollupId, query)) {
+            collector.collect(row.transactionName(), row.totalDurationNanos(),
+                    row.transactionCount(), row.captureTime());
+        }
+    }
+
+    // returns false (without merging anything into the collector) if the top summaries are not
+    // sufficient to produce an exact result, e.g. because the requested limit reaches beyond the
+    // transaction names that are known to be in the top for every interval, or because some of
+    // the intervals were rolled up prior to the top summaries being introduced
+    //
+    // the trailing part of the range that is not rolled up to this level yet (e.g. the last few
+    // minutes of an auto refresh range) is read exactly from the lower rollup levels and included
+    // in the bounds check, since a transaction name just outside of the top summaries could still
+    // rank near the top once the trailing part is added
+    private boolean mergeTopTransactionNameSummariesInto(String agentRollupId, SummaryQuery query,
+            SummarySortOrder sortOrder, int limit, TransactionNameSummaryCollector collector)
+            throws Exception {
+        Set<Long> captureTimes = new HashSet<>();
+        long lastCaptureTime = 0;
+        for (Row row : executeQuery(agentRollupId, query, summaryTable)) {
+            long captureTime = checkNotNull(row.getTimestamp(0)).getTime();
+            captureTimes.add(captureTime);
+            lastCaptureTime = Math.max(lastCaptureTime, captureTime);
+        }
+        if (captureTimes.isEmpty()) {
+            return false;
+        }
+        BoundStatement boundStatement =
+                readTopSummaryPS.get(query.rollupLevel() - 1).bind();
+        bindQuery(boundStatement, agentRollupId, query);
+        ResultSet results = session.read(boundStatement);
+        List<TransactionSummaryRow> rows = new ArrayList<>();
+        Map<Long, Double> thresholds = new HashMap<>();
+        Map<String, MutableTopSummary> topSummaries = new HashMap<>();
+        for (Row row : results) {
+            int i = 0;
+            long captureTime = checkNotNull(row.getTimestamp(i++)).getTime();
+            String transactionName = checkNotNull(row.getString(i++));
+            double totalDurationNanos = row.getDouble(i++);
+            long transactionCount = row.getLong(i++);
+            double totalDurationNanosThreshold = row.getDouble(i++);
+            long transactionCountThreshold = row.getLong(i++);
+            TransactionSummaryRow summaryRow = ImmutableTransactionSummaryRow.of(captureTime,
+                    transactionName, totalDurationNanos, transactionCount);
+            rows.add(summaryRow);
+            double threshold;
+            if (sortOrder == SummarySortOrder.TOTAL_TIME) {
+                threshold = totalDurationNanosThreshold;
+            } else {
+                threshold = transactionCountThreshold;
+            }
+            thresholds.put(captureTime, threshold);
+            MutableTopSummary topSummary = getOrCreate(topSummaries, transactionName);
+            topSummary.value += getSortValue(summaryRow, sortOrder);
+            if (threshold > 0) {
+                topSummary.presentThresholdSum += threshold;
+                topSummary.presentTruncatedIntervalCount++;
+            }
+        }
+        if (!thresholds.keySet().containsAll(captureTimes)) {
+            return false;
+        }
+        List<TransactionSummaryRow> trailingRows =
+                readTrailingTransactionSummaryRows(agentRollupId, query, lastCaptureTime);
+        for (TransactionSummaryRow row : trailingRows) {
+            // the trailing values are exact, so they tighten both bounds equally
+            getOrCreate(topSummaries, row.transactionName()).value +=
+                    getSortValue(row, sortOrder);
+        }
+        double thresholdSum = 0;
+        int truncatedIntervalCount = 0;
+        for (double threshold : thresholds.values()) {
+            if (threshold > 0) {
+                thresholdSum += threshold;
+                truncatedIntervalCount++;
+            }
+        }
+        List<MutableTopSummary> sortedTopSummaries = new ArrayList<>(topSummaries.values());
+        sortedTopSummaries.sort((left, right) -> Double.compare(right.value, left.value));
+        if (sortedTopSummaries.size() < limit && truncatedIntervalCount > 0) {
+            // transaction names that are not in any of the top summaries could still be part of
+            // the result
+            return false;
+        }
+        // the upper bound for transaction names that are not in any of the top summaries (or in
+        // the trailing part of the range)
+        double maxOtherUpperBound = thresholdSum;
+        for (int i = limit; i < sortedTopSummaries.size(); i++) {
+            MutableTopSummary topSummary = sortedTopSummaries.get(i);
+            maxOtherUpperBound = Math.max(maxOtherUpperBound,
+                    topSummary.value + thresholdSum - topSummary.presentThresholdSum);
+        }
+        for (int i = 0; i < Math.min(limit, sortedTopSummaries.size()); i++) {
+            MutableTopSummary topSummary = sortedTopSummaries.get(i);
+            if (topSummary.presentTruncatedIntervalCount != truncatedIntervalCount
+                    || topSummary.value < maxOtherUpperBound) {
+                return false;
+            }
+        }
+        for (TransactionSummaryRow row : Iterables.concat(rows, trailingRows)) {
+            collector.collect(row.transactionName(), row.totalDurationNanos(),
+                    row.transactionCount(), row.captureTime());
+        }
+        return true;
+    }
+
+    // reads the part of the range after lastCaptureTime from the lower rollup levels, the same way
+    // that the caller would continue reading after this rollup level
+    private List<TransactionSummaryRow> readTrailingTransactionSummaryRows(String agentRollupId,
+            SummaryQuery query, long lastCaptureTime) throws Exception {
+        List<TransactionSummaryRow> rows = new ArrayList<>();
+        long revisedFrom = lastCaptureTime + 1;
+        for (int rollupLevel = query.rollupLevel() - 1; rollupLevel >= 0
+                && revisedFrom <= query.to(); rollupLevel--) {
+            SummaryQuery revisedQuery = ImmutableSummaryQuery.builder()
+                    .copyFrom(query)
+                    .from(revisedFrom)
+                    .rollupLevel(rollupLevel)
+                    .build();
+            for (TransactionSummaryRow row : readTransactionSummaryRows(agentRollupId,
+                    revisedQuery)) {
+                rows.add(row);
+                revisedFrom = Math.max(revisedFrom, row.captureTime() + 1);
+            }
+        }
+        return rows;
+    }
+
+    private List<TransactionSummaryRow> readTransactionSummaryRows(String agentRollupId,
+            SummaryQuery query) throws Exception {
         // currently have to do group by / sort / limit client-side
         BoundStatement boundStatement =
                 checkNotNull(readTransactionPS.get(summaryTable)).get(query.rollupLevel()).bind();
         bindQuery(boundStatement, agentRollupId, query);
         ResultSet results = session.read(boundStatement);
+        List<TransactionSummaryRow> rows = new ArrayList<>();
         for (Row row : results) {
             int i = 0;
             long captureTime = checkNotNull(row.getTimestamp(i++)).getTime();
             String transactionName = checkNotNull(row.getString(i++));
             double totalDurationNanos = row.getDouble(i++);
             long transactionCount = row.getLong(i++);
-            collector.collect(transactionName, totalDurationNanos, transactionCount, captureTime);
+            rows.add(ImmutableTransactionSummaryRow.of(captureTime, transactionName,
+                    totalDurationNanos, transactionCount));
         }
+        return rows;
+    }
+
+    @VisibleForTesting
+    long getTopSummaryHitCount() {
+        return topSummaryHitCount.get();
     }
 
     // query.from() is non-inclusive
@@ -610,6 +834,29 @@ public class AggregateDaoImpl implements AggregateDao {
     @Override
     public List<OverviewAggregate> readOverviewAggregates(String agentRollupId,
             AggregateQuery query) throws Exception {
+        return readUsingBlockCache(agentRollupId, query, overviewBlockCache,
+                OverviewAggregate::captureTime, this::readOverviewAggregatesInternal);
+    }
+
+    // query.from() is INCLUSIVE
+    @Override
+    public List<PercentileAggregate> readPercentileAggregates(String agentRollupId,
+            AggregateQuery query) throws Exception {
+        return readUsingBlockCache(agentRollupId, query, percentileBlockCache,
+                PercentileAggregate::captureTime, this::readPercentileAggregatesInternal);
+    }
+
+    // query.from() is INCLUSIVE
+    @Override
+    public List<ThroughputAggregate> readThroughputAggregates(String agentRollupId,
+            AggregateQuery query) throws Exception {
+        return readUsingBlockCache(agentRollupId, query, throughputBlockCache,
+                ThroughputAggregate::captureTime, this::readThroughputAggregatesInternal);
+    }
+
+    // query.from() is INCLUSIVE
+    private List<OverviewAggregate> readOverviewAggregatesInternal(String agentRollupId,
+            AggregateQuery query) throws Exception {
         ResultSet results = executeQuery(agentRollupId, query, overviewTable);
         List<OverviewAggregate> overviewAggregates = new ArrayList<>();
         for (Row row : results) {
@@ -645,10 +892,12 @@ public class AggregateDaoImpl implements AggregateDao {
             }
             List<Aggregate.Timer> asyncTimers =
                     Messages.parseDelimitedFrom(row.getBytes(i++), Aggregate.Timer.parser());
+            long unsampledTransactionCount = row.getLong(i++);
             ImmutableOverviewAggregate.Builder builder = ImmutableOverviewAggregate.builder()
                     .captureTime(captureTime)
                     .totalDurationNanos(totalDurationNanos)
                     .transactionCount(transactionCount)
+                    .unsampledTransactionCount(unsampledTransactionCount)
                     .asyncTransactions(asyncTransactions)
                     .addAllMainThreadRootTimers(mainThreadRootTimers)
                     .mainThreadStats(mainThreadStats)
@@ -661,8 +910,7 @@ public class AggregateDaoImpl implements AggregateDao {
     }
 
     // query.from() is INCLUSIVE
-    @Override
-    public List<PercentileAggregate> readPercentileAggregates(String agentRollupId,
+    private List<PercentileAggregate> readPercentileAggregatesInternal(String agentRollupId,
             AggregateQuery query) throws Exception {
         ResultSet results = executeQuery(agentRollupId, query, histogramTable);
         List<PercentileAggregate> percentileAggregates = new ArrayList<>();
@@ -684,8 +932,7 @@ public class AggregateDaoImpl implements AggregateDao {
     }
 
     // query.from() is INCLUSIVE
-    @Override
-    public List<ThroughputAggregate> readThroughputAggregates(String agentRollupId,
+    private List<ThroughputAggregate> readThroughputAggregatesInternal(String agentRollupId,
             AggregateQuery query) throws Exception {
         ResultSet results = executeQuery(agentRollupId, query, throughputTable);
         List<ThroughputAggregate> throughputAggregates = new ArrayList<>();
@@ -704,6 +951,77 @@ public class AggregateDaoImpl implements AggregateDao {
         return throughputAggregates;
     }
 
+    // blocks that are fully in the past are read through the block cache, and the trailing
+    // (still being written) part of the query is read directly
+    private <T> List<T> readUsingBlockCache(String agentRollupId, AggregateQuery query,
+            Cache<BlockKey, List<T>> blockCache, ToLongFunction<T> captureTimeFunction,
+            AggregateReader<T> uncachedReader) throws Exception {
+        int rollupLevel = query.rollupLevel();
+        long blockSizeMillis = getBlockSizeMillis(rollupLevel);
+        List<T> aggregates = new ArrayList<>();
+        long blockStart = getBlockStart(query.from(), rollupLevel);
+        while (blockStart <= query.to() && isBlockCacheable(blockStart, rollupLevel)) {
+            BlockKey key = ImmutableBlockKey.of(agentRollupId, rollupLevel,
+                    query.transactionType(), query.transactionName(), blockStart);
+            for (T aggregate : blockCache.get(key)) {
+                long captureTime = captureTimeFunction.applyAsLong(aggregate);
+                if (captureTime >= query.from() && captureTime <= query.to()) {
+                    aggregates.add(aggregate);
+                }
+            }
+            blockCacheStats.requestCount.getAndIncrement();
+            blockStart += blockSizeMillis;
+        }
+        long liveFrom = Math.max(query.from(), blockStart);
+        if (liveFrom <= query.to()) {
+            aggregates.addAll(uncachedReader.read(agentRollupId,
+                    ImmutableAggregateQuery.copyOf(query).withFrom(liveFrom)));
+        }
+        return aggregates;
+    }
+
+    private long getBlockSizeMillis(int rollupLevel) {
+        return configRepository.getRollupConfigs().get(rollupLevel).intervalMillis()
+                * BLOCK_CACHE_INTERVAL_COUNT;
+    }
+
+    private long getBlockStart(long captureTime, int rollupLevel) {
+        long blockSizeMillis = getBlockSizeMillis(rollupLevel);
+        return (captureTime / blockSizeMillis) * blockSizeMillis;
+    }
+
+    // only blocks that are entirely at least one rollup interval in the past are read through the
+    // block cache
+    private boolean isBlockCacheable(long blockStart, int rollupLevel) {
+        long intervalMillis = configRepository.getRollupConfigs().get(rollupLevel).intervalMillis();
+        return blockStart + getBlockSizeMillis(rollupLevel) - 1 <= clock.currentTimeMillis()
+                - intervalMillis;
+    }
+
+    private ListenableFuture<?> invalidateBlockAfterWrite(ListenableFuture<?> future,
+            Cache<BlockKey, ?> blockCache, String agentRollupId, int rollupLevel,
+            String transactionType, @Nullable String transactionName, long captureTime) {
+        long blockStart = getBlockStart(captureTime, rollupLevel);
+        // invalidating after the write completes (successfully or not), since invalidating prior
+        // to that could race with a concurrent read re-populating the block with stale data
+        Runnable invalidate = () -> {
+            // most writes land in the current (not yet cacheable) block, which cannot have been
+            // read through the block cache, so there is nothing to invalidate (and no reason to
+            // broadcast an invalidation across the cluster)
+            if (isBlockCacheable(blockStart, rollupLevel)) {
+                blockCache.invalidate(ImmutableBlockKey.of(agentRollupId, rollupLevel,
+                        transactionType, transactionName, blockStart));
+                blockCacheStats.invalidationCount.getAndIncrement();
+            }
+        };
+        return MoreFutures.onSuccessAndFailure(future, invalidate, invalidate);
+    }
+
+    @VisibleForTesting
+    AggregateBlockCacheMXBean getBlockCacheStats() {
+        return blockCacheStats;
+    }
+
     @Override
     public @Nullable String readFullQueryText(String agentRollupId, String fullQueryTextSha1)
             throws Exception {
@@ -851,9 +1169,13 @@ public class AggregateDaoImpl implements AggregateDao {
             }
         }
         for (int i = 1; i < configRepository.getRollupConfigs().size(); i++) {
+            session.updateSchemaWithRetry("truncate aggregate_tn_top_summary_rollup_" + i);
             session.updateSchemaWithRetry("truncate aggregate_needs_rollup_" + i);
         }
         session.updateSchemaWithRetry("truncate aggregate_needs_rollup_from_child");
+        overviewBlockCache.invalidateAll();
+        percentileBlockCache.invalidateAll();
+        throughputBlockCache.invalidateAll();
     }
 
     private void rollupFromChildren(String agentRollupId, String agentRollupIdForMeta,
@@ -1171,9 +1493,57 @@ public class AggregateDaoImpl implements AggregateDao {
             boundStatement.setInt(i++, rollup.adjustedTTL().generalTTL());
             futures.add(session.writeAsync(boundStatement));
         }
+        if (rollup.rollupLevel() > 0) {
+            futures.addAll(insertTopTransactionSummaries(rollup, query, summaries));
+        }
         return Futures.allAsList(futures);
     }
 
+    private List<ListenableFuture<?>> insertTopTransactionSummaries(RollupParams rollup,
+            AggregateQuery query, Map<String, MutableSummary> summaries) throws Exception {
+        List<Map.Entry<String, MutableSummary>> byTotalDuration =
+                new ArrayList<>(summaries.entrySet());
+        byTotalDuration.sort((left, right) -> Double.compare(right.getValue().totalDurationNanos,
+                left.getValue().totalDurationNanos));
+        List<Map.Entry<String, MutableSummary>> byTransactionCount =
+                new ArrayList<>(summaries.entrySet());
+        byTransactionCount.sort((left, right) -> Long.compare(right.getValue().transactionCount,
+                left.getValue().transactionCount));
+        double totalDurationNanosThreshold = 0;
+        long transactionCountThreshold = 0;
+        if (summaries.size() > TOP_SUMMARY_LIMIT) {
+            totalDurationNanosThreshold =
+                    byTotalDuration.get(TOP_SUMMARY_LIMIT).getValue().totalDurationNanos;
+            transactionCountThreshold =
+                    byTransactionCount.get(TOP_SUMMARY_LIMIT).getValue().transactionCount;
+        }
+        Map<String, MutableSummary> topSummaries = new HashMap<>();
+        for (int i = 0; i < Math.min(TOP_SUMMARY_LIMIT, summaries.size()); i++) {
+            Map.Entry<String, MutableSummary> entry = byTotalDuration.get(i);
+            topSummaries.put(entry.getKey(), entry.getValue());
+            entry = byTransactionCount.get(i);
+            topSummaries.put(entry.getKey(), entry.getValue());
+        }
+        List<ListenableFuture<?>> futures = new ArrayList<>();
+        PreparedStatement preparedStatement = insertTopSummaryPS.get(rollup.rollupLevel() - 1);
+        for (Map.Entry<String, MutableSummary> entry : topSummaries.entrySet()) {
+            MutableSummary summary = entry.getValue();
+            BoundStatement boundStatement = preparedStatement.bind();
+            int i = 0;
+            boundStatement.setString(i++, rollup.agentRollupId());
+            boundStatement.setString(i++, query.transactionType());
+            boundStatement.setTimestamp(i++, new Date(query.to()));
+            boundStatement.setString(i++, entry.getKey());
+            boundStatement.setDouble(i++, summary.totalDurationNanos);
+            boundStatement.setLong(i++, summary.transactionCount);
+            boundStatement.setDouble(i++, totalDurationNanosThreshold);
+            boundStatement.setLong(i++, transactionCountThreshold);
+            boundStatement.setInt(i++, rollup.adjustedTTL().generalTTL());
+            futures.add(session.writeAsync(boundStatement));
+        }
+        return futures;
+    }
+
     private ListenableFuture<?> rollupTransactionErrorSummary(RollupParams rollup,
             AggregateQuery query) throws Exception {
         BoundStatement boundStatement =
@@ -1263,6 +1633,7 @@ public class AggregateDaoImpl implements AggregateDao {
             Iterable<Row> rows) throws Exception {
         double totalDurationNanos = 0;
         long transactionCount = 0;
+        long unsampledTransactionCount = 0;
         boolean asyncTransactions = false;
         List<MutableTimer> mainThreadRootTimers = new ArrayList<>();
         MutableThreadStats mainThreadStats = new MutableThreadStats();
@@ -1300,6 +1671,7 @@ public class AggregateDaoImpl implements AggregateDao {
             List<Aggregate.Timer> toBeMergedAsyncTimers =
                     Messages.parseDelimitedFrom(row.getBytes(i++), Aggregate.Timer.parser());
             MutableAggregate.mergeRootTimers(toBeMergedAsyncTimers, asyncTimers);
+            unsampledTransactionCount += row.getLong(i++);
         }
         BoundStatement boundStatement;
         if (query.transactionName() == null) {
@@ -1345,8 +1717,11 @@ public class AggregateDaoImpl implements AggregateDao {
             boundStatement.setBytes(i++,
                     Messages.toByteBuffer(MutableAggregate.toProto(asyncTimers)));
         }
+        boundStatement.setLong(i++, unsampledTransactionCount);
         boundStatement.setInt(i++, rollup.adjustedTTL().generalTTL());
-        return session.writeAsync(boundStatement);
+        return invalidateBlockAfterWrite(session.writeAsync(boundStatement), overviewBlockCache,
+                rollup.agentRollupId(), rollup.rollupLevel(), query.transactionType(),
+                query.transactionName(), query.to());
     }
 
     private ListenableFuture<?> rollupHistogram(RollupParams rollup, AggregateQuery query,
@@ -1403,7 +1778,9 @@ public class AggregateDaoImpl implements AggregateDao {
         boundStatement.setLong(i++, transactionCount);
         boundStatement.setBytes(i++, toByteBuffer(durationNanosHistogram.toProto(scratchBuffer)));
         boundStatement.setInt(i++, rollup.adjustedTTL().generalTTL());
-        return session.writeAsync(boundStatement);
+        return invalidateBlockAfterWrite(session.writeAsync(boundStatement), percentileBlockCache,
+                rollup.agentRollupId(), rollup.rollupLevel(), query.transactionType(),
+                query.transactionName(), query.to());
     }
 
     private ListenableFuture<?> rollupThroughput(RollupParams rollup, AggregateQuery query)
@@ -1465,7 +1842,9 @@ public class AggregateDaoImpl implements AggregateDao {
             boundStatement.setLong(i++, errorCount);
         }
         boundStatement.setInt(i++, rollup.adjustedTTL().generalTTL());
-        return session.writeAsync(boundStatement);
+        return invalidateBlockAfterWrite(session.writeAsync(boundStatement), throughputBlockCache,
+                rollup.agentRollupId(), rollup.rollupLevel(), query.transactionType(),
+                query.transactionName(), query.to());
     }
 
     private ListenableFuture<?> rollupQueries(RollupParams rollup, AggregateQuery query)
@@ -1671,7 +2050,9 @@ public class AggregateDaoImpl implements AggregateDao {
         boundStatement.setString(i++, transactionType);
         boundStatement.setTimestamp(i++, new Date(captureTime));
         bindAggregate(boundStatement, aggregate, i++, adjustedTTL);
-        futures.add(session.writeAsync(boundStatement));
+        futures.add(invalidateBlockAfterWrite(session.writeAsync(boundStatement),
+                overviewBlockCache, agentRollupId, rollupLevel, transactionType, null,
+                captureTime));
 
         boundStatement = getInsertOverallPS(histogramTable, rollupLevel).bind();
         i = 0;
@@ -1682,7 +2063,9 @@ public class AggregateDaoImpl implements AggregateDao {
         boundStatement.setLong(i++, aggregate.getTransactionCount());
         boundStatement.setBytes(i++, toByteBuffer(aggregate.getDurationNanosHistogram()));
         boundStatement.setInt(i++, adjustedTTL.generalTTL());
-        futures.add(session.writeAsync(boundStatement));
+        futures.add(invalidateBlockAfterWrite(session.writeAsync(boundStatement),
+                percentileBlockCache, agentRollupId, rollupLevel, transactionType, null,
+                captureTime));
 
         boundStatement = getInsertOverallPS(throughputTable, rollupLevel).bind();
         i = 0;
@@ -1692,7 +2075,9 @@ public class AggregateDaoImpl implements AggregateDao {
         boundStatement.setLong(i++, aggregate.getTransactionCount());
         boundStatement.setLong(i++, aggregate.getErrorCount());
         boundStatement.setInt(i++, adjustedTTL.generalTTL());
-        futures.add(session.writeAsync(boundStatement));
+        futures.add(invalidateBlockAfterWrite(session.writeAsync(boundStatement),
+                throughputBlockCache, agentRollupId, rollupLevel, transactionType, null,
+                captureTime));
 
         if (aggregate.hasMainThreadProfile()) {
             Profile profile = aggregate.getMainThreadProfile();
@@ -1737,7 +2122,9 @@ public class AggregateDaoImpl implements AggregateDao {
         boundStatement.setString(i++, transactionName);
         boundStatement.setTimestamp(i++, new Date(captureTime));
         bindAggregate(boundStatement, aggregate, i++, adjustedTTL);
-        futures.add(session.writeAsync(boundStatement));
+        futures.add(invalidateBlockAfterWrite(session.writeAsync(boundStatement),
+                overviewBlockCache, agentRollupId, rollupLevel, transactionType, transactionName,
+                captureTime));
 
         boundStatement = getInsertTransactionPS(histogramTable, rollupLevel).bind();
         i = 0;
@@ -1749,7 +2136,9 @@ public class AggregateDaoImpl implements AggregateDao {
         boundStatement.setLong(i++, aggregate.getTransactionCount());
         boundStatement.setBytes(i++, toByteBuffer(aggregate.getDurationNanosHistogram()));
         boundStatement.setInt(i++, adjustedTTL.generalTTL());
-        futures.add(session.writeAsync(boundStatement));
+        futures.add(invalidateBlockAfterWrite(session.writeAsync(boundStatement),
+                percentileBlockCache, agentRollupId, rollupLevel, transactionType, transactionName,
+                captureTime));
 
         boundStatement = getInsertTransactionPS(throughputTable, rollupLevel).bind();
         i = 0;
@@ -1760,7 +2149,9 @@ public class AggregateDaoImpl implements AggregateDao {
         boundStatement.setLong(i++, aggregate.getTransactionCount());
         boundStatement.setLong(i++, aggregate.getErrorCount());
         boundStatement.setInt(i++, adjustedTTL.generalTTL());
-        futures.add(session.writeAsync(boundStatement));
+        futures.add(invalidateBlockAfterWrite(session.writeAsync(boundStatement),
+                throughputBlockCache, agentRollupId, rollupLevel, transactionType, transactionName,
+                captureTime));
 
         if (aggregate.hasMainThreadProfile()) {
             Profile profile = aggregate.getMainThreadProfile();
@@ -2080,6 +2471,37 @@ public class AggregateDaoImpl implements AggregateDao {
                 .build();
     }
 
+    // the block cache lives as long as the central process, so this is not unregistered
+    private static void registerMBean(AggregateBlockCacheMXBean blockCacheStats) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(blockCacheStats,
+                    new ObjectName(BLOCK_CACHE_MBEAN_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // e.g. multiple central modules running in the same jvm during tests
+            logger.debug(e.getMessage(), e);
+        } catch (Exception e) {
+            logger.warn(e.getMessage(), e);
+        }
+    }
+
+    private static MutableTopSummary getOrCreate(Map<String, MutableTopSummary> topSummaries,
+            String transactionName) {
+        MutableTopSummary topSummary = topSummaries.get(transactionName);
+        if (topSummary == null) {
+            topSummary = new MutableTopSummary();
+            topSummaries.put(transactionName, topSummary);
+        }
+        return topSummary;
+    }
+
+    private static double getSortValue(TransactionSummaryRow row, SummarySortOrder sortOrder) {
+        if (sortOrder == SummarySortOrder.TOTAL_TIME) {
+            return row.totalDurationNanos();
+        } else {
+            return row.transactionCount();
+        }
+    }
+
     private static String mergeRowIntoSummaries(Row row, Map<String, MutableSummary> summaries) {
         int i = 0;
         String transactionName = checkNotNull(row.getString(i++));
@@ -2145,6 +2567,7 @@ public class AggregateDaoImpl implements AggregateDao {
         } else {
             boundStatement.setBytes(i++, Messages.toByteBuffer(asyncTimers));
         }
+        boundStatement.setLong(i++, aggregate.getUnsampledTransactionCount());
         boundStatement.setInt(i++, adjustedTTL.generalTTL());
     }
 
@@ -2544,6 +2967,79 @@ public class AggregateDaoImpl implements AggregateDao {
         int profileTTL();
     }
 
+    @Value.Immutable
+    @Styles.AllParameters
+    interface BlockKey extends Serializable {
+        String agentRollupId();
+        int rollupLevel();
+        String transactionType();
+        @Nullable
+        String transactionName();
+        long blockStart();
+    }
+
+    private interface AggregateReader<T> {
+        List<T> read(String agentRollupId, AggregateQuery query) throws Exception;
+    }
+
+    private abstract class BlockCacheLoader<T> implements CacheLoader<BlockKey, List<T>> {
+        @Override
+        public List<T> load(BlockKey key) throws Exception {
+            blockCacheStats.missCount.getAndIncrement();
+            long blockSizeMillis = getBlockSizeMillis(key.rollupLevel());
+            AggregateQuery query = ImmutableAggregateQuery.builder()
+                    .transactionType(key.transactionType())
+                    .transactionName(key.transactionName())
+                    .from(key.blockStart())
+                    .to(key.blockStart() + blockSizeMillis - 1)
+                    .rollupLevel(key.rollupLevel())
+                    .build();
+            return read(key.agentRollupId(), query);
+        }
+
+        abstract List<T> read(String agentRollupId, AggregateQuery query) throws Exception;
+    }
+
+    private class OverviewBlockCacheLoader extends BlockCacheLoader<OverviewAggregate> {
+        @Override
+        List<OverviewAggregate> read(String agentRollupId, AggregateQuery query)
+                throws Exception {
+            return readOverviewAggregatesInternal(agentRollupId, query);
+        }
+    }
+
+    private class PercentileBlockCacheLoader extends BlockCacheLoader<PercentileAggregate> {
+        @Override
+        List<PercentileAggregate> read(String agentRollupId, AggregateQuery query)
+                throws Exception {
+            return readPercentileAggregatesInternal(agentRollupId, query);
+        }
+    }
+
+    private class ThroughputBlockCacheLoader extends BlockCacheLoader<ThroughputAggregate> {
+        @Override
+        List<ThroughputAggregate> read(String agentRollupId, AggregateQuery query)
+                throws Exception {
+            return readThroughputAggregatesInternal(agentRollupId, query);
+        }
+    }
+
+    @Value.Immutable
+    @Styles.AllParameters
+    interface TransactionSummaryRow {
+        long captureTime();
+        String transactionName();
+        double totalDurationNanos();
+        long transactionCount();
+    }
+
+    private static class MutableTopSummary {
+        // total duration or transaction count, depending on the sort order
+        private double value;
+        private double presentThresholdSum;
+        private int presentTruncatedIntervalCount;
+    }
+
     private static class MutableSummary {
         private double totalDurationNanos;
         private long transactionCount;
@@ -2554,4 +3050,47 @@ public class AggregateDaoImpl implements AggregateDao {
         private long transactionCount;
     }
 
+    // exposed via JMX so that the block cache effectiveness can be monitored (e.g. via a glowroot
+    // gauge)
+    public interface AggregateBlockCacheMXBean {
+
+        // number of blocks read through the block cache (the trailing live window of each query is
+        // not included)
+        long getRequestCount();
+
+        long getMissCount();
+
+        long getHitCount();
+
+        // number of cached blocks invalidated due to late data or rollups
+        long getInvalidationCount();
+    }
+
+    private static class BlockCacheStats implements AggregateBlockCacheMXBean {
+
+        private final AtomicLong requestCount = new AtomicLong();
+        private final AtomicLong missCount = new AtomicLong();
+        private final AtomicLong invalidationCount = new AtomicLong();
+
+        @Override
+        public long getRequestCount() {
+            return requestCount.get();
+        }
+
+        @Override
+        public long getMissCount() {
+            return missCount.get();
+        }
+
+        @Override
+        public long getHitCount() {
+            return Math.max(requestCount.get() - missCount.get(), 0);
+        }
+
+        @Override
+        public long getInvalidationCount() {
+            return invalidationCount.get();
+        }
+    }
+
 }
@@ -105,7 +105,8 @@ public class CentralRepoModule {
         FullQueryTextDao fullQueryTextDao =
                 new FullQueryTextDao(session, configRepository, asyncExecutor);
         AggregateDaoImpl aggregateDaoImpl = new AggregateDaoImpl(session, activeAgentDao,
-                transactionTypeDao, fullQueryTextDao, configRepository, asyncExecutor, clock);
+                transactionTypeDao, fullQueryTextDao, configRepository, clusterManager,
+                asyncExecutor, clock);
         GaugeValueDaoImpl gaugeValueDaoImpl =
                 new GaugeValueDaoImpl(session, configRepository, asyncExecutor, clock);
         SyntheticResultDaoImpl syntheticResultDaoImpl = new SyntheticResultDaoImpl(session,
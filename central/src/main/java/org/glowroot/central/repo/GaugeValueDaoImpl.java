@@ -18,6 +18,7 @@ package org.glowroot.central.repo;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -243,23 +244,37 @@ public class GaugeValueDaoImpl implements GaugeValueDao {
     @Override
     public List<GaugeValue> readGaugeValues(String agentRollupId, String gaugeName, long from,
             long to, int rollupLevel) throws Exception {
+        ResultSet results = session.read(
+                bindReadValueStatement(agentRollupId, gaugeName, from, to, rollupLevel));
+        return toGaugeValues(results);
+    }
+
+    @Override
+    public Map<String, List<GaugeValue>> readGaugeValues(String agentRollupId,
+            List<String> gaugeNames, long from, long to, int rollupLevel) throws Exception {
+        // the gauges are read in parallel
+        Map<String, ListenableFuture<ResultSet>> futures = new LinkedHashMap<>();
+        for (String gaugeName : gaugeNames) {
+            futures.put(gaugeName, session.readAsync(
+                    bindReadValueStatement(agentRollupId, gaugeName, from, to, rollupLevel)));
+        }
+        MoreFutures.waitForAll(futures.values());
+        Map<String, List<GaugeValue>> gaugeValues = new LinkedHashMap<>();
+        for (Map.Entry<String, ListenableFuture<ResultSet>> entry : futures.entrySet()) {
+            gaugeValues.put(entry.getKey(), toGaugeValues(entry.getValue().get()));
+        }
+        return gaugeValues;
+    }
+
+    private BoundStatement bindReadValueStatement(String agentRollupId, String gaugeName,
+            long from, long to, int rollupLevel) {
         BoundStatement boundStatement = readValuePS.get(rollupLevel).bind();
         int i = 0;
         boundStatement.setString(i++, agentRollupId);
         boundStatement.setString(i++, gaugeName);
         boundStatement.setTimestamp(i++, new Date(from));
         boundStatement.setTimestamp(i++, new Date(to));
-        ResultSet results = session.read(boundStatement);
-        List<GaugeValue> gaugeValues = new ArrayList<>();
-        for (Row row : results) {
-            i = 0;
-            gaugeValues.add(GaugeValue.newBuilder()
-                    .setCaptureTime(checkNotNull(row.getTimestamp(i++)).getTime())
-                    .setValue(row.getDouble(i++))
-                    .setWeight(row.getLong(i++))
-                    .build());
-        }
-        return gaugeValues;
+        return boundStatement;
     }
 
     @Override
@@ -502,4 +517,17 @@ public class GaugeValueDaoImpl implements GaugeValueDao {
         session.updateSchemaWithRetry("truncate gauge_name");
         session.updateSchemaWithRetry("truncate gauge_needs_rollup_from_child");
     }
+
+    private static List<GaugeValue> toGaugeValues(ResultSet results) {
+        List<GaugeValue> gaugeValues = new ArrayList<>();
+        for (Row row : results) {
+            int i = 0;
+            gaugeValues.add(GaugeValue.newBuilder()
+                    .setCaptureTime(checkNotNull(row.getTimestamp(i++)).getTime())
+                    .setValue(row.getDouble(i++))
+                    .setWeight(row.getLong(i++))
+                    .build());
+        }
+        return gaugeValues;
+    }
 }
@@ -106,7 +106,7 @@ public class SchemaUpgrade {
 
     private static final ObjectMapper mapper = ObjectMappers.create();
 
-    private static final int CURR_SCHEMA_VERSION = 84;
+    private static final int CURR_SCHEMA_VERSION = 85;
 
     private final Session session;
     private final Clock clock;
@@ -508,6 +508,10 @@ public class SchemaUpgrade {
             populateSyntheticMonitorIdTable();
             updateSchemaVersion(84);
         }
+        if (initialSchemaVersion < 85) {
+            addAggregateUnsampledTransactionCountColumn();
+            updateSchemaVersion(85);
+        }
 
         // when adding new schema upgrade, make sure to update CURR_SCHEMA_VERSION above
         startupLogger.info("upgraded glowroot central schema from version {} to version {}",
@@ -2718,6 +2722,25 @@ public class SchemaUpgrade {
         return syntheticMonitorDisplays;
     }
 
+    private void addAggregateUnsampledTransactionCountColumn() throws Exception {
+        addColumnIfNotExists("aggregate_tt_overview_rollup_0", "unsampled_transaction_count",
+                "bigint");
+        addColumnIfNotExists("aggregate_tt_overview_rollup_1", "unsampled_transaction_count",
+                "bigint");
+        addColumnIfNotExists("aggregate_tt_overview_rollup_2", "unsampled_transaction_count",
+                "bigint");
+        addColumnIfNotExists("aggregate_tt_overview_rollup_3", "unsampled_transaction_count",
+                "bigint");
+        addColumnIfNotExists("aggregate_tn_overview_rollup_0", "unsampled_transaction_count",
+                "bigint");
+        addColumnIfNotExists("aggregate_tn_overview_rollup_1", "unsampled_transaction_count",
+                "bigint");
+        addColumnIfNotExists("aggregate_tn_overview_rollup_2", "unsampled_transaction_count",
+                "bigint");
+        addColumnIfNotExists("aggregate_tn_overview_rollup_3", "unsampled_transaction_count",
+                "bigint");
+    }
+
     private void addColumnIfNotExists(String tableName, String columnName, String cqlType)
             throws Exception {
         if (tableExists(tableName) && !columnExists(tableName, columnName)) {
@@ -73,6 +73,7 @@ import org.glowroot.wire.api.model.Proto.OptionalInt64;
 import org.glowroot.wire.api.model.Proto.StackTraceElement;
 import org.glowroot.wire.api.model.TraceOuterClass.Trace;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.nio.charset.StandardCharsets.UTF_8;
 
@@ -135,12 +136,14 @@ public class TraceDaoImpl implements TraceDao {
 
     private final PreparedStatement readHeaderV1;
     private final PreparedStatement readEntriesV1;
+    private final PreparedStatement readEntryPageV1;
     private final PreparedStatement readSharedQueryTextsV1;
     private final PreparedStatement readMainThreadProfileV1;
     private final PreparedStatement readAuxThreadProfileV1;
 
     private final PreparedStatement readHeaderV2;
     private final PreparedStatement readEntriesV2;
+    private final PreparedStatement readEntryPageV2;
     private final PreparedStatement readQueriesV2;
     private final PreparedStatement readSharedQueryTextsV2;
     private final PreparedStatement readMainThreadProfileV2;
@@ -470,6 +473,11 @@ public class TraceDaoImpl implements TraceDao {
                 + " detail, location_stack_trace, error from trace_entry where agent_id = ? and"
                 + " trace_id = ?");
 
+        readEntryPageV1 = session.prepare("select depth, start_offset_nanos, duration_nanos,"
+                + " active, message, shared_query_text_index, query_message_prefix,"
+                + " query_message_suffix, detail, location_stack_trace, error from trace_entry"
+                + " where agent_id = ? and trace_id = ? and index_ >= ? limit ?");
+
         readSharedQueryTextsV1 = session.prepare("select truncated_text, truncated_end_text,"
                 + " full_text_sha1 from trace_shared_query_text where agent_id = ? and trace_id"
                 + " = ?");
@@ -488,6 +496,11 @@ public class TraceDaoImpl implements TraceDao {
                 + " detail, location_stack_trace, error from trace_entry_v2 where agent_id = ? and"
                 + " trace_id = ?");
 
+        readEntryPageV2 = session.prepare("select depth, start_offset_nanos, duration_nanos,"
+                + " active, message, shared_query_text_index, query_message_prefix,"
+                + " query_message_suffix, detail, location_stack_trace, error from trace_entry_v2"
+                + " where agent_id = ? and trace_id = ? and index_ >= ? limit ?");
+
         readQueriesV2 = session.prepare("select type, shared_query_text_index,"
                 + " total_duration_nanos, execution_count, total_rows, active from trace_query_v2"
                 + " where agent_id = ? and trace_id = ?");
@@ -954,6 +967,26 @@ public class TraceDaoImpl implements TraceDao {
                 .build();
     }
 
+    @Override
+    public @Nullable Entries readEntries(String agentId, String traceId, int fromIndex, int limit)
+            throws Exception {
+        // limit 0 is not valid cql
+        checkArgument(fromIndex >= 0, "fromIndex must be non-negative: %s", fromIndex);
+        checkArgument(limit > 0, "limit must be positive: %s", limit);
+        List<Trace.Entry> entryPage = readEntriesInternal(agentId, traceId, fromIndex, limit);
+        if (entryPage.isEmpty()) {
+            // the entries are not stored (yet), which lets the caller retry while the trace is in
+            // transition from live to stored
+            return null;
+        }
+        ImmutableEntries.Builder entries = ImmutableEntries.builder()
+                .addAllEntries(entryPage);
+        if (fromIndex == 0) {
+            entries.addAllSharedQueryTexts(readSharedQueryTexts(agentId, traceId));
+        }
+        return entries.build();
+    }
+
     @Override
     public Queries readQueries(String agentId, String traceId) throws Exception {
         return ImmutableQueries.builder()
@@ -1069,11 +1102,37 @@ public class TraceDaoImpl implements TraceDao {
         return readEntriesUsingPS(agentId, traceId, readEntriesV1);
     }
 
+    // clustering range read on index_, so entries before fromIndex are never read
+    private List<Trace.Entry> readEntriesInternal(String agentId, String traceId, int fromIndex,
+            int limit) throws Exception {
+        List<Trace.Entry> entries =
+                readEntriesUsingPS(agentId, traceId, fromIndex, limit, readEntryPageV2);
+        if (!entries.isEmpty()) {
+            return entries;
+        }
+        return readEntriesUsingPS(agentId, traceId, fromIndex, limit, readEntryPageV1);
+    }
+
     private List<Trace.Entry> readEntriesUsingPS(String agentId, String traceId,
             PreparedStatement readPS) throws Exception {
         BoundStatement boundStatement = readPS.bind();
         boundStatement.setString(0, agentId);
         boundStatement.setString(1, traceId);
+        return readEntries(boundStatement);
+    }
+
+    private List<Trace.Entry> readEntriesUsingPS(String agentId, String traceId, int fromIndex,
+            int limit, PreparedStatement readPS) throws Exception {
+        BoundStatement boundStatement = readPS.bind();
+        int i = 0;
+        boundStatement.setString(i++, agentId);
+        boundStatement.setString(i++, traceId);
+        boundStatement.setInt(i++, fromIndex);
+        boundStatement.setInt(i++, limit);
+        return readEntries(boundStatement);
+    }
+
+    private List<Trace.Entry> readEntries(BoundStatement boundStatement) throws Exception {
         ResultSet results = session.read(boundStatement);
         List<Trace.Entry> entries = new ArrayList<>();
         while (!results.isExhausted()) {
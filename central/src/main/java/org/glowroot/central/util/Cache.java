@@ -1,5 +1,5 @@
 /*
- * Copyright 2017 the original author or authors.
+ * Copyright 2017-2018 the original author or authors.
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -19,11 +19,15 @@ import java.io.Serializable;
 
 public interface Cache<K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> {
 
+    // a loaded value is not cached if the key was invalidated while it was loading
     V get(K key) throws Exception;
 
     // invalidate globally
     void invalidate(K key);
 
+    // invalidate all globally
+    void invalidateAll();
+
     interface CacheLoader<K, V> {
         V load(K key) throws Exception;
     }
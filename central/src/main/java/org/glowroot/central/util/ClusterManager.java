@@ -26,6 +26,8 @@ import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.function.Supplier;
 import java.util.regex.Pattern;
 
@@ -38,6 +40,9 @@ import org.infinispan.configuration.global.GlobalConfiguration;
 import org.infinispan.configuration.global.GlobalConfigurationBuilder;
 import org.infinispan.manager.DefaultCacheManager;
 import org.infinispan.manager.EmbeddedCacheManager;
+import org.infinispan.notifications.Listener;
+import org.infinispan.notifications.cachelistener.annotation.CacheEntryInvalidated;
+import org.infinispan.notifications.cachelistener.event.CacheEntryInvalidatedEvent;
 import org.infinispan.remoting.transport.Address;
 import org.infinispan.util.function.SerializableFunction;
 import org.infinispan.util.function.TriConsumer;
@@ -79,6 +84,9 @@ public abstract class ClusterManager {
     public abstract <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> Cache<K, V> createCache(
             String cacheName, CacheLoader<K, V> loader);
 
+    public abstract <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> Cache<K, V> createSizeLimitedCache(
+            String cacheName, int maxSize, CacheLoader<K, V> loader);
+
     public abstract <K extends /*@NonNull*/ Serializable> LockSet<K> createReplicatedLockSet(
             String mapName, long expirationTime, TimeUnit expirationUnit);
 
@@ -118,6 +126,18 @@ public abstract class ClusterManager {
             return new CacheImpl<K, V>(cacheManager.getCache(cacheName), loader);
         }
 
+        @Override
+        public <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> Cache<K, V> createSizeLimitedCache(
+                String cacheName, int maxSize, CacheLoader<K, V> loader) {
+            ConfigurationBuilder configurationBuilder = new ConfigurationBuilder();
+            configurationBuilder.clustering()
+                    .cacheMode(CacheMode.INVALIDATION_ASYNC);
+            configurationBuilder.memory()
+                    .size(maxSize);
+            cacheManager.defineConfiguration(cacheName, configurationBuilder.build());
+            return new CacheImpl<K, V>(cacheManager.getCache(cacheName), loader);
+        }
+
         @Override
         public <K extends /*@NonNull*/ Serializable> LockSet<K> createReplicatedLockSet(
                 String mapName, long expirationTime, TimeUnit expirationUnit) {
@@ -212,6 +232,15 @@ public abstract class ClusterManager {
             return new NonClusterCacheImpl<K, V>(new ConcurrentHashMap<>(), loader);
         }
 
+        @Override
+        public <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> Cache<K, V> createSizeLimitedCache(
+                String cacheName, int maxSize, CacheLoader<K, V> loader) {
+            return new NonClusterCacheImpl<K, V>(CacheBuilder.newBuilder()
+                    .maximumSize(maxSize)
+                    .<K, V>build()
+                    .asMap(), loader);
+        }
+
         @Override
         public <K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object> DistributedExecutionMap<K, V> createDistributedExecutionMap(
                 String cacheName) {
@@ -249,25 +278,42 @@ public abstract class ClusterManager {
         private final org.infinispan.Cache<K, V> cache;
         private final CacheLoader<K, V> loader;
 
+        private final InvalidationCounter invalidationCounter = new InvalidationCounter();
+
         private CacheImpl(org.infinispan.Cache<K, V> cache, CacheLoader<K, V> loader) {
             this.cache = cache;
             this.loader = loader;
+            // invalidations from other cluster nodes need to be counted too
+            cache.addListener(new RemoteInvalidationListener(invalidationCounter));
         }
 
         @Override
         public V get(K key) throws Exception {
             V value = cache.get(key);
             if (value == null) {
+                long invalidationCount = invalidationCounter.get(key);
                 value = loader.load(key);
-                cache.putForExternalRead(key, value);
+                if (invalidationCounter.get(key) == invalidationCount) {
+                    // no invalidations occurred during the load, so the value is not stale
+                    cache.putForExternalRead(key, value);
+                }
             }
             return value;
         }
 
         @Override
         public void invalidate(K key) {
+            // increment first, see get()
+            invalidationCounter.increment(key);
             cache.remove(key);
         }
+
+        @Override
+        public void invalidateAll() {
+            // increment first, see get()
+            invalidationCounter.incrementAll();
+            cache.clear();
+        }
     }
 
     private static class NonClusterCacheImpl<K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object>
@@ -276,6 +322,8 @@ public abstract class ClusterManager {
         private final ConcurrentMap<K, V> cache;
         private final CacheLoader<K, V> loader;
 
+        private final InvalidationCounter invalidationCounter = new InvalidationCounter();
+
         private NonClusterCacheImpl(ConcurrentMap<K, V> cache, CacheLoader<K, V> loader) {
             this.cache = cache;
             this.loader = loader;
@@ -285,16 +333,76 @@ public abstract class ClusterManager {
         public V get(K key) throws Exception {
             V value = cache.get(key);
             if (value == null) {
+                long invalidationCount = invalidationCounter.get(key);
                 value = loader.load(key);
-                cache.put(key, value);
+                if (invalidationCounter.get(key) == invalidationCount) {
+                    // no invalidations occurred during the load, so the value is not stale
+                    cache.put(key, value);
+                }
             }
             return value;
         }
 
         @Override
         public void invalidate(K key) {
+            // increment first, see get()
+            invalidationCounter.increment(key);
             cache.remove(key);
         }
+
+        @Override
+        public void invalidateAll() {
+            // increment first, see get()
+            invalidationCounter.incrementAll();
+            cache.clear();
+        }
+    }
+
+    // a load that starts before a write and completes after that write's invalidation would
+    // otherwise cache stale data, so the caches only store a loaded value if no invalidation of the
+    // same key occurred while it was loading (counts are striped by key hash to keep memory
+    // bounded, and a collision only means that a freshly loaded value is not cached)
+    private static class InvalidationCounter {
+
+        private static final int STRIPES = 256;
+
+        private final AtomicLongArray counts = new AtomicLongArray(STRIPES);
+        private final AtomicLong allCount = new AtomicLong();
+
+        private long get(Object key) {
+            // both only ever increase, so the sum changes if either one changes
+            return counts.get(getStripe(key)) + allCount.get();
+        }
+
+        private void increment(Object key) {
+            counts.getAndIncrement(getStripe(key));
+        }
+
+        private void incrementAll() {
+            allCount.getAndIncrement();
+        }
+
+        private static int getStripe(Object key) {
+            return (key.hashCode() & Integer.MAX_VALUE) % STRIPES;
+        }
+    }
+
+    // infinispan requires listener classes to be public
+    @Listener
+    public static class RemoteInvalidationListener {
+
+        private final InvalidationCounter invalidationCounter;
+
+        private RemoteInvalidationListener(InvalidationCounter invalidationCounter) {
+            this.invalidationCounter = invalidationCounter;
+        }
+
+        @CacheEntryInvalidated
+        public void onInvalidated(CacheEntryInvalidatedEvent<?, ?> event) {
+            if (event.isPre()) {
+                invalidationCounter.increment(event.getKey());
+            }
+        }
     }
 
     private static class DistributedExecutionMapImpl<K extends /*@NonNull*/ Serializable, V extends /*@NonNull*/ Object>
@@ -16,7 +16,9 @@
 package org.glowroot.central.v09support;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.glowroot.central.repo.AgentRollupIds;
@@ -105,6 +107,39 @@ public class GaugeValueDaoWithV09Support implements GaugeValueDao {
         }
     }
 
+    @Override
+    public Map<String, List<GaugeValue>> readGaugeValues(String agentRollupId,
+            List<String> gaugeNames, long from, long to, int rollupLevel) throws Exception {
+        QueryPlan plan = V09Support.getPlan(agentRollupIdsWithV09Data, v09LastCaptureTime,
+                agentRollupId, from, to);
+        Query queryV09 = plan.queryV09();
+        Query queryPostV09 = plan.queryPostV09();
+        if (queryV09 == null) {
+            checkNotNull(queryPostV09);
+            return delegate.readGaugeValues(queryPostV09.agentRollupId(), gaugeNames,
+                    queryPostV09.from(), queryPostV09.to(), rollupLevel);
+        } else if (queryPostV09 == null) {
+            checkNotNull(queryV09);
+            return delegate.readGaugeValues(queryV09.agentRollupId(), gaugeNames, queryV09.from(),
+                    queryV09.to(), rollupLevel);
+        } else {
+            Map<String, List<GaugeValue>> gaugeValuesV09 = delegate.readGaugeValues(
+                    queryV09.agentRollupId(), gaugeNames, queryV09.from(), queryV09.to(),
+                    rollupLevel);
+            Map<String, List<GaugeValue>> gaugeValuesPostV09 = delegate.readGaugeValues(
+                    queryPostV09.agentRollupId(), gaugeNames, queryPostV09.from(),
+                    queryPostV09.to(), rollupLevel);
+            Map<String, List<GaugeValue>> gaugeValues = new LinkedHashMap<>();
+            for (String gaugeName : gaugeNames) {
+                List<GaugeValue> values = new ArrayList<>();
+                values.addAll(checkNotNull(gaugeValuesV09.get(gaugeName)));
+                values.addAll(checkNotNull(gaugeValuesPostV09.get(gaugeName)));
+                gaugeValues.put(gaugeName, values);
+            }
+            return gaugeValues;
+        }
+    }
+
     @Override
     public long getOldestCaptureTime(String agentRollupId, String gaugeName, int rollupLevel)
             throws Exception {
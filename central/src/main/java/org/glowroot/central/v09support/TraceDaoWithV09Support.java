@@ -135,6 +135,17 @@ public class TraceDaoWithV09Support implements TraceDao {
         return entries;
     }
 
+    @Override
+    public @Nullable Entries readEntries(String agentId, String traceId, int fromIndex, int limit)
+            throws Exception {
+        Entries entries = delegate.readEntries(agentId, traceId, fromIndex, limit);
+        if (entries == null && checkV09(agentId, traceId)) {
+            return delegate.readEntries(V09Support.convertToV09(agentId), traceId, fromIndex,
+                    limit);
+        }
+        return entries;
+    }
+
     @Override
     public Queries readQueries(String agentId, String traceId) throws Exception {
         Queries queries = delegate.readQueries(agentId, traceId);
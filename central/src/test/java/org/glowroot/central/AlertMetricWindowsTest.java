@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import org.glowroot.central.AlertMetricWindows.WindowValue;
+import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.AlertConfig.AlertCondition.MetricCondition;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.AggregateOuterClass.OldAggregatesByType;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.GaugeValue;
+
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AlertMetricWindowsTest {
+
+    private static final MetricCondition ERROR_RATE = MetricCondition.newBuilder()
+            .setMetric("error:rate")
+            .setTransactionType("Web")
+            .setTimePeriodSeconds(300)
+            .build();
+
+    private static final MetricCondition HEAP_USED = MetricCondition.newBuilder()
+            .setMetric("gauge:java.lang:type=Memory:HeapMemoryUsage.used")
+            .setTimePeriodSeconds(60)
+            .build();
+
+    @Test
+    public void shouldNotEvaluateUntilWindowCoversTimePeriod() {
+        // given
+        AlertMetricWindows windows = new AlertMetricWindows();
+        // when
+        for (int i = 1; i <= 5; i++) {
+            windows.addAggregates("a", ImmutableList.of(ERROR_RATE), minute(i),
+                    aggregates(10, 1));
+        }
+        // then
+        assertThat(windows.getValue("a", ERROR_RATE, minute(5))).isNull();
+        assertThat(windows.getValue("b", ERROR_RATE, minute(5))).isNull();
+    }
+
+    @Test
+    public void shouldEvaluateErrorRate() {
+        // given
+        AlertMetricWindows windows = new AlertMetricWindows();
+        // when
+        for (int i = 1; i <= 10; i++) {
+            windows.addAggregates("a", ImmutableList.of(ERROR_RATE), minute(i),
+                    aggregates(10, i <= 8 ? 0 : 5));
+        }
+        // then
+        WindowValue windowValue = windows.getValue("a", ERROR_RATE, minute(10));
+        assertThat(windowValue).isNotNull();
+        assertThat(windowValue.value()).isEqualTo(20.0);
+        assertThat(windowValue.transactionCount()).isEqualTo(50);
+    }
+
+    @Test
+    public void shouldNotEvaluateAfterGap() {
+        // given
+        AlertMetricWindows windows = new AlertMetricWindows();
+        for (int i = 1; i <= 10; i++) {
+            windows.addAggregates("a", ImmutableList.of(ERROR_RATE), minute(i),
+                    aggregates(10, 1));
+        }
+        // when
+        windows.addAggregates("a", ImmutableList.of(ERROR_RATE), minute(12), aggregates(10, 1));
+        // then
+        assertThat(windows.getValue("a", ERROR_RATE, minute(12))).isNull();
+        // and also not past the most recently collected data
+        assertThat(windows.getValue("a", ERROR_RATE, minute(14))).isNull();
+    }
+
+    @Test
+    public void shouldIgnoreResentAggregates() {
+        // given
+        AlertMetricWindows windows = new AlertMetricWindows();
+        for (int i = 1; i <= 10; i++) {
+            windows.addAggregates("a", ImmutableList.of(ERROR_RATE), minute(i),
+                    aggregates(10, 1));
+        }
+        // when
+        windows.addAggregates("a", ImmutableList.of(ERROR_RATE), minute(10), aggregates(10, 1));
+        // then
+        WindowValue windowValue = windows.getValue("a", ERROR_RATE, minute(10));
+        assertThat(windowValue).isNotNull();
+        assertThat(windowValue.transactionCount()).isEqualTo(50);
+    }
+
+    @Test
+    public void shouldEvaluateGauge() {
+        // given
+        AlertMetricWindows windows = new AlertMetricWindows();
+        // when
+        for (int i = 1; i <= 40; i++) {
+            long captureTime = SECONDS.toMillis(5 * i);
+            windows.addGaugeValues("a", ImmutableList.of(HEAP_USED), captureTime,
+                    ImmutableList.of(GaugeValue.newBuilder()
+                            .setGaugeName("java.lang:type=Memory:HeapMemoryUsage.used")
+                            .setCaptureTime(captureTime)
+                            .setValue(i <= 34 ? 100 : 200)
+                            .setWeight(1)
+                            .build()));
+        }
+        // then
+        WindowValue windowValue = windows.getValue("a", HEAP_USED, SECONDS.toMillis(200));
+        assertThat(windowValue).isNotNull();
+        assertThat(windowValue.value()).isEqualTo(150.0);
+    }
+
+    @Test
+    public void shouldNotEvaluateAfterLateGaugeValues() {
+        // given
+        AlertMetricWindows windows = new AlertMetricWindows();
+        for (int i = 1; i <= 40; i++) {
+            if (i != 38) {
+                addHeapUsed(windows, SECONDS.toMillis(5 * i), 100);
+            }
+        }
+        // when
+        addHeapUsed(windows, SECONDS.toMillis(5 * 38), 100);
+        // then
+        assertThat(windows.getValue("a", HEAP_USED, SECONDS.toMillis(200))).isNull();
+    }
+
+    @Test
+    public void shouldIgnoreResentGaugeValues() {
+        // given
+        AlertMetricWindows windows = new AlertMetricWindows();
+        for (int i = 1; i <= 40; i++) {
+            addHeapUsed(windows, SECONDS.toMillis(5 * i), 100);
+        }
+        // when
+        addHeapUsed(windows, SECONDS.toMillis(5 * 38), 100);
+        // then
+        WindowValue windowValue = windows.getValue("a", HEAP_USED, SECONDS.toMillis(200));
+        assertThat(windowValue).isNotNull();
+        assertThat(windowValue.value()).isEqualTo(100.0);
+    }
+
+    private static void addHeapUsed(AlertMetricWindows windows, long captureTime, double value) {
+        windows.addGaugeValues("a", ImmutableList.of(HEAP_USED), captureTime,
+                ImmutableList.of(GaugeValue.newBuilder()
+                        .setGaugeName("java.lang:type=Memory:HeapMemoryUsage.used")
+                        .setCaptureTime(captureTime)
+                        .setValue(value)
+                        .setWeight(1)
+                        .build()));
+    }
+
+    private static long minute(int i) {
+        return MINUTES.toMillis(100 + i);
+    }
+
+    private static List<OldAggregatesByType> aggregates(long transactionCount, long errorCount) {
+        return ImmutableList.of(OldAggregatesByType.newBuilder()
+                .setTransactionType("Web")
+                .setOverallAggregate(Aggregate.newBuilder()
+                        .setTotalDurationNanos(1000000.0 * transactionCount)
+                        .setTransactionCount(transactionCount)
+                        .setErrorCount(errorCount))
+                .build());
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class CollectionQueueTest {
+
+    private ThreadPoolExecutor executor;
+    private CountDownLatch release;
+
+    @Before
+    public void beforeEachTest() {
+        executor = new ThreadPoolExecutor(2, 2, 60, SECONDS, new ArrayBlockingQueue<Runnable>(1),
+                new ThreadPoolExecutor.AbortPolicy());
+        release = new CountDownLatch(1);
+    }
+
+    @After
+    public void afterEachTest() throws InterruptedException {
+        release.countDown();
+        executor.shutdown();
+        assertThat(executor.awaitTermination(10, SECONDS)).isTrue();
+    }
+
+    @Test
+    public void shouldExecuteInOrder() throws Exception {
+        // given
+        CollectionQueue queue = new CollectionQueue(executor, 100);
+        List<Integer> executed = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(50);
+        // when
+        for (int i = 0; i < 50; i++) {
+            int index = i;
+            assertThat(queue.tryExecute(new Runnable() {
+                @Override
+                public void run() {
+                    executed.add(index);
+                    done.countDown();
+                }
+            })).isTrue();
+        }
+        // then
+        assertThat(done.await(10, SECONDS)).isTrue();
+        for (int i = 0; i < 50; i++) {
+            assertThat(executed.get(i)).isEqualTo(i);
+        }
+    }
+
+    @Test
+    public void shouldRejectWhenFull() throws Exception {
+        // given
+        CollectionQueue queue = new CollectionQueue(executor, 2);
+        CountDownLatch done = new CountDownLatch(2);
+        // when
+        boolean first = queue.tryExecute(new BlockingRunnable(done));
+        boolean second = queue.tryExecute(new BlockingRunnable(done));
+        boolean third = queue.tryExecute(new BlockingRunnable(done));
+        // then
+        assertThat(first).isTrue();
+        assertThat(second).isTrue();
+        assertThat(third).isFalse();
+        assertThat(queue.isFull()).isTrue();
+        release.countDown();
+        assertThat(done.await(10, SECONDS)).isTrue();
+        waitUntilNotFull(queue);
+        assertThat(queue.tryExecute(new BlockingRunnable(new CountDownLatch(1)))).isTrue();
+    }
+
+    @Test
+    public void shouldNotifyWhenNotFull() throws Exception {
+        // given
+        CollectionQueue queue = new CollectionQueue(executor, 1);
+        AtomicBoolean notified = new AtomicBoolean();
+        CountDownLatch notifiedLatch = new CountDownLatch(1);
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                notified.set(true);
+                notifiedLatch.countDown();
+            }
+        };
+        queue.tryExecute(new BlockingRunnable(new CountDownLatch(1)));
+        // when
+        queue.whenNotFull(listener);
+        // then
+        assertThat(notified.get()).isFalse();
+        release.countDown();
+        assertThat(notifiedLatch.await(10, SECONDS)).isTrue();
+    }
+
+    @Test
+    public void shouldNotifyImmediatelyWhenNotFull() {
+        // given
+        CollectionQueue queue = new CollectionQueue(executor, 1);
+        AtomicBoolean notified = new AtomicBoolean();
+        // when
+        queue.whenNotFull(new Runnable() {
+            @Override
+            public void run() {
+                notified.set(true);
+            }
+        });
+        // then
+        assertThat(notified.get()).isTrue();
+    }
+
+    @Test
+    public void shouldPropagateExecutorRejection() throws Exception {
+        // given
+        // two executor threads and one queue slot
+        for (int i = 0; i < 3; i++) {
+            new CollectionQueue(executor, 10)
+                    .tryExecute(new BlockingRunnable(new CountDownLatch(1)));
+        }
+        CollectionQueue queue = new CollectionQueue(executor, 1);
+        // when
+        RejectedExecutionException exception = null;
+        try {
+            queue.tryExecute(new BlockingRunnable(new CountDownLatch(1)));
+        } catch (RejectedExecutionException e) {
+            exception = e;
+        }
+        // then
+        assertThat(exception).isNotNull();
+        assertThat(queue.isFull()).isFalse();
+    }
+
+    private static void waitUntilNotFull(CollectionQueue queue) throws InterruptedException {
+        long start = System.currentTimeMillis();
+        while (queue.isFull() && System.currentTimeMillis() - start < 10000) {
+            Thread.sleep(10);
+        }
+    }
+
+    private class BlockingRunnable implements Runnable {
+
+        private final CountDownLatch done;
+
+        private BlockingRunnable(CountDownLatch done) {
+            this.done = done;
+        }
+
+        @Override
+        public void run() {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        }
+    }
+}
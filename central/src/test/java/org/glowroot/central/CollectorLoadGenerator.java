@@ -0,0 +1,478 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.datastax.driver.core.Cluster;
+import com.datastax.driver.core.PoolingOptions;
+import com.datastax.driver.core.QueryOptions;
+import com.datastax.driver.core.SocketOptions;
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import org.checkerframework.checker.nullness.qual.Nullable;
+
+import org.glowroot.central.repo.CentralRepoModule;
+import org.glowroot.central.util.ClusterManager;
+import org.glowroot.central.util.Session;
+import org.glowroot.common.util.Clock;
+import org.glowroot.common2.repo.RepoAdmin.CassandraWriteTotals;
+import org.glowroot.common2.repo.util.AlertingService;
+import org.glowroot.common2.repo.util.AlertingService.IncidentKey;
+import org.glowroot.common2.repo.util.HttpClient;
+import org.glowroot.common2.repo.util.LockSet;
+import org.glowroot.common2.repo.util.MailService;
+import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
+import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
+import org.glowroot.wire.api.model.CollectorServiceGrpc;
+import org.glowroot.wire.api.model.CollectorServiceGrpc.CollectorServiceStub;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateResponseMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage.AggregateStreamHeader;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage.OverallAggregate;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.AggregateStreamMessage.TransactionAggregate;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.EmptyMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.GaugeValue;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueResponseMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.InitMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.InitMessage.Environment;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.InitMessage.Environment.JavaInfo;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.TraceStreamMessage;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.TraceStreamMessage.TraceStreamCounts;
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.TraceStreamMessage.TraceStreamHeader;
+import org.glowroot.wire.api.model.TraceOuterClass.Trace;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+// drives CollectorServiceImpl over in-process grpc with synthetic agents, storing into a local
+// cassandra (the same way the central integration tests do), and reports ingest throughput,
+// cassandra rows and bytes written per table, rollup pass duration and gc pressure
+//
+// this is not run as part of the build, to run it (from the central directory, with cassandra
+// listening on localhost):
+//
+// mvn test-compile exec:java -Dexec.classpathScope=test
+// -Dexec.mainClass=org.glowroot.central.CollectorLoadGenerator -Dglowroot.load.agents=500
+//
+// each interval simulates one minute of agent activity (one aggregate stream, 12 values per gauge
+// and a few traces per agent) and is sent as fast as central can ingest it, and the clock passed
+// to central is advanced by one minute per interval so that rollups happen as they would in real
+// time
+public class CollectorLoadGenerator {
+
+    private static final String SERVER_NAME = "glowroot-load-generator";
+
+    private static final String TRANSACTION_TYPE = "Web";
+
+    private final int agentCount = Integer.getInteger("glowroot.load.agents", 100);
+    private final int intervalCount = Integer.getInteger("glowroot.load.intervals", 10);
+    private final int transactionNameCount =
+            Integer.getInteger("glowroot.load.transactionNames", 50);
+    private final int queryCount = Integer.getInteger("glowroot.load.queries", 100);
+    private final int queriesPerTransaction =
+            Integer.getInteger("glowroot.load.queriesPerTransaction", 5);
+    private final int gaugeCount = Integer.getInteger("glowroot.load.gauges", 20);
+    private final int tracesPerInterval = Integer.getInteger("glowroot.load.traces", 2);
+    private final int entriesPerTrace = Integer.getInteger("glowroot.load.traceEntries", 50);
+    private final int maxInFlight = Integer.getInteger("glowroot.load.maxInFlight", 100);
+
+    private final SimulatedClock clock = new SimulatedClock();
+    private final Semaphore inFlight = new Semaphore(maxInFlight);
+
+    private final AtomicLong messageCount = new AtomicLong();
+    private final AtomicLong errorCount = new AtomicLong();
+
+    private final List<String> queryTexts = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        new CollectorLoadGenerator().run();
+    }
+
+    private void run() throws Exception {
+        for (int i = 0; i < queryCount; i++) {
+            queryTexts.add(createQueryText(i));
+        }
+        String contactPoint = System.getProperty("glowroot.load.contactPoint", "127.0.0.1");
+        String keyspace = System.getProperty("glowroot.load.keyspace", "glowroot_load_test");
+        Cluster cluster = Cluster.builder().addContactPoint(contactPoint)
+                .withSocketOptions(new SocketOptions().setReadTimeoutMillis(30000))
+                .withQueryOptions(new QueryOptions().setDefaultIdempotence(true))
+                .build();
+        Session session = new Session(cluster.newSession(), keyspace, null,
+                PoolingOptions.DEFAULT_MAX_QUEUE_SIZE);
+        ClusterManager clusterManager = ClusterManager.create();
+        ExecutorService asyncExecutor = Executors.newCachedThreadPool();
+        ExecutorService collectorExecutor = GrpcServer.createCollectorExecutor();
+
+        CentralRepoModule repos =
+                new CentralRepoModule(clusterManager, session, "", asyncExecutor, clock);
+        LockSet<IncidentKey> openingIncidentLockSet =
+                clusterManager.createReplicatedLockSet("openingIncidentLockSet", 60, SECONDS);
+        LockSet<IncidentKey> resolvingIncidentLockSet =
+                clusterManager.createReplicatedLockSet("resolvingIncidentLockSet", 60, SECONDS);
+        AlertingService alertingService = new AlertingService(repos.getConfigRepository(),
+                repos.getIncidentDao(), repos.getAggregateDao(), repos.getGaugeValueDao(),
+                repos.getRollupLevelService(), new MailService(),
+                new HttpClient(repos.getConfigRepository()), openingIncidentLockSet,
+                resolvingIncidentLockSet, clock);
+        HeartbeatAlertingService heartbeatAlertingService = new HeartbeatAlertingService(
+                repos.getHeartbeatDao(), repos.getIncidentDao(), alertingService,
+                repos.getConfigRepository());
+        CentralAlertingService centralAlertingService = new CentralAlertingService(
+                repos.getConfigRepository(), alertingService, heartbeatAlertingService);
+        GrpcCommon grpcCommon =
+                new GrpcCommon(repos.getAgentConfigDao(), repos.getV09AgentRollupDao());
+        CollectorServiceImpl collectorService = new CollectorServiceImpl(
+                repos.getActiveAgentDao(), repos.getAgentConfigDao(), repos.getEnvironmentDao(),
+                repos.getHeartbeatDao(), repos.getAggregateDao(), repos.getGaugeValueDao(),
+                repos.getTraceDao(), repos.getV09AgentRollupDao(), grpcCommon,
+                centralAlertingService, collectorExecutor, clock, "load-generator");
+
+        Server server = InProcessServerBuilder.forName(SERVER_NAME)
+                .addService(collectorService.bindService())
+                .build()
+                .start();
+        ManagedChannel channel = InProcessChannelBuilder.forName(SERVER_NAME).build();
+        CollectorServiceStub stub = CollectorServiceGrpc.newStub(channel);
+
+        List<String> agentIds = new ArrayList<>();
+        for (int i = 0; i < agentCount; i++) {
+            String agentId = "load-agent-" + i;
+            CollectorServiceGrpc.newBlockingStub(channel).collectInit(InitMessage.newBuilder()
+                    .setAgentId(agentId)
+                    .setEnvironment(Environment.newBuilder()
+                            .setJavaInfo(JavaInfo.newBuilder()
+                                    .setGlowrootAgentVersion("load-generator")))
+                    .setAgentConfig(AgentConfig.getDefaultInstance())
+                    .build());
+            agentIds.add(agentId);
+        }
+
+        // only measure the intervals (not the schema creation and agent init above)
+        Map<String, CassandraWriteTotals> writeTotalsBefore = getWriteTotalsPerTable(session);
+        long gcCountBefore = getGcCount();
+        long gcMillisBefore = getGcMillis();
+        messageCount.set(0);
+
+        long ingestNanos = 0;
+        long rollupNanos = 0;
+        long maxRollupNanos = 0;
+        Stopwatch totalStopwatch = Stopwatch.createStarted();
+        for (int interval = 0; interval < intervalCount; interval++) {
+            long captureTime = clock.advanceOneMinute();
+            Stopwatch stopwatch = Stopwatch.createStarted();
+            List<ListenableFuture<?>> futures = new ArrayList<>();
+            for (String agentId : agentIds) {
+                futures.add(sendAggregates(stub, agentId, captureTime));
+                futures.add(sendGaugeValues(stub, agentId, captureTime));
+                for (int i = 0; i < tracesPerInterval; i++) {
+                    futures.add(sendTrace(stub, agentId, captureTime, interval, i));
+                }
+            }
+            Futures.successfulAsList(futures).get();
+            long intervalIngestNanos = stopwatch.elapsed(NANOSECONDS);
+            ingestNanos += intervalIngestNanos;
+
+            // rollups are normally performed once a minute by RollupService, so if a rollup pass
+            // takes longer than a minute, central will fall further and further behind
+            stopwatch = Stopwatch.createStarted();
+            for (String agentId : agentIds) {
+                repos.getAggregateDao().rollup(agentId);
+                repos.getGaugeValueDao().rollup(agentId);
+            }
+            long intervalRollupNanos = stopwatch.elapsed(NANOSECONDS);
+            rollupNanos += intervalRollupNanos;
+            maxRollupNanos = Math.max(maxRollupNanos, intervalRollupNanos);
+            System.out.format("interval %d/%d: ingest %d ms, rollup %d ms%n", interval + 1,
+                    intervalCount, NANOSECONDS.toMillis(intervalIngestNanos),
+                    NANOSECONDS.toMillis(intervalRollupNanos));
+        }
+        long totalMillis = totalStopwatch.elapsed(MILLISECONDS);
+        long gcCount = getGcCount() - gcCountBefore;
+        long gcMillis = getGcMillis() - gcMillisBefore;
+
+        long agentMinutes = (long) agentCount * intervalCount;
+        System.out.println();
+        System.out.format("agents: %d, intervals (simulated minutes): %d%n", agentCount,
+                intervalCount);
+        System.out.format("messages: %d (%d errors)%n", messageCount.get(), errorCount.get());
+        System.out.format("ingest throughput: %.1f messages/sec, %.1f agent minutes/sec%n",
+                messageCount.get() * 1e9 / ingestNanos, agentMinutes * 1e9 / ingestNanos);
+        System.out.format("rollup pass: avg %d ms, max %d ms (%.1f%% of a minute)%n",
+                NANOSECONDS.toMillis(rollupNanos / intervalCount),
+                NANOSECONDS.toMillis(maxRollupNanos),
+                100.0 * maxRollupNanos / MINUTES.toNanos(1));
+        System.out.format("gc: %d collections, %d ms (%.1f%% of wall time)%n", gcCount, gcMillis,
+                100.0 * gcMillis / totalMillis);
+        System.out.println();
+        System.out.format("%-40s %12s %14s %14s %16s%n", "table", "rows", "bytes",
+                "rows/agent-min", "bytes/agent-min");
+        for (CassandraWriteTotals totals : session.getCassandraWriteMetrics()
+                .getCassandraDataWrittenPerTable(Integer.MAX_VALUE)) {
+            CassandraWriteTotals before = writeTotalsBefore.get(totals.display());
+            long rows = totals.rowsWritten() - (before == null ? 0 : before.rowsWritten());
+            long bytes = totals.bytesWritten() - (before == null ? 0 : before.bytesWritten());
+            if (rows == 0) {
+                continue;
+            }
+            System.out.format("%-40s %12d %14d %14.1f %16.1f%n", totals.display(), rows, bytes,
+                    (double) rows / agentMinutes, (double) bytes / agentMinutes);
+        }
+
+        channel.shutdown();
+        server.shutdown();
+        collectorExecutor.shutdown();
+        asyncExecutor.shutdown();
+        session.close();
+        cluster.close();
+        clusterManager.close();
+    }
+
+    private ListenableFuture<?> sendAggregates(CollectorServiceStub stub, String agentId,
+            long captureTime) throws InterruptedException {
+        ResponseFuture<AggregateResponseMessage> future = new ResponseFuture<>();
+        StreamObserver<AggregateStreamMessage> requestObserver =
+                stub.collectAggregateStream(future);
+        requestObserver.onNext(AggregateStreamMessage.newBuilder()
+                .setStreamHeader(AggregateStreamHeader.newBuilder()
+                        .setAgentId(agentId)
+                        .setCaptureTime(captureTime)
+                        .setPostV09(true))
+                .build());
+        for (String queryText : queryTexts) {
+            requestObserver.onNext(AggregateStreamMessage.newBuilder()
+                    .setSharedQueryText(Aggregate.SharedQueryText.newBuilder()
+                            .setFullText(queryText))
+                    .build());
+        }
+        requestObserver.onNext(AggregateStreamMessage.newBuilder()
+                .setOverallAggregate(OverallAggregate.newBuilder()
+                        .setTransactionType(TRANSACTION_TYPE)
+                        .setAggregate(createAggregate(0, transactionNameCount * 10)))
+                .build());
+        for (int i = 0; i < transactionNameCount; i++) {
+            requestObserver.onNext(AggregateStreamMessage.newBuilder()
+                    .setTransactionAggregate(TransactionAggregate.newBuilder()
+                            .setTransactionType(TRANSACTION_TYPE)
+                            .setTransactionName("/transaction/" + i)
+                            .setAggregate(createAggregate(i, 10)))
+                    .build());
+        }
+        return track(future, requestObserver);
+    }
+
+    private ListenableFuture<?> sendGaugeValues(CollectorServiceStub stub, String agentId,
+            long captureTime) throws InterruptedException {
+        GaugeValueMessage.Builder request = GaugeValueMessage.newBuilder()
+                .setAgentId(agentId)
+                .setPostV09(true);
+        for (int i = 0; i < gaugeCount; i++) {
+            // agents capture gauge values every 5 seconds
+            for (int j = 0; j < 12; j++) {
+                request.addGaugeValue(GaugeValue.newBuilder()
+                        .setGaugeName("java.lang:type=Load,name=Gauge" + i + ":Value")
+                        .setCaptureTime(captureTime - 60000 + (j + 1) * 5000)
+                        .setValue(j * i)
+                        .setWeight(1));
+            }
+        }
+        ResponseFuture<GaugeValueResponseMessage> future = new ResponseFuture<>();
+        inFlight.acquire();
+        stub.collectGaugeValues(request.build(), future);
+        return track(future, null);
+    }
+
+    private ListenableFuture<?> sendTrace(CollectorServiceStub stub, String agentId,
+            long captureTime, int interval, int index) throws InterruptedException {
+        ResponseFuture<EmptyMessage> future = new ResponseFuture<>();
+        StreamObserver<TraceStreamMessage> requestObserver = stub.collectTraceStream(future);
+        requestObserver.onNext(TraceStreamMessage.newBuilder()
+                .setStreamHeader(TraceStreamHeader.newBuilder()
+                        .setAgentId(agentId)
+                        .setTraceId("trace-" + interval + "-" + index)
+                        .setPostV09(true))
+                .build());
+        for (int i = 0; i < entriesPerTrace; i++) {
+            requestObserver.onNext(TraceStreamMessage.newBuilder()
+                    .setEntry(Trace.Entry.newBuilder()
+                            .setDepth(0)
+                            .setStartOffsetNanos(i * 1000000L)
+                            .setDurationNanos(500000)
+                            .setMessage("jdbc query: " + queryTexts.get(i % queryCount)))
+                    .build());
+        }
+        long durationNanos = SECONDS.toNanos(3);
+        String transactionName = "/transaction/" + (index % transactionNameCount);
+        requestObserver.onNext(TraceStreamMessage.newBuilder()
+                .setHeader(Trace.Header.newBuilder()
+                        .setSlow(true)
+                        .setStartTime(captureTime - NANOSECONDS.toMillis(durationNanos))
+                        .setCaptureTime(captureTime)
+                        .setDurationNanos(durationNanos)
+                        .setTransactionType(TRANSACTION_TYPE)
+                        .setTransactionName(transactionName)
+                        .setHeadline(transactionName)
+                        .setMainThreadRootTimer(Trace.Timer.newBuilder()
+                                .setName("http request")
+                                .setTotalNanos(durationNanos)
+                                .setCount(1)
+                                .addChildTimer(Trace.Timer.newBuilder()
+                                        .setName("jdbc query")
+                                        .setTotalNanos(entriesPerTrace * 500000L)
+                                        .setCount(entriesPerTrace)))
+                        .setEntryCount(entriesPerTrace))
+                .build());
+        requestObserver.onNext(TraceStreamMessage.newBuilder()
+                .setStreamCounts(TraceStreamCounts.newBuilder()
+                        .setEntryCount(entriesPerTrace))
+                .build());
+        return track(future, requestObserver);
+    }
+
+    private Aggregate createAggregate(int seed, int transactionCount) {
+        double totalDurationNanos = transactionCount * MILLISECONDS.toNanos(100 + seed);
+        Aggregate.Builder aggregate = Aggregate.newBuilder()
+                .setTotalDurationNanos(totalDurationNanos)
+                .setTransactionCount(transactionCount)
+                .addMainThreadRootTimer(Aggregate.Timer.newBuilder()
+                        .setName("http request")
+                        .setTotalNanos(totalDurationNanos)
+                        .setCount(transactionCount)
+                        .addChildTimer(Aggregate.Timer.newBuilder()
+                                .setName("jdbc query")
+                                .setTotalNanos(totalDurationNanos / 2)
+                                .setCount(transactionCount * queriesPerTransaction)));
+        Aggregate.Histogram.Builder histogram = Aggregate.Histogram.newBuilder();
+        for (int i = 0; i < transactionCount; i++) {
+            histogram.addOrderedRawValue(MILLISECONDS.toNanos(50 + seed + i));
+        }
+        aggregate.setDurationNanosHistogram(histogram);
+        for (int i = 0; i < queriesPerTransaction; i++) {
+            aggregate.addQuery(Aggregate.Query.newBuilder()
+                    .setType("SQL")
+                    .setSharedQueryTextIndex((seed * queriesPerTransaction + i) % queryCount)
+                    .setTotalDurationNanos(totalDurationNanos / 2 / queriesPerTransaction)
+                    .setExecutionCount(transactionCount));
+        }
+        return aggregate.build();
+    }
+
+    private ListenableFuture<?> track(ResponseFuture<?> future,
+            @Nullable StreamObserver<?> requestObserver) throws InterruptedException {
+        if (requestObserver != null) {
+            // acquire before completing the stream, since that is what triggers the collection
+            inFlight.acquire();
+            requestObserver.onCompleted();
+        }
+        messageCount.incrementAndGet();
+        future.addListener(inFlight::release, MoreExecutors.directExecutor());
+        return future;
+    }
+
+    private static String createQueryText(int index) {
+        StringBuilder sb = new StringBuilder("select employee.id, employee.name from employee");
+        if (index % 4 == 0) {
+            // long query texts (over 120 characters) are stored separately in full_query_text
+            sb.append(" inner join department on department.id = employee.department_id"
+                    + " inner join location on location.id = department.location_id");
+        }
+        sb.append(" where employee.id = ? and employee.version = ");
+        sb.append(index);
+        return sb.toString();
+    }
+
+    private static Map<String, CassandraWriteTotals> getWriteTotalsPerTable(Session session) {
+        Map<String, CassandraWriteTotals> writeTotals = new HashMap<>();
+        for (CassandraWriteTotals totals : session.getCassandraWriteMetrics()
+                .getCassandraDataWrittenPerTable(Integer.MAX_VALUE)) {
+            writeTotals.put(totals.display(), totals);
+        }
+        return writeTotals;
+    }
+
+    private static long getGcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(bean.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    private static long getGcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(bean.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+
+    private class ResponseFuture<T> extends AbstractFuture<T> implements StreamObserver<T> {
+
+        @Override
+        public void onNext(T value) {}
+
+        @Override
+        public void onError(Throwable t) {
+            errorCount.incrementAndGet();
+            setException(t);
+        }
+
+        @Override
+        public void onCompleted() {
+            set(null);
+        }
+    }
+
+    private static class SimulatedClock extends Clock {
+
+        private final AtomicLong currentTimeMillis;
+
+        private SimulatedClock() {
+            long now = System.currentTimeMillis();
+            currentTimeMillis = new AtomicLong(now - now % MINUTES.toMillis(1));
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return currentTimeMillis.get();
+        }
+
+        private long advanceOneMinute() {
+            return currentTimeMillis.addAndGet(MINUTES.toMillis(1));
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.repo;
+
+import java.util.List;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Statement;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.glowroot.central.util.Session;
+import org.glowroot.common.util.Clock;
+import org.glowroot.common2.config.ImmutableCentralStorageConfig;
+import org.glowroot.common2.repo.ActiveAgentRepository.AgentRollup;
+import org.glowroot.common2.repo.ConfigRepository.RollupConfig;
+import org.glowroot.common2.repo.util.RollupLevelService;
+import org.glowroot.common2.repo.util.RollupLevelService.DataKind;
+import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ActiveAgentDaoTest {
+
+    // aligned to all of the rollup intervals
+    private static final long START_TIME = HOURS.toMillis(24 * 1000);
+
+    private Session session;
+    private Clock clock;
+    private ActiveAgentDao activeAgentDao;
+
+    @Before
+    public void beforeEachTest() throws Exception {
+        session = mock(Session.class);
+        PreparedStatement preparedStatement = mock(PreparedStatement.class);
+        when(session.prepare(anyString())).thenReturn(preparedStatement);
+        when(preparedStatement.bind()).thenAnswer(invocation -> mock(BoundStatement.class));
+        Row row = mock(Row.class);
+        when(row.getString(0)).thenReturn("a");
+        ResultSet results = mock(ResultSet.class);
+        when(results.iterator()).thenAnswer(invocation -> ImmutableList.of(row).iterator());
+        when(session.read(any(Statement.class))).thenReturn(results);
+        doReturn(Futures.immediateFuture(null)).when(session).writeAsync(any(Statement.class));
+
+        AgentConfigDao agentConfigDao = mock(AgentConfigDao.class);
+        when(agentConfigDao.read(anyString())).thenReturn(AgentConfig.getDefaultInstance());
+        when(agentConfigDao.readAgentRollupLastDisplayPart(anyString()))
+                .thenAnswer(invocation -> invocation.getArgument(0));
+        ConfigRepositoryImpl configRepository = mock(ConfigRepositoryImpl.class);
+        when(configRepository.getRollupConfigs())
+                .thenReturn(ImmutableList.copyOf(RollupConfig.buildRollupConfigs()));
+        when(configRepository.getCentralStorageConfig())
+                .thenReturn(ImmutableCentralStorageConfig.builder().build());
+        RollupLevelService rollupLevelService = mock(RollupLevelService.class);
+        when(rollupLevelService.getRollupLevelForView(anyLong(), anyLong(),
+                any(DataKind.class))).thenReturn(0);
+        clock = mock(Clock.class);
+        when(clock.currentTimeMillis()).thenReturn(START_TIME);
+
+        activeAgentDao = new ActiveAgentDao(session, agentConfigDao, configRepository,
+                rollupLevelService, clock);
+    }
+
+    @Test
+    public void shouldLoadOnCacheMiss() throws Exception {
+        // when
+        List<AgentRollup> agentRollups = readActiveAgentRollups();
+
+        // then
+        assertThat(agentRollups).hasSize(1);
+        assertThat(agentRollups.get(0).id()).isEqualTo("a");
+        // one read for each of the two rollup intervals in the window
+        verify(session, times(2)).read(any(Statement.class));
+    }
+
+    @Test
+    public void shouldNotReadOnCacheHit() throws Exception {
+        // given
+        readActiveAgentRollups();
+
+        // when
+        List<AgentRollup> agentRollups = readActiveAgentRollups();
+
+        // then
+        assertThat(agentRollups).hasSize(1);
+        assertThat(agentRollups.get(0).id()).isEqualTo("a");
+        verify(session, times(2)).read(any(Statement.class));
+    }
+
+    @Test
+    public void shouldReloadOpenIntervalAfterReloadTime() throws Exception {
+        // given
+        readActiveAgentRollups();
+        when(clock.currentTimeMillis()).thenReturn(START_TIME + MINUTES.toMillis(1));
+
+        // when
+        readActiveAgentRollups();
+
+        // then
+        verify(session, times(4)).read(any(Statement.class));
+    }
+
+    @Test
+    public void shouldNotReloadCompletedInterval() throws Exception {
+        // given
+        when(clock.currentTimeMillis()).thenReturn(START_TIME + HOURS.toMillis(2));
+        readActiveAgentRollups();
+        when(clock.currentTimeMillis()).thenReturn(START_TIME + HOURS.toMillis(3));
+
+        // when
+        readActiveAgentRollups();
+
+        // then
+        verify(session, times(2)).read(any(Statement.class));
+    }
+
+    @Test
+    public void shouldAddToCachedAgentIdsOnInsert() throws Exception {
+        // given
+        readActiveAgentRollups();
+
+        // when
+        activeAgentDao.insert("b", START_TIME + 1);
+
+        // then
+        // one write for each rollup level, and no reads since inserts are blind writes
+        verify(session, times(4)).writeAsync(any(Statement.class));
+        verify(session, times(2)).read(any(Statement.class));
+        List<AgentRollup> agentRollups = readActiveAgentRollups();
+        assertThat(agentRollups).hasSize(2);
+        assertThat(agentRollups.get(0).id()).isEqualTo("a");
+        assertThat(agentRollups.get(1).id()).isEqualTo("b");
+        verify(session, times(2)).read(any(Statement.class));
+    }
+
+    @Test
+    public void shouldNotWriteWhenAlreadyInserted() throws Exception {
+        // given
+        activeAgentDao.insert("b", START_TIME + 1);
+
+        // when
+        activeAgentDao.insert("b", START_TIME + 2);
+
+        // then
+        verify(session, times(4)).writeAsync(any(Statement.class));
+        verify(session, never()).read(any(Statement.class));
+    }
+
+    private List<AgentRollup> readActiveAgentRollups() throws Exception {
+        return activeAgentDao.readActiveAgentRollups(START_TIME, START_TIME + MINUTES.toMillis(5));
+    }
+}
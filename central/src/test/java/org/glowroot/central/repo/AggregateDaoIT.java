@@ -16,19 +16,23 @@
 package org.glowroot.central.repo;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.PoolingOptions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import org.junit.AfterClass;
 import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import org.glowroot.central.repo.AggregateDaoImpl.AggregateBlockCacheMXBean;
 import org.glowroot.central.util.ClusterManager;
 import org.glowroot.central.util.Session;
 import org.glowroot.central.v09support.AggregateDaoWithV09Support;
@@ -80,6 +84,7 @@ public class AggregateDaoIT {
     private static AgentConfigDao agentConfigDao;
     private static ActiveAgentDao activeAgentDao;
     private static ExecutorService asyncExecutor;
+    private static AggregateDaoImpl aggregateDaoImpl;
     private static AggregateDao aggregateDao;
 
     @BeforeClass
@@ -103,10 +108,12 @@ public class AggregateDaoIT {
         RollupLevelService rollupLevelService =
                 new RollupLevelService(configRepository, Clock.systemClock());
         activeAgentDao = new ActiveAgentDao(session, agentConfigDao, configRepository,
-                rollupLevelService, Clock.systemClock());
+                rollupLevelService, clusterManager, Clock.systemClock());
+        aggregateDaoImpl = new AggregateDaoImpl(session, activeAgentDao, transactionTypeDao,
+                fullQueryTextDao, configRepository, clusterManager, asyncExecutor,
+                Clock.systemClock());
         aggregateDao = new AggregateDaoWithV09Support(ImmutableSet.of(), 0, 0, Clock.systemClock(),
-                new AggregateDaoImpl(session, activeAgentDao, transactionTypeDao, fullQueryTextDao,
-                        configRepository, asyncExecutor, Clock.systemClock()));
+                aggregateDaoImpl);
     }
 
     @AfterClass
@@ -654,6 +661,209 @@ public class AggregateDaoIT {
         assertThat(query.getExecutionCount()).isEqualTo(4);
     }
 
+    @Test
+    public void shouldRankTransactionNameJustOutsideTopSummariesAcrossRollupLevels()
+            throws Exception {
+        // given
+        agentConfigDao.store("one", AgentConfig.newBuilder()
+                .setAdvancedConfig(DEFAULT_ADVANCED_CONFIG)
+                .build(), true);
+        aggregateDao.truncateAll();
+        // 100 transaction names fill the top summaries of the rolled up interval ending at
+        // 300000, leaving "tnx" just outside
+        Map<String, Long> durations = new HashMap<>();
+        for (int i = 0; i < 100; i++) {
+            durations.put("tn" + i, 2000L);
+        }
+        durations.put("tnx", 1000L);
+        aggregateDao.store("one", 300000, createData(durations), ImmutableList.of());
+        aggregateDao.store("one", 360000, createData(ImmutableMap.of("tnx", 1500L)),
+                ImmutableList.of());
+        aggregateDao.rollup("one");
+        SummaryQuery query = ImmutableSummaryQuery.builder()
+                .transactionType("tt1")
+                .from(0)
+                .to(360000)
+                .rollupLevel(1)
+                .build();
+
+        // when
+        // level 1 covers up to 300000 and level 0 covers the remainder
+        Result<TransactionNameSummary> result =
+                readTransactionNameSummaries("one", query, SummarySortOrder.TOTAL_TIME, 10);
+
+        // then
+        assertThat(result.records()).hasSize(10);
+        assertThat(result.records().get(0).transactionName()).isEqualTo("tnx");
+        assertThat(result.records().get(0).totalDurationNanos()).isEqualTo(2500);
+        assertThat(result.records().get(1).totalDurationNanos()).isEqualTo(2000);
+    }
+
+    @Test
+    public void shouldServeLiveRangeFromTopSummariesAndTrailingPart() throws Exception {
+        // given
+        agentConfigDao.store("one", AgentConfig.newBuilder()
+                .setAdvancedConfig(DEFAULT_ADVANCED_CONFIG)
+                .build(), true);
+        aggregateDao.truncateAll();
+        // "tn100" to "tn109" are left out of the top summaries of the rolled up interval ending
+        // at 300000
+        Map<String, Long> durations = new HashMap<>();
+        for (int i = 0; i < 110; i++) {
+            durations.put("tn" + i, 10000L - i * 10);
+        }
+        aggregateDao.store("one", 300000, createData(durations), ImmutableList.of());
+        aggregateDao.store("one", 360000, createData(ImmutableMap.of("tn0", 500L)),
+                ImmutableList.of());
+        aggregateDao.rollup("one");
+        // same as an auto refresh range, which extends past the last rolled up interval
+        SummaryQuery query = ImmutableSummaryQuery.builder()
+                .transactionType("tt1")
+                .from(0)
+                .to(360000)
+                .rollupLevel(1)
+                .build();
+        long topSummaryHitCount = aggregateDaoImpl.getTopSummaryHitCount();
+
+        // when
+        Result<TransactionNameSummary> result =
+                readTransactionNameSummaries("one", query, SummarySortOrder.TOTAL_TIME, 10);
+
+        // then
+        assertThat(aggregateDaoImpl.getTopSummaryHitCount()).isEqualTo(topSummaryHitCount + 1);
+        assertThat(result.records()).hasSize(10);
+        assertThat(result.records().get(0).transactionName()).isEqualTo("tn0");
+        assertThat(result.records().get(0).totalDurationNanos()).isEqualTo(10500);
+        assertThat(result.records().get(9).transactionName()).isEqualTo("tn9");
+        assertThat(result.records().get(9).totalDurationNanos()).isEqualTo(9910);
+    }
+
+    @Test
+    public void shouldReuseCachedBlock() throws Exception {
+        // given
+        agentConfigDao.store("one", AgentConfig.newBuilder()
+                .setAdvancedConfig(DEFAULT_ADVANCED_CONFIG)
+                .build(), true);
+        aggregateDao.truncateAll();
+        List<Aggregate.SharedQueryText> sharedQueryText = ImmutableList
+                .of(Aggregate.SharedQueryText.newBuilder().setFullText("select 1").build());
+        aggregateDao.store("one", 60000, createData(), sharedQueryText);
+        AggregateQuery aggregateQuery = ImmutableAggregateQuery.builder()
+                .transactionType("tt1")
+                .from(0)
+                .to(300000)
+                .rollupLevel(0)
+                .build();
+        AggregateBlockCacheMXBean blockCacheStats = aggregateDaoImpl.getBlockCacheStats();
+        long missCount = blockCacheStats.getMissCount();
+        long hitCount = blockCacheStats.getHitCount();
+
+        // when
+        List<OverviewAggregate> overviewAggregates1 =
+                aggregateDao.readOverviewAggregates("one", aggregateQuery);
+        List<OverviewAggregate> overviewAggregates2 =
+                aggregateDao.readOverviewAggregates("one", aggregateQuery);
+
+        // then
+        assertThat(overviewAggregates1).hasSize(1);
+        assertThat(overviewAggregates2).hasSize(1);
+        assertThat(blockCacheStats.getMissCount()).isEqualTo(missCount + 1);
+        assertThat(blockCacheStats.getHitCount()).isEqualTo(hitCount + 1);
+    }
+
+    @Test
+    public void shouldInvalidateCachedBlockAfterWrite() throws Exception {
+        // given
+        agentConfigDao.store("one", AgentConfig.newBuilder()
+                .setAdvancedConfig(DEFAULT_ADVANCED_CONFIG)
+                .build(), true);
+        aggregateDao.truncateAll();
+        List<Aggregate.SharedQueryText> sharedQueryText = ImmutableList
+                .of(Aggregate.SharedQueryText.newBuilder().setFullText("select 1").build());
+        aggregateDao.store("one", 60000, createData(), sharedQueryText);
+        AggregateQuery aggregateQuery = ImmutableAggregateQuery.builder()
+                .transactionType("tt1")
+                .from(0)
+                .to(300000)
+                .rollupLevel(0)
+                .build();
+        assertThat(aggregateDao.readOverviewAggregates("one", aggregateQuery)).hasSize(1);
+        AggregateBlockCacheMXBean blockCacheStats = aggregateDaoImpl.getBlockCacheStats();
+        long missCount = blockCacheStats.getMissCount();
+        long invalidationCount = blockCacheStats.getInvalidationCount();
+
+        // when
+        // late data landing in the cached block
+        aggregateDao.store("one", 120000, createData(), sharedQueryText);
+
+        // then
+        assertThat(blockCacheStats.getInvalidationCount()).isGreaterThan(invalidationCount);
+        assertThat(aggregateDao.readOverviewAggregates("one", aggregateQuery)).hasSize(2);
+        assertThat(blockCacheStats.getMissCount()).isEqualTo(missCount + 1);
+    }
+
+    @Test
+    public void shouldNotInvalidateLiveBlockAfterWrite() throws Exception {
+        // given
+        agentConfigDao.store("one", AgentConfig.newBuilder()
+                .setAdvancedConfig(DEFAULT_ADVANCED_CONFIG)
+                .build(), true);
+        aggregateDao.truncateAll();
+        List<Aggregate.SharedQueryText> sharedQueryText = ImmutableList
+                .of(Aggregate.SharedQueryText.newBuilder().setFullText("select 1").build());
+        long captureTime = (System.currentTimeMillis() / 60000) * 60000;
+        long invalidationCount = aggregateDaoImpl.getBlockCacheStats().getInvalidationCount();
+
+        // when
+        aggregateDao.store("one", captureTime, createData(), sharedQueryText);
+
+        // then
+        assertThat(aggregateDaoImpl.getBlockCacheStats().getInvalidationCount())
+                .isEqualTo(invalidationCount);
+    }
+
+    // same as TransactionCommonService.readTransactionNameSummaries() with auto refresh, which
+    // merges the rolled up part of the range and then the trailing part of the range from lower
+    // rollup levels into the same collector
+    private static Result<TransactionNameSummary> readTransactionNameSummaries(
+            String agentRollupId, SummaryQuery query, SummarySortOrder sortOrder, int limit)
+            throws Exception {
+        TransactionNameSummaryCollector collector = new TransactionNameSummaryCollector();
+        long revisedFrom = query.from();
+        for (int rollupLevel = query.rollupLevel(); rollupLevel >= 0; rollupLevel--) {
+            SummaryQuery revisedQuery = ImmutableSummaryQuery.builder()
+                    .copyFrom(query)
+                    .from(revisedFrom)
+                    .rollupLevel(rollupLevel)
+                    .build();
+            aggregateDao.mergeTransactionNameSummariesInto(agentRollupId, revisedQuery,
+                    sortOrder, limit, collector);
+            revisedFrom = Math.max(revisedFrom, collector.getLastCaptureTime() + 1);
+            if (revisedFrom > query.to()) {
+                break;
+            }
+        }
+        return collector.getResult(sortOrder, limit);
+    }
+
+    private static List<OldAggregatesByType> createData(Map<String, Long> durations) {
+        OldAggregatesByType.Builder aggregatesByType = OldAggregatesByType.newBuilder()
+                .setTransactionType("tt1");
+        long overallDuration = 0;
+        for (Map.Entry<String, Long> entry : durations.entrySet()) {
+            aggregatesByType.addTransactionAggregate(OldTransactionAggregate.newBuilder()
+                    .setTransactionName(entry.getKey())
+                    .setAggregate(Aggregate.newBuilder()
+                            .setTotalDurationNanos(entry.getValue())
+                            .setTransactionCount(1)));
+            overallDuration += entry.getValue();
+        }
+        aggregatesByType.setOverallAggregate(Aggregate.newBuilder()
+                .setTotalDurationNanos(overallDuration)
+                .setTransactionCount(durations.size()));
+        return ImmutableList.of(aggregatesByType.build());
+    }
+
     private static List<OldAggregatesByType> createData() {
         List<OldAggregatesByType> aggregatesByType = new ArrayList<>();
         aggregatesByType.add(OldAggregatesByType.newBuilder()
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.central.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ClusterManagerTest {
+
+    @Test
+    public void shouldCacheLoadedValue() throws Exception {
+        // given
+        AtomicInteger loadCount = new AtomicInteger();
+        Cache<String, Integer> cache = ClusterManager.create().createCache("test",
+                key -> loadCount.incrementAndGet());
+
+        // when
+        cache.get("a");
+        int value = cache.get("a");
+
+        // then
+        assertThat(value).isEqualTo(1);
+        assertThat(loadCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotCacheValueLoadedConcurrentlyWithInvalidation() throws Exception {
+        // given
+        AtomicInteger loadCount = new AtomicInteger();
+        AtomicBoolean invalidateDuringLoad = new AtomicBoolean(true);
+        AtomicReference<Cache<String, Integer>> cacheHolder = new AtomicReference<>();
+        Cache<String, Integer> cache =
+                ClusterManager.create().createSizeLimitedCache("test", 10, key -> {
+                    int value = loadCount.incrementAndGet();
+                    if (invalidateDuringLoad.getAndSet(false)) {
+                        // simulates a write (and its invalidation) completing during the load
+                        cacheHolder.get().invalidate(key);
+                    }
+                    return value;
+                });
+        cacheHolder.set(cache);
+
+        // when
+        cache.get("a");
+        cache.get("a");
+        int value = cache.get("a");
+
+        // then
+        assertThat(value).isEqualTo(2);
+        assertThat(loadCount.get()).isEqualTo(2);
+    }
+}
@@ -23,6 +23,8 @@ import org.immutables.value.Value;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig;
 import org.glowroot.wire.api.model.Proto.OptionalInt32;
 
+import static com.google.common.base.Preconditions.checkState;
+
 @Value.Immutable
 public abstract class TransactionConfig {
 
@@ -48,6 +50,10 @@ public abstract class TransactionConfig {
     @JsonInclude(Include.NON_EMPTY)
     public abstract ImmutableList<ImmutableSlowThresholdOverride> slowThresholdOverrides();
 
+    // transactions not matching any sampling override are always sampled
+    @JsonInclude(Include.NON_EMPTY)
+    public abstract ImmutableList<ImmutableSamplingOverride> samplingOverrides();
+
     public AgentConfig.TransactionConfig toProto() {
         AgentConfig.TransactionConfig.Builder builder = AgentConfig.TransactionConfig.newBuilder()
                 .setSlowThresholdMillis(of(slowThresholdMillis()))
@@ -60,6 +66,13 @@ public abstract class TransactionConfig {
                     .setThresholdMillis(slowThresholdOverride.thresholdMillis())
                     .build());
         }
+        for (SamplingOverride samplingOverride : samplingOverrides()) {
+            builder.addSamplingOverride(AgentConfig.SamplingOverride.newBuilder()
+                    .setTransactionType(samplingOverride.transactionType())
+                    .setTransactionName(samplingOverride.transactionName())
+                    .setPercentage(samplingOverride.percentage())
+                    .build());
+        }
         return builder.build();
     }
 
@@ -80,6 +93,13 @@ public abstract class TransactionConfig {
                     .thresholdMillis(slowThresholdOverride.getThresholdMillis())
                     .build());
         }
+        for (AgentConfig.SamplingOverride samplingOverride : config.getSamplingOverrideList()) {
+            builder.addSamplingOverrides(ImmutableSamplingOverride.builder()
+                    .transactionType(samplingOverride.getTransactionType())
+                    .transactionName(samplingOverride.getTransactionName())
+                    .percentage(samplingOverride.getPercentage())
+                    .build());
+        }
         return builder.build();
     }
 
@@ -100,4 +120,25 @@ public abstract class TransactionConfig {
 
         public abstract int thresholdMillis();
     }
+
+    @Value.Immutable
+    public abstract static class SamplingOverride {
+
+        public abstract String transactionType();
+
+        @Value.Default
+        @JsonInclude(Include.NON_EMPTY)
+        public String transactionName() {
+            return "";
+        }
+
+        // percentage of matching transactions that capture trace entries and profile samples
+        public abstract double percentage();
+
+        @Value.Check
+        void checkPercentage() {
+            checkState(percentage() >= 0 && percentage() <= 100,
+                    "sampling percentage must be between 0 and 100: %s", percentage());
+        }
+    }
 }
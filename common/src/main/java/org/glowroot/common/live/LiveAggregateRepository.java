@@ -99,6 +99,8 @@ public interface LiveAggregateRepository {
         // aggregates use double instead of long to avoid (unlikely) 292 year nanosecond rollover
         double totalDurationNanos();
         long transactionCount();
+        // unsampled transactions do not capture trace entries or profile samples
+        long unsampledTransactionCount();
         boolean asyncTransactions();
         List<Aggregate.Timer> mainThreadRootTimers();
         Aggregate.ThreadStats mainThreadStats();
@@ -38,7 +38,8 @@ public interface LiveJvmService {
 
     HeapDumpFileInfo heapDump(String agentId, String directory) throws Exception;
 
-    HeapHistogram heapHistogram(String agentId) throws Exception;
+    // limit is the max number of classes (by bytes) to return, 0 means no limit
+    HeapHistogram heapHistogram(String agentId, int limit) throws Exception;
 
     boolean isExplicitGcDisabled(String agentId) throws Exception;
 
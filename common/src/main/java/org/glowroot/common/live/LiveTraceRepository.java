@@ -40,6 +40,15 @@ public interface LiveTraceRepository {
     @Nullable
     Entries getEntries(String agentId, String traceId) throws Exception;
 
+    // same as above, but only returns (at most) limit entries starting at entry index fromIndex,
+    // where entries are indexed in depth-first order (the same order they are stored in)
+    //
+    // null return value means trace not found or was found but had no entries at fromIndex or
+    // beyond
+    @Nullable
+    Entries getEntries(String agentId, String traceId, int fromIndex, int limit)
+            throws Exception;
+
     // null return value means trace not found or was found but had no queries
     //
     // SharedQueryTexts are returned with either fullTrace or truncatedText/fullTraceSha1
@@ -189,6 +198,12 @@ public interface LiveTraceRepository {
             return null;
         }
 
+        @Override
+        public @Nullable Entries getEntries(String agentId, String traceId, int fromIndex,
+                int limit) {
+            return null;
+        }
+
         @Override
         public @Nullable Queries getQueries(String agentId, String traceId) {
             return null;
@@ -16,6 +16,7 @@
 package org.glowroot.common2.repo;
 
 import java.util.List;
+import java.util.Map;
 
 import org.immutables.value.Value;
 
@@ -32,6 +33,11 @@ public interface GaugeValueRepository {
     List<GaugeValue> readGaugeValues(String agentRollupId, String gaugeName, long from, long to,
             int rollupLevel) throws Exception;
 
+    // from is INCLUSIVE
+    // returned map is in the same order as gaugeNames
+    Map<String, List<GaugeValue>> readGaugeValues(String agentRollupId, List<String> gaugeNames,
+            long from, long to, int rollupLevel) throws Exception;
+
     long getOldestCaptureTime(String agentRollupId, String gaugeName, int rollupLevel)
             throws Exception;
 
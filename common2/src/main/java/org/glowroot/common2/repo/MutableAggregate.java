@@ -42,6 +42,7 @@ public class MutableAggregate {
     private double totalDurationNanos;
     private long transactionCount;
     private long errorCount;
+    private long unsampledTransactionCount;
     private boolean asyncTransactions;
     private final List<MutableTimer> mainThreadRootTimers = Lists.newArrayList();
     private final MutableThreadStats mainThreadStats = new MutableThreadStats();
@@ -77,6 +78,10 @@ public class MutableAggregate {
         return errorCount;
     }
 
+    public long getUnsampledTransactionCount() {
+        return unsampledTransactionCount;
+    }
+
     public boolean isAsyncTransactions() {
         return asyncTransactions;
     }
@@ -141,6 +146,10 @@ public class MutableAggregate {
         this.errorCount += errorCount;
     }
 
+    public void addUnsampledTransactionCount(long unsampledTransactionCount) {
+        this.unsampledTransactionCount += unsampledTransactionCount;
+    }
+
     public void addAsyncTransactions(boolean asyncTransactions) {
         if (asyncTransactions) {
             this.asyncTransactions = true;
@@ -226,6 +235,7 @@ public class MutableAggregate {
                 .captureTime(captureTime)
                 .totalDurationNanos(totalDurationNanos)
                 .transactionCount(transactionCount)
+                .unsampledTransactionCount(unsampledTransactionCount)
                 .asyncTransactions(asyncTransactions)
                 .mainThreadRootTimers(toProto(mainThreadRootTimers))
                 .mainThreadStats(mainThreadStats.toProto())
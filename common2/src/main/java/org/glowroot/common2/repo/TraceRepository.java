@@ -58,6 +58,20 @@ public interface TraceRepository {
     @Nullable
     Entries readEntries(String agentId, String traceId) throws Exception;
 
+    // same as above, but only returns (at most) limit entries starting at entry index fromIndex,
+    // where entries are indexed in the order they are stored (depth-first)
+    //
+    // fromIndex must be non-negative and limit must be positive
+    //
+    // shared query texts are only returned when fromIndex is 0, since they are indexed across the
+    // whole trace, and so are only needed once
+    //
+    // null return value means trace not found or was found but had no entries at fromIndex or
+    // beyond
+    @Nullable
+    Entries readEntries(String agentId, String traceId, int fromIndex, int limit)
+            throws Exception;
+
     // null return value means trace not found or was found but had no queries
     //
     // SharedQueryTexts are returned with either fullTrace or
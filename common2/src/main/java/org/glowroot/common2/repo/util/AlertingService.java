@@ -145,6 +145,23 @@ public class AlertingService {
         long startTime = endTime - SECONDS.toMillis(metricCondition.getTimePeriodSeconds());
         Number value =
                 metricService.getMetricValue(agentRollupId, metricCondition, startTime, endTime);
+        checkMetricAlertInternal(centralDisplay, agentRollupId, agentRollupDisplay, alertConfig,
+                metricCondition, endTime, value, null);
+    }
+
+    // this is used when the metric value (and the transaction count over the same time period) has
+    // already been calculated by the caller, e.g. incrementally from recently collected data
+    public void checkMetricAlert(String centralDisplay, String agentRollupId,
+            String agentRollupDisplay, AlertConfig alertConfig, MetricCondition metricCondition,
+            long endTime, @Nullable Number value, long transactionCount) throws Exception {
+        checkMetricAlertInternal(centralDisplay, agentRollupId, agentRollupDisplay, alertConfig,
+                metricCondition, endTime, value, transactionCount);
+    }
+
+    private void checkMetricAlertInternal(String centralDisplay, String agentRollupId,
+            String agentRollupDisplay, AlertConfig alertConfig, MetricCondition metricCondition,
+            long endTime, @Nullable Number value, @Nullable Long transactionCount)
+            throws Exception {
         if (value == null) {
             // cannot calculate due to no data, e.g. error rate (but not error count, which can be
             // calculated - zero - when no data)
@@ -168,11 +185,18 @@ public class AlertingService {
             if (hasMinTransactionCount(metricCondition.getMetric())) {
                 long minTransactionCount = metricCondition.getMinTransactionCount();
                 if (minTransactionCount != 0) {
-                    long transactionCount = metricService.getTransactionCount(agentRollupId,
-                            metricCondition.getTransactionType(),
-                            Strings.emptyToNull(metricCondition.getTransactionName()), startTime,
-                            endTime);
-                    if (transactionCount < minTransactionCount) {
+                    long count;
+                    if (transactionCount == null) {
+                        long startTime =
+                                endTime - SECONDS.toMillis(metricCondition.getTimePeriodSeconds());
+                        count = metricService.getTransactionCount(agentRollupId,
+                                metricCondition.getTransactionType(),
+                                Strings.emptyToNull(metricCondition.getTransactionName()),
+                                startTime, endTime);
+                    } else {
+                        count = transactionCount;
+                    }
+                    if (count < minTransactionCount) {
                         return;
                     }
                 }
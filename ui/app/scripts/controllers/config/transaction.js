@@ -44,14 +44,18 @@ glowroot.controller('ConfigTransactionCtrl', [
           name: transactionType
         });
       });
-      angular.forEach($scope.config.slowThresholdOverrides, function (slowThresholdOverride) {
-        if (data.allTransactionTypes.indexOf(slowThresholdOverride.transactionType) === -1) {
+      function addDisabledTransactionType(override) {
+        if (data.allTransactionTypes.indexOf(override.transactionType) === -1) {
+          data.allTransactionTypes.push(override.transactionType);
           $scope.allTransactionTypes.push({
-            name: slowThresholdOverride.transactionType,
+            name: override.transactionType,
             disabled: true
           });
         }
-      });
+      }
+
+      angular.forEach($scope.config.slowThresholdOverrides, addDisabledTransactionType);
+      angular.forEach($scope.config.samplingOverrides, addDisabledTransactionType);
       defaultTransactionType = data.defaultTransactionType;
     }
 
@@ -74,6 +78,19 @@ glowroot.controller('ConfigTransactionCtrl', [
       $scope.config.slowThresholdOverrides.splice(index, 1);
     };
 
+    $scope.addSamplingOverride = function () {
+      $scope.config.samplingOverrides.push({
+        transactionType: defaultTransactionType,
+        transactionName: '',
+        percentage: null
+      });
+    };
+
+    $scope.removeSamplingOverride = function (samplingOverride) {
+      var index = $scope.config.samplingOverrides.indexOf(samplingOverride);
+      $scope.config.samplingOverrides.splice(index, 1);
+    };
+
     $scope.save = function (deferred) {
       var postData = angular.copy($scope.config);
       $http.post('backend/config/transaction?agent-id=' + encodeURIComponent($scope.agentId), postData)
@@ -144,6 +144,10 @@ glowroot.controller('JvmGaugeValuesCtrl', [
     function addToQuery(query) {
       // singular name is used since it is query string
       query.gaugeName = $scope.gaugeNames;
+      if (chartState.plot) {
+        // no point returning more data points than there are pixels to plot them on
+        query.maxDataPoints = chartState.plot.width();
+      }
     }
 
     function updateGauges(allGauges) {
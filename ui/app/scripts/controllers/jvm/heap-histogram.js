@@ -147,8 +147,10 @@ glowroot.controller('JvmHeapHistogramCtrl', [
         });
       } else {
         // numeric sort
+        var propertyName = $scope.sortAttribute === 'bytes-change' ? 'bytesChange' : $scope.sortAttribute;
         $scope.histogram.items.sort(function (item1, item2) {
-          var compare = item1[$scope.sortAttribute] - item2[$scope.sortAttribute];
+          // change is undefined when there is no previous histogram
+          var compare = (item1[propertyName] || 0) - (item2[propertyName] || 0);
           return $scope.sortAsc ? compare : -compare;
         });
       }
@@ -177,6 +179,9 @@ glowroot.controller('JvmHeapHistogramCtrl', [
                 || $scope.unavailableDueToRunningInIbmJvm || $scope.unavailableDueToDockerAlpinePidOne) {
               return;
             }
+            if ($scope.histogram) {
+              applyChangeSincePrevious(data, $scope.histogram);
+            }
             $scope.histogram = data;
             appliedSortAttribute = 'bytes';
             appliedSortAsc = false;
@@ -190,6 +195,32 @@ glowroot.controller('JvmHeapHistogramCtrl', [
           });
     };
 
+    // this is computed in the browser so that comparing snapshots (e.g. when looking for a memory leak) adds no
+    // overhead to the monitored JVM
+    function applyChangeSincePrevious(histogram, previousHistogram) {
+      var previousItems = {};
+      angular.forEach(previousHistogram.items, function (item) {
+        previousItems[item.className] = item;
+      });
+      angular.forEach(histogram.items, function (item) {
+        var previousItem = previousItems[item.className];
+        if (previousItem) {
+          item.bytesChange = item.bytes - previousItem.bytes;
+          item.countChange = item.count - previousItem.count;
+        } else {
+          item.bytesChange = item.bytes;
+          item.countChange = item.count;
+        }
+      });
+      histogram.hasPrevious = true;
+      histogram.totalBytesChange = histogram.totalBytes - previousHistogram.totalBytes;
+      histogram.totalCountChange = histogram.totalCount - previousHistogram.totalCount;
+    }
+
+    $scope.signedChange = function (change) {
+      return change > 0 ? '+' : '';
+    };
+
     $scope.exportAsCsv = function () {
       var csv = '<strong>Class name,Bytes,Count</strong><br>';
       angular.forEach($scope.histogram.items, function (item) {
@@ -230,12 +261,14 @@ glowroot.controller('JvmHeapHistogramCtrl', [
       $scope.limitApplied = false;
       $scope.filteredTotalBytes = 0;
       $scope.filteredTotalCount = 0;
+      $scope.filteredTotalBytesChange = 0;
       if ($scope.page.filterValue === '') {
         // optimization
         $scope.displayedItems = $scope.histogram.items.slice(0, $scope.page.filterLimit);
         $scope.limitApplied = ($scope.histogram.items.length > $scope.page.filterLimit);
         $scope.filteredTotalBytes = $scope.histogram.totalBytes;
         $scope.filteredTotalCount = $scope.histogram.totalCount;
+        $scope.filteredTotalBytesChange = $scope.histogram.totalBytesChange;
         maxBytes = 0;
         angular.forEach($scope.displayedItems, function (item) {
           maxBytes = Math.max(maxBytes, item.bytes);
@@ -255,6 +288,7 @@ glowroot.controller('JvmHeapHistogramCtrl', [
           }
           $scope.filteredTotalBytes += item.bytes;
           $scope.filteredTotalCount += item.count;
+          $scope.filteredTotalBytesChange += item.bytesChange || 0;
         }
       }
     }
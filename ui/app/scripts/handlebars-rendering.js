@@ -48,6 +48,11 @@ HandlebarsRendering = (function () {
   var flattenedTraceEntries;
   var queries;
 
+  // trace entries are loaded from the server one page at a time
+  var traceEntryPageSize = 2000;
+  var traceEntrySharedQueryTexts;
+  var traceEntryAncestors;
+
   Handlebars.registerHelper('eachKeyValuePair', function (map, options) {
     var buffer = '';
     if (map) {
@@ -620,7 +625,8 @@ HandlebarsRendering = (function () {
         $selector.data('gtLoading', true);
         var $button = $(this);
         var spinner = Glowroot.showSpinner($button.parent().find('.gt-trace-detail-spinner'));
-        var url = 'backend/trace/entries?agent-id=' + encodeURIComponent(agentId) + '&trace-id=' + traceId;
+        var url = 'backend/trace/entries?agent-id=' + encodeURIComponent(agentId) + '&trace-id=' + traceId
+            + '&limit=' + traceEntryPageSize;
         if (checkLiveTraces) {
           url += '&check-live-traces=true';
         }
@@ -635,14 +641,16 @@ HandlebarsRendering = (function () {
               } else {
                 // first time opening
                 initTraceEntryMessageLength();
-                mergeSharedQueryTextsIntoEntries(data.entries, data.sharedQueryTexts);
-                var last = data.entries[data.entries.length - 1];
-                // updating traceDurationNanos is needed for live traces
-                traceDurationNanos = Math.max(traceDurationNanos, last.startOffsetNanos + last.durationNanos);
-                flattenedTraceEntries = flattenTraceEntries(data.entries);
+                traceEntrySharedQueryTexts = data.sharedQueryTexts;
+                flattenedTraceEntries = [];
+                traceEntryAncestors = [];
+                var start = addTraceEntryPage(data.entries);
                 // un-hide before building in case there are lots of trace entries, at least can see first few quickly
                 $selector.removeClass('d-none');
-                renderNextEntries(flattenedTraceEntries, 0);
+                renderNextEntries(flattenedTraceEntries, start);
+                if (data.hasMore) {
+                  $selector.after(JST['trace-entries-load-more']());
+                }
               }
             })
             .fail(function (jqXHR) {
@@ -661,11 +669,60 @@ HandlebarsRendering = (function () {
       }
     } else if ($selector.hasClass('d-none')) {
       $selector.removeClass('d-none');
+      $('.gt-entries-load-more-container').removeClass('d-none');
     } else {
       $selector.addClass('d-none');
+      $('.gt-entries-load-more-container').addClass('d-none');
     }
   });
 
+  $(document).on('click', '.gt-entries-load-more', function () {
+    var $button = $(this);
+    if ($button.prop('disabled')) {
+      return;
+    }
+    $button.prop('disabled', true);
+    var $traceParent = $button.parents('.gt-trace-parent');
+    var agentId = $traceParent.data('gtAgentId');
+    var traceId = $traceParent.data('gtTraceId');
+    var checkLiveTraces = $traceParent.data('gtCheckLiveTraces');
+    var spinner = Glowroot.showSpinner($button.parent().find('.gt-trace-detail-spinner'));
+    var url = 'backend/trace/entries?agent-id=' + encodeURIComponent(agentId) + '&trace-id=' + traceId
+        + '&from-index=' + flattenedTraceEntries.length + '&limit=' + traceEntryPageSize;
+    if (checkLiveTraces) {
+      url += '&check-live-traces=true';
+    }
+    $.get(url)
+        .done(function (data) {
+          if (data.overwritten || data.expired) {
+            $button.parent().replaceWith('<div style="padding: 1em;">The remaining trace entries have expired</div>');
+            return;
+          }
+          if (data.sharedQueryTexts) {
+            // live traces return their (growing) shared query texts with every page
+            traceEntrySharedQueryTexts = data.sharedQueryTexts;
+          }
+          var start = addTraceEntryPage(data.entries);
+          renderNextEntries(flattenedTraceEntries, start);
+          if (data.hasMore) {
+            $button.prop('disabled', false);
+          } else {
+            $button.parent().remove();
+          }
+        })
+        .fail(function (jqXHR) {
+          if (jqXHR.status === 401) {
+            goToLogin(jqXHR.responseJSON.timedOut);
+          } else {
+            $button.parent().replaceWith('<div class="gt-red" style="padding: 1em;">An error occurred retrieving the'
+                + ' trace entries</div>');
+          }
+        })
+        .always(function () {
+          spinner.stop();
+        });
+  });
+
   $(document).on('click', '.gt-trace-entry-toggle', function () {
     function toggleChildren(parentTraceEntry, collapse) {
       var i;
@@ -938,6 +995,39 @@ HandlebarsRendering = (function () {
     });
   }
 
+  // entry pages are flat (each entry has its depth), since a page can start and end in the middle of a subtree,
+  // so child entry links are rebuilt here, carrying the current ancestors over from one page to the next
+  function addTraceEntryPage(entries) {
+    var start = flattenedTraceEntries.length;
+    mergeSharedQueryTextsIntoEntries(entries, traceEntrySharedQueryTexts);
+    $.each(entries, function (index, entry) {
+      var i;
+      entry.collapsed = false;
+      entry.index = flattenedTraceEntries.length;
+      if (entry.hasChildEntries) {
+        entry.childEntries = [];
+      }
+      traceEntryAncestors.length = entry.depth;
+      if (entry.depth > 0) {
+        var parentEntry = traceEntryAncestors[entry.depth - 1];
+        parentEntry.childEntries = parentEntry.childEntries || [];
+        parentEntry.childEntries.push(entry);
+      }
+      for (i = 0; i < traceEntryAncestors.length; i++) {
+        if (traceEntryAncestors[i].collapsed) {
+          // ancestor was collapsed before this page was loaded
+          entry.hidden = true;
+          break;
+        }
+      }
+      traceEntryAncestors.push(entry);
+      flattenedTraceEntries.push(entry);
+      // updating traceDurationNanos is needed for live traces
+      traceDurationNanos = Math.max(traceDurationNanos, entry.startOffsetNanos + entry.durationNanos);
+    });
+    return start;
+  }
+
   function flattenTraceEntries(entries) {
     var flattenedTraceEntries = [];
     var traceEntryIndex = 0;
@@ -952,6 +1042,7 @@ HandlebarsRendering = (function () {
         flattenedTraceEntries.push(entry);
         entry.index = traceEntryIndex++;
         if (entry.childEntries) {
+          entry.hasChildEntries = true;
           flattenAndRecurse(entry.childEntries, depth + 1);
         }
       }
@@ -973,10 +1064,16 @@ HandlebarsRendering = (function () {
       batchSize = 500;
     }
     var html = '';
-    for (i = start; i < Math.min(start + batchSize, entries.length); i++) {
+    var end = Math.min(start + batchSize, entries.length);
+    for (i = start; i < end; i++) {
       html += JST['trace-entry'](entries[i]);
     }
     $('#entries').append(html);
+    for (i = start; i < end; i++) {
+      if (entries[i].hidden) {
+        $('#gtTraceEntry' + i).addClass('d-none');
+      }
+    }
     if (start + 100 < entries.length) {
       setTimeout(function () {
         renderNextEntries(entries, start + batchSize);
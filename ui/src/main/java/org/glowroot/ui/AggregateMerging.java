@@ -35,6 +35,7 @@ class AggregateMerging {
 
     static MergedAggregate getMergedAggregate(List<OverviewAggregate> overviewAggregates) {
         long transactionCount = 0;
+        long unsampledTransactionCount = 0;
         List<MutableTimer> mainThreadRootTimers = Lists.newArrayList();
         MutableThreadStats mainThreadStats = new MutableThreadStats();
         MutableTimer auxThreadRootTimer = MutableTimer.createAuxThreadRootTimer();
@@ -42,6 +43,7 @@ class AggregateMerging {
         List<MutableTimer> asyncTimers = Lists.newArrayList();
         for (OverviewAggregate aggregate : overviewAggregates) {
             transactionCount += aggregate.transactionCount();
+            unsampledTransactionCount += aggregate.unsampledTransactionCount();
             mergeRootTimers(aggregate.mainThreadRootTimers(), mainThreadRootTimers);
             mainThreadStats.addThreadStats(aggregate.mainThreadStats());
             Aggregate.Timer toBeMergedAuxThreadRootTimer = aggregate.auxThreadRootTimer();
@@ -54,6 +56,7 @@ class AggregateMerging {
         }
         ImmutableMergedAggregate.Builder builder = ImmutableMergedAggregate.builder()
                 .transactionCount(transactionCount)
+                .sampledTransactionCount(transactionCount - unsampledTransactionCount)
                 .mainThreadRootTimers(mainThreadRootTimers)
                 .mainThreadStats(mainThreadStats);
         if (auxThreadRootTimer.getCount() != 0) {
@@ -88,6 +91,8 @@ class AggregateMerging {
     @Value.Immutable
     interface MergedAggregate {
         long transactionCount();
+        // transactions that captured trace entries and profile samples
+        long sampledTransactionCount();
         List<MutableTimer> mainThreadRootTimers();
         MutableThreadStats mainThreadStats();
         @Nullable
@@ -15,17 +15,22 @@
  */
 package org.glowroot.ui;
 
+import java.io.FilterWriter;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.Iterator;
 import java.util.List;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.io.CharSource;
 import org.checkerframework.checker.nullness.qual.Nullable;
 
 public abstract class ChunkSource {
 
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
     public abstract ChunkCopier getCopier(Writer writer) throws IOException;
 
     static ChunkSource create(final CharSource charSource) {
@@ -55,12 +60,29 @@ public abstract class ChunkSource {
         };
     }
 
+    // the json streamer is stateful, so the returned chunk source can only be copied once
+    static ChunkSource json(final JsonStreamer jsonStreamer) {
+        return new ChunkSource() {
+            @Override
+            public ChunkCopier getCopier(Writer writer) throws IOException {
+                return new JsonChunkCopier(jsonStreamer, writer);
+            }
+        };
+    }
+
     public interface ChunkCopier {
 
         // returns false when nothing left to copy
         boolean copyNext() throws IOException;
     }
 
+    // writes json incrementally so that the full json document never needs to be held in memory
+    interface JsonStreamer {
+
+        // returns false when nothing left to write
+        boolean writeNext(JsonGenerator jg) throws IOException;
+    }
+
     private static class ReaderChunkCopier implements ChunkCopier {
 
         private static final int CHUNK_SIZE = 8192;
@@ -156,4 +178,67 @@ public abstract class ChunkSource {
             return true;
         }
     }
+
+    private static class JsonChunkCopier implements ChunkCopier {
+
+        private static final int CHUNK_SIZE = 8192;
+
+        private final JsonStreamer jsonStreamer;
+        private final CountingWriter countingWriter;
+        private final JsonGenerator jg;
+
+        private boolean closed;
+
+        private JsonChunkCopier(JsonStreamer jsonStreamer, Writer writer) throws IOException {
+            this.jsonStreamer = jsonStreamer;
+            countingWriter = new CountingWriter(writer);
+            jg = jsonFactory.createGenerator(countingWriter);
+            // the underlying writer is shared with subsequent chunk sources (see concat)
+            jg.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        }
+
+        @Override
+        public boolean copyNext() throws IOException {
+            if (closed) {
+                return false;
+            }
+            countingWriter.count = 0;
+            while (countingWriter.count + jg.getOutputBuffered() < CHUNK_SIZE) {
+                if (!jsonStreamer.writeNext(jg)) {
+                    jg.close();
+                    closed = true;
+                    return countingWriter.count > 0;
+                }
+            }
+            jg.flush();
+            return true;
+        }
+    }
+
+    private static class CountingWriter extends FilterWriter {
+
+        private int count;
+
+        private CountingWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            out.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            out.write(cbuf, off, len);
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            out.write(str, off, len);
+            count += len;
+        }
+    }
 }
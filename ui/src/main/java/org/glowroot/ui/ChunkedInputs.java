@@ -117,17 +117,14 @@ class ChunkedInputs {
                 throw new IOException("ByteBuf is still in use by another");
             }
             byteBuf.clear();
-            if (chunkCopier.copyNext()) {
+            while (chunkCopier.copyNext()) {
                 // flush to byteBuf
                 writer.flush();
-                while (byteBuf.writerIndex() == 0) {
-                    chunkCopier.copyNext();
-                    // flush to byteBuf
-                    writer.flush();
+                if (byteBuf.writerIndex() > 0) {
+                    // increment retain count since still using byteBuf
+                    byteBuf.retain();
+                    return byteBuf;
                 }
-                // increment retain count since still using byteBuf
-                byteBuf.retain();
-                return byteBuf;
             }
             closed = true;
             return null;
@@ -48,6 +48,7 @@ import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.JvmConfig;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.PluginConfig;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.PluginProperty;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.PluginProperty.StringList;
+import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.SamplingOverride;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.SlowThresholdOverride;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.TransactionConfig;
 import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.UiDefaultsConfig;
@@ -55,6 +56,7 @@ import org.glowroot.wire.api.model.AgentConfigOuterClass.AgentConfig.UserRecordi
 import org.glowroot.wire.api.model.Proto.OptionalInt32;
 
 import static com.google.common.base.Preconditions.checkNotNull;
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
 import static io.netty.handler.codec.http.HttpResponseStatus.PRECONDITION_FAILED;
 
 @JsonService
@@ -184,6 +186,13 @@ class ConfigJsonService {
     @POST(path = "/backend/config/transaction", permission = "agent:config:edit:transaction")
     String updateTransactionConfig(@BindAgentId String agentId,
             @BindRequest TransactionConfigDto configDto) throws Exception {
+        for (SamplingOverrideDto samplingOverride : configDto.samplingOverrides()) {
+            double percentage = samplingOverride.percentage();
+            if (percentage < 0 || percentage > 100) {
+                throw new JsonServiceException(BAD_REQUEST,
+                        "sampling percentage must be between 0 and 100: " + percentage);
+            }
+        }
         try {
             configRepository.updateTransactionConfig(agentId, configDto.convert(),
                     configDto.version());
@@ -368,6 +377,7 @@ class ConfigJsonService {
         abstract int profilingIntervalMillis();
         abstract boolean captureThreadStats();
         abstract List<ImmutableSlowThresholdOverrideDto> slowThresholdOverrides();
+        abstract List<ImmutableSamplingOverrideDto> samplingOverrides();
         abstract String version();
 
         private TransactionConfig convert() {
@@ -379,6 +389,10 @@ class ConfigJsonService {
                     .sortedCopy(slowThresholdOverrides())) {
                 builder.addSlowThresholdOverride(slowThresholdOverride.convert());
             }
+            for (SamplingOverrideDto samplingOverride : new SamplingOverrideDtoOrdering()
+                    .sortedCopy(samplingOverrides())) {
+                builder.addSamplingOverride(samplingOverride.convert());
+            }
             return builder.build();
         }
 
@@ -393,6 +407,9 @@ class ConfigJsonService {
                 builder.addSlowThresholdOverrides(
                         SlowThresholdOverrideDto.create(slowThresholdOverride));
             }
+            for (SamplingOverride samplingOverride : config.getSamplingOverrideList()) {
+                builder.addSamplingOverrides(SamplingOverrideDto.create(samplingOverride));
+            }
             return builder.build();
         }
     }
@@ -439,6 +456,46 @@ class ConfigJsonService {
         }
     }
 
+    @Value.Immutable
+    @Styles.AllParameters
+    abstract static class SamplingOverrideDto {
+
+        abstract String transactionType();
+        abstract String transactionName();
+        abstract double percentage();
+
+        private SamplingOverride convert() {
+            return SamplingOverride.newBuilder()
+                    .setTransactionType(transactionType())
+                    .setTransactionName(transactionName())
+                    .setPercentage(percentage())
+                    .build();
+        }
+
+        private static ImmutableSamplingOverrideDto create(SamplingOverride samplingOverride) {
+            return ImmutableSamplingOverrideDto.builder()
+                    .transactionType(samplingOverride.getTransactionType())
+                    .transactionName(samplingOverride.getTransactionName())
+                    .percentage(samplingOverride.getPercentage())
+                    .build();
+        }
+    }
+
+    private static class SamplingOverrideDtoOrdering extends Ordering<SamplingOverrideDto> {
+        @Override
+        public int compare(SamplingOverrideDto left, SamplingOverrideDto right) {
+            int compare = left.transactionType().compareToIgnoreCase(right.transactionType());
+            if (compare != 0) {
+                return compare;
+            }
+            compare = left.transactionName().compareToIgnoreCase(right.transactionName());
+            if (compare != 0) {
+                return compare;
+            }
+            return Double.compare(left.percentage(), right.percentage());
+        }
+    }
+
     @Value.Immutable
     abstract static class JvmConfigDto {
 
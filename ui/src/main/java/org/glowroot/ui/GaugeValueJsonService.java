@@ -21,6 +21,7 @@ import java.util.Set;
 
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
@@ -101,8 +102,8 @@ class GaugeValueJsonService {
         double gapMillis = dataPointIntervalMillis * 1.5;
         List<DataSeries> dataSeriesList = Lists.newArrayList();
         for (Map.Entry<String, List<GaugeValue>> entry : gaugeValues.entrySet()) {
-            dataSeriesList
-                    .add(convertToDataSeriesWithGaps(entry.getKey(), entry.getValue(), gapMillis));
+            dataSeriesList.add(convertToDataSeriesWithGaps(entry.getKey(), entry.getValue(),
+                    gapMillis, request.maxDataPoints()));
         }
         List<Gauge> gauges =
                 gaugeValueRepository.getGauges(agentRollupId, request.from(), request.to());
@@ -127,37 +128,46 @@ class GaugeValueJsonService {
             int rollupLevel, long dataPointIntervalMillis) throws Exception {
         long revisedFrom = request.from() - dataPointIntervalMillis;
         long revisedTo = request.to() + dataPointIntervalMillis;
-        Map<String, List<GaugeValue>> map = Maps.newLinkedHashMap();
-        for (String gaugeName : request.gaugeName()) {
-            List<GaugeValue> gaugeValues =
-                    getGaugeValues(agentRollupId, revisedFrom, revisedTo, gaugeName, rollupLevel);
-            map.put(gaugeName, gaugeValues);
-        }
-        return map;
-    }
-
-    private List<GaugeValue> getGaugeValues(String agentRollupId, long from, long to,
-            String gaugeName, int rollupLevel) throws Exception {
-        List<GaugeValue> gaugeValues = gaugeValueRepository.readGaugeValues(agentRollupId,
-                gaugeName, from, to, rollupLevel);
+        Map<String, List<GaugeValue>> map = gaugeValueRepository.readGaugeValues(agentRollupId,
+                request.gaugeName(), revisedFrom, revisedTo, rollupLevel);
         if (rollupLevel == 0) {
-            return gaugeValues;
+            return map;
         }
-        long nonRolledUpFrom = from;
-        if (!gaugeValues.isEmpty()) {
-            long lastRolledUpTime = Iterables.getLast(gaugeValues).getCaptureTime();
-            nonRolledUpFrom = Math.max(nonRolledUpFrom, lastRolledUpTime + 1);
+        // group the gauges by where their rolled up data ends, which is normally the same for all
+        // of them, so that the non-rolled up data can be read with as few queries as possible
+        Map<Long, List<String>> gaugeNamesByNonRolledUpFrom = Maps.newTreeMap();
+        for (Map.Entry<String, List<GaugeValue>> entry : map.entrySet()) {
+            long nonRolledUpFrom = revisedFrom;
+            List<GaugeValue> gaugeValues = entry.getValue();
+            if (!gaugeValues.isEmpty()) {
+                long lastRolledUpTime = Iterables.getLast(gaugeValues).getCaptureTime();
+                nonRolledUpFrom = Math.max(nonRolledUpFrom, lastRolledUpTime + 1);
+            }
+            List<String> gaugeNames = gaugeNamesByNonRolledUpFrom.get(nonRolledUpFrom);
+            if (gaugeNames == null) {
+                gaugeNames = Lists.newArrayList();
+                gaugeNamesByNonRolledUpFrom.put(nonRolledUpFrom, gaugeNames);
+            }
+            gaugeNames.add(entry.getKey());
         }
-        List<GaugeValue> orderedNonRolledUpGaugeValues = Lists.newArrayList();
         int lowestLevel = agentRollupId.endsWith("::") ? 1 : 0;
-        orderedNonRolledUpGaugeValues.addAll(gaugeValueRepository.readGaugeValues(agentRollupId,
-                gaugeName, nonRolledUpFrom, to, lowestLevel));
-        gaugeValues = Lists.newArrayList(gaugeValues);
         long fixedIntervalMillis =
                 configRepository.getRollupConfigs().get(rollupLevel - 1).intervalMillis();
-        gaugeValues.addAll(rollUpGaugeValues(orderedNonRolledUpGaugeValues, gaugeName,
-                new RollupCaptureTimeFn(fixedIntervalMillis)));
-        return gaugeValues;
+        Map<String, List<GaugeValue>> updatedMap = Maps.newLinkedHashMap(map);
+        for (Map.Entry<Long, List<String>> entry : gaugeNamesByNonRolledUpFrom.entrySet()) {
+            Map<String, List<GaugeValue>> nonRolledUpMap = gaugeValueRepository.readGaugeValues(
+                    agentRollupId, entry.getValue(), entry.getKey(), revisedTo, lowestLevel);
+            for (Map.Entry<String, List<GaugeValue>> nonRolledUpEntry : nonRolledUpMap
+                    .entrySet()) {
+                String gaugeName = nonRolledUpEntry.getKey();
+                List<GaugeValue> gaugeValues =
+                        Lists.newArrayList(checkNotNull(updatedMap.get(gaugeName)));
+                gaugeValues.addAll(rollUpGaugeValues(nonRolledUpEntry.getValue(), gaugeName,
+                        new RollupCaptureTimeFn(fixedIntervalMillis)));
+                updatedMap.put(gaugeName, gaugeValues);
+            }
+        }
+        return updatedMap;
     }
 
     private <K> void syncManualRollupCaptureTimes(Map<K, List<GaugeValue>> map, int rollupLevel) {
@@ -279,18 +289,96 @@ class GaugeValueJsonService {
     }
 
     private static DataSeries convertToDataSeriesWithGaps(String dataSeriesName,
-            List<GaugeValue> gaugeValues, double gapMillis) {
+            List<GaugeValue> gaugeValues, double gapMillis, int maxDataPoints) {
         DataSeries dataSeries = new DataSeries(dataSeriesName);
+        boolean downsample = maxDataPoints > 0 && gaugeValues.size() > maxDataPoints;
+        boolean first = true;
+        // split into segments first so that downsampling does not affect where the gaps are
+        for (List<GaugeValue> segment : splitAtGaps(gaugeValues, gapMillis)) {
+            if (!first) {
+                dataSeries.addNull();
+            }
+            first = false;
+            if (downsample) {
+                // each segment gets its proportional share of the data points
+                int threshold = (int) Math
+                        .ceil(maxDataPoints * (double) segment.size() / gaugeValues.size());
+                segment = downsample(segment, threshold);
+            }
+            for (GaugeValue gaugeValue : segment) {
+                dataSeries.add(gaugeValue.getCaptureTime(), gaugeValue.getValue());
+            }
+        }
+        return dataSeries;
+    }
+
+    private static List<List<GaugeValue>> splitAtGaps(List<GaugeValue> gaugeValues,
+            double gapMillis) {
+        List<List<GaugeValue>> segments = Lists.newArrayList();
+        List<GaugeValue> segment = Lists.newArrayList();
         GaugeValue lastGaugeValue = null;
         for (GaugeValue gaugeValue : gaugeValues) {
             if (lastGaugeValue != null
                     && gaugeValue.getCaptureTime() - lastGaugeValue.getCaptureTime() > gapMillis) {
-                dataSeries.addNull();
+                segments.add(segment);
+                segment = Lists.newArrayList();
             }
-            dataSeries.add(gaugeValue.getCaptureTime(), gaugeValue.getValue());
+            segment.add(gaugeValue);
             lastGaugeValue = gaugeValue;
         }
-        return dataSeries;
+        if (!segment.isEmpty()) {
+            segments.add(segment);
+        }
+        return segments;
+    }
+
+    // largest-triangle-three-buckets, which (unlike simple averaging) preserves the visual shape
+    // of the series, including spikes, see https://skemman.is/handle/1946/15343
+    @VisibleForTesting
+    static List<GaugeValue> downsample(List<GaugeValue> gaugeValues, int threshold) {
+        int size = gaugeValues.size();
+        // first and last points are always retained, so need at least one bucket in between
+        int revisedThreshold = Math.max(threshold, 3);
+        if (revisedThreshold >= size) {
+            return gaugeValues;
+        }
+        List<GaugeValue> sampled = Lists.newArrayListWithCapacity(revisedThreshold);
+        double bucketSize = (double) (size - 2) / (revisedThreshold - 2);
+        GaugeValue pointA = gaugeValues.get(0);
+        sampled.add(pointA);
+        for (int i = 0; i < revisedThreshold - 2; i++) {
+            // average of the next bucket is used as the third point of the triangle
+            int nextBucketStart = (int) ((i + 1) * bucketSize) + 1;
+            int nextBucketEnd = Math.min((int) ((i + 2) * bucketSize) + 1, size);
+            double avgCaptureTime = 0;
+            double avgValue = 0;
+            for (int j = nextBucketStart; j < nextBucketEnd; j++) {
+                avgCaptureTime += gaugeValues.get(j).getCaptureTime();
+                avgValue += gaugeValues.get(j).getValue();
+            }
+            avgCaptureTime /= nextBucketEnd - nextBucketStart;
+            avgValue /= nextBucketEnd - nextBucketStart;
+
+            int bucketStart = (int) (i * bucketSize) + 1;
+            int bucketEnd = (int) ((i + 1) * bucketSize) + 1;
+            double maxArea = -1;
+            GaugeValue maxAreaPoint = gaugeValues.get(bucketStart);
+            for (int j = bucketStart; j < bucketEnd; j++) {
+                GaugeValue point = gaugeValues.get(j);
+                double area = Math.abs((pointA.getCaptureTime() - avgCaptureTime)
+                        * (point.getValue() - pointA.getValue())
+                        - (pointA.getCaptureTime() - point.getCaptureTime())
+                                * (avgValue - pointA.getValue()));
+                if (area > maxArea) {
+                    maxArea = area;
+                    maxAreaPoint = point;
+                }
+            }
+            sampled.add(maxAreaPoint);
+            pointA = maxAreaPoint;
+        }
+        sampled.add(gaugeValues.get(size - 1));
+        return sampled;
     }
 
     private static List<Gauge> addCounterSuffixesIfAndWhereNeeded(List<Gauge> gauges) {
@@ -320,11 +408,16 @@ class GaugeValueJsonService {
     }
 
     @Value.Immutable
-    interface GaugeValueRequest {
-        long from();
-        long to();
+    abstract static class GaugeValueRequest {
+        abstract long from();
+        abstract long to();
         // singular because this is used in query string
-        ImmutableList<String> gaugeName();
+        abstract ImmutableList<String> gaugeName();
+        // zero means no downsampling
+        @Value.Default
+        int maxDataPoints() {
+            return 0;
+        }
     }
 
     @Value.Immutable
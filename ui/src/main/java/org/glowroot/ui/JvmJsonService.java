@@ -312,7 +312,8 @@ class JvmJsonService {
         checkNotNull(liveJvmService);
         HeapHistogram heapHistogram;
         try {
-            heapHistogram = liveJvmService.heapHistogram(agentId);
+            // class name filtering and export are performed in the browser, so no limit here
+            heapHistogram = liveJvmService.heapHistogram(agentId, 0);
         } catch (AgentNotConnectedException e) {
             logger.debug(e.getMessage(), e);
             return "{\"agentNotConnected\":true}";
@@ -347,6 +348,11 @@ class JvmJsonService {
                 totalCount += classInfo.getCount();
             }
             jg.writeEndArray();
+            if (heapHistogram.getTotalBytes() != 0) {
+                // older agents do not send the totals
+                totalBytes = heapHistogram.getTotalBytes();
+                totalCount = heapHistogram.getTotalCount();
+            }
             jg.writeNumberField("totalBytes", totalBytes);
             jg.writeNumberField("totalCount", totalCount);
             jg.writeEndObject();
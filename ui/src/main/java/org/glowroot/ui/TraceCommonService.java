@@ -20,11 +20,13 @@ import java.text.SimpleDateFormat;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.TimeoutException;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonGenerator;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.PeekingIterator;
 import com.google.common.io.CharStreams;
@@ -37,11 +39,12 @@ import org.glowroot.common.live.LiveTraceRepository.Entries;
 import org.glowroot.common.live.LiveTraceRepository.EntriesAndQueries;
 import org.glowroot.common.live.LiveTraceRepository.Existence;
 import org.glowroot.common.live.LiveTraceRepository.Queries;
-import org.glowroot.common.model.MutableProfile;
 import org.glowroot.common.util.Styles;
 import org.glowroot.common2.repo.ConfigRepository;
 import org.glowroot.common2.repo.TraceRepository;
 import org.glowroot.common2.repo.TraceRepository.HeaderPlus;
+import org.glowroot.ui.ChunkSource.ChunkCopier;
+import org.glowroot.ui.ChunkSource.JsonStreamer;
 import org.glowroot.wire.api.model.AggregateOuterClass.Aggregate;
 import org.glowroot.wire.api.model.ProfileOuterClass.Profile;
 import org.glowroot.wire.api.model.Proto;
@@ -92,7 +95,7 @@ class TraceCommonService {
     // overwritten entries will return {"overwritten":true}
     // expired (not found) trace will return {"expired":true}
     @Nullable
-    String getEntriesJson(String agentId, String traceId, boolean checkLiveTraces)
+    ChunkSource getEntriesJson(String agentId, String traceId, boolean checkLiveTraces)
             throws Exception {
         if (checkLiveTraces) {
             // check active/pending traces first, and lastly stored traces to make sure that the
@@ -112,11 +115,49 @@ class TraceCommonService {
         return toJson(getStoredEntries(agentId, traceId, new RetryCountdown(checkLiveTraces)));
     }
 
+    // returns at most limit entries starting at entry index fromIndex
+    //
+    // entries are returned as a flat list (each entry including its depth) since a page can start
+    // and end in the middle of a subtree
+    @Nullable
+    ChunkSource getEntryPageJson(String agentId, String traceId, boolean checkLiveTraces,
+            int fromIndex, int limit) throws Exception {
+        // one extra entry is read in order to determine whether the last entry of the page has
+        // child entries, and whether there are more pages
+        int limitPlusOne = limit == Integer.MAX_VALUE ? limit : limit + 1;
+        if (checkLiveTraces) {
+            // check active/pending traces first, and lastly stored traces to make sure that the
+            // trace is not missed if it is in transition between these states
+            Entries entries;
+            try {
+                entries = liveTraceRepository.getEntries(agentId, traceId, fromIndex,
+                        limitPlusOne);
+            } catch (AgentNotConnectedException e) {
+                entries = null;
+            } catch (TimeoutException e) {
+                entries = null;
+            }
+            if (entries != null) {
+                // shared query texts of a live trace grow as the trace progresses, so they are
+                // returned with every page
+                return toJsonPage(entries.entries(), entries.sharedQueryTexts(), true, limit);
+            }
+        }
+        Entries entries = getStoredEntryPage(agentId, traceId, fromIndex, limitPlusOne,
+                new RetryCountdown(checkLiveTraces));
+        if (entries == null) {
+            return null;
+        }
+        // shared query texts of a stored trace are only needed once, since they are indexed
+        // across the whole trace
+        return toJsonPage(entries.entries(), entries.sharedQueryTexts(), fromIndex == 0, limit);
+    }
+
     // TODO this comment is no longer valid?
     // overwritten entries will return {"overwritten":true}
     // expired (not found) trace will return {"expired":true}
     @Nullable
-    String getQueriesJson(String agentId, String traceId, boolean checkLiveTraces)
+    ChunkSource getQueriesJson(String agentId, String traceId, boolean checkLiveTraces)
             throws Exception {
         if (checkLiveTraces) {
             // check active/pending traces first, and lastly stored traces to make sure that the
@@ -139,7 +180,7 @@ class TraceCommonService {
     // overwritten profile will return {"overwritten":true}
     // expired (not found) trace will return {"expired":true}
     @Nullable
-    String getMainThreadProfileJson(String agentId, String traceId, boolean checkLiveTraces)
+    ChunkSource getMainThreadProfileJson(String agentId, String traceId, boolean checkLiveTraces)
             throws Exception {
         if (checkLiveTraces) {
             // check active/pending traces first, and lastly stored traces to make sure that the
@@ -163,7 +204,7 @@ class TraceCommonService {
     // overwritten profile will return {"overwritten":true}
     // expired (not found) trace will return {"expired":true}
     @Nullable
-    String getAuxThreadProfileJson(String agentId, String traceId, boolean checkLiveTraces)
+    ChunkSource getAuxThreadProfileJson(String agentId, String traceId, boolean checkLiveTraces)
             throws Exception {
         if (checkLiveTraces) {
             // check active/pending traces first, and lastly stored traces to make sure that the
@@ -203,12 +244,12 @@ class TraceCommonService {
                 return ImmutableTraceExport.builder()
                         .fileName(getFileName(header))
                         .headerJson(toJsonLiveHeader(agentId, header))
-                        .entriesJson(entriesToJson(trace.getEntryList()))
-                        .queriesJson(queriesToJson(trace.getQueryList()))
+                        .entriesJson(toJsonEntries(trace.getEntryList()))
+                        .queriesJson(toJsonQueries(trace.getQueryList()))
                         // SharedQueryTexts are always returned from getFullTrace() above with
                         // fullTrace, so no need to resolve fullTraceSha1
                         .sharedQueryTextsJson(
-                                sharedQueryTextsToJson(trace.getSharedQueryTextList()))
+                                toJsonSharedQueryTexts(trace.getSharedQueryTextList()))
                         .mainThreadProfileJson(toJson(trace.getMainThreadProfile()))
                         .auxThreadProfileJson(toJson(trace.getAuxThreadProfile()))
                         .build();
@@ -225,12 +266,12 @@ class TraceCommonService {
         EntriesAndQueries queriesAndEntries =
                 getStoredEntriesAndQueriesForExport(agentId, traceId, retryCountdown);
         if (queriesAndEntries != null) {
-            builder.entriesJson(entriesToJson(queriesAndEntries.entries()));
-            builder.queriesJson(queriesToJson(queriesAndEntries.queries()));
+            builder.entriesJson(toJsonEntries(queriesAndEntries.entries()));
+            builder.queriesJson(toJsonQueries(queriesAndEntries.queries()));
             // SharedQueryTexts are always returned from getStoredEntries() above with fullTrace,
             // so no need to resolve fullTraceSha1
             builder.sharedQueryTextsJson(
-                    sharedQueryTextsToJson(queriesAndEntries.sharedQueryTexts()));
+                    toJsonSharedQueryTexts(queriesAndEntries.sharedQueryTexts()));
         }
         builder.mainThreadProfileJson(
                 toJson(getStoredMainThreadProfile(agentId, traceId, retryCountdown)));
@@ -261,6 +302,17 @@ class TraceCommonService {
         return entries;
     }
 
+    private @Nullable Entries getStoredEntryPage(String agentId, String traceId, int fromIndex,
+            int limit, RetryCountdown retryCountdown) throws Exception {
+        Entries entries = traceRepository.readEntries(agentId, traceId, fromIndex, limit);
+        while (entries == null && retryCountdown.remaining-- > 0) {
+            // trace may be completed, but still in transit from agent to the central collector
+            MILLISECONDS.sleep(500);
+            entries = traceRepository.readEntries(agentId, traceId, fromIndex, limit);
+        }
+        return entries;
+    }
+
     private @Nullable Queries getStoredQueries(String agentId, String traceId,
             RetryCountdown retryCountdown) throws Exception {
         Queries queries = traceRepository.readQueries(agentId, traceId);
@@ -306,153 +358,94 @@ class TraceCommonService {
         return profile;
     }
 
-    private static @Nullable String toJson(@Nullable Entries entries) throws IOException {
+    private static @Nullable ChunkSource toJson(@Nullable Entries entries) {
         if (entries == null) {
             return null;
         }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = jsonFactory.createGenerator(CharStreams.asWriter(sb));
-        try {
-            jg.writeStartObject();
-            jg.writeFieldName("entries");
-            writeEntries(jg, entries.entries());
-            jg.writeFieldName("sharedQueryTexts");
-            writeSharedQueryTexts(jg, entries.sharedQueryTexts());
-            jg.writeEndObject();
-        } finally {
-            jg.close();
+        return ChunkSource.json(new ObjectStreamer(ImmutableMap.<String, JsonStreamer>of(
+                "entries", new EntriesStreamer(entries.entries()),
+                "sharedQueryTexts", new SharedQueryTextsStreamer(entries.sharedQueryTexts()))));
+    }
+
+    // entries may include one extra entry beyond limit
+    private static ChunkSource toJsonPage(List<Trace.Entry> entries,
+            List<Trace.SharedQueryText> sharedQueryTexts, boolean includeSharedQueryTexts,
+            int limit) {
+        ImmutableMap.Builder<String, JsonStreamer> fields = ImmutableMap.builder();
+        fields.put("entries", new EntryPageStreamer(entries, limit));
+        if (includeSharedQueryTexts) {
+            fields.put("sharedQueryTexts", new SharedQueryTextsStreamer(sharedQueryTexts));
         }
-        return sb.toString();
+        fields.put("hasMore", new BooleanStreamer(entries.size() > limit));
+        return ChunkSource.json(new ObjectStreamer(fields.build()));
     }
 
-    private static @Nullable String toJson(@Nullable Queries queries) throws IOException {
+    private static @Nullable ChunkSource toJson(@Nullable Queries queries) {
         if (queries == null) {
             return null;
         }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = jsonFactory.createGenerator(CharStreams.asWriter(sb));
-        try {
-            jg.writeStartObject();
-            jg.writeFieldName("queries");
-            writeQueries(jg, queries.queries());
-            jg.writeFieldName("sharedQueryTexts");
-            writeSharedQueryTexts(jg, queries.sharedQueryTexts());
-            jg.writeEndObject();
-        } finally {
-            jg.close();
-        }
-        return sb.toString();
+        return ChunkSource.json(new ObjectStreamer(ImmutableMap.<String, JsonStreamer>of(
+                "queries", new QueriesStreamer(queries.queries()),
+                "sharedQueryTexts", new SharedQueryTextsStreamer(queries.sharedQueryTexts()))));
     }
 
-    @VisibleForTesting
-    static @Nullable String entriesToJson(List<Trace.Entry> entries) throws IOException {
+    private static @Nullable ChunkSource toJsonEntries(List<Trace.Entry> entries) {
         if (entries.isEmpty()) {
             return null;
         }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = jsonFactory.createGenerator(CharStreams.asWriter(sb));
-        try {
-            writeEntries(jg, entries);
-        } finally {
-            jg.close();
-        }
-        return sb.toString();
+        return ChunkSource.json(new EntriesStreamer(entries));
     }
 
-    @VisibleForTesting
-    static @Nullable String queriesToJson(List<Aggregate.Query> queries) throws IOException {
+    private static @Nullable ChunkSource toJsonQueries(List<Aggregate.Query> queries) {
         if (queries.isEmpty()) {
             return null;
         }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = jsonFactory.createGenerator(CharStreams.asWriter(sb));
-        try {
-            writeQueries(jg, queries);
-        } finally {
-            jg.close();
-        }
-        return sb.toString();
+        return ChunkSource.json(new QueriesStreamer(queries));
     }
 
-    private static @Nullable String sharedQueryTextsToJson(
-            List<Trace.SharedQueryText> sharedQueryTexts) throws IOException {
+    private static @Nullable ChunkSource toJsonSharedQueryTexts(
+            List<Trace.SharedQueryText> sharedQueryTexts) {
         if (sharedQueryTexts.isEmpty()) {
             return null;
         }
-        StringBuilder sb = new StringBuilder();
-        JsonGenerator jg = jsonFactory.createGenerator(CharStreams.asWriter(sb));
-        try {
-            writeSharedQueryTexts(jg, sharedQueryTexts);
-        } finally {
-            jg.close();
-        }
-        return sb.toString();
+        return ChunkSource.json(new SharedQueryTextsStreamer(sharedQueryTexts));
     }
 
-    private static void writeEntries(JsonGenerator jg, List<Trace.Entry> entries)
-            throws IOException {
-        jg.writeStartArray();
-        PeekingIterator<Trace.Entry> i = Iterators.peekingIterator(entries.iterator());
-        while (i.hasNext()) {
-            Trace.Entry entry = i.next();
-            int depth = entry.getDepth();
-            jg.writeStartObject();
-            writeJson(entry, jg);
-            int nextDepth = i.hasNext() ? i.peek().getDepth() : 0;
-            if (nextDepth > depth) {
-                jg.writeArrayFieldStart("childEntries");
-            } else if (nextDepth < depth) {
-                jg.writeEndObject();
-                for (int j = depth; j > nextDepth; j--) {
-                    jg.writeEndArray();
-                    jg.writeEndObject();
-                }
-            } else {
-                jg.writeEndObject();
-            }
+    private static @Nullable ChunkSource toJson(@Nullable Profile profile) {
+        if (profile == null) {
+            return null;
         }
-        jg.writeEndArray();
+        return ChunkSource.json(new ProfileStreamer(profile));
     }
 
-    private static void writeQueries(JsonGenerator jg, List<Aggregate.Query> queries)
-            throws IOException {
-        jg.writeStartArray();
-        Iterator<Aggregate.Query> i = queries.iterator();
-        while (i.hasNext()) {
-            Aggregate.Query query = i.next();
-            jg.writeStartObject();
-            writeJson(query, jg);
-            jg.writeEndObject();
+    @VisibleForTesting
+    static @Nullable String entriesToJson(List<Trace.Entry> entries) throws IOException {
+        ChunkSource chunkSource = toJsonEntries(entries);
+        if (chunkSource == null) {
+            return null;
         }
-        jg.writeEndArray();
-    }
-
-    private static void writeSharedQueryTexts(JsonGenerator jg,
-            List<Trace.SharedQueryText> sharedQueryTexts) throws IOException {
-        jg.writeStartArray();
-        for (Trace.SharedQueryText sharedQueryText : sharedQueryTexts) {
-            jg.writeStartObject();
-            String fullText = sharedQueryText.getFullText();
-            if (fullText.isEmpty()) {
-                // truncatedText, truncatedEndText and fullTextSha1 are all provided in this case
-                jg.writeStringField("truncatedText", sharedQueryText.getTruncatedText());
-                jg.writeStringField("truncatedEndText", sharedQueryText.getTruncatedEndText());
-                jg.writeStringField("fullTextSha1", sharedQueryText.getFullTextSha1());
-            } else {
-                jg.writeStringField("fullText", fullText);
-            }
-            jg.writeEndObject();
+        StringBuilder sb = new StringBuilder();
+        ChunkCopier chunkCopier = chunkSource.getCopier(CharStreams.asWriter(sb));
+        boolean more = true;
+        while (more) {
+            more = chunkCopier.copyNext();
         }
-        jg.writeEndArray();
+        return sb.toString();
     }
 
-    private static @Nullable String toJson(@Nullable Profile profile) throws IOException {
-        if (profile == null) {
-            return null;
+    private static void writeJson(Trace.SharedQueryText sharedQueryText, JsonGenerator jg)
+            throws IOException {
+        jg.writeStartObject();
+        String fullText = sharedQueryText.getFullText();
+        if (fullText.isEmpty()) {
+            // truncatedText, truncatedEndText and fullTextSha1 are all provided in this case
+            jg.writeStringField("truncatedText", sharedQueryText.getTruncatedText());
+            jg.writeStringField("truncatedEndText", sharedQueryText.getTruncatedEndText());
+            jg.writeStringField("fullTextSha1", sharedQueryText.getFullTextSha1());
+        } else {
+            jg.writeStringField("fullText", fullText);
         }
-        MutableProfile mutableProfile = new MutableProfile();
-        mutableProfile.merge(profile);
-        return mutableProfile.toJson();
+        jg.writeEndObject();
     }
 
     private String toJsonLiveHeader(String agentId, Trace.Header header) throws Exception {
@@ -490,6 +483,10 @@ class TraceCommonService {
             if (async) {
                 jg.writeBooleanField("async", async);
             }
+            boolean unsampled = header.getUnsampled();
+            if (unsampled) {
+                jg.writeBooleanField("unsampled", unsampled);
+            }
             jg.writeNumberField("startTime", header.getStartTime());
             jg.writeNumberField("captureTime", header.getCaptureTime());
             jg.writeNumberField("durationNanos", header.getDurationNanos());
@@ -774,20 +771,326 @@ class TraceCommonService {
         }
     }
 
+    // writes one array element per step, using the element depths to nest child elements
+    private abstract static class FlatTreeStreamer<T> implements JsonStreamer {
+
+        private final PeekingIterator<T> i;
+
+        private boolean started;
+        private boolean ended;
+
+        private FlatTreeStreamer(List<T> elements) {
+            i = Iterators.peekingIterator(elements.iterator());
+        }
+
+        @Override
+        public boolean writeNext(JsonGenerator jg) throws IOException {
+            if (!started) {
+                writeStart(jg);
+                started = true;
+                return true;
+            }
+            if (i.hasNext()) {
+                T element = i.next();
+                int depth = getDepth(element);
+                jg.writeStartObject();
+                writeFields(element, jg);
+                int nextDepth = i.hasNext() ? getDepth(i.peek()) : 0;
+                if (nextDepth > depth) {
+                    jg.writeArrayFieldStart(getChildrenFieldName());
+                } else if (nextDepth < depth) {
+                    jg.writeEndObject();
+                    for (int j = depth; j > nextDepth; j--) {
+                        jg.writeEndArray();
+                        jg.writeEndObject();
+                    }
+                } else {
+                    jg.writeEndObject();
+                }
+                return true;
+            }
+            if (!ended) {
+                writeEnd(jg);
+                ended = true;
+                return true;
+            }
+            return false;
+        }
+
+        void writeStart(JsonGenerator jg) throws IOException {
+            jg.writeStartArray();
+        }
+
+        void writeEnd(JsonGenerator jg) throws IOException {
+            jg.writeEndArray();
+        }
+
+        abstract int getDepth(T element);
+
+        abstract String getChildrenFieldName();
+
+        abstract void writeFields(T element, JsonGenerator jg) throws IOException;
+    }
+
+    private static class EntriesStreamer extends FlatTreeStreamer<Trace.Entry> {
+
+        private EntriesStreamer(List<Trace.Entry> entries) {
+            super(entries);
+        }
+
+        @Override
+        int getDepth(Trace.Entry entry) {
+            return entry.getDepth();
+        }
+
+        @Override
+        String getChildrenFieldName() {
+            return "childEntries";
+        }
+
+        @Override
+        void writeFields(Trace.Entry entry, JsonGenerator jg) throws IOException {
+            writeJson(entry, jg);
+        }
+    }
+
+    private static class ProfileStreamer extends FlatTreeStreamer<Profile.ProfileNode> {
+
+        private final Profile profile;
+
+        private ProfileStreamer(Profile profile) {
+            super(profile.getNodeList());
+            this.profile = profile;
+        }
+
+        @Override
+        void writeStart(JsonGenerator jg) throws IOException {
+            long unfilteredSampleCount = 0;
+            for (Profile.ProfileNode node : profile.getNodeList()) {
+                if (node.getDepth() == 0) {
+                    unfilteredSampleCount += node.getSampleCount();
+                }
+            }
+            jg.writeStartObject();
+            jg.writeNumberField("unfilteredSampleCount", unfilteredSampleCount);
+            jg.writeArrayFieldStart("rootNodes");
+        }
+
+        @Override
+        void writeEnd(JsonGenerator jg) throws IOException {
+            jg.writeEndArray();
+            jg.writeEndObject();
+        }
+
+        @Override
+        int getDepth(Profile.ProfileNode node) {
+            return node.getDepth();
+        }
+
+        @Override
+        String getChildrenFieldName() {
+            return "childNodes";
+        }
+
+        // this matches the json written by MutableProfile, which is not used here in order to
+        // avoid building the full profile tree in memory
+        @Override
+        void writeFields(Profile.ProfileNode node, JsonGenerator jg) throws IOException {
+            String packageName = profile.getPackageName(node.getPackageNameIndex());
+            String className = profile.getClassName(node.getClassNameIndex());
+            String fullClassName;
+            if (packageName.isEmpty()) {
+                fullClassName = className;
+            } else {
+                fullClassName = packageName + '.' + className;
+            }
+            jg.writeStringField("stackTraceElement", new StackTraceElement(fullClassName,
+                    profile.getMethodName(node.getMethodNameIndex()),
+                    profile.getFileName(node.getFileNameIndex()), node.getLineNumber())
+                            .toString());
+            Profile.LeafThreadState leafThreadState = node.getLeafThreadState();
+            if (leafThreadState != Profile.LeafThreadState.NONE) {
+                jg.writeStringField("leafThreadState", leafThreadState.name());
+            }
+            jg.writeNumberField("sampleCount", node.getSampleCount());
+        }
+    }
+
+    private static class EntryPageStreamer implements JsonStreamer {
+
+        private final List<Trace.Entry> entries;
+        private final int pageSize;
+
+        private int index = -1;
+        private boolean ended;
+
+        private EntryPageStreamer(List<Trace.Entry> entries, int limit) {
+            this.entries = entries;
+            pageSize = Math.min(entries.size(), limit);
+        }
+
+        @Override
+        public boolean writeNext(JsonGenerator jg) throws IOException {
+            if (index == -1) {
+                jg.writeStartArray();
+                index = 0;
+                return true;
+            }
+            if (index < pageSize) {
+                Trace.Entry entry = entries.get(index++);
+                jg.writeStartObject();
+                jg.writeNumberField("depth", entry.getDepth());
+                // the next entry may be the extra entry beyond the page
+                if (index < entries.size() && entries.get(index).getDepth() > entry.getDepth()) {
+                    jg.writeBooleanField("hasChildEntries", true);
+                }
+                writeJson(entry, jg);
+                jg.writeEndObject();
+                return true;
+            }
+            if (!ended) {
+                jg.writeEndArray();
+                ended = true;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    // writes one array element per step
+    private abstract static class ArrayStreamer<T> implements JsonStreamer {
+
+        private final Iterator<T> i;
+
+        private boolean started;
+        private boolean ended;
+
+        private ArrayStreamer(List<T> elements) {
+            i = elements.iterator();
+        }
+
+        @Override
+        public boolean writeNext(JsonGenerator jg) throws IOException {
+            if (!started) {
+                jg.writeStartArray();
+                started = true;
+                return true;
+            }
+            if (i.hasNext()) {
+                writeElement(i.next(), jg);
+                return true;
+            }
+            if (!ended) {
+                jg.writeEndArray();
+                ended = true;
+                return true;
+            }
+            return false;
+        }
+
+        abstract void writeElement(T element, JsonGenerator jg) throws IOException;
+    }
+
+    private static class QueriesStreamer extends ArrayStreamer<Aggregate.Query> {
+
+        private QueriesStreamer(List<Aggregate.Query> queries) {
+            super(queries);
+        }
+
+        @Override
+        void writeElement(Aggregate.Query query, JsonGenerator jg) throws IOException {
+            jg.writeStartObject();
+            writeJson(query, jg);
+            jg.writeEndObject();
+        }
+    }
+
+    private static class SharedQueryTextsStreamer extends ArrayStreamer<Trace.SharedQueryText> {
+
+        private SharedQueryTextsStreamer(List<Trace.SharedQueryText> sharedQueryTexts) {
+            super(sharedQueryTexts);
+        }
+
+        @Override
+        void writeElement(Trace.SharedQueryText sharedQueryText, JsonGenerator jg)
+                throws IOException {
+            writeJson(sharedQueryText, jg);
+        }
+    }
+
+    private static class BooleanStreamer implements JsonStreamer {
+
+        private final boolean value;
+
+        private boolean written;
+
+        private BooleanStreamer(boolean value) {
+            this.value = value;
+        }
+
+        @Override
+        public boolean writeNext(JsonGenerator jg) throws IOException {
+            if (written) {
+                return false;
+            }
+            jg.writeBoolean(value);
+            written = true;
+            return true;
+        }
+    }
+
+    private static class ObjectStreamer implements JsonStreamer {
+
+        private final Iterator<Map.Entry<String, JsonStreamer>> fields;
+
+        private @Nullable JsonStreamer currFieldStreamer;
+        private boolean started;
+        private boolean ended;
+
+        private ObjectStreamer(Map<String, JsonStreamer> fields) {
+            this.fields = fields.entrySet().iterator();
+        }
+
+        @Override
+        public boolean writeNext(JsonGenerator jg) throws IOException {
+            if (!started) {
+                jg.writeStartObject();
+                started = true;
+                return true;
+            }
+            JsonStreamer fieldStreamer = currFieldStreamer;
+            if (fieldStreamer != null && fieldStreamer.writeNext(jg)) {
+                return true;
+            }
+            if (fields.hasNext()) {
+                Map.Entry<String, JsonStreamer> field = fields.next();
+                jg.writeFieldName(field.getKey());
+                currFieldStreamer = field.getValue();
+                return true;
+            }
+            if (!ended) {
+                jg.writeEndObject();
+                ended = true;
+                return true;
+            }
+            return false;
+        }
+    }
+
     @Value.Immutable
     @Styles.AllParameters
     interface TraceExport {
         String fileName();
         String headerJson();
         @Nullable
-        String entriesJson();
+        ChunkSource entriesJson();
         @Nullable
-        String queriesJson();
+        ChunkSource queriesJson();
         @Nullable
-        String sharedQueryTextsJson();
+        ChunkSource sharedQueryTextsJson();
         @Nullable
-        String mainThreadProfileJson();
+        ChunkSource mainThreadProfileJson();
         @Nullable
-        String auxThreadProfileJson();
+        ChunkSource auxThreadProfileJson();
     }
 }
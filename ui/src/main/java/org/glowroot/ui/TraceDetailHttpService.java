@@ -27,6 +27,7 @@ import org.glowroot.ui.CommonHandler.CommonResponse;
 import org.glowroot.ui.HttpSessionManager.Authentication;
 
 import static com.google.common.base.Preconditions.checkState;
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
 import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
 import static io.netty.handler.codec.http.HttpResponseStatus.OK;
 
@@ -65,52 +66,63 @@ class TraceDetailHttpService implements HttpService {
         logger.debug("handleRequest(): traceComponent={}, agentId={}, traceId={},"
                 + " checkLiveTraces={}", traceComponent, agentId, traceId, checkLiveTraces);
 
-        ChunkSource detail =
-                getDetailChunkSource(traceComponent, agentId, traceId, checkLiveTraces);
+        ChunkSource detail;
+        try {
+            detail = getDetailChunkSource(request, traceComponent, agentId, traceId,
+                    checkLiveTraces);
+        } catch (JsonServiceException e) {
+            // this is an "expected" exception (e.g. invalid paging parameters), no need to log
+            logger.debug(e.getMessage(), e);
+            return new CommonResponse(e.getStatus());
+        }
         if (detail == null) {
             return new CommonResponse(NOT_FOUND);
         }
         return new CommonResponse(OK, MediaType.JSON_UTF_8, detail);
     }
 
-    private @Nullable ChunkSource getDetailChunkSource(String traceComponent, String agentId,
-            String traceId, boolean checkLiveTraces) throws Exception {
+    private @Nullable ChunkSource getDetailChunkSource(CommonRequest request,
+            String traceComponent, String agentId, String traceId, boolean checkLiveTraces)
+            throws Exception {
         if (traceComponent.equals("entries")) {
-            String entriesJson =
-                    traceCommonService.getEntriesJson(agentId, traceId, checkLiveTraces);
-            if (entriesJson == null) {
-                // this includes trace was found but the trace had no entries
-                // caller should check trace.entry_count
-                return null;
+            List<String> limitParams = request.getParameters("limit");
+            if (!limitParams.isEmpty()) {
+                List<String> fromIndexParams = request.getParameters("from-index");
+                int fromIndex = fromIndexParams.isEmpty() ? 0
+                        : parseIntParam("from-index", fromIndexParams.get(0), 0);
+                int limit = parseIntParam("limit", limitParams.get(0), 1);
+                return traceCommonService.getEntryPageJson(agentId, traceId, checkLiveTraces,
+                        fromIndex, limit);
             }
-            return ChunkSource.wrap(entriesJson);
+            // null includes trace was found but the trace had no entries
+            // caller should check trace.entry_count
+            return traceCommonService.getEntriesJson(agentId, traceId, checkLiveTraces);
         }
         if (traceComponent.equals("queries")) {
-            String queriesJson =
-                    traceCommonService.getQueriesJson(agentId, traceId, checkLiveTraces);
-            if (queriesJson == null) {
-                // this includes trace was found but the trace had no queries
-                // caller should check trace.query_count
-                return null;
-            }
-            return ChunkSource.wrap(queriesJson);
+            // null includes trace was found but the trace had no queries
+            // caller should check trace.query_count
+            return traceCommonService.getQueriesJson(agentId, traceId, checkLiveTraces);
         }
         if (traceComponent.equals("main-thread-profile")) {
-            String profileJson =
-                    traceCommonService.getMainThreadProfileJson(agentId, traceId, checkLiveTraces);
-            if (profileJson == null) {
-                return null;
-            }
-            return ChunkSource.wrap(profileJson);
+            return traceCommonService.getMainThreadProfileJson(agentId, traceId, checkLiveTraces);
         }
         if (traceComponent.equals("aux-thread-profile")) {
-            String profileJson =
-                    traceCommonService.getAuxThreadProfileJson(agentId, traceId, checkLiveTraces);
-            if (profileJson == null) {
-                return null;
-            }
-            return ChunkSource.wrap(profileJson);
+            return traceCommonService.getAuxThreadProfileJson(agentId, traceId, checkLiveTraces);
         }
         throw new IllegalStateException("Unexpected trace component: " + traceComponent);
     }
+
+    private static int parseIntParam(String name, String value, int minValue) {
+        int intValue;
+        try {
+            intValue = Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new JsonServiceException(BAD_REQUEST, e);
+        }
+        if (intValue < minValue) {
+            throw new JsonServiceException(BAD_REQUEST,
+                    name + " query parameter must be at least " + minValue);
+        }
+        return intValue;
+    }
 }
@@ -135,41 +135,41 @@ class TraceExportHttpService implements HttpService {
             } else if (match.equals(entriesPlaceholder)) {
                 chunkSources
                         .add(ChunkSource.wrap("<script type=\"text/json\" id=\"entriesJson\">"));
-                String entriesJson = traceExport.entriesJson();
+                ChunkSource entriesJson = traceExport.entriesJson();
                 if (entriesJson != null) {
-                    chunkSources.add(ChunkSource.wrap(entriesJson));
+                    chunkSources.add(entriesJson);
                 }
                 chunkSources.add(ChunkSource.wrap("</script>"));
             } else if (match.equals(queriesPlaceholder)) {
                 chunkSources
                         .add(ChunkSource.wrap("<script type=\"text/json\" id=\"queriesJson\">"));
-                String queriesJson = traceExport.queriesJson();
+                ChunkSource queriesJson = traceExport.queriesJson();
                 if (queriesJson != null) {
-                    chunkSources.add(ChunkSource.wrap(queriesJson));
+                    chunkSources.add(queriesJson);
                 }
                 chunkSources.add(ChunkSource.wrap("</script>"));
             } else if (match.equals(sharedQueryTextsPlaceholder)) {
                 chunkSources.add(ChunkSource
                         .wrap("<script type=\"text/json\" id=\"sharedQueryTextsJson\">"));
-                String sharedQueryTextsJson = traceExport.sharedQueryTextsJson();
+                ChunkSource sharedQueryTextsJson = traceExport.sharedQueryTextsJson();
                 if (sharedQueryTextsJson != null) {
-                    chunkSources.add(ChunkSource.wrap(sharedQueryTextsJson));
+                    chunkSources.add(sharedQueryTextsJson);
                 }
                 chunkSources.add(ChunkSource.wrap("</script>"));
             } else if (match.equals(mainThreadProfilePlaceholder)) {
                 chunkSources.add(ChunkSource
                         .wrap("<script type=\"text/json\" id=\"mainThreadProfileJson\">"));
-                String mainThreadProfileJson = traceExport.mainThreadProfileJson();
+                ChunkSource mainThreadProfileJson = traceExport.mainThreadProfileJson();
                 if (mainThreadProfileJson != null) {
-                    chunkSources.add(ChunkSource.wrap(mainThreadProfileJson));
+                    chunkSources.add(mainThreadProfileJson);
                 }
                 chunkSources.add(ChunkSource.wrap("</script>"));
             } else if (match.equals(auxThreadProfilePlaceholder)) {
                 chunkSources.add(ChunkSource
                         .wrap("<script type=\"text/json\" id=\"auxThreadProfileJson\">"));
-                String auxThreadProfileJson = traceExport.auxThreadProfileJson();
+                ChunkSource auxThreadProfileJson = traceExport.auxThreadProfileJson();
                 if (auxThreadProfileJson != null) {
-                    chunkSources.add(ChunkSource.wrap(auxThreadProfileJson));
+                    chunkSources.add(auxThreadProfileJson);
                 }
                 chunkSources.add(ChunkSource.wrap("</script>"));
             } else if (match.equals(footerMessagePlaceholder)) {
@@ -435,6 +435,8 @@ class TransactionCommonService {
                     .addTotalDurationNanos(nonRolledUpOverviewAggregate.totalDurationNanos());
             currMergedAggregate
                     .addTransactionCount(nonRolledUpOverviewAggregate.transactionCount());
+            currMergedAggregate.addUnsampledTransactionCount(
+                    nonRolledUpOverviewAggregate.unsampledTransactionCount());
             currMergedAggregate
                     .mergeMainThreadRootTimers(nonRolledUpOverviewAggregate.mainThreadRootTimers());
             currMergedAggregate
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.glowroot.ui;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import org.glowroot.wire.api.model.CollectorServiceOuterClass.GaugeValueMessage.GaugeValue;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GaugeValueJsonServiceTest {
+
+    @Test
+    public void shouldNotDownsampleWhenUnderThreshold() {
+        // given
+        List<GaugeValue> gaugeValues = createGaugeValues(10, -1);
+        // when
+        List<GaugeValue> downsampled = GaugeValueJsonService.downsample(gaugeValues, 10);
+        // then
+        assertThat(downsampled).isEqualTo(gaugeValues);
+    }
+
+    @Test
+    public void shouldDownsample() {
+        // given
+        List<GaugeValue> gaugeValues = createGaugeValues(1000, -1);
+        // when
+        List<GaugeValue> downsampled = GaugeValueJsonService.downsample(gaugeValues, 100);
+        // then
+        assertThat(downsampled).hasSize(100);
+        assertThat(downsampled.get(0)).isEqualTo(gaugeValues.get(0));
+        assertThat(downsampled.get(99)).isEqualTo(gaugeValues.get(999));
+        long lastCaptureTime = Long.MIN_VALUE;
+        for (GaugeValue gaugeValue : downsampled) {
+            assertThat(gaugeValue.getCaptureTime()).isGreaterThan(lastCaptureTime);
+            lastCaptureTime = gaugeValue.getCaptureTime();
+        }
+    }
+
+    @Test
+    public void shouldRetainSpikeWhenDownsampling() {
+        // given
+        List<GaugeValue> gaugeValues = createGaugeValues(1000, 567);
+        // when
+        List<GaugeValue> downsampled = GaugeValueJsonService.downsample(gaugeValues, 50);
+        // then
+        assertThat(downsampled).contains(gaugeValues.get(567));
+    }
+
+    private static List<GaugeValue> createGaugeValues(int count, int spikeIndex) {
+        List<GaugeValue> gaugeValues = Lists.newArrayList();
+        for (int i = 0; i < count; i++) {
+            gaugeValues.add(GaugeValue.newBuilder()
+                    .setCaptureTime(1500000000000L + 5000L * i)
+                    .setValue(i == spikeIndex ? 1000 : 10 + i % 3)
+                    .setWeight(1)
+                    .build());
+        }
+        return gaugeValues;
+    }
+}